@@ -0,0 +1,86 @@
+# Heap workload used by AllocBench. Gets a table of 8 block pointers and a
+# total from SBRK, then 20000 times frees the block in slot (i mod 8) and
+# mallocs a new one of 1..37 words for it, storing i in its first word.
+# Before a block is freed the number stored in it is added to the total,
+# which is printed at the end: 20000 * 20001 / 2 - 36 = 200009964 if no
+# malloc failed and no block was overwritten.
+
+SET R4 9
+PUSH R4
+SET R4 22       # SBRK
+PUSH R4
+TRAP
+POP R0          # R0 = table (zeroed), R0 + 8 = total
+SET R1 20000    # iterations remaining
+SET R2 0        # size seed
+
+:loop
+SET R4 8        # R3 = address of slot (R1 mod 8)
+DIV R3 R1 R4
+MUL R3 R3 R4
+SUB R3 R1 R3
+ADD R3 R3 R0
+
+LOAD R4 R3      # R4 = old block, or 0 or an error code
+PUSH R2         # save the seed
+SET R2 0
+BLT R2 R4 old
+BRANCH new
+:old
+LOAD R2 R4      # R2 = number stored in the old block
+PUSH R4         # argument for FREE
+PUSH R3         # save the slot
+SET R4 8
+ADD R4 R0 R4
+LOAD R3 R4
+ADD R3 R3 R2
+SAVE R3 R4      # total += R2
+POP R3
+SET R4 24       # FREE
+PUSH R4
+TRAP
+POP R4          # discard status
+
+:new
+POP R2          # seed = (seed * 13 + 5) mod 37
+SET R4 13
+MUL R2 R2 R4
+SET R4 5
+ADD R2 R2 R4
+PUSH R3
+SET R4 37
+DIV R3 R2 R4
+MUL R3 R3 R4
+SUB R2 R2 R3
+POP R3
+SET R4 1        # size = seed + 1
+ADD R4 R2 R4
+PUSH R4
+SET R4 23       # MALLOC
+PUSH R4
+TRAP
+POP R4          # R4 = new block or NOMEM
+SAVE R4 R3
+PUSH R2
+SET R2 0
+BLT R4 R2 failed
+SAVE R1 R4      # block[0] = R1
+:failed
+POP R2
+
+SET R4 1
+SUB R1 R1 R4
+SET R4 0
+BNE R1 R4 loop
+
+SET R4 8        # output the total
+ADD R4 R0 R4
+LOAD R4 R4
+PUSH R4
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
+
+SET R4 0        # EXIT
+PUSH R4
+TRAP
@@ -0,0 +1,31 @@
+# Shared counter incremented with compare-and-swap (see SyncBench). Each
+# process adds 1000 to the word in shared segment 1 and then outputs the
+# counter, so the last process to finish prints the total.
+
+SET R4 1        # SHMAT key 1, 1 word
+PUSH R4
+PUSH R4
+SET R4 12
+PUSH R4
+TRAP
+POP R0          # R0 = address of the counter
+SET R4 1000     # increments remaining
+
+:loop
+SET R3 1
+LOAD R1 R0      # R1 = old value
+ADD R2 R1 R3    # R2 = new value
+CAS R1 R0 R2    # R1 = value actually found
+ADD R1 R1 R3
+BNE R1 R2 loop  # another process got there first, so retry
+
+SET R3 1
+SUB R4 R4 R3
+SET R3 0
+BNE R4 R3 loop
+
+LOAD R1 R0
+PUSH R1
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
@@ -0,0 +1,28 @@
+# Process used by ChurnBench. Counts down from a number that depends on its
+# pid, (pid mod 64)^2 * 2, and exits, so that processes created together
+# finish at very different times: most soon, a few much later.
+
+SET R4 2        # GETPID
+PUSH R4
+TRAP
+POP R0
+SET R4 64       # R1 = (pid mod 64)^2 * 2
+DIV R1 R0 R4
+MUL R1 R1 R4
+SUB R1 R0 R1
+MUL R1 R1 R1
+SET R4 2
+MUL R1 R1 R4
+SET R2 1
+SET R3 0
+BNE R1 R3 loop
+BRANCH done
+
+:loop
+SUB R1 R1 R2
+BNE R1 R3 loop
+
+:done
+SET R4 0        # EXIT
+PUSH R4
+TRAP
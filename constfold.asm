@@ -0,0 +1,26 @@
+# A loop whose body works out a constant from SETs and then adds it to a
+# total, 100000 times, then outputs the total (700000). Program.optimize
+# replaces the MUL and DIV with SETs and drops the unreachable SET after
+# the BRANCH (see VerifyBench).
+
+SET R0 0        # total
+SET R3 100000   # iterations remaining
+
+:loop
+SET R1 6
+SET R2 7
+MUL R4 R1 R2    # 42
+DIV R4 R4 R1    # 7
+ADD R0 R0 R4
+SET R1 1
+SUB R3 R3 R1
+SET R2 0
+BNE R3 R2 loop
+BRANCH done
+SET R0 -1       # never reached
+
+:done
+PUSH R0
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
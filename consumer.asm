@@ -0,0 +1,25 @@
+# Message pipeline stage 3 (see IPCBench). Receives 1000 numbers from
+# message queue 2 and outputs their sum (1001000 for a single pipeline).
+
+SET R1 1000     # messages remaining
+SET R2 0        # sum
+SET R3 1
+
+:loop
+SET R4 2        # queue 2
+PUSH R4
+SET R4 15       # MSGRECV
+PUSH R4
+TRAP
+POP R4          # discard status
+POP R0          # the message
+ADD R2 R2 R0
+
+SUB R1 R1 R3
+SET R4 0
+BNE R1 R4 loop
+
+PUSH R2
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
@@ -0,0 +1,15 @@
+# A long register-only counted loop (see FusionBench). Counts R1 up to
+# 5000000 and then outputs it.
+
+SET R1 0        # counter
+SET R2 1        # increment amount
+SET R3 5000000  # limit
+
+:loop
+ADD R1 R2 R1    # increment R1
+BNE R1 R3 loop  # repeat until R1=R3
+
+PUSH R1
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
@@ -0,0 +1,82 @@
+# Disk workload used by DMABench. Each process writes 20 blocks of 8 words
+# to device 0 and reads each one back into a second buffer. Word k of the
+# block written in iteration i holds pid + i + k; the words read back are
+# added to a running total which is printed at the end, so a lost or
+# misplaced transfer shows up in the output.
+
+SET R4 2        # GETPID
+PUSH R4
+TRAP
+POP R0          # R0 = pid
+SET R1 20       # iterations remaining
+SET R2 0
+SET R3 490
+SAVE R2 R3      # total = 0
+
+:loop
+SET R2 400      # fill the buffer at 400..407
+SET R3 0
+:fill
+ADD R4 R0 R1
+ADD R4 R4 R3
+SAVE R4 R2
+SET R4 1
+ADD R2 R2 R4
+ADD R3 R3 R4
+SET R4 8
+BNE R3 R4 fill
+
+SET R4 1000     # R3 = block (pid - 1000) * 20 + iteration
+SUB R3 R0 R4
+SET R4 20
+MUL R3 R3 R4
+ADD R3 R3 R1
+
+SET R4 0        # device 0
+PUSH R4
+PUSH R3         # block
+SET R4 400      # buffer address
+PUSH R4
+SET R4 6        # WRITE
+PUSH R4
+TRAP
+POP R4          # discard status
+
+SET R4 0        # device 0
+PUSH R4
+PUSH R3         # block
+SET R4 450      # read back into 450..457
+PUSH R4
+SET R4 5        # READ
+PUSH R4
+TRAP
+POP R4          # discard status
+
+SET R2 450      # add the words read back to the total
+SET R3 490
+LOAD R3 R3
+:sum
+LOAD R4 R2
+ADD R3 R3 R4
+SET R4 1
+ADD R2 R2 R4
+SET R4 458
+BNE R2 R4 sum
+SET R4 490
+SAVE R3 R4
+
+SET R4 1
+SUB R1 R1 R4
+SET R4 0
+BNE R1 R4 loop
+
+SET R3 490      # OUTPUT total
+LOAD R3 R3
+PUSH R3
+SET R4 1
+PUSH R4
+TRAP
+
+SET R4 0        # EXIT
+PUSH R4
+TRAP
@@ -0,0 +1,35 @@
+# Disk workload used by DiskBench. Each process reads 40 pseudo-random
+# blocks from device 0.  The block numbers come from the generator
+#     x = (21 * x + 7) mod 1000
+# seeded with the process id, so every process visits different cylinders.
+
+SET R4 2        # GETPID
+PUSH R4
+TRAP
+POP R0          # R0 = current block
+SET R1 40       # reads remaining
+
+:loop
+SET R2 21
+MUL R0 R0 R2
+SET R2 7
+ADD R0 R0 R2
+SET R2 1000
+DIV R3 R0 R2
+MUL R3 R3 R2
+SUB R0 R0 R3    # R0 = R0 mod 1000
+
+SET R2 0        # device 0
+PUSH R2
+PUSH R0         # block
+SET R2 200      # buffer address
+PUSH R2
+SET R2 5        # READ
+PUSH R2
+TRAP
+POP R2          # discard status
+
+SET R2 1
+SUB R1 R1 R2
+SET R2 0
+BNE R1 R2 loop
@@ -0,0 +1,27 @@
+# Message pipeline stage 2 (see IPCBench). Receives 1000 numbers from
+# message queue 1 and sends each one, doubled, to message queue 2.
+
+SET R1 1000     # messages remaining
+SET R3 1
+
+:loop
+SET R4 1        # queue 1
+PUSH R4
+SET R4 15       # MSGRECV
+PUSH R4
+TRAP
+POP R4          # discard status
+POP R0          # the message
+ADD R0 R0 R0
+
+SET R4 2        # queue 2
+PUSH R4
+PUSH R0
+SET R4 14       # MSGSEND
+PUSH R4
+TRAP
+POP R4          # discard status
+
+SUB R1 R1 R3
+SET R4 0
+BNE R1 R4 loop
@@ -0,0 +1,25 @@
+# A loop that exercises memory and the stack (see InterpBench). Keeps a
+# running total in a heap word and passes values through the stack,
+# 1000000 times, then outputs the total.
+
+SET R0 150      # address of the total
+SET R1 0
+SAVE R1 R0
+SET R2 1        # increment amount
+SET R3 1000000  # iterations remaining
+
+:loop
+LOAD R1 R0
+ADD R1 R1 R3
+SAVE R1 R0
+PUSH R3
+POP R4
+SUB R3 R4 R2
+SET R4 0
+BNE R3 R4 loop
+
+LOAD R1 R0
+PUSH R1
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
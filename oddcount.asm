@@ -0,0 +1,26 @@
+# Counts the odd numbers in 1..100000 by working out the remainder of each
+# one mod 2 with DIV and MUL, and outputs the count, 50000. See PipelineBench,
+# and oddflag.asm for the same count without dividing.
+
+SET R0 0        # count
+SET R1 100000   # number
+SET R2 2
+SET R4 0
+
+:loop
+DIV R3 R1 R2    # R3 = R1 mod 2
+MUL R3 R3 R2
+SUB R3 R1 R3
+BNE R3 R4 odd
+BRANCH next
+:odd
+ADD R0 R0 R3    # count++
+:next
+SET R3 1
+SUB R1 R1 R3
+BNE R1 R4 loop
+
+PUSH R0
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
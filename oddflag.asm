@@ -0,0 +1,24 @@
+# Counts the odd numbers in 1..100000 like oddcount.asm, but knows whether
+# the number is odd from a flag that flips every iteration instead of
+# dividing. Outputs the count, 50000.
+
+SET R0 0        # count
+SET R1 100000   # number
+SET R2 0        # 1 if the number is odd
+SET R4 0
+
+:loop
+BNE R2 R4 odd
+BRANCH next
+:odd
+ADD R0 R0 R2    # count++
+:next
+SET R3 1
+SUB R2 R3 R2    # flip the flag
+SUB R1 R1 R3
+BNE R1 R4 loop
+
+PUSH R0
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
@@ -0,0 +1,18 @@
+# Message pipeline stage 1 (see IPCBench). Sends the numbers 1..1000 to
+# message queue 1.
+
+SET R0 1        # next number to send
+SET R1 1001     # stop value
+SET R2 1        # queue key
+SET R3 1        # increment
+
+:loop
+PUSH R2         # queue
+PUSH R0         # value
+SET R4 14       # MSGSEND
+PUSH R4
+TRAP
+POP R4          # discard status
+
+ADD R0 R0 R3
+BNE R0 R1 loop
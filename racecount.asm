@@ -0,0 +1,29 @@
+# Shared counter incremented with no synchronization (see SyncBench). Each
+# process adds 1000 to the word in shared segment 1 and then outputs the
+# counter. Preemption between the LOAD and the SAVE loses updates, so the
+# total usually comes up short.
+
+SET R4 1        # SHMAT key 1, 1 word
+PUSH R4
+PUSH R4
+SET R4 12
+PUSH R4
+TRAP
+POP R0          # R0 = address of the counter
+SET R4 1000     # increments remaining
+SET R3 1
+
+:loop
+LOAD R1 R0
+ADD R1 R1 R3
+SAVE R1 R0
+
+SUB R4 R4 R3
+SET R2 0
+BNE R4 R2 loop
+
+LOAD R1 R0
+PUSH R1
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP
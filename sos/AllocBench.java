@@ -0,0 +1,144 @@
+package sos;
+
+import java.io.*;
+
+/**
+ * This class measures the heap allocator. It runs several copies of
+ * <code>allocchurn.asm</code> (which keeps eight blocks of 1 to 37 words
+ * live and replaces one of them 20000 times with FREE and MALLOC) with a
+ * roomy process and with processes too small for the heap to grow freely,
+ * so that MALLOC has to split free blocks and sometimes fails. For each it
+ * prints the allocations and frees, the host time and allocation throughput,
+ * the failures, the peak heap size and the average fragmentation left in
+ * each heap when its process exits, and (when nothing failed) whether the
+ * output was as expected. It then times the {@link HeapAllocator} on its
+ * own.
+ *
+ * @see HeapAllocator
+ */
+public class AllocBench {
+    /**
+     * the process sizes the workload is run with
+     **/
+    private static final int[] ALLOC_SIZES = { 1000, 500, 400 };
+
+    /**
+     * the output of allocchurn.asm when no MALLOC fails
+     **/
+    private static final long EXPECTED = 200009964L;
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public AllocBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of processes (default 4)
+     */
+    public static void main(String[] args) {
+        int numProcs = 4;
+        if (args.length > 0) {
+            numProcs = Integer.parseInt(args[0]);
+        }
+
+        Program churn = new Program();
+        if (churn.load("allocchurn.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        System.out.println("allocchurn x" + numProcs);
+        for (int allocSize : ALLOC_SIZES) {
+            runWorkload(churn, numProcs, allocSize);
+        }
+
+        System.out.println("HeapAllocator alone");
+        runAllocator(1000000);
+    }// main
+
+    /**
+     * runWorkload
+     *
+     * runs copies of the heap program on a fresh machine and prints the
+     * results
+     */
+    private static void runWorkload(Program churn, int numProcs, int allocSize) {
+        RAM ram = new RAM(numProcs * 1024, 0);
+        InterruptController ic = new InterruptController();
+        CPU cpu = new CPU(ram, ic);
+        cpu.setVerbose(false);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+
+        for (int i = 0; i < numProcs; i++) {
+            os.createProcess(churn, allocSize);
+        }
+
+        long start = System.nanoTime();
+        cpu.run();
+        long nanos = System.nanoTime() - start;
+
+        long ops = 0;
+        long failures = 0;
+        int peak = 0;
+        double internal = 0;
+        double external = 0;
+        for (HeapAllocator heap : os.getHeapHistory()) {
+            ops += heap.getMallocs() + heap.getFrees();
+            failures += heap.getFailures();
+            peak = Math.max(peak, heap.getPeakSize());
+            internal += heap.internalFragmentation();
+            external += heap.externalFragmentation();
+        }
+        int heaps = Math.max(1, os.getHeapHistory().size());
+        // the total is only known when every MALLOC succeeded
+        String correct = "n/a";
+        if (failures == 0) {
+            correct = "" + (text.toString().split("OUTPUT: " + EXPECTED
+                    + "\n", -1).length == numProcs + 1);
+        }
+
+        System.out.println(String.format("  alloc %-5d %d ops, %.1f ms, "
+                + "%.0f kops/s, %d failed, peak %d words, fragmentation "
+                + "%.1f%%/%.1f%%, as expected: %s", allocSize, ops,
+                nanos / 1e6, ops * 1e6 / nanos, failures, peak,
+                100 * internal / heaps, 100 * external / heaps, correct));
+    }// runWorkload
+
+    /**
+     * runAllocator
+     *
+     * replaces one of 64 live blocks at a time, with sizes cycling through
+     * 1..256 words, and prints the throughput
+     */
+    private static void runAllocator(int count) {
+        HeapAllocator heap = new HeapAllocator(0);
+        int[] live = new int[64];
+        int seed = 0;
+        for (int i = 0; i < live.length; i++) {
+            live[i] = -1;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int slot = i & (live.length - 1);
+            if (live[slot] >= 0) {
+                heap.free(live[slot]);
+            }
+            seed = (seed * 13 + 5) % 257;
+            live[slot] = heap.malloc(seed + 1, Integer.MAX_VALUE);
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.println(String.format("  %d ops, %.1f ms, %.0f kops/s, %s",
+                heap.getMallocs() + heap.getFrees(), nanos / 1e6,
+                (heap.getMallocs() + heap.getFrees()) * 1e6 / nanos, heap));
+    }// runAllocator
+
+};// class AllocBench
@@ -0,0 +1,452 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class runs a batch of programs without any interaction, e.g. to grade
+ * or regression-test them. Each entry of a manifest file is run on its own
+ * RAM, CPU and SOS, and the entries are spread over a pool of threads. Every
+ * run is stopped once it retires its instruction limit or runs past its wall
+ * clock timeout. The final registers, the number of instructions retired,
+ * the time taken and whatever the programs printed are written as CSV or
+ * JSON.
+ *
+ * A manifest has one run per line: a name, the program file (relative to the
+ * manifest) and any number of key=value settings. "timeout" is the wall clock
+ * limit in milliseconds (default {@link #DEFAULT_TIMEOUT}); every other key is
+ * a {@link MachineConfig} setting, e.g. <code>procs=4 alloc=200</code>. The
+ * instruction limit (cpu.limit) defaults to {@link #DEFAULT_LIMIT}. Blank
+ * lines and anything after a '#' are ignored.
+ *
+ * Usage: <code>java sos.BatchRunner manifest [-threads N] [-csv file]
+ * [-json file]</code>. With neither -csv nor -json the CSV goes to the
+ * console.
+ */
+public class BatchRunner {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    public static final long DEFAULT_LIMIT = 10000000;
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    // The outcome of a run
+    public static final String STATUS_OK = "ok"; /* every process exited */
+    public static final String STATUS_LIMIT = "limit"; /* instruction limit */
+    public static final String STATUS_TIMEOUT = "timeout"; /* wall clock limit */
+    public static final String STATUS_FAULT = "fault"; /* bad address */
+    public static final String STATUS_BLOCKED = "blocked"; /* deadlocked */
+    public static final String STATUS_ERROR = "error"; /* could not run */
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public BatchRunner() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            the manifest followed by the options described above
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("usage: java sos.BatchRunner manifest "
+                    + "[-threads N] [-csv file] [-json file]");
+            return;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String csvFile = null;
+        String jsonFile = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-csv")) {
+                csvFile = args[i + 1];
+            } else if (args[i].equals("-json")) {
+                jsonFile = args[i + 1];
+            } else {
+                System.out.println("ERROR: unknown option " + args[i]);
+                return;
+            }
+        }
+
+        Vector<Job> jobs = readManifest(args[0]);
+        if (jobs == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Vector<Result> results = runAll(jobs, threads);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        try {
+            if (csvFile == null && jsonFile == null) {
+                writeCSV(results, System.out);
+                return;
+            }
+            if (csvFile != null) {
+                PrintStream out = new PrintStream(new FileOutputStream(csvFile));
+                writeCSV(results, out);
+                out.close();
+            }
+            if (jsonFile != null) {
+                PrintStream out = new PrintStream(new FileOutputStream(jsonFile));
+                writeJSON(results, out);
+                out.close();
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR: could not write results: " + e);
+            return;
+        }
+
+        long instrs = 0;
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for (Result r : results) {
+            instrs += r.instructions;
+            Integer n = counts.get(r.status);
+            counts.put(r.status, n == null ? 1 : n + 1);
+        }
+        System.out.println(String.format("%d runs on %d threads in %.2f s "
+                + "(%.1f M instr/s) %s", results.size(), threads, secs,
+                instrs / secs / 1e6, counts));
+    }// main
+
+    /**
+     * readManifest
+     *
+     * @param path
+     *            the manifest file
+     * @return the runs it describes, or null if it could not be read
+     */
+    public static Vector<Job> readManifest(String path) {
+        File manifest = new File(path);
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        Vector<Job> jobs = new Vector<Job>();
+
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(manifest));
+            String line;
+            int lineNum = 0;
+            while ((line = in.readLine()) != null) {
+                lineNum++;
+                int hash = line.indexOf('#');
+                if (hash >= 0) {
+                    line = line.substring(0, hash);
+                }
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].length() == 0) {
+                    continue;
+                }
+                if (tokens.length < 2 || tokens[1].indexOf(',') >= 0) {
+                    System.out.println("ERROR (line " + lineNum
+                            + "): expected a name and a program");
+                    in.close();
+                    return null;
+                }
+
+                Job job = new Job(tokens[0]);
+                File prog = new File(tokens[1]);
+                job.program = prog.isAbsolute() ? prog.getPath() : new File(
+                        dir, tokens[1]).getPath();
+                job.config.programs = new String[] { job.program };
+                for (int i = 2; i < tokens.length; i++) {
+                    if (!job.set(tokens[i])) {
+                        System.out.println("ERROR (line " + lineNum
+                                + "): bad setting " + tokens[i]);
+                        in.close();
+                        return null;
+                    }
+                }
+                jobs.add(job);
+            }// while
+            in.close();
+        } catch (IOException e) {
+            System.out.println("ERROR: could not read " + path + ": " + e);
+            return null;
+        }
+        return jobs;
+    }// readManifest
+
+    /**
+     * runAll
+     *
+     * runs a batch on a pool of threads
+     *
+     * @param jobs
+     *            the runs
+     * @param threads
+     *            how many runs may execute at once
+     * @return the results in the same order as the runs
+     */
+    public static Vector<Result> runAll(Vector<Job> jobs, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+                threads));
+        final ScheduledExecutorService watchdog = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "batch-watchdog");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        Vector<Future<Result>> futures = new Vector<Future<Result>>();
+        for (final Job job : jobs) {
+            futures.add(pool.submit(new Callable<Result>() {
+                public Result call() {
+                    return runJob(job, watchdog);
+                }
+            }));
+        }
+
+        Vector<Result> results = new Vector<Result>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (Exception e) {
+                Result r = new Result(jobs.get(i));
+                r.status = STATUS_ERROR;
+                r.messages = e.toString();
+                results.add(r);
+            }
+        }
+        pool.shutdown();
+        watchdog.shutdownNow();
+        return results;
+    }// runAll
+
+    /**
+     * runJob
+     *
+     * runs one entry of a batch on a machine of its own
+     *
+     * @param job
+     *            the run
+     * @param watchdog
+     *            used to stop the run when its timeout expires
+     * @return what happened
+     */
+    public static Result runJob(Job job, ScheduledExecutorService watchdog) {
+        Result result = new Result(job);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream console = new PrintStream(text);
+
+        MachineConfig.Machine machine = job.config.build(console);
+        if (machine == null) {
+            result.status = STATUS_ERROR;
+            result.messages = "could not build the machine";
+            return result;
+        }
+        final CPU cpu = machine.cpu;
+        SOS os = machine.os;
+
+        if (os.getProcessCount() < job.config.procs) {
+            result.status = STATUS_ERROR;
+        } else {
+            final AtomicBoolean timedOut = new AtomicBoolean(false);
+            ScheduledFuture<?> alarm = watchdog.schedule(new Runnable() {
+                public void run() {
+                    timedOut.set(true);
+                    cpu.halt();
+                }
+            }, job.timeout, TimeUnit.MILLISECONDS);
+
+            long start = System.nanoTime();
+            try {
+                cpu.run();
+                if (timedOut.get()) {
+                    result.status = STATUS_TIMEOUT;
+                } else if (cpu.isLimitReached()) {
+                    result.status = STATUS_LIMIT;
+                } else if (!cpu.isHalted()) {
+                    result.status = STATUS_FAULT;
+                } else if (os.getProcessCount() > 0) {
+                    result.status = STATUS_BLOCKED;
+                } else {
+                    result.status = STATUS_OK;
+                }
+            } catch (RuntimeException e) {
+                result.status = STATUS_ERROR;
+                console.println("ERROR: " + e);
+            }
+            result.wallMs = (System.nanoTime() - start) / 1e6;
+            alarm.cancel(false);
+        }
+        machine.close();
+
+        result.instructions = cpu.getInstructions();
+        result.ticks = cpu.getTicks();
+        result.registers = cpu.getRegisters().clone();
+
+        // program output goes in one column, anything else in another
+        console.flush();
+        StringBuilder output = new StringBuilder();
+        StringBuilder messages = new StringBuilder();
+        for (String line : text.toString().split("\n")) {
+            if (line.startsWith("OUTPUT: ")) {
+                output.append(output.length() == 0 ? "" : " ").append(
+                        line.substring(8));
+            } else if (line.length() > 0) {
+                messages.append(messages.length() == 0 ? "" : "; ").append(
+                        line);
+            }
+        }
+        result.output = output.toString();
+        result.messages = messages.toString();
+        return result;
+    }// runJob
+
+    /**
+     * writeCSV
+     *
+     * writes a header line and then one line per run
+     */
+    public static void writeCSV(Vector<Result> results, PrintStream out) {
+        out.print("name,program,status,instructions,ticks,wall_ms");
+        for (int i = 0; i < CPU.NUMREG; i++) {
+            out.print("," + REG_NAMES[i]);
+        }
+        out.println(",output,messages");
+
+        for (Result r : results) {
+            out.print(csv(r.job.name) + "," + csv(r.job.program) + ","
+                    + r.status + "," + r.instructions + "," + r.ticks + ","
+                    + String.format("%.3f", r.wallMs));
+            for (int i = 0; i < CPU.NUMREG; i++) {
+                out.print("," + r.registers[i]);
+            }
+            out.println("," + csv(r.output) + "," + csv(r.messages));
+        }
+    }// writeCSV
+
+    /**
+     * writeJSON
+     *
+     * writes the results as an array with one object per run
+     */
+    public static void writeJSON(Vector<Result> results, PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            out.print("  {\"name\": " + json(r.job.name) + ", \"program\": "
+                    + json(r.job.program) + ", \"status\": " + json(r.status)
+                    + ", \"instructions\": " + r.instructions
+                    + ", \"ticks\": " + r.ticks + ", \"wall_ms\": "
+                    + String.format("%.3f", r.wallMs) + ", \"registers\": {");
+            for (int j = 0; j < CPU.NUMREG; j++) {
+                out.print((j == 0 ? "" : ", ") + "\"" + REG_NAMES[j] + "\": "
+                        + r.registers[j]);
+            }
+            out.print("}, \"output\": " + json(r.output) + ", \"messages\": "
+                    + json(r.messages) + "}");
+            out.println(i + 1 < results.size() ? "," : "");
+        }
+        out.println("]");
+    }// writeJSON
+
+    /**
+     * the names of the registers, in the order of the CPU's register file
+     **/
+    private static final String[] REG_NAMES = { "R0", "R1", "R2", "R3", "R4",
+            "PC", "SP", "BASE", "LIM" };
+
+    /**
+     * csv
+     *
+     * @return a value quoted for CSV if it needs to be
+     */
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }// csv
+
+    /**
+     * json
+     *
+     * @return a string literal for JSON
+     */
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            } else if (ch < ' ') {
+                sb.append(String.format("\\u%04x", (int) ch));
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.append('"').toString();
+    }// json
+
+    /**
+     * Job
+     *
+     * One entry of a manifest.
+     */
+    public static class Job {
+        String name;
+        String program;
+        MachineConfig config = new MachineConfig();
+        long timeout = DEFAULT_TIMEOUT;
+
+        Job(String name) {
+            this.name = name;
+            config.limit = DEFAULT_LIMIT;
+        }
+
+        /**
+         * set
+         *
+         * applies a key=value setting
+         *
+         * @return false if the setting is not understood
+         */
+        boolean set(String setting) {
+            if (!setting.startsWith("timeout=")) {
+                return config.set(setting);
+            }
+            try {
+                timeout = Long.parseLong(setting.substring(8));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return timeout > 0;
+        }// set
+    }// class Job
+
+    /**
+     * Result
+     *
+     * What happened when a manifest entry was run.
+     */
+    public static class Result {
+        Job job;
+        String status;
+        long instructions = 0;
+        long ticks = 0;
+        double wallMs = 0;
+        int[] registers = new int[CPU.NUMREG];
+        String output = "";
+        String messages = "";
+
+        Result(Job job) {
+            this.job = job;
+        }
+    }// class Result
+
+};// class BatchRunner
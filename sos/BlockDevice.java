@@ -0,0 +1,247 @@
+package sos;
+
+/**
+ * This class holds what all simulated block devices have in common: an id
+ * assigned by the SOS, a {@link DiskGeometry} and the current head position.
+ * The SOS hands a device one request at a time with {@link #start}; the
+ * device computes when it will finish from the distance the head has to
+ * travel, performs the transfer (see {@link #transfer}) and posts the request
+ * to the {@link InterruptController} so the CPU raises a completion interrupt
+ * at the right virtual time.
+ *
+ * @see Disk
+ * @see MemDisk
+ * @see DiskScheduler
+ */
+public abstract class BlockDevice {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * the id the SOS assigned to this device
+     **/
+    protected int m_id = -1;
+
+    /**
+     * the interrupt controller completion interrupts are posted to
+     **/
+    protected InterruptController m_IC = null;
+
+    /**
+     * the layout and timing of the device
+     **/
+    protected DiskGeometry m_geometry = null;
+
+    /**
+     * the cylinder the head is currently positioned over
+     **/
+    protected int m_head = 0;
+
+    /**
+     * the request being serviced, or null if the device is idle
+     **/
+    protected IORequest m_current = null;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * BlockDevice ctor
+     *
+     * @param ic
+     *            where completion interrupts are posted
+     * @param geometry
+     *            the layout and timing of the device
+     */
+    public BlockDevice(InterruptController ic, DiskGeometry geometry) {
+        m_IC = ic;
+        m_geometry = geometry;
+    }// BlockDevice ctor
+
+    public int getId() {
+        return m_id;
+    }
+
+    public void setId(int id) {
+        m_id = id;
+    }
+
+    public int getNumBlocks() {
+        return m_geometry.getNumBlocks();
+    }
+
+    public int getBlockSize() {
+        return m_geometry.getBlockSize();
+    }
+
+    public DiskGeometry getGeometry() {
+        return m_geometry;
+    }
+
+    /**
+     * getHeadPosition
+     *
+     * @return the cylinder the head is currently positioned over
+     */
+    public int getHeadPosition() {
+        return m_head;
+    }
+
+    /**
+     * isBusy
+     *
+     * @return true if the device is servicing a request
+     */
+    public boolean isBusy() {
+        return m_current != null;
+    }
+
+    /**
+     * open
+     *
+     * prepares the device for use
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    public int open() {
+        return 0;
+    }
+
+    /**
+     * close
+     *
+     * releases any host resources held by the device
+     */
+    public void close() {
+    }
+
+    /**
+     * start
+     *
+     * begins servicing a request. The head first travels to the cylinder
+     * <i>via</i> (if it is not negative) and then to the cylinder holding the
+     * request's first block; the request is due once that seek plus the
+     * fixed and transfer latencies have elapsed.
+     *
+     * @param req
+     *            the request (its buffer must hold count blocks)
+     * @param now
+     *            the current virtual time
+     * @param via
+     *            a cylinder the head must pass over first, or -1
+     * @return 0 is success; anything else is a failure code
+     */
+    public int start(IORequest req, long now, int via) {
+        if (m_current != null) {
+            return -1;
+        }
+        if (req.block < 0 || req.count <= 0
+                || req.block + req.count > getNumBlocks()) {
+            return -2;
+        }
+
+        long sweep = 0;
+        if (via >= 0) {
+            sweep = m_geometry.serviceTicks(Math.abs(via - m_head), 0)
+                    - m_geometry.serviceTicks(0, 0);
+            m_head = via;
+        }
+
+        req.startTick = now;
+        req.dueTick = now + sweep + accessTicks(req.block, req.count);
+        m_current = req;
+
+        int err = transfer(req);
+        if (err != 0) {
+            m_current = null;
+            return err;
+        }
+        m_IC.post(req);
+
+        return 0;
+    }// start
+
+    /**
+     * accessTicks
+     *
+     * moves the head to the cylinders holding a range of blocks
+     *
+     * @param block
+     *            the first block accessed
+     * @param count
+     *            the number of blocks accessed
+     * @return the virtual time the access takes
+     */
+    public long accessTicks(int block, int count) {
+        int distance = Math.abs(m_geometry.cylinderOf(block) - m_head);
+        m_head = m_geometry.cylinderOf(block + count - 1);
+        return m_geometry.serviceTicks(distance, count);
+    }// accessTicks
+
+    /**
+     * finish
+     *
+     * called by the SOS when the completion interrupt for the current
+     * request has been delivered, making the device available again
+     */
+    public void finish() {
+        m_current = null;
+    }
+
+    /**
+     * transfer
+     *
+     * moves the data for a request between the device and the request
+     * buffer and calls {@link IORequest#markDone}. Devices that do the work
+     * on another thread override this and mark the request done later.
+     *
+     * @param req
+     *            the request to perform
+     * @return 0 is success; anything else is a failure code
+     */
+    protected int transfer(IORequest req) {
+        int status;
+        if (req.op == IORequest.READ) {
+            status = readBlocks(req.block, req.count, req.buf);
+        } else {
+            status = writeBlocks(req.block, req.count, req.buf);
+        }
+        req.markDone(status);
+        return 0;
+    }// transfer
+
+    /**
+     * readBlocks
+     *
+     * copies blocks from the device into a buffer immediately, without going
+     * through the request queue or the virtual clock
+     *
+     * @param block
+     *            the first block to read
+     * @param count
+     *            the number of blocks to read
+     * @param dest
+     *            receives the blocks (count * block size integers)
+     * @return 0 is success; anything else is a failure code
+     */
+    public abstract int readBlocks(int block, int count, int[] dest);
+
+    /**
+     * writeBlocks
+     *
+     * copies blocks from a buffer onto the device immediately, without going
+     * through the request queue or the virtual clock
+     *
+     * @param block
+     *            the first block to write
+     * @param count
+     *            the number of blocks to write
+     * @param src
+     *            the blocks to write (count * block size integers)
+     * @return 0 is success; anything else is a failure code
+     */
+    public abstract int writeBlocks(int block, int count, int[] src);
+
+};// class BlockDevice
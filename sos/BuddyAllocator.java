@@ -0,0 +1,283 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class hands out the physical RAM for processes and shared segments
+ * using the buddy system. Every block is a power of two words long (at least
+ * 2^{@link #MIN_ORDER}) and starts at a multiple of its size. A request is
+ * rounded up to a power of two and served from the smallest free block that
+ * is big enough, splitting it in halves ("buddies") until it is the right
+ * size; a freed block is merged with its buddy whenever the buddy is free
+ * too, and the merged block with its own buddy, and so on.
+ *
+ * For each order k there is a bitmap with one bit per block of 2^k words
+ * saying whether it is free, and a doubly-linked list of the free blocks
+ * threaded through arrays indexed by address. Checking and unlinking a
+ * buddy is then constant time, so allocating and freeing take time
+ * proportional to the number of orders, i.e. logarithmic in the size of
+ * RAM, however many blocks are allocated. The price is internal
+ * fragmentation: a process of 300 words occupies a block of 512.
+ *
+ * RAM that is not a power of two long is covered by the largest aligned
+ * blocks that fit; the few words left over that are smaller than the
+ * minimum block are never used.
+ *
+ * @see SOS
+ */
+public class BuddyAllocator {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    /**
+     * the smallest block is 2^MIN_ORDER words
+     **/
+    public static final int MIN_ORDER = 4;
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the number of words managed */
+    private int m_size;
+
+    /** the order of the largest block (2^m_maxOrder covers all of RAM) */
+    private int m_maxOrder;
+
+    /** m_free[k] has a bit set for each free block of order k, by address >> k */
+    private BitSet[] m_free;
+
+    /**
+     * the free lists: the first free block of each order and the next and
+     * previous free block of the same order, all as address >> MIN_ORDER
+     * (-1 for none)
+     */
+    private int[] m_head;
+    private int[] m_next;
+    private int[] m_prev;
+
+    /** the words not allocated */
+    private int m_freeWords = 0;
+
+    /** statistics */
+    private long m_allocs = 0;
+    private long m_frees = 0;
+    private long m_failures = 0;
+    private long m_usedWords = 0; // words in allocated blocks
+    private long m_requestedWords = 0; // words asked for by allocated blocks
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * BuddyAllocator ctor
+     *
+     * @param size
+     *            the number of words of RAM to manage, all of them free
+     */
+    public BuddyAllocator(int size) {
+        m_size = size;
+        m_maxOrder = MIN_ORDER;
+        while ((1L << m_maxOrder) < size) {
+            m_maxOrder++;
+        }
+
+        m_free = new BitSet[m_maxOrder + 1];
+        m_head = new int[m_maxOrder + 1];
+        for (int k = 0; k <= m_maxOrder; k++) {
+            m_free[k] = new BitSet();
+            m_head[k] = -1;
+        }
+        int units = (size >> MIN_ORDER) + 1;
+        m_next = new int[units];
+        m_prev = new int[units];
+
+        // cover RAM with the largest aligned blocks that fit
+        int addr = 0;
+        while (addr + (1 << MIN_ORDER) <= size) {
+            int k = m_maxOrder;
+            while (addr % (1 << k) != 0 || addr + (1L << k) > size) {
+                k--;
+            }
+            push(k, addr);
+            m_freeWords += 1 << k;
+            addr += 1 << k;
+        }
+    }// BuddyAllocator ctor
+
+    /**
+     * orderOf
+     *
+     * @return the order of the smallest block that holds size words
+     */
+    private int orderOf(int size) {
+        int k = MIN_ORDER;
+        while ((1L << k) < size) {
+            k++;
+        }
+        return k;
+    }// orderOf
+
+    /**
+     * push
+     *
+     * marks a block free and puts it at the head of its list
+     */
+    private void push(int k, int addr) {
+        int u = addr >> MIN_ORDER;
+        m_free[k].set(addr >> k);
+        m_next[u] = m_head[k];
+        m_prev[u] = -1;
+        if (m_head[k] >= 0) {
+            m_prev[m_head[k]] = u;
+        }
+        m_head[k] = u;
+    }// push
+
+    /**
+     * unlink
+     *
+     * marks a free block allocated and takes it out of its list
+     */
+    private void unlink(int k, int addr) {
+        int u = addr >> MIN_ORDER;
+        m_free[k].clear(addr >> k);
+        if (m_prev[u] >= 0) {
+            m_next[m_prev[u]] = m_next[u];
+        } else {
+            m_head[k] = m_next[u];
+        }
+        if (m_next[u] >= 0) {
+            m_prev[m_next[u]] = m_prev[u];
+        }
+    }// unlink
+
+    /**
+     * alloc
+     *
+     * @param size
+     *            the number of words needed
+     * @return the address of a block of at least size words or -1 if there
+     *         is no free block big enough
+     */
+    public int alloc(int size) {
+        int k = orderOf(size);
+        int j = k;
+        while (j <= m_maxOrder && m_head[j] < 0) {
+            j++;
+        }
+        if (size <= 0 || j > m_maxOrder) {
+            m_failures++;
+            return -1;
+        }
+
+        int addr = m_head[j] << MIN_ORDER;
+        unlink(j, addr);
+
+        // give back the upper halves until the block is the right size
+        while (j > k) {
+            j--;
+            push(j, addr + (1 << j));
+        }
+
+        m_freeWords -= 1 << k;
+        m_allocs++;
+        m_usedWords += 1 << k;
+        m_requestedWords += size;
+        return addr;
+    }// alloc
+
+    /**
+     * free
+     *
+     * @param addr
+     *            the address returned by {@link #alloc}
+     * @param size
+     *            the size that was passed to {@link #alloc}
+     */
+    public void free(int addr, int size) {
+        int k = orderOf(size);
+        m_freeWords += 1 << k;
+        m_frees++;
+        m_usedWords -= 1 << k;
+        m_requestedWords -= size;
+
+        // merge with the buddy for as long as it is free
+        while (k < m_maxOrder) {
+            int buddy = addr ^ (1 << k);
+            if (!m_free[k].get(buddy >> k)) {
+                break;
+            }
+            unlink(k, buddy);
+            addr = Math.min(addr, buddy);
+            k++;
+        }
+        push(k, addr);
+    }// free
+
+    public int getFreeWords() {
+        return m_freeWords;
+    }
+
+    /**
+     * getLargestFree
+     *
+     * @return the size of the largest free block (0 if RAM is full)
+     */
+    public int getLargestFree() {
+        for (int k = m_maxOrder; k >= MIN_ORDER; k--) {
+            if (m_head[k] >= 0) {
+                return 1 << k;
+            }
+        }
+        return 0;
+    }// getLargestFree
+
+    public long getAllocs() {
+        return m_allocs;
+    }
+
+    public long getFrees() {
+        return m_frees;
+    }
+
+    public long getFailures() {
+        return m_failures;
+    }
+
+    /**
+     * internalFragmentation
+     *
+     * @return the share of the words in allocated blocks that was not asked
+     *         for (lost to rounding up to a power of two)
+     */
+    public double internalFragmentation() {
+        return m_usedWords == 0 ? 0 : 1.0 - (double) m_requestedWords
+                / m_usedWords;
+    }
+
+    /**
+     * externalFragmentation
+     *
+     * @return the share of the free words that are not in the largest free
+     *         block
+     */
+    public double externalFragmentation() {
+        return m_freeWords == 0 ? 0 : 1.0 - (double) getLargestFree()
+                / m_freeWords;
+    }
+
+    /**
+     * toString
+     */
+    public String toString() {
+        return String.format("allocs=%d frees=%d failed=%d free=%d words "
+                + "largest free=%d words fragmentation(internal=%.1f%% "
+                + "external=%.1f%%)", m_allocs, m_frees, m_failures,
+                m_freeWords, getLargestFree(), 100 * internalFragmentation(),
+                100 * externalFragmentation());
+    }// toString
+
+};// class BuddyAllocator
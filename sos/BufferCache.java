@@ -0,0 +1,289 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class keeps recently used blocks of a device in host memory so the
+ * file system does not have to go to the device for every access. Blocks are
+ * replaced in least recently used order; modified blocks are only written
+ * back when they are evicted or when {@link #flush} is called (write-back).
+ * Blocks can also be prefetched ahead of a sequential reader. A block whose
+ * write-back fails stays in the cache, still dirty, and the failure is
+ * returned to the caller that needed the room or the flush.
+ *
+ * The cache keeps the virtual time of the device accesses made on behalf of
+ * the caller (demand misses) separate from the accesses that would happen in
+ * the background on a real system (prefetches and write-backs), so the SOS
+ * can charge only the former to the process.
+ *
+ * @see FileSystem
+ */
+public class BufferCache {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * the device being cached
+     **/
+    private BlockDevice m_dev = null;
+
+    /**
+     * the maximum number of blocks held at once
+     **/
+    private int m_capacity = 0;
+
+    /**
+     * the cached blocks by block number, least recently used first
+     **/
+    private LinkedHashMap<Integer, Buffer> m_buffers = null;
+
+    /**
+     * virtual time of the demand reads since {@link #takeIoTicks} was last
+     * called
+     **/
+    private long m_ioTicks = 0;
+
+    // statistics
+    private long m_hits = 0;
+    private long m_misses = 0;
+    private long m_prefetches = 0;
+    private long m_prefetchHits = 0;
+    private long m_writebacks = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * BufferCache ctor
+     *
+     * @param dev
+     *            the device to cache
+     * @param capacity
+     *            the number of blocks the cache can hold
+     */
+    public BufferCache(BlockDevice dev, int capacity) {
+        m_dev = dev;
+        m_capacity = Math.max(1, capacity);
+        m_buffers = new LinkedHashMap<Integer, Buffer>(16, 0.75f, true);
+    }// BufferCache ctor
+
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /**
+     * get
+     *
+     * returns the cached copy of a block, reading it from the device if it is
+     * not already cached
+     *
+     * @param block
+     *            the block wanted
+     * @return the buffer holding the block or null if it could not be read
+     */
+    public Buffer get(int block) {
+        Buffer b = m_buffers.get(block);
+        if (b != null) {
+            m_hits++;
+            if (b.prefetched) {
+                m_prefetchHits++;
+                b.prefetched = false;
+            }
+            return b;
+        }
+
+        m_misses++;
+        b = load(block);
+        if (b != null) {
+            m_ioTicks += m_dev.accessTicks(block, 1);
+        }
+        return b;
+    }// get
+
+    /**
+     * create
+     *
+     * returns a zeroed, dirty buffer for a block whose old contents do not
+     * matter (e.g., one that was just allocated), without reading it
+     *
+     * @param block
+     *            the block wanted
+     * @return the buffer holding the block or null if no room could be made
+     *         for it
+     */
+    public Buffer create(int block) {
+        Buffer b = m_buffers.get(block);
+        if (b == null) {
+            if (evictIfFull() != 0) {
+                return null;
+            }
+            b = new Buffer(block, new int[m_dev.getBlockSize()]);
+            m_buffers.put(block, b);
+        } else {
+            Arrays.fill(b.data, 0);
+        }
+        b.dirty = true;
+        return b;
+    }// create
+
+    /**
+     * prefetch
+     *
+     * reads a block into the cache ahead of it being needed. Does nothing if
+     * the block is already cached.
+     *
+     * @param block
+     *            the block to read ahead
+     */
+    public void prefetch(int block) {
+        if (block < 0 || block >= m_dev.getNumBlocks()
+                || m_buffers.containsKey(block)) {
+            return;
+        }
+        Buffer b = load(block);
+        if (b != null) {
+            m_dev.accessTicks(block, 1);
+            b.prefetched = true;
+            m_prefetches++;
+        }
+    }// prefetch
+
+    /**
+     * flush
+     *
+     * writes every dirty block back to the device. Blocks that cannot be
+     * written stay dirty; the others are still written.
+     *
+     * @return 0 is success; anything else is the failure code of the first
+     *         block that could not be written
+     */
+    public int flush() {
+        int err = 0;
+        for (Buffer b : m_buffers.values()) {
+            if (b.dirty) {
+                int status = writeBack(b);
+                if (err == 0) {
+                    err = status;
+                }
+            }
+        }
+        return err;
+    }// flush
+
+    /**
+     * takeIoTicks
+     *
+     * @return the virtual time spent on demand reads since the last call
+     */
+    public long takeIoTicks() {
+        long ticks = m_ioTicks;
+        m_ioTicks = 0;
+        return ticks;
+    }// takeIoTicks
+
+    /**
+     * hitRate
+     *
+     * @return the fraction of lookups that found the block in the cache
+     */
+    public double hitRate() {
+        long total = m_hits + m_misses;
+        return total == 0 ? 0.0 : (double) m_hits / total;
+    }
+
+    /**
+     * toString
+     *
+     * @return a one-line summary of the cache statistics
+     */
+    public String toString() {
+        return String.format("cache(%d blocks) hits=%d misses=%d "
+                + "hitRate=%.1f%% prefetched=%d usefulPrefetch=%d "
+                + "writebacks=%d", m_capacity, m_hits, m_misses,
+                hitRate() * 100.0, m_prefetches, m_prefetchHits, m_writebacks);
+    }// toString
+
+    /**
+     * load
+     *
+     * reads a block into a new buffer, evicting the least recently used
+     * block first if the cache is full
+     */
+    private Buffer load(int block) {
+        if (evictIfFull() != 0) {
+            return null;
+        }
+        int[] data = new int[m_dev.getBlockSize()];
+        if (m_dev.readBlocks(block, 1, data) != 0) {
+            return null;
+        }
+        Buffer b = new Buffer(block, data);
+        m_buffers.put(block, b);
+        return b;
+    }// load
+
+    /**
+     * evictIfFull
+     *
+     * makes room for one more block by dropping the least recently used
+     * block that is clean or can be written back
+     *
+     * @return 0 is success; anything else is the failure code of the last
+     *         write-back tried, if no block could be dropped
+     */
+    private int evictIfFull() {
+        if (m_buffers.size() < m_capacity) {
+            return 0;
+        }
+        int err = 0;
+        Iterator<Buffer> it = m_buffers.values().iterator();
+        while (it.hasNext()) {
+            Buffer victim = it.next();
+            if (victim.dirty && (err = writeBack(victim)) != 0) {
+                continue;
+            }
+            it.remove();
+            return 0;
+        }
+        return err;
+    }// evictIfFull
+
+    /**
+     * writeBack
+     *
+     * writes a dirty block to the device, leaving it dirty if that fails
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    private int writeBack(Buffer b) {
+        m_dev.accessTicks(b.block, 1);
+        int err = m_dev.writeBlocks(b.block, 1, b.data);
+        if (err != 0) {
+            return err;
+        }
+        b.dirty = false;
+        m_writebacks++;
+        return 0;
+    }// writeBack
+
+    /**
+     * Buffer
+     *
+     * A cached copy of one block. Callers that modify the data must set the
+     * dirty flag.
+     */
+    public static class Buffer {
+        int block;
+        int[] data;
+        boolean dirty = false;
+        boolean prefetched = false;
+
+        Buffer(int block, int[] data) {
+            this.block = block;
+            this.data = data;
+        }
+    }// class Buffer
+
+};// class BufferCache
@@ -1,6 +1,7 @@
 package sos;
 
 import java.util.*;
+import java.util.function.LongSupplier;
 
 /**
  * This class is the centerpiece of a simulation of the essential hardware of a
@@ -36,6 +37,7 @@ public class CPU {
     public static final int PUSH = 10; // save value to stack
     public static final int LOAD = 11; // load value from heap
     public static final int SAVE = 12; // save value to heap
+    public static final int CAS = 13; // compare and swap reg1 with heap at reg2
     public static final int TRAP = 15; // system call
 
     // These constants define the indexes to each register
@@ -56,45 +58,925 @@ public class CPU {
                                            // args. (Set to a fixed value
                                            // for simplicity.)
     public static final int SPINCREMENT = 1;
+
+    /**
+     * the most ticks the tuned loop runs without looking at its deadline, so
+     * that a {@link #halt} from another thread is noticed promptly
+     **/
+    public static final int POLL_INTERVAL = 1 << 16;
     
+    // ======================================================================
+    // Interfaces
+    // ----------------------------------------------------------------------
+
+    /**
+     * TrapHandler
+     * 
+     * This interface should be implemented by the operating system to allow
+     * the simulated CPU to hand over control on system calls and interrupts.
+     */
+    public interface TrapHandler {
+        /**
+         * called when the CPU executes a TRAP instruction (the PC has
+         * already been advanced past the TRAP)
+         */
+        public void systemCall();
+
+        /**
+         * called when the virtual clock reaches the due time of a device
+         * request
+         * 
+         * @param req
+         *            the completed request
+         */
+        public void interruptIOComplete(IORequest req);
+
+        /**
+         * called every time the clock interval elapses on the virtual clock
+         */
+        public void interruptClock();
+    }// interface TrapHandler
+
+    /**
+     * DebugListener
+     * 
+     * This interface is implemented by a debugger that wants to be told when
+     * the CPU reaches a breakpoint or a watched word of RAM changes. Each
+     * method returns true to let the CPU carry on, or false to stop it: run
+     * returns (with {@link #isDebugStopped} true) and the next call to run
+     * carries on from where it stopped.
+     */
+    public interface DebugListener {
+        /**
+         * called before the instruction at a breakpoint is executed
+         * 
+         * @param offset
+         *            the breakpoint: the instruction's offset in the current
+         *            process's code
+         */
+        public boolean breakpoint(int offset);
+
+        /**
+         * called after an instruction (or anything else that ran since the
+         * one before it, like a system call or DMA) changed a watched word
+         * 
+         * @param address
+         *            the physical address of the word
+         */
+        public boolean watchpoint(int address, int oldValue, int newValue);
+    }// interface DebugListener
+
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+    /**
+     * specifies whether the CPU should output details of its work
+     **/
+    private boolean m_verbose = true;
+
+    /**
+     * This array contains all the registers on the "chip".
+     **/
+    private int m_registers[];
+
+    /**
+     * A pointer to the RAM used by this CPU
+     * 
+     * @see RAM
+     **/
+    private RAM m_RAM = null;
+
+    /**
+     * The interrupt controller devices post their completions to
+     * 
+     * @see InterruptController
+     **/
+    private InterruptController m_IC = null;
+
+    /**
+     * The object (normally the SOS) that handles traps and interrupts. If no
+     * handler is registered a TRAP simply stops the CPU.
+     **/
+    private TrapHandler m_TH = null;
+
+    /**
+     * The shared memory segments mapped into the current process, as
+     * (process-relative address, physical address, size) triples. Only
+     * consulted by LOAD and SAVE when an address is outside BASE..LIM.
+     **/
+    private int[] m_segTable = null;
+
+    /**
+     * The shared code segment of the current process: its physical address
+     * and size (0 if the code is in the process's own memory). Branch
+     * targets are offsets into it and LOAD reads it at process-relative
+     * addresses below its size; the process's own memory starts at BASE +
+     * m_codeSize.
+     **/
+    private int m_codeBase = 0;
+    private int m_codeSize = 0;
+
+    /**
+     * set when {@link #push} or {@link #pop} is asked to go outside the
+     * current process's memory; counts of those and of the PUSH and POP
+     * instructions that faulted for the same reason
+     **/
+    private boolean m_stackFault = false;
+    private long m_stackFaults = 0;
+
+    /**
+     * The virtual clock: the number of instructions executed so far plus any
+     * time spent idle waiting for a device.
+     **/
+    private long m_ticks = 0;
+
+    /**
+     * the number of ticks between clock interrupts (0 means no clock)
+     **/
+    private int m_clockInterval = 0;
+
+    /**
+     * the virtual time of the next clock interrupt
+     **/
+    private long m_nextClock = Long.MAX_VALUE;
+
+    /**
+     * set by {@link #halt} to make {@link #run} return (possibly from another
+     * thread)
+     **/
+    private volatile boolean m_halted = false;
+
+    /**
+     * the virtual time the clock spent idle or was charged for device
+     * accesses, i.e. the ticks that did not retire an instruction
+     **/
+    private long m_stalledTicks = 0;
+
+    /**
+     * how long instructions take (null for one tick each)
+     **/
+    private CostModel m_cost = null;
+
+    /**
+     * the cycles instructions took beyond one each: their extra cost and
+     * mispredictions under the cost model, and the latency of the RAM
+     **/
+    private long m_extraCycles = 0;
+
+    /**
+     * the pipeline timing model following the instructions executed (null
+     * for none)
+     **/
+    private Pipeline m_pipeline = null;
+
+    /**
+     * the number of times {@link #run} stopped because an instruction
+     * faulted rather than because the CPU was halted
+     **/
+    private long m_faults = 0;
+
+    /**
+     * the most instructions to retire before halting
+     **/
+    private long m_instrLimit = Long.MAX_VALUE;
+
+    /**
+     * the virtual time at which the instruction limit is reached
+     **/
+    private long m_limitTick = Long.MAX_VALUE;
+
+    /**
+     * set when the CPU halted because of the instruction limit
+     **/
+    private boolean m_limitReached = false;
+
+    /**
+     * whether {@link #run} counts the opcodes it executes
+     **/
+    private boolean m_profiling = false;
+
+    /**
+     * the number of times each opcode has been executed while profiling
+     **/
+    private long[] m_opCounts = new long[Superinstructions.NUMOPCODES];
+
+    /**
+     * the number of times each opcode (second index) has been executed
+     * straight after the instruction before it in RAM (first index) while
+     * profiling
+     **/
+    private long[][] m_pairCounts = new long[Superinstructions.NUMOPCODES][Superinstructions.NUMOPCODES];
+
+    /**
+     * the address and opcode of the previous instruction profiled (-1 if
+     * none)
+     **/
+    private int m_prevPC = -1;
+    private int m_prevOp = -1;
+
+    /**
+     * the superinstructions marked in newly loaded programs
+     * 
+     * @see Superinstructions
+     **/
+    private int m_fusion = 0;
+
+    /**
+     * the kind of superinstruction starting at each address of RAM (0 if
+     * none); null until fusion is turned on
+     **/
+    private byte[] m_marks = null;
+
+    /**
+     * true if {@link #run} should look for superinstructions, i.e. fusion is
+     * on and neither tracing nor profiling needs to see every instruction
+     **/
+    private boolean m_fuse = false;
+
+    /**
+     * whether backward branches into register-only loops run the loop with
+     * {@link CountedLoop}
+     **/
+    private boolean m_loopFastPath = true;
+
+    /**
+     * true if taken backward branches should look for a counted loop, i.e.
+     * the loop fast path is on and neither tracing nor profiling needs to see
+     * every instruction
+     **/
+    private boolean m_fastLoop = true;
+
+    /**
+     * the loop ending at each instruction address (indexed by address /
+     * INSTRSIZE), {@link CountedLoop#NONE} for branches that do not end a
+     * counted loop, or null if the branch has not been seen
+     **/
+    private CountedLoop[] m_loops = null;
+
+    /**
+     * whether {@link #run} may use {@link #runTuned}
+     **/
+    private boolean m_tuned = true;
+
+    /**
+     * the number of instructions executed by the loop fast path
+     **/
+    private long m_loopInstrs = 0;
+
+    /**
+     * the number of superinstructions executed and the number of
+     * instructions they stood for
+     **/
+    private long m_fusedDispatches = 0;
+    private long m_fusedInstrs = 0;
+
+    /**
+     * the code offsets of the breakpoints
+     **/
+    private BitSet m_breakpoints = new BitSet();
+
+    /**
+     * the physical addresses of the watched words and the values they had
+     * when last looked at
+     **/
+    private int[] m_watches = new int[0];
+    private int[] m_watchValues = new int[0];
+
+    /**
+     * told about breakpoints and watchpoints (null to just stop at them)
+     **/
+    private DebugListener m_debugListener = null;
+
+    /**
+     * true if any breakpoints or watchpoints are set, so that {@link #run}
+     * has to look at every instruction
+     **/
+    private boolean m_debugging = false;
+
+    /**
+     * the address of the instruction the CPU last stopped at for a
+     * breakpoint, which it executes without stopping again when run resumes
+     * (-1 if none)
+     **/
+    private int m_resumePC = -1;
+
+    /**
+     * set when the CPU stopped for a breakpoint or watchpoint
+     **/
+    private boolean m_debugStopped = false;
+
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * CPU ctor
+     * 
+     * Intializes all member variables.
+     */
+    public CPU(RAM ram) {
+        this(ram, new InterruptController());
+    }// CPU ctor
+
+    /**
+     * CPU ctor
+     * 
+     * Intializes all member variables.
+     * 
+     * @param ic
+     *            the interrupt controller the devices of this machine use
+     */
+    public CPU(RAM ram, InterruptController ic) {
+        m_registers = new int[NUMREG];
+        for (int i = 0; i < NUMREG; i++) {
+            m_registers[i] = 0;
+        }
+        m_RAM = ram;
+        m_IC = ic;
+        updateDispatchMode();
+    }// CPU ctor
+
+    /**
+     * registerTrapHandler
+     * 
+     * @param th
+     *            the object that handles system calls and interrupts
+     */
+    public void registerTrapHandler(TrapHandler th) {
+        m_TH = th;
+    }
+
+    /**
+     * setSegmentTable
+     * 
+     * @param table
+     *            the shared segments of the current process as
+     *            (process-relative address, physical address, size) triples,
+     *            or null if it has none
+     */
+    public void setSegmentTable(int[] table) {
+        m_segTable = table;
+    }
+
+    /**
+     * setCodeSegment
+     * 
+     * @param base
+     *            the physical address of the read-only code the current
+     *            process shares with others running the same program
+     * @param size
+     *            the size of the code, or 0 if the process's code is in its
+     *            own memory at BASE
+     */
+    public void setCodeSegment(int base, int size) {
+        m_codeBase = base;
+        m_codeSize = size;
+    }// setCodeSegment
+
+    /**
+     * getInterruptController
+     * 
+     * @return the interrupt controller attached to this CPU
+     */
+    public InterruptController getInterruptController() {
+        return m_IC;
+    }
+
+    /**
+     * getTicks
+     * 
+     * @return the current value of the virtual clock
+     */
+    public long getTicks() {
+        return m_ticks;
+    }
+
+    /**
+     * addTicks
+     * 
+     * advances the virtual clock, e.g. to charge a process for time the
+     * operating system spent waiting on a device on its behalf
+     * 
+     * @param ticks
+     *            the number of ticks to add
+     */
+    public void addTicks(long ticks) {
+        m_ticks += ticks;
+        stall(ticks);
+    }
+
+    public long getFaults() {
+        return m_faults;
+    }
+
+    public long getStackFaults() {
+        return m_stackFaults;
+    }
+
+    /**
+     * getCycles
+     * 
+     * @return the cycles spent executing instructions, including memory
+     *         latency and (with a cost model) opcode costs and branch
+     *         mispredictions, but not time spent idle or charged by the
+     *         operating system
+     */
+    public long getCycles() {
+        return getInstructions() + m_extraCycles;
+    }
+
+    /**
+     * getCPI
+     * 
+     * @return the average cycles per instruction (0 if none have run)
+     */
+    public double getCPI() {
+        long instructions = getInstructions();
+        return instructions == 0 ? 0 : (double) getCycles() / instructions;
+    }
+
+    /**
+     * registerMetrics
+     * 
+     * adds the instructions retired, virtual time, faults and fast path
+     * counts to a metrics registry
+     */
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge(Metrics.INSTRUCTIONS, new LongSupplier() {
+            public long getAsLong() {
+                return getInstructions();
+            }
+        });
+        metrics.gauge("cpu.ticks", new LongSupplier() {
+            public long getAsLong() {
+                return m_ticks;
+            }
+        });
+        metrics.gauge("cpu.stalled_ticks", new LongSupplier() {
+            public long getAsLong() {
+                return m_stalledTicks;
+            }
+        });
+        metrics.gauge("cpu.cycles", new LongSupplier() {
+            public long getAsLong() {
+                return getCycles();
+            }
+        });
+        if (m_cost != null) {
+            final CostModel cost = m_cost;
+            metrics.gauge("cpu.branches", new LongSupplier() {
+                public long getAsLong() {
+                    return cost.getBranches();
+                }
+            });
+            metrics.gauge("cpu.mispredicts", new LongSupplier() {
+                public long getAsLong() {
+                    return cost.getMispredicts();
+                }
+            });
+        }
+        if (m_pipeline != null) {
+            final Pipeline pipeline = m_pipeline;
+            metrics.gauge("cpu.pipeline.cycles", new LongSupplier() {
+                public long getAsLong() {
+                    return pipeline.getCycles();
+                }
+            });
+            metrics.gauge("cpu.pipeline.stalls", new LongSupplier() {
+                public long getAsLong() {
+                    return pipeline.getStalls();
+                }
+            });
+        }
+        metrics.gauge("cpu.stack_faults", new LongSupplier() {
+            public long getAsLong() {
+                return m_stackFaults;
+            }
+        });
+        metrics.gauge("cpu.faults", new LongSupplier() {
+            public long getAsLong() {
+                return m_faults;
+            }
+        });
+        metrics.gauge("cpu.loop_instructions", new LongSupplier() {
+            public long getAsLong() {
+                return m_loopInstrs;
+            }
+        });
+        metrics.gauge("cpu.fused_instructions", new LongSupplier() {
+            public long getAsLong() {
+                return m_fusedInstrs;
+            }
+        });
+    }// registerMetrics
+
+    /**
+     * getInstructions
+     * 
+     * @return the number of instructions retired so far (the virtual clock
+     *         less the time spent idle or charged for device accesses)
+     */
+    public long getInstructions() {
+        return m_ticks - m_stalledTicks;
+    }
+
+    /**
+     * setInstructionLimit
+     * 
+     * @param limit
+     *            the number of instructions after which the CPU halts, or
+     *            Long.MAX_VALUE for no limit
+     */
+    public void setInstructionLimit(long limit) {
+        m_instrLimit = limit;
+        stall(0);
+    }// setInstructionLimit
+
+    /**
+     * isLimitReached
+     * 
+     * @return true if the CPU halted because it reached the instruction
+     *         limit
+     */
+    public boolean isLimitReached() {
+        return m_limitReached;
+    }
+
+    /**
+     * stall
+     * 
+     * records time that passed on the clock without retiring instructions
+     * and moves the instruction limit along with it
+     */
+    private void stall(long ticks) {
+        m_stalledTicks += ticks;
+        m_limitTick = m_instrLimit == Long.MAX_VALUE ? Long.MAX_VALUE
+                : m_instrLimit + m_stalledTicks;
+    }// stall
+
+    /**
+     * setClockInterval
+     * 
+     * @param ticks
+     *            the number of ticks between clock interrupts, or 0 to turn
+     *            the clock off
+     */
+    public void setClockInterval(int ticks) {
+        m_clockInterval = ticks;
+        m_nextClock = ticks > 0 ? m_ticks + ticks : Long.MAX_VALUE;
+    }// setClockInterval
+
+    /**
+     * setVerbose
+     * 
+     * @param verbose
+     *            true to print every instruction and the registers as the
+     *            CPU runs
+     */
+    public void setVerbose(boolean verbose) {
+        m_verbose = verbose;
+        updateDispatchMode();
+    }
+
+    /**
+     * setProfiling
+     * 
+     * @param profiling
+     *            true to count the opcodes and opcode pairs executed
+     *            (superinstructions are not used while profiling)
+     */
+    public void setProfiling(boolean profiling) {
+        m_profiling = profiling;
+        updateDispatchMode();
+    }
+
+    /**
+     * setCostModel
+     * 
+     * @param cost
+     *            how many cycles each instruction takes, or null (the
+     *            default) for one each. Superinstructions and the loop fast
+     *            path are not used with a cost model, since every instruction
+     *            has to be charged for.
+     */
+    public void setCostModel(CostModel cost) {
+        m_cost = cost;
+        updateDispatchMode();
+    }
+
+    public CostModel getCostModel() {
+        return m_cost;
+    }
+
+    /**
+     * setPipeline
+     * 
+     * @param pipeline
+     *            a pipeline timing model to follow every instruction
+     *            executed, or null (the default) for none. The model only
+     *            counts cycles and stalls of its own; registers, memory and
+     *            the virtual clock are the same with or without it.
+     *            Superinstructions and the loop fast path are not used while
+     *            it is set.
+     */
+    public void setPipeline(Pipeline pipeline) {
+        m_pipeline = pipeline;
+        updateDispatchMode();
+    }
+
+    public Pipeline getPipeline() {
+        return m_pipeline;
+    }
+
+    /**
+     * addBreakpoint
+     * 
+     * makes the CPU stop before executing the instruction at the given
+     * offset in the code of whichever process is running, so a breakpoint
+     * set at a label of a shared program is hit by every process running
+     * it. Superinstructions and the loop fast path are not used while any
+     * breakpoints or watchpoints are set; with none the CPU runs at full
+     * speed.
+     * 
+     * @param offset
+     *            the address of the instruction in the program
+     * @return a success/error code (0 is success; anything else is failure)
+     */
+    public int addBreakpoint(int offset) {
+        if (offset < 0 || offset % INSTRSIZE != 0) {
+            return -1;
+        }
+        m_breakpoints.set(offset);
+        updateDispatchMode();
+        return 0;
+    }// addBreakpoint
+
+    public void removeBreakpoint(int offset) {
+        if (offset >= 0) {
+            m_breakpoints.clear(offset);
+        }
+        updateDispatchMode();
+    }
+
+    /**
+     * addWatchpoint
+     * 
+     * makes the CPU stop when the word at the given physical address
+     * changes. It is checked after every instruction, so a change made by a
+     * system call or a device is seen after the next one.
+     * 
+     * @param address
+     *            the physical address to watch
+     * @return a success/error code (0 is success; anything else is failure)
+     */
+    public int addWatchpoint(int address) {
+        if (address < 0 || address >= m_RAM.getSize()) {
+            return -1;
+        }
+        removeWatchpoint(address);
+        int n = m_watches.length;
+        m_watches = Arrays.copyOf(m_watches, n + 1);
+        m_watchValues = Arrays.copyOf(m_watchValues, n + 1);
+        m_watches[n] = address;
+        m_watchValues[n] = m_RAM.fetchWord(address);
+        updateDispatchMode();
+        return 0;
+    }// addWatchpoint
+
+    /**
+     * removeWatchpoint
+     * 
+     * @param address
+     *            the physical address to stop watching
+     */
+    public void removeWatchpoint(int address) {
+        for (int i = 0; i < m_watches.length; i++) {
+            if (m_watches[i] == address) {
+                int n = m_watches.length - 1;
+                m_watches[i] = m_watches[n];
+                m_watchValues[i] = m_watchValues[n];
+                m_watches = Arrays.copyOf(m_watches, n);
+                m_watchValues = Arrays.copyOf(m_watchValues, n);
+                break;
+            }
+        }// for
+        updateDispatchMode();
+    }// removeWatchpoint
+
+    /**
+     * setDebugListener
+     * 
+     * @param listener
+     *            the debugger to tell about breakpoints and watchpoints, or
+     *            null (the default) to stop the CPU at every one
+     */
+    public void setDebugListener(DebugListener listener) {
+        m_debugListener = listener;
+    }
+
+    /**
+     * isDebugStopped
+     * 
+     * @return true if the last call to {@link #run} returned because of a
+     *         breakpoint or watchpoint
+     */
+    public boolean isDebugStopped() {
+        return m_debugStopped;
+    }
+
+    /**
+     * setLoopFastPath
+     * 
+     * @param on
+     *            true (the default) to run register-only counted loops
+     *            without dispatching each instruction
+     */
+    public void setLoopFastPath(boolean on) {
+        m_loopFastPath = on;
+        updateDispatchMode();
+    }
+
+    /**
+     * setTunedInterpreter
+     * 
+     * @param tuned
+     *            true (the default) to let {@link #run} use the tuned
+     *            instruction loop when no tracing or profiling is wanted,
+     *            false to always use the general one
+     */
+    public void setTunedInterpreter(boolean tuned) {
+        m_tuned = tuned;
+    }
 
-    // ======================================================================
-    // Member variables
-    // ----------------------------------------------------------------------
     /**
-     * specifies whether the CPU should output details of its work
-     **/
-    private boolean m_verbose = true;
+     * getLoopInstructions
+     * 
+     * @return the number of instructions executed by the loop fast path
+     */
+    public long getLoopInstructions() {
+        return m_loopInstrs;
+    }
 
     /**
-     * This array contains all the registers on the "chip".
-     **/
-    private int m_registers[];
+     * updateDispatchMode
+     * 
+     * works out which shortcuts {@link #run} may take: none of them while
+     * every instruction has to be traced, profiled, charged for, followed
+     * through the pipeline model or looked at for breakpoints
+     */
+    private void updateDispatchMode() {
+        m_debugging = !m_breakpoints.isEmpty() || m_watches.length > 0;
+        boolean each = m_verbose || m_profiling || m_cost != null
+                || m_pipeline != null || m_debugging;
+        m_fuse = m_fusion != 0 && !each;
+        m_fastLoop = m_loopFastPath && !each;
+    }// updateDispatchMode
 
     /**
-     * A pointer to the RAM used by this CPU
+     * getOpcodeCounts
      * 
-     * @see RAM
-     **/
-    private RAM m_RAM = null;
+     * @return how often each opcode was executed while profiling
+     */
+    public long[] getOpcodeCounts() {
+        return m_opCounts;
+    }
 
-    // ======================================================================
-    // Methods
-    // ----------------------------------------------------------------------
+    /**
+     * getPairCounts
+     * 
+     * @return how often each opcode (second index) was executed straight
+     *         after the instruction before it (first index) while profiling
+     */
+    public long[][] getPairCounts() {
+        return m_pairCounts;
+    }
 
     /**
-     * CPU ctor
+     * setFusion
      * 
-     * Intializes all member variables.
+     * chooses the superinstructions that {@link #markSuperinstructions}
+     * looks for in programs loaded from now on
+     * 
+     * @param mask
+     *            a combination of the Superinstructions kinds, or 0 to
+     *            execute every instruction on its own
      */
-    public CPU(RAM ram) {
-        m_registers = new int[NUMREG];
-        for (int i = 0; i < NUMREG; i++) {
-            m_registers[i] = 0;
+    public void setFusion(int mask) {
+        m_fusion = mask;
+        if (mask != 0 && m_marks == null) {
+            m_marks = new byte[m_RAM.getSize()];
         }
-        m_RAM = ram;
+        updateDispatchMode();
+    }// setFusion
 
-    }// CPU ctor
+    /**
+     * getFusion
+     * 
+     * @return the superinstructions being marked in newly loaded programs
+     */
+    public int getFusion() {
+        return m_fusion;
+    }
+
+    /**
+     * markSuperinstructions
+     * 
+     * Called by the operating system after it copies a program into RAM.
+     * Marks the places where the program contains one of the
+     * superinstructions selected by {@link #setFusion}.
+     * 
+     * @param base
+     *            the address the program was copied to
+     * @param image
+     *            the program
+     */
+    public void markSuperinstructions(int base, int[] image) {
+        if (m_fusion == 0) {
+            return;
+        }
+        markSuperinstructions(base, Superinstructions.scan(image, m_fusion));
+    }// markSuperinstructions
+
+    /**
+     * markSuperinstructions
+     * 
+     * Like {@link #markSuperinstructions(int, int[])} for a program the
+     * operating system has already scanned with
+     * {@link Superinstructions#scan} for the current {@link #getFusion}, so
+     * that a program loaded many times is only scanned once.
+     * 
+     * @param base
+     *            the address the program was copied to
+     * @param marks
+     *            the marks found in the program
+     */
+    public void markSuperinstructions(int base, byte[] marks) {
+        if (m_fusion == 0) {
+            return;
+        }
+        System.arraycopy(marks, 0, m_marks, base, marks.length);
+    }// markSuperinstructions
+
+    /**
+     * forgetLoops
+     * 
+     * Called by the operating system when it puts new code into RAM so that
+     * loops found in the code that was there before are looked for again.
+     * 
+     * @param base
+     *            the first address of the new code
+     * @param size
+     *            the number of words of new code
+     */
+    public void forgetLoops(int base, int size) {
+        if (m_loops == null) {
+            return;
+        }
+        int end = Math.min(m_loops.length, (base + size) / INSTRSIZE + 1);
+        for (int i = Math.max(0, base / INSTRSIZE); i < end; i++) {
+            m_loops[i] = null;
+        }
+    }// forgetLoops
+
+    /**
+     * getFusedDispatches
+     * 
+     * @return the number of superinstructions executed
+     */
+    public long getFusedDispatches() {
+        return m_fusedDispatches;
+    }
+
+    /**
+     * getFusedInstructions
+     * 
+     * @return the number of instructions executed as part of a
+     *         superinstruction
+     */
+    public long getFusedInstructions() {
+        return m_fusedInstrs;
+    }
+
+    /**
+     * halt
+     * 
+     * stops the CPU once the current instruction has finished
+     */
+    public void halt() {
+        m_halted = true;
+    }
+
+    /**
+     * isHalted
+     * 
+     * @return true if the CPU stopped because it was halted (rather than
+     *         because an instruction faulted)
+     */
+    public boolean isHalted() {
+        return m_halted;
+    }
 
     /**
      * getPC
@@ -105,6 +987,16 @@ public class CPU {
         return m_registers[PC];
     }
 
+    /**
+     * getCodeOffset
+     * 
+     * @return the offset of the PC in the current process's code, i.e. the
+     *         address of the next instruction in its program
+     */
+    public int getCodeOffset() {
+        return m_registers[PC] - codeBase();
+    }
+
     /**
      * getSP
      * 
@@ -172,233 +1064,1152 @@ public class CPU {
     }
 
     /**
-     * setLIM
+     * setLIM
+     * 
+     * @param v
+     *            the new value of the limit register
+     */
+    public void setLIM(int v) {
+        m_registers[LIM] = v;
+    }
+
+    /**
+     * regDump
+     * 
+     * Prints the values of the registers. Useful for debugging.
+     */
+    private void regDump() {
+        for (int i = 0; i < NUMGENREG; i++) {
+            System.out.print("r" + i + "=" + m_registers[i] + " ");
+        }// for
+        System.out.print("PC=" + m_registers[PC] + " ");
+        System.out.print("SP=" + m_registers[SP] + " ");
+        System.out.print("BASE=" + m_registers[BASE] + " ");
+        System.out.print("LIM=" + m_registers[LIM] + " ");
+        System.out.println("");
+    }// regDump
+
+    /**
+     * printIntr
+     * 
+     * Prints a given instruction in a user readable format. Useful for
+     * debugging.
+     * 
+     * @param instr
+     *            the current instruction
+     */
+    public static void printInstr(int[] instr) {
+        switch (instr[0]) {
+        case SET:
+            System.out.println("SET R" + instr[1] + " = " + instr[2]);
+            break;
+        case ADD:
+            System.out.println("ADD R" + instr[1] + " = R" + instr[2] + " + R"
+                    + instr[3]);
+            break;
+        case SUB:
+            System.out.println("SUB R" + instr[1] + " = R" + instr[2] + " - R"
+                    + instr[3]);
+            break;
+        case MUL:
+            System.out.println("MUL R" + instr[1] + " = R" + instr[2] + " * R"
+                    + instr[3]);
+            break;
+        case DIV:
+            System.out.println("DIV R" + instr[1] + " = R" + instr[2] + " / R"
+                    + instr[3]);
+            break;
+        case COPY:
+            System.out.println("COPY R" + instr[1] + " = R" + instr[2]);
+            break;
+        case BRANCH:
+            System.out.println("BRANCH @" + instr[1]);
+            break;
+        case BNE:
+            System.out.println("BNE (R" + instr[1] + " != R" + instr[2] + ") @"
+                    + instr[3]);
+            break;
+        case BLT:
+            System.out.println("BLT (R" + instr[1] + " < R" + instr[2] + ") @"
+                    + instr[3]);
+            break;
+        case POP:
+            System.out.println("POP R" + instr[1]);
+            break;
+        case PUSH:
+            System.out.println("PUSH R" + instr[1]);
+            break;
+        case LOAD:
+            System.out.println("LOAD R" + instr[1] + " <-- @R" + instr[2]);
+            break;
+        case SAVE:
+            System.out.println("SAVE R" + instr[1] + " --> @R" + instr[2]);
+            break;
+        case CAS:
+            System.out.println("CAS R" + instr[1] + " <-> @R" + instr[2]
+                    + " if equal, new = R" + instr[3]);
+            break;
+        case TRAP:
+            System.out.print("TRAP ");
+            break;
+        default: // should never be reached
+            System.out.println("?? ");
+            break;
+        }// switch
+
+    }// printInstr
+
+    /**
+     * This method is the main run method for the CPU. 
+     * It continuously fetches instructions to be decoded and executed,
+     * starting at the (physical) address in the PC, which the operating
+     * system sets when it creates a process.
+     * If verbose mode is on, it will call the regDump() and printInstr() 
+     * methods that are above. Device and clock interrupts are delivered
+     * between instructions and TRAPs are passed to the registered
+     * TrapHandler; the loop ends when the handler halts the CPU.
+     * 
+     * Unless tracing, profiling, a cost model, the pipeline model or
+     * breakpoints are wanted the work is done by
+     * {@link #runTuned}, otherwise by {@link #runGeneral}.
+     * Both give the same results.
+     * 
+     * Everything that takes time is on the virtual clock: each instruction
+     * takes a tick (or its cycles under a {@link CostModel}), the RAM's
+     * latency is added for every access (see
+     * {@link #chargeMemoryStalls}), and device, DMA and clock interrupts are
+     * events due at a virtual time. Time when no process can run is skipped
+     * by {@link #idle}, so the simulated timing does not depend on the host.
+     */
+    public void run() {
+        m_halted = false;
+        m_debugStopped = false;
+
+        try {
+            if (m_tuned && !m_verbose && !m_profiling && m_cost == null
+                    && m_pipeline == null && !m_debugging) {
+                runTuned();
+            } else {
+                runGeneral();
+            }
+            chargeMemoryStalls();
+        } catch (RuntimeException e) {
+            m_faults++;
+            throw e;
+        }
+        if (!m_halted) {
+            m_faults++;
+        }
+    }// run
+
+    /**
+     * runGeneral
+     * 
+     * The instruction loop that supports every feature of the CPU: it
+     * fetches each instruction into an array and goes through the register
+     * accessors, with tracing, profiling and superinstructions checked on
+     * every instruction.
+     */
+    private void runGeneral() {
+        while (!m_halted) {
+            chargeMemoryStalls();
+
+            // deliver any interrupts that have come due
+            if (m_ticks >= m_IC.nextDue() || m_ticks >= m_nextClock
+                    || m_ticks >= m_limitTick) {
+                checkForInterrupts();
+                if (m_halted) {
+                    return;
+                }
+            }
+
+            if (m_fuse) {
+                int kind = m_marks[this.m_registers[PC]];
+                if (kind != 0) {
+                    int done = executeFused(kind);
+                    if (done < 0) {
+                        return;
+                    } else if (done > 0) {
+                        continue;
+                    }
+                }
+            }
+
+            if (m_debugging && !checkBreakpoint()) {
+                return;
+            }
+
+            int[] instr = this.m_RAM.fetch(this.m_registers[PC]);
+            m_ticks++;
+
+            if (m_verbose == true) {
+                regDump();
+                printInstr(instr);
+            }
+            if (m_profiling) {
+                profile(instr[0]);
+            }
+
+            int pc = m_registers[PC];
+            boolean ok = execute(instr);
+            if (m_cost != null) {
+                chargeCycles(instr, pc);
+            }
+            if (m_pipeline != null) {
+                m_pipeline.issue(instr, m_registers[PC] != pc + INSTRSIZE);
+            }
+            if (!ok) {
+                return;
+            }
+            if (m_debugging && !checkWatchpoints()) {
+                return;
+            }
+        }// while
+    }// runGeneral
+
+    /**
+     * checkBreakpoint
+     * 
+     * @return false if the instruction about to be executed is at a
+     *         breakpoint and the CPU has been stopped for it
+     */
+    private boolean checkBreakpoint() {
+        int pc = m_registers[PC];
+        int offset = pc - codeBase();
+        if (pc == m_resumePC || offset < 0 || !m_breakpoints.get(offset)) {
+            m_resumePC = -1;
+            return true;
+        }
+        if (m_debugListener != null && m_debugListener.breakpoint(offset)) {
+            return true;
+        }
+        m_resumePC = pc;
+        debugStop();
+        return false;
+    }// checkBreakpoint
+
+    /**
+     * checkWatchpoints
+     * 
+     * @return false if a watched word has changed and the CPU has been
+     *         stopped for it
+     */
+    private boolean checkWatchpoints() {
+        boolean go = true;
+        for (int i = 0; i < m_watches.length; i++) {
+            int value = m_RAM.fetchWord(m_watches[i]);
+            if (value != m_watchValues[i]) {
+                int old = m_watchValues[i];
+                m_watchValues[i] = value;
+                go &= m_debugListener != null
+                        && m_debugListener.watchpoint(m_watches[i], old,
+                                value);
+            }
+        }// for
+        if (!go) {
+            debugStop();
+        }
+        return go;
+    }// checkWatchpoints
+
+    /**
+     * debugStop
+     * 
+     * stops the CPU for a breakpoint or watchpoint, so that {@link #run}
+     * returns as it does when halted
+     */
+    private void debugStop() {
+        m_debugStopped = true;
+        m_halted = true;
+    }
+
+    /**
+     * chargeCycles
+     * 
+     * advances the virtual clock by the cycles an instruction took beyond
+     * the tick it has already been given, under the cost model
+     * 
+     * @param instr
+     *            the instruction that has just been executed
+     * @param pc
+     *            its address
+     */
+    private void chargeCycles(int[] instr, int pc) {
+        int extra = m_cost.cost(instr[0]) - 1;
+        if (instr[0] == BNE || instr[0] == BLT) {
+            boolean taken = m_registers[PC] != pc + INSTRSIZE;
+            extra += m_cost.branch(instr[0], pc,
+                    branchAddress(instr[3]) < pc, taken);
+        }
+        if (extra > 0) {
+            m_extraCycles += extra;
+            addTicks(extra);
+        }
+    }// chargeCycles
+
+    /**
+     * chargeMemoryStalls
+     * 
+     * advances the virtual clock by the latency of the RAM accesses made by
+     * the last instruction (and by the operating system since, e.g. in a
+     * system call)
+     */
+    private void chargeMemoryStalls() {
+        long ticks = m_RAM.takeStallTicks();
+        if (ticks != 0) {
+            m_extraCycles += ticks;
+            addTicks(ticks);
+        }
+    }// chargeMemoryStalls
+
+    /**
+     * addAccesses
      * 
-     * @param v
-     *            the new value of the limit register
+     * adds the reads and writes the tuned loop has made straight on the
+     * RAM's array to its counts, and charges their latency the way
+     * {@link #chargeMemoryStalls} would have. The clock has already been
+     * advanced by it.
      */
-    public void setLIM(int v) {
-        m_registers[LIM] = v;
-    }
+    private void addAccesses(long reads, long writes, int latency) {
+        m_RAM.addAccesses(reads, writes);
+        long ticks = (reads + writes) * latency;
+        if (ticks != 0) {
+            m_extraCycles += ticks;
+            stall(ticks);
+        }
+    }// addAccesses
 
     /**
-     * regDump
+     * runTuned
      * 
-     * Prints the values of the registers. Useful for debugging.
+     * The same instruction loop as {@link #runGeneral} with the common cases
+     * written for speed. Instructions are read straight out of the RAM's
+     * array, and the PC, SP, BASE and LIM registers and the clock are kept
+     * in local variables. Interrupts are only looked for once the next one
+     * is due. The locals are written back before anything outside the loop
+     * can see the registers: system calls, interrupts, the loop fast path
+     * and returning. The RAM's latency is added to the clock by each access
+     * made here; the stalls of accesses made outside the loop are charged
+     * as soon as it gets control back, except that those of an interrupt
+     * handler are charged after the next instruction, as in the general
+     * loop. An instruction that names PC, SP, BASE or LIM as an
+     * operand, faults, or reaches a shared segment is executed by
+     * {@link #execute} instead.
+     * 
+     * With fusion on, the first instruction of a superinstruction falls
+     * straight into the next one without going round the loop, for as long
+     * as they are in the fast path and no interrupt is due. Whatever is left
+     * over is dispatched as usual.
      */
-    private void regDump() {
-        for (int i = 0; i < NUMGENREG; i++) {
-            System.out.print("r" + i + "=" + m_registers[i] + " ");
-        }// for
-        System.out.print("PC=" + m_registers[PC] + " ");
-        System.out.print("SP=" + m_registers[SP] + " ");
-        System.out.print("BASE=" + m_registers[BASE] + " ");
-        System.out.print("LIM=" + m_registers[LIM] + " ");
-        System.out.println("");
-    }// regDump
+    private void runTuned() {
+        chargeMemoryStalls();
+        final int[] mem = m_RAM.getMemory();
+        final int[] r = m_registers;
+        int pc = r[PC];
+        int sp = r[SP];
+        int base = r[BASE];
+        int lim = r[LIM];
+        int low = base + m_codeSize; // the first word of the process's memory
+        int cbase = codeBase(); // branch targets are in cbase..clim
+        int clim = codeLimit();
+        long ticks = m_ticks;
+        long deadline = nextDeadline();
+        boolean synced = false;
+        long reads = 0; // memory traffic not yet added to the RAM's counts
+        long writes = 0;
+        final int latency = m_RAM.getLatency();
+        final long access = 1 + latency; // the ticks of a memory access
+        final byte[] marks = m_fuse ? m_marks : null;
+
+        try {
+            while (true) {
+                // deliver any interrupts that have come due
+                int op;
+                if (ticks >= deadline) {
+                    r[PC] = pc;
+                    r[SP] = sp;
+                    m_ticks = ticks;
+                    synced = true;
+                    addAccesses(reads, writes, latency);
+                    reads = writes = 0;
+                    checkForInterrupts();
+                    if (m_halted) {
+                        return;
+                    }
+                    synced = false;
+                    pc = r[PC];
+                    sp = r[SP];
+                    base = r[BASE];
+                    lim = r[LIM];
+                    low = base + m_codeSize;
+                    cbase = codeBase();
+                    clim = codeLimit();
+                    ticks = m_ticks;
+                    deadline = nextDeadline();
+                    // the stalls of the handlers are charged after the next
+                    // instruction, which goes the long way round to do it
+                    op = m_RAM.getStallTicks() == 0 ? mem[pc] : -1;
+                } else {
+                    op = mem[pc];
+                }
+
+                int a = mem[pc + 1];
+                int b = mem[pc + 2];
+                int c = mem[pc + 3];
+                int addr;
+
+                switch (op) {
+                case SUB:
+                    if (a < PC && b < PC && c < PC) {
+                        r[a] = r[b] - r[c];
+                        pc += INSTRSIZE;
+                        ticks++;
+                        continue;
+                    }
+                    break;
+                case MUL:
+                    if (a < PC && b < PC && c < PC) {
+                        r[a] = r[b] * r[c];
+                        pc += INSTRSIZE;
+                        ticks++;
+                        continue;
+                    }
+                    break;
+                case DIV:
+                    if (a < PC && b < PC && c < PC) {
+                        r[a] = r[b] / r[c];
+                        pc += INSTRSIZE;
+                        ticks++;
+                        continue;
+                    }
+                    break;
+                case COPY:
+                    if (a < PC && b < PC) {
+                        r[a] = r[b];
+                        pc += INSTRSIZE;
+                        ticks++;
+                        continue;
+                    }
+                    break;
+                case BRANCH:
+                    addr = cbase + a;
+                    if (addr >= cbase && addr >= 0 && addr <= clim) {
+                        pc = addr;
+                        ticks++;
+                        continue;
+                    }
+                    break;
+                case ADD:
+                    if (a >= PC || b >= PC || c >= PC) {
+                        break;
+                    }
+                    r[a] = r[b] + r[c];
+                    pc += INSTRSIZE;
+                    ticks++;
+                    if (marks == null
+                            || marks[pc - INSTRSIZE]
+                                    != Superinstructions.ADD_BNE
+                            || ticks >= deadline || mem[pc] != BNE) {
+                        continue;
+                    }
+                    // the BNE of an ADD+BNE
+                    m_fusedDispatches++;
+                    m_fusedInstrs += 2;
+                    op = BNE;
+                    a = mem[pc + 1];
+                    b = mem[pc + 2];
+                    c = mem[pc + 3];
+                    // fall through
+                case BNE:
+                case BLT:
+                    if (a < PC && b < PC) {
+                        if (op == BNE ? r[a] == r[b] : r[a] >= r[b]) {
+                            pc += INSTRSIZE;
+                            ticks++;
+                            continue;
+                        }
+                        addr = cbase + c;
+                        if (addr < cbase || addr < 0 || addr > clim) {
+                            break;
+                        }
+                        ticks++;
+                        if (m_fastLoop && addr < pc) {
+                            m_ticks = ticks;
+                            runLoop(pc, addr);
+                            pc = r[PC];
+                            ticks = m_ticks;
+                        } else {
+                            pc = addr;
+                        }
+                        continue;
+                    }
+                    break;
+                case POP:
+                    if (a < PC && sp + SPINCREMENT >= low
+                            && sp + SPINCREMENT <= lim) {
+                        sp += SPINCREMENT;
+                        r[a] = mem[sp];
+                        reads++;
+                        pc += INSTRSIZE;
+                        ticks += access;
+                        continue;
+                    }
+                    break;
+                case SET:
+                    if (a >= PC) {
+                        break;
+                    }
+                    r[a] = b;
+                    pc += INSTRSIZE;
+                    ticks++;
+                    if (marks == null
+                            || marks[pc - INSTRSIZE]
+                                    != Superinstructions.SET_PUSH
+                            || ticks >= deadline || mem[pc] != PUSH) {
+                        continue;
+                    }
+                    // the PUSH of a SET+PUSH
+                    m_fusedDispatches++;
+                    m_fusedInstrs += 2;
+                    a = mem[pc + 1];
+                    // fall through
+                case PUSH:
+                    if (a < PC && sp >= low && sp <= lim) {
+                        mem[sp] = r[a];
+                        writes++;
+                        sp -= SPINCREMENT;
+                        pc += INSTRSIZE;
+                        ticks += access;
+                        continue;
+                    }
+                    break;
+                case LOAD:
+                    if (a >= PC || b >= PC) {
+                        break;
+                    }
+                    addr = base + r[b];
+                    if (addr < low || addr > lim || addr < 0) {
+                        break;
+                    }
+                    r[a] = mem[addr];
+                    reads++;
+                    pc += INSTRSIZE;
+                    ticks += access;
+                    if (marks == null
+                            || marks[pc - INSTRSIZE]
+                                    != Superinstructions.LOAD_ADD_SAVE
+                            || ticks >= deadline || mem[pc] != ADD
+                            || mem[pc + 4] != SAVE) {
+                        continue;
+                    }
+                    // the ADD and SAVE of a LOAD+ADD+SAVE
+                    a = mem[pc + 1];
+                    b = mem[pc + 2];
+                    c = mem[pc + 3];
+                    if (a >= PC || b >= PC || c >= PC) {
+                        continue;
+                    }
+                    r[a] = r[b] + r[c];
+                    pc += INSTRSIZE;
+                    ticks++;
+                    m_fusedDispatches++;
+                    m_fusedInstrs += 2;
+                    if (ticks >= deadline) {
+                        continue;
+                    }
+                    m_fusedInstrs++;
+                    a = mem[pc + 1];
+                    b = mem[pc + 2];
+                    // fall through
+                case SAVE:
+                    if (a < PC && b < PC) {
+                        addr = base + r[b];
+                        if (addr >= low && addr <= lim && addr >= 0) {
+                            mem[addr] = r[a];
+                            writes++;
+                            pc += INSTRSIZE;
+                            ticks += access;
+                            continue;
+                        }
+                    }
+                    break;
+                case TRAP:
+                    if (m_TH == null) {
+                        break;
+                    }
+                    ticks++;
+                    r[PC] = pc + INSTRSIZE;
+                    r[SP] = sp;
+                    m_ticks = ticks;
+                    synced = true;
+                    addAccesses(reads, writes, latency);
+                    reads = writes = 0;
+                    m_TH.systemCall();
+                    if (m_halted) {
+                        return;
+                    }
+                    chargeMemoryStalls();
+                    synced = false;
+                    pc = r[PC];
+                    sp = r[SP];
+                    base = r[BASE];
+                    lim = r[LIM];
+                    low = base + m_codeSize;
+                    cbase = codeBase();
+                    clim = codeLimit();
+                    ticks = m_ticks;
+                    deadline = nextDeadline();
+                    continue;
+                default:
+                    break;
+                }// switch
+
+                // everything else goes the long way round
+                r[PC] = pc;
+                r[SP] = sp;
+                m_ticks = ticks;
+                synced = true;
+                addAccesses(reads, writes, latency);
+                reads = writes = 0;
+                int[] instr = m_RAM.fetch(pc);
+                m_ticks++;
+                if (!execute(instr) || m_halted) {
+                    return;
+                }
+                chargeMemoryStalls();
+                synced = false;
+                pc = r[PC];
+                sp = r[SP];
+                base = r[BASE];
+                lim = r[LIM];
+                low = base + m_codeSize;
+                cbase = codeBase();
+                clim = codeLimit();
+                ticks = m_ticks;
+                deadline = nextDeadline();
+            }// while
+        } catch (RuntimeException e) {
+            // leave the registers as the general loop would have: an
+            // instruction that could be fetched has been counted
+            if (!synced) {
+                addAccesses(reads, writes, latency);
+                r[PC] = pc;
+                r[SP] = sp;
+                m_ticks = pc >= 0 && pc + INSTRSIZE <= mem.length ? ticks + 1
+                        : ticks;
+            }
+            throw e;
+        }
+    }// runTuned
 
     /**
-     * printIntr
+     * execute
      * 
-     * Prints a given instruction in a user readable format. Useful for
-     * debugging.
+     * Decodes and executes a single instruction that has already been
+     * fetched (and counted on the virtual clock).
      * 
      * @param instr
-     *            the current instruction
+     *            the instruction
+     * @return false if the instruction faulted and the CPU must stop
      */
-    public static void printInstr(int[] instr) {
+    private boolean execute(int[] instr) {
+        int physicalAddress;
+
+        // Decode and execute
         switch (instr[0]) {
         case SET:
-            System.out.println("SET R" + instr[1] + " = " + instr[2]);
+            this.m_registers[instr[1]] = instr[2];
+            incrementPC();
             break;
         case ADD:
-            System.out.println("ADD R" + instr[1] + " = R" + instr[2] + " + R"
-                    + instr[3]);
+            this.m_registers[instr[1]] = this.m_registers[instr[2]]
+                    + this.m_registers[instr[3]];
+            incrementPC();
             break;
-        case SUB:
-            System.out.println("SUB R" + instr[1] + " = R" + instr[2] + " - R"
-                    + instr[3]);
+        case SUB:          
+            this.m_registers[instr[1]] = this.m_registers[instr[2]]
+                    - this.m_registers[instr[3]];
+            incrementPC();
             break;
         case MUL:
-            System.out.println("MUL R" + instr[1] + " = R" + instr[2] + " * R"
-                    + instr[3]);
+            this.m_registers[instr[1]] = this.m_registers[instr[2]]
+                    * this.m_registers[instr[3]];
+            incrementPC();
             break;
         case DIV:
-            System.out.println("DIV R" + instr[1] + " = R" + instr[2] + " / R"
-                    + instr[3]);
+            this.m_registers[instr[1]] = this.m_registers[instr[2]]
+                    / this.m_registers[instr[3]];
+            incrementPC();
             break;
         case COPY:
-            System.out.println("COPY R" + instr[1] + " = R" + instr[2]);
+            this.m_registers[instr[1]] = this.m_registers[instr[2]];
+            incrementPC();
             break;
         case BRANCH:
-            System.out.println("BRANCH @" + instr[1]);
+            physicalAddress = branchAddress(instr[1]);
+            if (physicalAddress >= 0) {
+                this.setPC(physicalAddress);
+            } else {
+                return false;
+            }
             break;
         case BNE:
-            System.out.println("BNE (R" + instr[1] + " != R" + instr[2] + ") @"
-                    + instr[3]);
+            if (this.m_registers[instr[1]] != this.m_registers[instr[2]]) {
+                physicalAddress = branchAddress(instr[3]);
+                if (physicalAddress < 0) {
+                    return false;
+                } else if (m_fastLoop && physicalAddress < getPC()) {
+                    runLoop(getPC(), physicalAddress);
+                } else {
+                    this.setPC(physicalAddress);
+                }
+            } else {
+                incrementPC();
+            }
             break;
         case BLT:
-            System.out.println("BLT (R" + instr[1] + " < R" + instr[2] + ") @"
-                    + instr[3]);
+            if (this.m_registers[instr[1]] < this.m_registers[instr[2]]) {
+                physicalAddress = branchAddress(instr[3]);
+                if (physicalAddress < 0) {
+                    return false;
+                } else if (m_fastLoop && physicalAddress < getPC()) {
+                    runLoop(getPC(), physicalAddress);
+                } else {
+                    this.setPC(physicalAddress);
+                }
+            } else {
+                incrementPC();
+            }
             break;
         case POP:
-            System.out.println("POP R" + instr[1]);
+            if (!checkAddress(getSP() + SPINCREMENT)) {
+                m_stackFaults++;
+                return false;
+            }
+            this.m_registers[instr[1]] = this.pop();
+            incrementPC();
             break;
         case PUSH:
-            System.out.println("PUSH R" + instr[1]);
+            if (!checkAddress(getSP())) {
+                m_stackFaults++;
+                return false;
+            }
+            this.push(this.m_registers[instr[1]]);
+            incrementPC();
             break;
         case LOAD:
-            System.out.println("LOAD R" + instr[1] + " <-- @R" + instr[2]);
+            physicalAddress = loadAddress(this.m_registers[instr[2]]);
+            if (physicalAddress < 0) {
+                return false;
+            }
+            this.m_registers[instr[1]] = this.m_RAM.read(physicalAddress);
+            incrementPC();
             break;
         case SAVE:
-            System.out.println("SAVE R" + instr[1] + " --> @R" + instr[2]);
+            physicalAddress = dataAddress(this.m_registers[instr[2]]);
+            if (physicalAddress < 0) {
+                return false;
+            }
+            this.m_RAM.write(physicalAddress, this.m_registers[instr[1]]);
+            incrementPC();
+            break;
+        case CAS:
+            // if the word at the address equals reg1 replace it with
+            // reg3; either way reg1 gets the old value of the word
+            physicalAddress = dataAddress(this.m_registers[instr[2]]);
+            if (physicalAddress < 0) {
+                return false;
+            }
+            this.m_registers[instr[1]] = this.m_RAM.compareAndSwap(
+                    physicalAddress, this.m_registers[instr[1]],
+                    this.m_registers[instr[3]]);
+            incrementPC();
             break;
         case TRAP:
-            System.out.print("TRAP ");
+            if (m_TH == null) {
+                return false;
+            }
+            incrementPC();
+            m_TH.systemCall();
             break;
         default: // should never be reached
-            System.out.println("?? ");
+            if (m_verbose) {
+                System.out.println("?? ");
+            }
             break;
         }// switch
-
-    }// printInstr
+        return true;
+    }// execute
 
     /**
-     * This method is the main run method for the CPU. 
-     * It first adjusts the PC pointer to the offset amount, 
-     * then continuously fetches instructions to be decoded and executed. 
-     * If verbose mode is on, it will call the regDump() and printInstr() 
-     * methods that are above. 
+     * profile
+     * 
+     * counts an instruction that is about to execute, and the pair it makes
+     * with the previous one if that was the instruction before it in RAM
+     * 
+     * @param op
+     *            the opcode of the instruction
      */
-    public void run() {
-        //adjust starting PC register
-        this.m_registers[PC] += this.getBASE();
-        
-        while (true) {
-            int[] instr = this.m_RAM.fetch(this.m_registers[PC]);
-
-            if (m_verbose == true) {
-                regDump();
-                printInstr(instr);
+    private void profile(int op) {
+        int pc = m_registers[PC];
+        if (op < 0 || op >= Superinstructions.NUMOPCODES) {
+            op = -1;
+        } else {
+            m_opCounts[op]++;
+            if (m_prevOp >= 0 && pc == m_prevPC + INSTRSIZE) {
+                m_pairCounts[m_prevOp][op]++;
             }
+        }
+        m_prevPC = pc;
+        m_prevOp = op;
+    }// profile
 
-            int physicalAddress;
+    /**
+     * executeFused
+     * 
+     * Executes the superinstruction marked at the PC. Each instruction has
+     * exactly the effect it would have on its own: the PC, the virtual clock
+     * and any fault are the same as if they were dispatched one at a time.
+     * Nothing is done if the instructions in RAM no longer match the mark, if
+     * the first one would write the PC, or if an interrupt would come due
+     * between them, counting the RAM latency that would be charged to the
+     * clock before the last one.
+     * 
+     * @param kind
+     *            the kind of superinstruction marked
+     * @return 1 if it was executed, 0 if the caller must execute the next
+     *         instruction on its own, or -1 if an instruction faulted (the PC
+     *         is left at that instruction)
+     */
+    private int executeFused(int kind) {
+        int pc = m_registers[PC];
+        int n = kind == Superinstructions.LOAD_ADD_SAVE ? 3 : 2;
+        // the stalls not charged yet, and the LOAD's, come before the rest
+        long last = m_ticks + n - 1 + m_RAM.getStallTicks();
+        if (kind == Superinstructions.LOAD_ADD_SAVE) {
+            last += m_RAM.getLatency();
+        }
+        if (last >= m_IC.nextDue() || last >= m_nextClock
+                || last >= m_limitTick || pc + n * INSTRSIZE > m_RAM.getSize()) {
+            return 0;
+        }
 
-            // Decode and execute
-            switch (instr[0]) {
-            case SET:
-                this.m_registers[instr[1]] = instr[2];
-                incrementPC();
-                break;
-            case ADD:
-                this.m_registers[instr[1]] = this.m_registers[instr[2]]
-                        + this.m_registers[instr[3]];
-                incrementPC();
-                break;
-            case SUB:          
-                this.m_registers[instr[1]] = this.m_registers[instr[2]]
-                        - this.m_registers[instr[3]];
-                incrementPC();
-                break;
-            case MUL:
-                this.m_registers[instr[1]] = this.m_registers[instr[2]]
-                        * this.m_registers[instr[3]];
-                incrementPC();
-                break;
-            case DIV:
-                this.m_registers[instr[1]] = this.m_registers[instr[2]]
-                        / this.m_registers[instr[3]];
-                incrementPC();
-                break;
-            case COPY:
-                this.m_registers[instr[1]] = this.m_registers[instr[2]];
-                incrementPC();
-                break;
-            case BRANCH:
-                physicalAddress = this.adjustOffset(instr[1]);
-                if (checkAddress(physicalAddress)) {
-                    this.setPC(physicalAddress);
-                } else {
-                    return;
-                }
-                break;
-            case BNE:
-                if (this.m_registers[instr[1]] != this.m_registers[instr[2]]) {
-                    physicalAddress = this.adjustOffset(instr[3]);
-                    if (checkAddress(physicalAddress)) {
-                        this.setPC(physicalAddress);
-                    } else {
-                        return;
-                    }
-                } else {
-                    incrementPC();
-                }
-                break;
-            case BLT:
-                if (this.m_registers[instr[1]] < this.m_registers[instr[2]]) {
-                    physicalAddress = this.adjustOffset(instr[3]);
-                    if (checkAddress(physicalAddress)) {
-                        this.setPC(physicalAddress);
-                    } else {
-                        return;
-                    }
-                } else {
-                    incrementPC();
-                }
-                break;
-            case POP:
-                this.m_registers[instr[1]] = this.pop();
-                incrementPC();
-                break;
-            case PUSH:
-                this.push(this.m_registers[instr[1]]);
-                incrementPC();
-                break;
-            case LOAD:
-                physicalAddress = this.adjustOffset(this.m_registers[instr[2]]);
-                if (checkAddress(physicalAddress)) {
-                    this.m_registers[instr[1]] = this.m_RAM
-                            .read(physicalAddress);
-                } else {
-                    return;
-                }
-                incrementPC();
-                break;
-            case SAVE:
-                physicalAddress = this.adjustOffset(this.m_registers[instr[2]]);
-                if (checkAddress(physicalAddress)) {
-                    this.m_RAM.write(physicalAddress,
-                            this.m_registers[instr[1]]);
+        RAM ram = m_RAM;
+        int[] r = m_registers;
+        int a1 = ram.fetchWord(pc + 1);
+        int a2 = ram.fetchWord(pc + 2);
+        int a3 = ram.fetchWord(pc + 3);
+        int addr;
+
+        switch (kind) {
+        case Superinstructions.ADD_BNE:
+            if (ram.fetchWord(pc) != ADD || ram.fetchWord(pc + 4) != BNE
+                    || a1 == PC) {
+                return 0;
+            }
+            r[a1] = r[a2] + r[a3];
+            r[PC] = pc + INSTRSIZE;
+            m_ticks += 2;
+            if (r[ram.fetchWord(pc + 5)] != r[ram.fetchWord(pc + 6)]) {
+                addr = branchAddress(ram.fetchWord(pc + 7));
+                if (addr < 0) {
+                    return -1;
+                } else if (m_fastLoop && addr <= pc) {
+                    runLoop(pc + INSTRSIZE, addr);
                 } else {
-                    return;
+                    r[PC] = addr;
                 }
-                incrementPC();
-                break;
-            case TRAP:
-                return;
-            default: // should never be reached
-                System.out.println("?? ");
-                break;
-            }// switch
-        }// while
-    }// run
+            } else {
+                r[PC] = pc + 2 * INSTRSIZE;
+            }
+            break;
+        case Superinstructions.SET_PUSH:
+            if (ram.fetchWord(pc) != SET || ram.fetchWord(pc + 4) != PUSH
+                    || a1 == PC) {
+                return 0;
+            }
+            r[a1] = a2;
+            r[PC] = pc + INSTRSIZE;
+            m_ticks += 2;
+            if (!checkAddress(r[SP])) {
+                m_stackFaults++;
+                return -1;
+            }
+            push(r[ram.fetchWord(pc + 5)]);
+            r[PC] = pc + 2 * INSTRSIZE;
+            break;
+        case Superinstructions.LOAD_ADD_SAVE:
+            if (ram.fetchWord(pc) != LOAD || ram.fetchWord(pc + 4) != ADD
+                    || ram.fetchWord(pc + 8) != SAVE || a1 == PC
+                    || ram.fetchWord(pc + 5) == PC) {
+                return 0;
+            }
+            m_ticks++;
+            addr = loadAddress(r[a2]);
+            if (addr < 0) {
+                return -1;
+            }
+            r[a1] = ram.read(addr);
+            r[PC] = pc + INSTRSIZE;
+            r[ram.fetchWord(pc + 5)] = r[ram.fetchWord(pc + 6)]
+                    + r[ram.fetchWord(pc + 7)];
+            r[PC] = pc + 2 * INSTRSIZE;
+            m_ticks += 2;
+            addr = dataAddress(r[ram.fetchWord(pc + 10)]);
+            if (addr < 0) {
+                return -1;
+            }
+            ram.write(addr, r[ram.fetchWord(pc + 9)]);
+            r[PC] = pc + 3 * INSTRSIZE;
+            break;
+        default:
+            return 0;
+        }// switch
+
+        m_fusedDispatches++;
+        m_fusedInstrs += n;
+        return 1;
+    }// executeFused
+
+    /**
+     * runLoop
+     * 
+     * Called when a branch back to an earlier instruction is taken. If the
+     * branch ends a register-only loop, runs as many iterations as fit before
+     * the next interrupt is due, then leaves the PC at the head of the loop
+     * (more iterations to go) or after the branch (the loop has ended), with
+     * the registers and clock as if every instruction had been dispatched.
+     * 
+     * @param branch
+     *            the address of the branch
+     * @param head
+     *            the address the branch goes to
+     */
+    private void runLoop(int branch, int head) {
+        m_registers[PC] = head;
+        if (m_loops == null) {
+            m_loops = new CountedLoop[m_RAM.getSize() / INSTRSIZE + 1];
+        }
+        int slot = branch / INSTRSIZE;
+        CountedLoop loop = m_loops[slot];
+        if (loop == null
+                || (loop != CountedLoop.NONE && (loop.getHead() != head || !loop
+                        .matches(m_RAM)))) {
+            loop = CountedLoop.decode(m_RAM, head, branch);
+            m_loops[slot] = loop;
+        }
+        if (loop == CountedLoop.NONE) {
+            return;
+        }
+
+        // an interrupt is checked for before every instruction, so only
+        // iterations that finish before the next one is due can be batched
+        int length = loop.getLength();
+        long budget = nextDeadline() - m_ticks;
+        long maxIter = budget / length;
+        if (maxIter <= 0) {
+            return;
+        }
+
+        long iter = loop.run(m_registers, maxIter);
+        m_ticks += iter * length;
+        m_loopInstrs += iter * length;
+        if (!loop.taken(m_registers)) {
+            m_registers[PC] = branch + INSTRSIZE;
+        }
+    }// runLoop
+
+    /**
+     * nextDeadline
+     * 
+     * @return the virtual time by which {@link #checkForInterrupts} must be
+     *         called: the next device interrupt, clock interrupt or the
+     *         instruction limit, and at most {@link #POLL_INTERVAL} ticks away
+     */
+    private long nextDeadline() {
+        long deadline = Math.min(m_IC.nextDue(), m_nextClock);
+        deadline = Math.min(deadline, m_limitTick);
+        return Math.min(deadline, m_ticks + POLL_INTERVAL);
+    }// nextDeadline
+
+    /**
+     * checkForInterrupts
+     * 
+     * Halts the CPU if the instruction limit has been reached, otherwise
+     * delivers the device interrupts that have come due and then the clock
+     * interrupt if the clock interval has elapsed.
+     */
+    private void checkForInterrupts() {
+        if (m_ticks >= m_limitTick) {
+            m_limitReached = true;
+            m_halted = true;
+            return;
+        }
+        checkForIOInterrupt();
+        if (m_ticks >= m_nextClock) {
+            m_nextClock = m_ticks + m_clockInterval;
+            if (m_pipeline != null) {
+                m_pipeline.drain();
+            }
+            if (m_TH != null) {
+                m_TH.interruptClock();
+            }
+        }
+    }// checkForInterrupts
+
+    /**
+     * checkForIOInterrupt
+     * 
+     * Raises a completion interrupt for every device request whose due time
+     * has been reached. If the device has not actually finished its host-side
+     * work yet the CPU waits for it without advancing the virtual clock, so
+     * the simulated timing does not depend on the speed of the host.
+     */
+    public void checkForIOInterrupt() {
+        IORequest req = m_IC.poll(m_ticks);
+        while (req != null) {
+            req.awaitDone();
+            req.markDelivered();
+            if (m_pipeline != null) {
+                m_pipeline.drain();
+            }
+            if (m_TH != null) {
+                m_TH.interruptIOComplete(req);
+            }
+            req = m_IC.poll(m_ticks);
+        }
+    }// checkForIOInterrupt
+
+    /**
+     * idle
+     * 
+     * Called by the operating system when there is nothing to execute until a
+     * device finishes. Advances the virtual clock straight to the next
+     * pending interrupt and delivers it.
+     * 
+     * @return false if there are no pending interrupts to wait for
+     */
+    public boolean idle() {
+        chargeMemoryStalls();
+        if (m_IC.isEmpty()) {
+            return false;
+        }
+        long due = m_IC.nextDue();
+        if (due > m_ticks) {
+            stall(due - m_ticks);
+            m_ticks = due;
+        }
+        checkForIOInterrupt();
+        return true;
+    }// idle
 
     /**
      * Pass in register that holds an address value and check to make sure that
-     * that address is inside the Base and Limit Addresses.
+     * that address is inside the Base and Limit Addresses (above the code, if
+     * the process shares its code).
      * 
      * @param address An already adjusted address
      * @return true if the address is between the base and limit addresses 
      *              inclusive.
      */
     public boolean checkAddress(int address) {
-        if (address >= this.getBASE() && address <= this.getLIM()) {
+        if (address >= this.getBASE() + m_codeSize
+                && address <= this.getLIM()) {
             return true;
         }
 
         return false;
     }
 
+    /**
+     * dataAddress
+     * 
+     * Translates the process-relative address used by LOAD, SAVE and CAS.
+     * 
+     * @param address
+     *            a process-relative address
+     * @return the physical address in the process's own memory or one of its
+     *         shared segments, or -1 if the address is in neither
+     */
+    private int dataAddress(int address) {
+        int physicalAddress = adjustOffset(address);
+        if (checkAddress(physicalAddress)) {
+            return physicalAddress;
+        }
+        return translateShared(address);
+    }// dataAddress
+
+    /**
+     * loadAddress
+     * 
+     * Translates the process-relative address used by LOAD, which unlike
+     * SAVE and CAS may also read a shared code segment.
+     * 
+     * @param address
+     *            a process-relative address
+     * @return the physical address or -1 if the address is not mapped
+     */
+    private int loadAddress(int address) {
+        if (m_codeSize > 0 && address >= 0 && address < m_codeSize) {
+            return m_codeBase + address;
+        }
+        return dataAddress(address);
+    }// loadAddress
+
+    /**
+     * branchAddress
+     * 
+     * @param target
+     *            the offset of an instruction in the current process's code
+     * @return its physical address or -1 if it is outside the code (outside
+     *         BASE..LIM when the code is not shared) or below address 0
+     */
+    private int branchAddress(int target) {
+        int addr = codeBase() + target;
+        return addr >= codeBase() && addr >= 0 && addr <= codeLimit() ? addr
+                : -1;
+    }// branchAddress
+
+    /**
+     * codeBase
+     * 
+     * @return the physical address branch targets are relative to
+     */
+    private int codeBase() {
+        return m_codeSize > 0 ? m_codeBase : m_registers[BASE];
+    }
+
+    /**
+     * codeLimit
+     * 
+     * @return the highest physical address a branch may reach
+     */
+    private int codeLimit() {
+        return m_codeSize > 0 ? m_codeBase + m_codeSize - 1 : m_registers[LIM];
+    }
+
+    /**
+     * translateShared
+     * 
+     * Looks up a process-relative address in the shared segment table.
+     * 
+     * @param address
+     *            a process-relative address outside BASE..LIM
+     * @return the physical address or -1 if no segment maps it
+     */
+    public int translateShared(int address) {
+        if (m_segTable == null) {
+            return -1;
+        }
+        for (int i = 0; i < m_segTable.length; i += 3) {
+            int offset = address - m_segTable[i];
+            if (offset >= 0 && offset < m_segTable[i + 2]) {
+                return m_segTable[i + 1] + offset;
+            }
+        }
+        return -1;
+    }// translateShared
+
     public void incrementPC() {
         this.setPC(this.getPC() + INSTRSIZE);
     }
@@ -417,25 +2228,52 @@ public class CPU {
 
     /**
      * Writes the value given to the current location of the Stack pointer in
-     * RAM and then decrements the Stack pointer.
+     * RAM and then decrements the Stack pointer. If the Stack pointer is
+     * outside the current process's memory nothing is written and
+     * {@link #takeStackFault} will say so.
      * 
      * @param value
      */
     public void push(int value) {
+        if (!checkAddress(this.getSP())) {
+            m_stackFault = true;
+            m_stackFaults++;
+            return;
+        }
         this.m_RAM.write(this.getSP(), value);
         decrementSP();
     }
     
     /**
      * First increments the Stack pointer, and then reads the value from the 
-     * address of the stack pointer in RAM and returns that value
+     * address of the stack pointer in RAM and returns that value. If the
+     * stack is empty, 0 is returned without reading and
+     * {@link #takeStackFault} will say so.
      * 
      * @return value
      */
     public int pop() {
+        if (!checkAddress(this.getSP() + SPINCREMENT)) {
+            m_stackFault = true;
+            m_stackFaults++;
+            return 0;
+        }
         incrementSP();
         int value = this.m_RAM.read(this.getSP());
         return value;
     }
 
+    /**
+     * takeStackFault
+     * 
+     * @return true if {@link #push} or {@link #pop} has been asked to go
+     *         outside the current process's memory since this was last
+     *         called
+     */
+    public boolean takeStackFault() {
+        boolean fault = m_stackFault;
+        m_stackFault = false;
+        return fault;
+    }
+
 };// class CPU
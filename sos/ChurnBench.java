@@ -0,0 +1,127 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class measures the allocation of physical memory to processes. It
+ * churns process creation and exit on a large RAM: in every round it
+ * creates a batch of short-lived <code>churn.asm</code> processes of random
+ * sizes and then runs the CPU for a while, during which processes created
+ * in earlier rounds finish and free their memory. Thousands of processes
+ * are live at once, so the free memory ends up in many pieces. The same
+ * sequence is run with first fit and with the buddy allocator, and for each
+ * it prints the processes created and refused, the host time spent in
+ * {@link SOS#createProcess} and in the whole run, and for the buddy
+ * allocator its statistics after the last batch has run.
+ *
+ * @see BuddyAllocator
+ */
+public class ChurnBench {
+    /**
+     * the words of RAM
+     **/
+    private static final int RAM_SIZE = 1 << 21;
+
+    /**
+     * processes are given between MIN_ALLOC and MAX_ALLOC words
+     **/
+    private static final int MIN_ALLOC = 128;
+    private static final int MAX_ALLOC = 2048;
+
+    /**
+     * the instructions run between batches
+     **/
+    private static final int SLICE = 2000000;
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public ChurnBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of rounds (default 200) and the
+     *            processes created per round (default 500)
+     */
+    public static void main(String[] args) {
+        int rounds = 200;
+        int batch = 500;
+        if (args.length > 0) {
+            rounds = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            batch = Integer.parseInt(args[1]);
+        }
+
+        Program churn = new Program();
+        if (churn.load("churn.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        System.out.println("churn: " + rounds + " rounds of " + batch
+                + " processes, " + RAM_SIZE + " words of RAM");
+        runWorkload(churn, rounds, batch, SOS.MEM_FIRST_FIT);
+        runWorkload(churn, rounds, batch, SOS.MEM_BUDDY);
+    }// main
+
+    /**
+     * runWorkload
+     *
+     * runs the churn on a fresh machine with one of the memory policies and
+     * prints the results
+     */
+    private static void runWorkload(Program churn, int rounds, int batch,
+            int policy) {
+        RAM ram = new RAM(RAM_SIZE, 0);
+        InterruptController ic = new InterruptController();
+        CPU cpu = new CPU(ram, ic);
+        cpu.setVerbose(false);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+        os.setMemoryPolicy(policy);
+
+        // the same sizes for every policy
+        Random random = new Random(42);
+        long createNanos = 0;
+        int peakLive = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            long t = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                os.createProcess(churn, MIN_ALLOC
+                        + random.nextInt(MAX_ALLOC - MIN_ALLOC + 1));
+            }
+            createNanos += System.nanoTime() - t;
+            peakLive = Math.max(peakLive, os.getProcessCount());
+
+            cpu.setInstructionLimit(cpu.getInstructions() + SLICE);
+            cpu.run();
+        }
+        BuddyAllocator buddy = os.getBuddyAllocator();
+        String before = buddy == null ? null : buddy.toString();
+        if (os.getProcessCount() > 0) {
+            cpu.setInstructionLimit(Long.MAX_VALUE);
+            cpu.run();
+        }
+        long nanos = System.nanoTime() - start;
+
+        int refused = text.toString().split("not enough memory", -1).length - 1;
+        System.out.println(String.format("  %-9s %d created, %d refused, "
+                + "peak %d live, create %.1f ms (%.2f us each), total %.1f ms",
+                SOS.MEM_POLICY_NAMES[policy], rounds * batch - refused,
+                refused, peakLive, createNanos / 1e6, createNanos / 1e3
+                        / (rounds * batch), nanos / 1e6));
+        if (before != null) {
+            System.out.println("            before the last processes exit: "
+                    + before);
+        }
+    }// runWorkload
+
+};// class ChurnBench
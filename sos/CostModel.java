@@ -0,0 +1,268 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class says how many cycles of the virtual clock each instruction
+ * takes. Every opcode has a cost of its own (so a DIV can take longer than a
+ * COPY), and the conditional branches, BNE and BLT, are run past a branch
+ * predictor: a branch that goes the other way than predicted costs a
+ * misprediction penalty on top. The predictor is one of
+ * <ul>
+ * <li>none: branches are never penalized</li>
+ * <li>static: backward branches are predicted taken and forward ones not
+ * taken, as suits loops</li>
+ * <li>2bit: a table of two-bit saturating counters indexed by the address of
+ * the branch, each predicting taken when it is 2 or 3</li>
+ * </ul>
+ * Unconditional branches are always predicted right.
+ *
+ * The model also counts the cycles spent on each opcode, and the branches and
+ * mispredictions, so that the CPI of a program and where its cycles go can be
+ * compared between ways of writing it.
+ *
+ * @see CPU#setCostModel
+ */
+public class CostModel {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    // The predictors
+    public static final int PREDICT_NONE = 0;
+    public static final int PREDICT_STATIC = 1;
+    public static final int PREDICT_2BIT = 2;
+
+    /** the name of each predictor, as used in configuration files */
+    public static final String[] PREDICTOR_NAMES = { "none", "static", "2bit" };
+
+    /** the name of each opcode (empty for the unused ones) */
+    public static final String[] OPCODE_NAMES = { "SET", "ADD", "SUB", "MUL",
+            "DIV", "COPY", "BRANCH", "BNE", "BLT", "POP", "PUSH", "LOAD",
+            "SAVE", "CAS", "", "TRAP" };
+
+    /**
+     * the default cycles for each opcode: one for register operations,
+     * two for those that touch memory, more for multiplication, division,
+     * compare-and-swap and system calls
+     **/
+    public static final int[] DEFAULT_CYCLES = { 1, 1, 1, 3, 12, 1, 1, 1, 1,
+            2, 2, 2, 2, 4, 1, 10 };
+
+    public static final int DEFAULT_PENALTY = 3;
+
+    /**
+     * the 2bit predictor has 2^TABLE_BITS counters
+     **/
+    public static final int TABLE_BITS = 10;
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the cycles each opcode takes */
+    private int[] m_cycles = DEFAULT_CYCLES.clone();
+
+    /** the predictor used for conditional branches */
+    private int m_predictor = PREDICT_2BIT;
+
+    /** the cycles a mispredicted branch costs on top of its own */
+    private int m_penalty = DEFAULT_PENALTY;
+
+    /** the 2bit predictor's counters, by instruction address */
+    private byte[] m_counters = new byte[1 << TABLE_BITS];
+
+    /** the cycles spent on each opcode, including mispredictions */
+    private long[] m_opCycles = new long[Superinstructions.NUMOPCODES];
+
+    /** counts of the conditional branches and the mispredicted ones */
+    private long m_branches = 0;
+    private long m_mispredicts = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * CostModel ctor
+     *
+     * starts with the default cycles, the 2bit predictor and the default
+     * penalty
+     */
+    public CostModel() {
+        reset();
+    }// CostModel ctor
+
+    /**
+     * opcodeOf
+     *
+     * @return the opcode with the given name (in any case) or -1 if there is
+     *         none
+     */
+    public static int opcodeOf(String name) {
+        for (int op = 0; op < OPCODE_NAMES.length; op++) {
+            if (OPCODE_NAMES[op].length() > 0
+                    && OPCODE_NAMES[op].equalsIgnoreCase(name)) {
+                return op;
+            }
+        }
+        return -1;
+    }// opcodeOf
+
+    /**
+     * setCycles
+     *
+     * @param op
+     *            the opcode
+     * @param cycles
+     *            the cycles it takes (at least 1)
+     */
+    public void setCycles(int op, int cycles) {
+        m_cycles[op] = Math.max(1, cycles);
+    }// setCycles
+
+    public int getCycles(int op) {
+        return m_cycles[op];
+    }
+
+    /**
+     * setPredictor
+     *
+     * @param predictor
+     *            one of the PREDICT_ constants
+     */
+    public void setPredictor(int predictor) {
+        m_predictor = predictor;
+    }// setPredictor
+
+    public int getPredictor() {
+        return m_predictor;
+    }
+
+    /**
+     * setPenalty
+     *
+     * @param cycles
+     *            the cycles a mispredicted branch costs on top of its own
+     */
+    public void setPenalty(int cycles) {
+        m_penalty = Math.max(0, cycles);
+    }// setPenalty
+
+    public int getPenalty() {
+        return m_penalty;
+    }
+
+    /**
+     * reset
+     *
+     * forgets the branch history and zeroes the counts
+     */
+    public void reset() {
+        Arrays.fill(m_counters, (byte) 1); // weakly not taken
+        Arrays.fill(m_opCycles, 0);
+        m_branches = 0;
+        m_mispredicts = 0;
+    }// reset
+
+    /**
+     * cost
+     *
+     * counts an executed instruction
+     *
+     * @param op
+     *            its opcode
+     * @return the cycles it takes
+     */
+    public int cost(int op) {
+        if (op < 0 || op >= m_cycles.length) {
+            return 1;
+        }
+        m_opCycles[op] += m_cycles[op];
+        return m_cycles[op];
+    }// cost
+
+    /**
+     * branch
+     *
+     * counts an executed conditional branch and updates the predictor
+     *
+     * @param op
+     *            the opcode of the branch
+     * @param pc
+     *            the address of the branch
+     * @param backward
+     *            true if the branch target is before the branch
+     * @param taken
+     *            true if the branch was taken
+     * @return the misprediction penalty (0 if it was predicted right)
+     */
+    public int branch(int op, int pc, boolean backward, boolean taken) {
+        m_branches++;
+        boolean predicted;
+        switch (m_predictor) {
+        case PREDICT_STATIC:
+            predicted = backward;
+            break;
+        case PREDICT_2BIT:
+            int i = (pc / CPU.INSTRSIZE) & (m_counters.length - 1);
+            predicted = m_counters[i] >= 2;
+            if (taken && m_counters[i] < 3) {
+                m_counters[i]++;
+            } else if (!taken && m_counters[i] > 0) {
+                m_counters[i]--;
+            }
+            break;
+        default:
+            return 0;
+        }
+        if (predicted == taken) {
+            return 0;
+        }
+        m_mispredicts++;
+        m_opCycles[op] += m_penalty;
+        return m_penalty;
+    }// branch
+
+    public long getBranches() {
+        return m_branches;
+    }
+
+    public long getMispredicts() {
+        return m_mispredicts;
+    }
+
+    /**
+     * getOpcodeCycles
+     *
+     * @return the cycles spent on each opcode, including mispredictions
+     */
+    public long[] getOpcodeCycles() {
+        return m_opCycles;
+    }
+
+    /**
+     * toString
+     *
+     * @return the predictor, the branch counts and the opcodes that took the
+     *         most cycles
+     */
+    public String toString() {
+        String result = String.format("predictor=%s branches=%d "
+                + "mispredicted=%d (%.1f%%)", PREDICTOR_NAMES[m_predictor],
+                m_branches, m_mispredicts, m_branches == 0 ? 0.0 : 100.0
+                        * m_mispredicts / m_branches);
+        long total = 0;
+        for (long c : m_opCycles) {
+            total += c;
+        }
+        for (int op = 0; op < m_opCycles.length; op++) {
+            if (total > 0 && m_opCycles[op] * 20 >= total) {
+                result += String.format(" %s=%.0f%%", OPCODE_NAMES[op], 100.0
+                        * m_opCycles[op] / total);
+            }
+        }
+        return result;
+    }// toString
+
+};// class CostModel
@@ -0,0 +1,319 @@
+package sos;
+
+/**
+ * This class is a loop the CPU can run without going through its normal
+ * fetch, decode and interrupt checks for every instruction. Only loops that
+ * touch nothing but the general purpose registers qualify: a backward BNE or
+ * BLT whose body is made of SET, ADD, SUB, MUL and COPY. DIV is left out so
+ * a division by zero still happens at the same instruction.
+ *
+ * The simplest shape, a single ADD or SUB stepping a register towards a
+ * limit (as in <code>count10.asm</code>), is solved in closed form; any
+ * other body is run by a tight inner loop over its pre-decoded
+ * instructions. Either way the CPU asks for no more iterations than fit
+ * before the next interrupt is due, so the loop ends up in exactly the
+ * state the normal interpreter would have reached.
+ *
+ * @see CPU#setLoopFastPath
+ */
+public class CountedLoop {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    /**
+     * the most instructions (including the branch) a loop may have
+     **/
+    public static final int MAX_LENGTH = 16;
+
+    /**
+     * stands for a branch that has been looked at and is not a loop of this
+     * kind
+     **/
+    public static final CountedLoop NONE = new CountedLoop(-1, -1, new int[0]);
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the physical address of the first instruction of the body */
+    private int m_head;
+
+    /** the physical address of the branch at the end of the loop */
+    private int m_branch;
+
+    /** the instructions from the head to the branch inclusive */
+    private int[] m_code;
+
+    /** the opcode and registers of the branch */
+    private int m_branchOp;
+    private int m_left;
+    private int m_right;
+
+    /**
+     * for the closed form: the register stepped by the body (-1 if the body
+     * does not have that shape), the register it is stepped by and whether
+     * it is subtracted
+     **/
+    private int m_induction = -1;
+    private int m_step;
+    private boolean m_negate;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * CountedLoop ctor
+     *
+     * @param head
+     *            the address of the first instruction of the body
+     * @param branch
+     *            the address of the branch
+     * @param code
+     *            the instructions from the head to the branch
+     */
+    private CountedLoop(int head, int branch, int[] code) {
+        m_head = head;
+        m_branch = branch;
+        m_code = code;
+    }// CountedLoop ctor
+
+    /**
+     * decode
+     *
+     * looks at the instructions between a branch and its target
+     *
+     * @param ram
+     *            the memory holding the code
+     * @param head
+     *            the (physical) target of the branch
+     * @param branch
+     *            the (physical) address of the branch
+     * @return the loop, or {@link #NONE} if the code does not qualify
+     */
+    public static CountedLoop decode(RAM ram, int head, int branch) {
+        int length = (branch - head) / CPU.INSTRSIZE + 1;
+        if (head < 0 || head >= branch || (branch - head) % CPU.INSTRSIZE != 0
+                || length > MAX_LENGTH) {
+            return NONE;
+        }
+
+        int[] code = new int[length * CPU.INSTRSIZE];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = ram.fetchWord(head + i);
+        }
+        for (int i = 0; i < code.length - CPU.INSTRSIZE; i += CPU.INSTRSIZE) {
+            if (!isRegisterOnly(code, i)) {
+                return NONE;
+            }
+        }
+
+        int b = code.length - CPU.INSTRSIZE;
+        if ((code[b] != CPU.BNE && code[b] != CPU.BLT)
+                || !isGeneral(code[b + 1]) || !isGeneral(code[b + 2])) {
+            return NONE;
+        }
+
+        CountedLoop loop = new CountedLoop(head, branch, code);
+        loop.m_branchOp = code[b];
+        loop.m_left = code[b + 1];
+        loop.m_right = code[b + 2];
+        if (length == 2) {
+            loop.findInduction();
+        }
+        return loop;
+    }// decode
+
+    /**
+     * isRegisterOnly
+     *
+     * @return true if the instruction at position i only reads and writes the
+     *         general purpose registers and cannot fault
+     */
+    private static boolean isRegisterOnly(int[] code, int i) {
+        switch (code[i]) {
+        case CPU.SET:
+            return isGeneral(code[i + 1]);
+        case CPU.COPY:
+            return isGeneral(code[i + 1]) && isGeneral(code[i + 2]);
+        case CPU.ADD:
+        case CPU.SUB:
+        case CPU.MUL:
+            return isGeneral(code[i + 1]) && isGeneral(code[i + 2])
+                    && isGeneral(code[i + 3]);
+        default:
+            return false;
+        }// switch
+    }// isRegisterOnly
+
+    private static boolean isGeneral(int reg) {
+        return reg >= 0 && reg < CPU.NUMGENREG;
+    }
+
+    /**
+     * findInduction
+     *
+     * recognizes a single-instruction body of the form d = d + s, d = s + d
+     * or d = d - s (s not d) with the branch comparing d against a register
+     * other than d
+     */
+    private void findInduction() {
+        int op = m_code[0];
+        int d = m_code[1];
+        int s;
+        if (op == CPU.ADD && m_code[2] == d && m_code[3] != d) {
+            s = m_code[3];
+        } else if (op == CPU.ADD && m_code[3] == d && m_code[2] != d) {
+            s = m_code[2];
+        } else if (op == CPU.SUB && m_code[2] == d && m_code[3] != d) {
+            s = m_code[3];
+            m_negate = true;
+        } else {
+            return;
+        }
+        if ((m_left == d) == (m_right == d)) {
+            return;
+        }
+        m_induction = d;
+        m_step = s;
+    }// findInduction
+
+    public int getHead() {
+        return m_head;
+    }
+
+    /**
+     * getLength
+     *
+     * @return the number of instructions in one iteration (including the
+     *         branch)
+     */
+    public int getLength() {
+        return m_code.length / CPU.INSTRSIZE;
+    }
+
+    /**
+     * matches
+     *
+     * @return true if the code in RAM is still the code this loop was decoded
+     *         from
+     */
+    public boolean matches(RAM ram) {
+        for (int i = 0; i < m_code.length; i++) {
+            if (ram.fetchWord(m_head + i) != m_code[i]) {
+                return false;
+            }
+        }
+        return true;
+    }// matches
+
+    /**
+     * taken
+     *
+     * @param r
+     *            the registers
+     * @return true if the branch would go back to the head
+     */
+    public boolean taken(int[] r) {
+        if (m_branchOp == CPU.BNE) {
+            return r[m_left] != r[m_right];
+        }
+        return r[m_left] < r[m_right];
+    }// taken
+
+    /**
+     * run
+     *
+     * executes iterations of the loop (starting at the head) until the
+     * branch is not taken or the limit is reached
+     *
+     * @param r
+     *            the registers
+     * @param maxIter
+     *            the most iterations to execute
+     * @return the number of iterations executed
+     */
+    public long run(int[] r, long maxIter) {
+        if (m_induction >= 0) {
+            long n = iterationsToExit(r);
+            if (n > 0) {
+                long k = Math.min(n, maxIter);
+                long step = m_negate ? -(long) r[m_step] : r[m_step];
+                r[m_induction] = (int) (r[m_induction] + k * step);
+                return k;
+            }
+        }
+
+        int[] code = m_code;
+        int end = code.length - CPU.INSTRSIZE;
+        long iter = 0;
+        while (iter < maxIter) {
+            for (int i = 0; i < end; i += CPU.INSTRSIZE) {
+                switch (code[i]) {
+                case CPU.SET:
+                    r[code[i + 1]] = code[i + 2];
+                    break;
+                case CPU.ADD:
+                    r[code[i + 1]] = r[code[i + 2]] + r[code[i + 3]];
+                    break;
+                case CPU.SUB:
+                    r[code[i + 1]] = r[code[i + 2]] - r[code[i + 3]];
+                    break;
+                case CPU.MUL:
+                    r[code[i + 1]] = r[code[i + 2]] * r[code[i + 3]];
+                    break;
+                default: // COPY
+                    r[code[i + 1]] = r[code[i + 2]];
+                    break;
+                }// switch
+            }// for
+            iter++;
+            if (!taken(r)) {
+                break;
+            }
+        }// while
+        return iter;
+    }// run
+
+    /**
+     * iterationsToExit
+     *
+     * works out how many iterations the closed-form loop runs from the
+     * current registers before its branch falls through
+     *
+     * @return the number of iterations, or 0 if it cannot be worked out
+     *         without overflow (the tight loop is used instead)
+     */
+    private long iterationsToExit(int[] r) {
+        long x = r[m_induction];
+        long step = m_negate ? -(long) r[m_step] : r[m_step];
+        boolean limitOnRight = m_left == m_induction;
+        long limit = limitOnRight ? r[m_right] : r[m_left];
+
+        if (m_branchOp == CPU.BNE) {
+            long diff = limit - x;
+            if (step == 0 || diff % step != 0 || diff / step < 1) {
+                return 0;
+            }
+            return diff / step;
+        }
+
+        long n;
+        if (limitOnRight && step > 0) {
+            // loops while x < limit
+            n = Math.max(1, (limit - x + step - 1) / step);
+        } else if (!limitOnRight && step < 0) {
+            // loops while limit < x
+            n = Math.max(1, (x - limit - step - 1) / -step);
+        } else {
+            return 0;
+        }
+        long last = x + n * step;
+        if (last > Integer.MAX_VALUE || last < Integer.MIN_VALUE) {
+            return 0;
+        }
+        return n;
+    }// iterationsToExit
+
+};// class CountedLoop
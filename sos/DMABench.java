@@ -0,0 +1,126 @@
+package sos;
+
+import java.io.*;
+
+/**
+ * This class compares moving device data on the CPU with moving it by DMA.
+ * Each run executes several copies of <code>diskcopy.asm</code> (which
+ * writes blocks to an in-memory disk and reads them back), on their own and
+ * then next to a compute-bound <code>sumloop.asm</code> that can overlap
+ * with the I/O. Every workload is run with the CPU copying each block, with
+ * a {@link DMAController}, and with a DMA controller that steals bus cycles
+ * from the CPU. For each it prints the virtual time, the share of it the CPU
+ * spent stalled, the cycles stolen, the host time and whether every process
+ * read back what it wrote.
+ *
+ * @see DMAController
+ */
+public class DMABench {
+    /**
+     * the configurations compared: DMA on, bus contention on
+     **/
+    private static final boolean[][] MODES = { { false, false },
+            { true, false }, { true, true } };
+
+    private static final String[] MODE_NAMES = { "CPU copy", "DMA",
+            "DMA+contention" };
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public DMABench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of disk processes (default 8)
+     */
+    public static void main(String[] args) {
+        int numProcs = 8;
+        if (args.length > 0) {
+            numProcs = Integer.parseInt(args[0]);
+        }
+
+        Program disk = new Program();
+        Program compute = new Program();
+        if (disk.load("diskcopy.asm", false) != 0
+                || compute.load("sumloop.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        for (int withCompute = 0; withCompute < 2; withCompute++) {
+            System.out.println(withCompute == 0 ? "diskcopy x" + numProcs
+                    : "diskcopy x" + numProcs + " + sumloop");
+            for (int m = 0; m < MODES.length; m++) {
+                runWorkload(disk, numProcs, withCompute == 0 ? null
+                        : compute, m);
+            }
+        }
+
+    }// main
+
+    /**
+     * runWorkload
+     *
+     * runs copies of the disk program, and optionally the compute program,
+     * on a fresh machine in one of the modes and prints the results
+     */
+    private static void runWorkload(Program disk, int numProcs,
+            Program compute, int m) {
+        RAM ram = new RAM(numProcs * 512 + 128, 0);
+        InterruptController ic = new InterruptController();
+        CPU cpu = new CPU(ram, ic);
+        cpu.setVerbose(false);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+
+        // 1000 blocks of 8 words on 100 cylinders
+        DiskGeometry geometry = new DiskGeometry(1000, 8, 10, 50, 5, 10);
+        os.registerDevice(new MemDisk(ic, geometry), 0);
+
+        DMAController dma = null;
+        if (MODES[m][0]) {
+            dma = new DMAController(ic, ram);
+            dma.setBusContention(MODES[m][1]);
+            dma.open();
+            os.setDMAController(dma);
+        }
+
+        for (int i = 0; i < numProcs; i++) {
+            os.createProcess(disk, 500);
+        }
+        if (compute != null) {
+            os.createProcess(compute, 100);
+        }
+
+        long start = System.nanoTime();
+        cpu.run();
+        long nanos = System.nanoTime() - start;
+        if (dma != null) {
+            dma.close();
+        }
+
+        // pids start at 1001 and each process adds pid + i + k over 20
+        // iterations of 8 words
+        boolean correct = true;
+        String out = text.toString();
+        for (int i = 0; i < numProcs; i++) {
+            long pid = 1001 + i;
+            long expected = 160 * pid + 8 * 210 + 20 * 28;
+            correct &= out.contains("OUTPUT: " + expected + "\n");
+        }
+
+        long ticks = cpu.getTicks();
+        System.out.println(String.format("  %-15s %d ticks, %.1f%% stalled, "
+                + "%d stolen, %.1f ms, correct: %b", MODE_NAMES[m], ticks,
+                100.0 * (ticks - cpu.getInstructions()) / ticks,
+                dma == null ? 0 : dma.getStolenTicks(), nanos / 1e6,
+                correct));
+    }// runWorkload
+
+};// class DMABench
@@ -0,0 +1,319 @@
+package sos;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+
+/**
+ * This class simulates a DMA controller that moves data between device
+ * buffers and the simulated RAM without the CPU. The SOS hands it a list of
+ * descriptors (a buffer, a RAM address and a length each) together with an
+ * {@link IORequest} standing for the whole transfer. The controller works
+ * out when the transfer finishes on the virtual clock and posts the request
+ * to the {@link InterruptController} straight away, then does the copying on
+ * its own thread while the CPU keeps executing. As with the disks, if the
+ * CPU reaches the due time before the host thread has finished, it waits
+ * without advancing the virtual clock, so the simulated timing does not
+ * depend on the host.
+ *
+ * A transfer takes {@link #getSetupTicks} plus one tick for every
+ * {@link #getWordsPerTick} words. With bus contention on, the controller
+ * steals the memory bus from the CPU for the cycles it spends moving words,
+ * which is charged to the CPU's clock when the transfer starts.
+ *
+ * @see SOS#setDMAController
+ */
+public class DMAController {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    /**
+     * the device id used for the requests standing for DMA transfers
+     **/
+    public static final int DEVICE_ID = -2;
+
+    public static final int DEFAULT_SETUP_TICKS = 10;
+    public static final int DEFAULT_WORDS_PER_TICK = 4;
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the RAM the controller moves data to and from */
+    private RAM m_RAM = null;
+
+    /** where completion interrupts are posted */
+    private InterruptController m_IC = null;
+
+    /** the ticks to program the controller for a transfer */
+    private int m_setupTicks = DEFAULT_SETUP_TICKS;
+
+    /** the words moved per tick of the virtual clock */
+    private int m_wordsPerTick = DEFAULT_WORDS_PER_TICK;
+
+    /** true if transfers take the memory bus away from the CPU */
+    private boolean m_contention = false;
+
+    /** the transfers waiting for the controller's thread */
+    private LinkedBlockingQueue<Job> m_queue = null;
+
+    /** the thread that performs the transfers (null until opened) */
+    private Thread m_thread = null;
+
+    /** counts of the transfers and words moved, and the ticks stolen */
+    private volatile long m_transfers = 0;
+    private volatile long m_words = 0;
+    private long m_stolenTicks = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * DMAController ctor
+     *
+     * @param ic
+     *            where completion interrupts are posted
+     * @param ram
+     *            the memory transfers move data to and from
+     */
+    public DMAController(InterruptController ic, RAM ram) {
+        m_IC = ic;
+        m_RAM = ram;
+        m_queue = new LinkedBlockingQueue<Job>();
+    }// DMAController ctor
+
+    public int getSetupTicks() {
+        return m_setupTicks;
+    }
+
+    public int getWordsPerTick() {
+        return m_wordsPerTick;
+    }
+
+    /**
+     * setTiming
+     *
+     * @param setupTicks
+     *            the ticks to program the controller for a transfer
+     * @param wordsPerTick
+     *            the words moved per tick (at least 1)
+     */
+    public void setTiming(int setupTicks, int wordsPerTick) {
+        m_setupTicks = setupTicks;
+        m_wordsPerTick = Math.max(1, wordsPerTick);
+    }// setTiming
+
+    /**
+     * setBusContention
+     *
+     * @param contention
+     *            true to charge the CPU for the bus cycles each transfer
+     *            uses
+     */
+    public void setBusContention(boolean contention) {
+        m_contention = contention;
+    }
+
+    public long getTransfers() {
+        return m_transfers;
+    }
+
+    public long getWords() {
+        return m_words;
+    }
+
+    public long getStolenTicks() {
+        return m_stolenTicks;
+    }
+
+    /**
+     * open
+     *
+     * starts the controller's thread
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    public int open() {
+        m_thread = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "dma");
+        m_thread.setDaemon(true);
+        m_thread.start();
+        return 0;
+    }// open
+
+    /**
+     * close
+     *
+     * stops the controller's thread once it has finished the transfers
+     * already submitted
+     */
+    public void close() {
+        if (m_thread == null) {
+            return;
+        }
+        m_queue.add(new Job(null, null));
+        try {
+            m_thread.join();
+        } catch (InterruptedException ie) {/* do nothing */
+        }
+        m_thread = null;
+    }// close
+
+    /**
+     * submit
+     *
+     * starts a transfer. Must be called on the CPU's thread.
+     *
+     * @param req
+     *            stands for the transfer: it is posted to the interrupt
+     *            controller and marked done once every descriptor has been
+     *            performed (with a non-zero status if one failed)
+     * @param list
+     *            the descriptors, performed in order
+     * @param cpu
+     *            the CPU, for the current time and for bus contention
+     */
+    public void submit(IORequest req, Vector<Descriptor> list, CPU cpu) {
+        long words = 0;
+        for (Descriptor d : list) {
+            words += d.len;
+        }
+        long busTicks = (words + m_wordsPerTick - 1) / m_wordsPerTick;
+        if (m_contention) {
+            cpu.addTicks(busTicks);
+            m_stolenTicks += busTicks;
+        }
+
+        long now = cpu.getTicks();
+        req.devId = DEVICE_ID;
+        req.issueTick = now;
+        req.startTick = now;
+        req.dueTick = now + m_setupTicks + busTicks;
+        m_IC.post(req);
+
+        if (m_thread == null) {
+            // not opened: do the work on the caller's thread
+            perform(new Job(req, list));
+        } else {
+            m_queue.add(new Job(req, list));
+        }
+    }// submit
+
+    /**
+     * work
+     *
+     * the controller's thread: performs transfers until closed
+     */
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = m_queue.take();
+            } catch (InterruptedException ie) {
+                continue;
+            }
+            if (job.req == null) {
+                return;
+            }
+            perform(job);
+        }
+    }// work
+
+    /**
+     * perform
+     *
+     * moves the data for every descriptor of a transfer and marks its
+     * request done
+     */
+    private void perform(Job job) {
+        int status = 0;
+        long words = 0;
+        try {
+            for (Descriptor d : job.list) {
+                if (d.toRAM) {
+                    m_RAM.deviceWriteBlock(d.addr, d.buf, d.off, d.len);
+                } else {
+                    m_RAM.deviceReadBlock(d.addr, d.buf, d.off, d.len);
+                }
+                words += d.len;
+            }
+        } catch (RuntimeException e) {
+            status = -1;
+        }
+        m_words += words;
+        m_transfers++;
+        job.req.markDone(status);
+    }// perform
+
+    /**
+     * registerMetrics
+     *
+     * adds the transfer counts to a metrics registry
+     */
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("dma.transfers", new LongSupplier() {
+            public long getAsLong() {
+                return m_transfers;
+            }
+        });
+        metrics.gauge("dma.words", new LongSupplier() {
+            public long getAsLong() {
+                return m_words;
+            }
+        });
+        metrics.gauge("dma.stolen_ticks", new LongSupplier() {
+            public long getAsLong() {
+                return m_stolenTicks;
+            }
+        });
+    }// registerMetrics
+
+    /**
+     * Descriptor
+     *
+     * One contiguous piece of a transfer.
+     */
+    public static class Descriptor {
+        /** the device side of the transfer */
+        public int[] buf;
+        public int off;
+
+        /** the physical RAM address */
+        public int addr;
+
+        /** the number of words */
+        public int len;
+
+        /** true to move the words from buf into RAM, false for the reverse */
+        public boolean toRAM;
+
+        public Descriptor(int[] buf, int off, int addr, int len, boolean toRAM) {
+            this.buf = buf;
+            this.off = off;
+            this.addr = addr;
+            this.len = len;
+            this.toRAM = toRAM;
+        }
+    }// class Descriptor
+
+    /**
+     * Job
+     *
+     * A submitted transfer.
+     */
+    private static class Job {
+        IORequest req;
+        Vector<Descriptor> list;
+
+        Job(IORequest req, Vector<Descriptor> list) {
+            this.req = req;
+            this.list = list;
+        }
+    }// class Job
+
+};// class DMAController
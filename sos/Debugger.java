@@ -0,0 +1,207 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class is a debugger for full-speed runs. It sets breakpoints and
+ * watchpoints on the CPU and, each time one is hit, prints where the running
+ * process is, in its program's source terms (label, source line and the
+ * disassembled instruction), and its registers, then lets the CPU carry on.
+ * Breakpoints can be given as a label of one of the programs, which only
+ * stops processes running a program that has the label there, or as a
+ * numeric offset, which stops every process. The CPU only looks at each
+ * instruction while some are set.
+ *
+ * @see CPU#addBreakpoint
+ * @see CPU#addWatchpoint
+ * @see Disassembler
+ */
+public class Debugger implements CPU.DebugListener {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    private CPU m_CPU = null;
+    private RAM m_RAM = null;
+    private SOS m_OS = null;
+
+    /**
+     * where the breakpoints and watchpoints are reported
+     **/
+    private PrintStream m_out = null;
+
+    /**
+     * the offsets given as numbers, which stop every process
+     **/
+    private BitSet m_anyProgram = new BitSet();
+
+    /**
+     * the offsets given as labels, for each program that has the label
+     **/
+    private HashMap<Program, BitSet> m_byProgram = new HashMap<Program, BitSet>();
+
+    /**
+     * the number of breakpoints and watchpoints reported
+     **/
+    private long m_hits = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * Debugger ctor
+     *
+     * installs the debugger as the CPU's debug listener
+     *
+     * @param out
+     *            where to print the breakpoints and watchpoints hit
+     */
+    public Debugger(CPU cpu, RAM ram, SOS os, PrintStream out) {
+        m_CPU = cpu;
+        m_RAM = ram;
+        m_OS = os;
+        m_out = out;
+        m_CPU.setDebugListener(this);
+    }// Debugger ctor
+
+    /**
+     * breakAt
+     *
+     * sets a breakpoint
+     *
+     * @param where
+     *            a label or an offset in the code
+     * @param programs
+     *            the programs the label is looked for in
+     * @return a success/error code (0 is success; anything else is failure)
+     */
+    public int breakAt(String where, Collection<Program> programs) {
+        if (where.matches("\\d+")) {
+            int offset = Integer.parseInt(where);
+            if (m_CPU.addBreakpoint(offset) != 0) {
+                m_out.println("ERROR: breakpoint " + where
+                        + " is not the address of an instruction");
+                return -1;
+            }
+            m_anyProgram.set(offset);
+            return 0;
+        }
+
+        boolean found = false;
+        for (Program prog : programs) {
+            int offset = prog.getLabelAddress(where);
+            if (offset >= 0) {
+                m_CPU.addBreakpoint(offset);
+                BitSet offsets = m_byProgram.get(prog);
+                if (offsets == null) {
+                    offsets = new BitSet();
+                    m_byProgram.put(prog, offsets);
+                }
+                offsets.set(offset);
+                found = true;
+            }
+        }// for
+        if (!found) {
+            m_out.println("ERROR: no label " + where + " to break at");
+            return -1;
+        }
+        return 0;
+    }// breakAt
+
+    /**
+     * watch
+     *
+     * sets a watchpoint
+     *
+     * @param address
+     *            the physical address of the word to watch
+     * @return a success/error code (0 is success; anything else is failure)
+     */
+    public int watch(int address) {
+        if (m_CPU.addWatchpoint(address) != 0) {
+            m_out.println("ERROR: cannot watch address " + address
+                    + " outside RAM");
+            return -1;
+        }
+        return 0;
+    }// watch
+
+    public long getHits() {
+        return m_hits;
+    }
+
+    /**
+     * breakpoint
+     *
+     * reports the breakpoint if it was set for the running program
+     */
+    public boolean breakpoint(int offset) {
+        Program prog = m_OS.getCurrentProgram();
+        BitSet offsets = m_byProgram.get(prog);
+        if (!m_anyProgram.get(offset)
+                && (offsets == null || !offsets.get(offset))) {
+            return true;
+        }
+        m_hits++;
+        m_out.println("BREAK in process " + m_OS.getCurrentProcessID()
+                + " at " + where(prog, offset));
+        printState(prog, offset);
+        return true;
+    }// breakpoint
+
+    /**
+     * watchpoint
+     *
+     * reports the change and the instruction the running process has got to
+     */
+    public boolean watchpoint(int address, int oldValue, int newValue) {
+        Program prog = m_OS.getCurrentProgram();
+        int offset = m_CPU.getCodeOffset();
+        m_hits++;
+        m_out.println("WATCH " + address + ": " + oldValue + " -> "
+                + newValue + " in process " + m_OS.getCurrentProcessID()
+                + ", next at " + where(prog, offset));
+        printState(prog, offset);
+        return true;
+    }// watchpoint
+
+    /**
+     * where
+     *
+     * @return the offset, label and source line of an instruction
+     */
+    private static String where(Program prog, int offset) {
+        String text = Integer.toString(offset);
+        String label = prog == null ? null : prog.getLabel(offset);
+        if (label != null) {
+            text += " (" + label + ")";
+        }
+        int line = prog == null ? 0 : prog.getLine(offset);
+        if (line > 0) {
+            text += ", line " + line;
+        }
+        return text;
+    }// where
+
+    /**
+     * printState
+     *
+     * prints the instruction at the given offset and the registers
+     */
+    private void printState(Program prog, int offset) {
+        int pc = m_CPU.getPC();
+        m_out.print(Disassembler.disassemble(m_RAM, pc, pc + CPU.INSTRSIZE,
+                pc - offset, prog));
+        int[] r = m_CPU.getRegisters();
+        StringBuilder regs = new StringBuilder(" ");
+        for (int i = 0; i < CPU.NUMGENREG; i++) {
+            regs.append(" R" + i + "=" + r[i]);
+        }
+        regs.append(" PC=" + r[CPU.PC] + " SP=" + r[CPU.SP] + " BASE="
+                + r[CPU.BASE] + " LIM=" + r[CPU.LIM]);
+        m_out.println(regs);
+    }// printState
+
+};// class Debugger
@@ -0,0 +1,120 @@
+package sos;
+
+/**
+ * This class renders instructions back into the Pidgin assembly language that
+ * {@link Program} reads, e.g. <code>BNE R1 R3 LOOP</code>. Given the program
+ * an instruction came from, branch targets are shown as the labels they were
+ * written as and each instruction is followed by its source line, using the
+ * source map the assembler keeps; without it targets are shown as numbers.
+ * Words that are not instructions are shown as <code>??</code> followed by
+ * their values.
+ *
+ * @see Program#getLine
+ * @see Program#getLabel
+ */
+public class Disassembler {
+    /**
+     * the mnemonic of each opcode (null for the unused ones)
+     **/
+    private static final String[] NAMES = { "SET", "ADD", "SUB", "MUL", "DIV",
+            "COPY", "BRANCH", "BNE", "BLT", "POP", "PUSH", "LOAD", "SAVE",
+            "CAS", null, "TRAP" };
+
+    /**
+     * the number of operands of each opcode, and the one (1-based) that is
+     * a branch target (0 for none)
+     **/
+    private static final int[] ARGS = { 2, 3, 3, 3, 3, 2, 1, 3, 3, 1, 1, 2, 2,
+            3, 0, 0 };
+    private static final int[] TARGET = { 0, 0, 0, 0, 0, 0, 1, 3, 3, 0, 0, 0,
+            0, 0, 0, 0 };
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public Disassembler() {
+    }
+
+    /**
+     * instruction
+     *
+     * @param instr
+     *            the opcode and three operands of an instruction
+     * @param prog
+     *            the program it came from, used to name branch targets (may
+     *            be null)
+     * @return the instruction in Pidgin syntax
+     */
+    public static String instruction(int[] instr, Program prog) {
+        int op = instr[0];
+        if (op < 0 || op >= NAMES.length || NAMES[op] == null) {
+            return "?? " + instr[0] + " " + instr[1] + " " + instr[2] + " "
+                    + instr[3];
+        }
+
+        StringBuilder text = new StringBuilder(NAMES[op]);
+        for (int i = 1; i <= ARGS[op]; i++) {
+            text.append(' ');
+            if (i == TARGET[op]) {
+                String label = prog == null ? null : prog.getLabel(instr[i]);
+                text.append(label == null ? Integer.toString(instr[i]) : label);
+            } else if (op == CPU.SET && i == 2) {
+                text.append(instr[i]);
+            } else {
+                text.append('R').append(instr[i]);
+            }
+        }// for
+        return text.toString();
+    }// instruction
+
+    /**
+     * disassemble
+     *
+     * renders a range of RAM holding code, one instruction per line. Each
+     * line holds the instruction's address in RAM, its address in the
+     * program, the instruction and, if known, its source line; a label at
+     * an address is printed on a line of its own before it. The RAM is read
+     * without charging its latency.
+     *
+     * @param ram
+     *            the RAM to read
+     * @param start
+     *            the first address, which should start an instruction
+     * @param end
+     *            the address after the last one
+     * @param codeBase
+     *            the address in RAM of the start of the program, which branch
+     *            targets are relative to
+     * @param prog
+     *            the program loaded at codeBase (may be null)
+     * @return the listing
+     */
+    public static String disassemble(RAM ram, int start, int end,
+            int codeBase, Program prog) {
+        StringBuilder listing = new StringBuilder();
+        int[] instr = new int[CPU.INSTRSIZE];
+        start = Math.max(start, 0);
+        end = Math.min(end, ram.getSize());
+        for (int addr = start; addr + CPU.INSTRSIZE <= end;
+                addr += CPU.INSTRSIZE) {
+            for (int i = 0; i < CPU.INSTRSIZE; i++) {
+                instr[i] = ram.fetchWord(addr + i);
+            }
+            int offset = addr - codeBase;
+            String label = prog == null ? null : prog.getLabel(offset);
+            if (label != null) {
+                listing.append(':').append(label).append('\n');
+            }
+            String text = instruction(instr, prog);
+            int line = prog == null ? 0 : prog.getLine(offset);
+            if (line > 0) {
+                text = String.format("%-24s# line %d", text, line);
+            }
+            listing.append(String.format("%6d %6d   %s", addr, offset, text));
+            listing.append('\n');
+        }// for
+        return listing.toString();
+    }// disassemble
+
+};// class Disassembler
@@ -0,0 +1,239 @@
+package sos;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * This class simulates a block-addressed disk drive. The blocks are stored in
+ * a file on the host so their contents survive between simulations. Transfers
+ * are handed to a dedicated I/O thread, so the host file I/O overlaps the
+ * execution of the simulated CPU. The time a request takes is modeled on the
+ * CPU's virtual clock by the {@link DiskGeometry} and its completion is
+ * signalled with an interrupt through the {@link InterruptController}.
+ *
+ * @see BlockDevice
+ * @see IORequest
+ * @see SOS
+ */
+public class Disk extends BlockDevice {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * the host file holding the blocks
+     **/
+    private String m_path = null;
+
+    /**
+     * the open host file (null until {@link #open} succeeds)
+     **/
+    private FileChannel m_channel = null;
+
+    /**
+     * transfers waiting for the I/O thread, in the order they were started
+     **/
+    private LinkedBlockingQueue<IORequest> m_queue = null;
+
+    /**
+     * the thread that moves blocks between the host file and the request
+     * buffers
+     **/
+    private Thread m_ioThread = null;
+
+    /**
+     * queued by {@link #close} to tell the I/O thread to exit. (Interrupting
+     * the thread is not an option since that closes the FileChannel.)
+     **/
+    private static final IORequest SHUTDOWN = new IORequest(-1, -1, 0, 0, 0);
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * Disk ctor
+     *
+     * @param ic
+     *            where completion interrupts are posted
+     * @param path
+     *            the host file backing the disk (created if missing)
+     * @param geometry
+     *            the layout and timing of the disk
+     */
+    public Disk(InterruptController ic, String path, DiskGeometry geometry) {
+        super(ic, geometry);
+        m_path = path;
+        m_queue = new LinkedBlockingQueue<IORequest>();
+    }// Disk ctor
+
+    /**
+     * Disk ctor
+     *
+     * creates a disk with a single cylinder, so every request costs the same
+     * regardless of head position
+     *
+     * @param ic
+     *            where completion interrupts are posted
+     * @param path
+     *            the host file backing the disk (created if missing)
+     * @param numBlocks
+     *            the number of blocks on the disk
+     * @param blockSize
+     *            number of integers ("words") in a block
+     * @param seekLatency
+     *            virtual ticks to position the head for a request
+     * @param transferLatency
+     *            virtual ticks to transfer one block
+     */
+    public Disk(InterruptController ic, String path, int numBlocks,
+            int blockSize, int seekLatency, int transferLatency) {
+        this(ic, path, new DiskGeometry(numBlocks, blockSize, numBlocks,
+                seekLatency, 0, transferLatency));
+    }// Disk ctor
+
+    /**
+     * open
+     *
+     * opens (creating if necessary) the backing file and starts the I/O
+     * thread.
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    public int open() {
+        try {
+            m_channel = FileChannel.open(Paths.get(m_path),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long size = (long) getNumBlocks() * getBlockSize() * 4;
+            if (m_channel.size() < size) {
+                // extend the file so every block can be read back as zeros
+                m_channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        } catch (IOException e) {
+            System.out.println("\nError opening disk file: " + m_path + "\n"
+                    + e.toString());
+            return -1;
+        }
+
+        m_ioThread = new Thread(new Runnable() {
+            public void run() {
+                serviceRequests();
+            }
+        }, "disk-" + m_path);
+        m_ioThread.setDaemon(true);
+        m_ioThread.start();
+
+        return 0;
+    }// open
+
+    /**
+     * close
+     *
+     * stops the I/O thread once all queued requests are finished and closes
+     * the backing file.
+     */
+    public void close() {
+        if (m_ioThread == null) {
+            return;
+        }
+        m_queue.add(SHUTDOWN);
+        try {
+            m_ioThread.join();
+            m_channel.close();
+        } catch (InterruptedException ie) {/* do nothing */
+        } catch (IOException e) {
+            System.out.println("\nError closing disk file: " + m_path);
+        }
+        m_ioThread = null;
+    }// close
+
+    /**
+     * transfer
+     *
+     * hands the request to the I/O thread
+     */
+    protected int transfer(IORequest req) {
+        if (m_ioThread == null) {
+            return -1;
+        }
+        m_queue.add(req);
+        return 0;
+    }// transfer
+
+    /**
+     * serviceRequests
+     *
+     * body of the I/O thread: performs each queued transfer against the
+     * backing file in the order they were started.
+     */
+    private void serviceRequests() {
+        while (true) {
+            IORequest req;
+            try {
+                req = m_queue.take();
+            } catch (InterruptedException ie) {
+                continue;
+            }
+            if (req == SHUTDOWN) {
+                return;
+            }
+
+            int status;
+            if (req.op == IORequest.READ) {
+                status = readBlocks(req.block, req.count, req.buf);
+            } else {
+                status = writeBlocks(req.block, req.count, req.buf);
+            }
+            req.markDone(status);
+        }// while
+    }// serviceRequests
+
+    /**
+     * readBlocks
+     *
+     * reads blocks straight from the backing file (FileChannel positional
+     * reads are safe to use alongside the I/O thread)
+     */
+    public int readBlocks(int block, int count, int[] dest) {
+        int words = count * getBlockSize();
+        ByteBuffer bytes = ByteBuffer.allocate(words * 4);
+        long pos = (long) block * getBlockSize() * 4;
+        try {
+            while (bytes.hasRemaining()) {
+                if (m_channel.read(bytes, pos + bytes.position()) < 0) {
+                    return -3;
+                }
+            }
+        } catch (IOException e) {
+            return -3;
+        }
+        bytes.flip();
+        bytes.asIntBuffer().get(dest, 0, words);
+        return 0;
+    }// readBlocks
+
+    /**
+     * writeBlocks
+     *
+     * writes blocks straight to the backing file
+     */
+    public int writeBlocks(int block, int count, int[] src) {
+        int words = count * getBlockSize();
+        ByteBuffer bytes = ByteBuffer.allocate(words * 4);
+        bytes.asIntBuffer().put(src, 0, words);
+        long pos = (long) block * getBlockSize() * 4;
+        try {
+            while (bytes.hasRemaining()) {
+                m_channel.write(bytes, pos + bytes.position());
+            }
+        } catch (IOException e) {
+            return -3;
+        }
+        return 0;
+    }// writeBlocks
+
+};// class Disk
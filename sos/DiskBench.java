@@ -0,0 +1,62 @@
+package sos;
+
+/**
+ * This class compares the disk scheduling policies. For each policy it builds
+ * a fresh machine with an in-memory disk, runs the same set of processes
+ * (each executing <code>diskload.asm</code>, which reads pseudo-random
+ * blocks) and prints the service time, response time and throughput the
+ * device achieved.
+ *
+ * @see DiskScheduler
+ * @see IOStats
+ */
+public class DiskBench {
+    /**
+     * the constructor does nothing
+     *
+     */
+    public DiskBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of processes to run (default 16)
+     */
+    public static void main(String[] args) {
+        int numProcs = 16;
+        if (args.length > 0) {
+            numProcs = Integer.parseInt(args[0]);
+        }
+
+        Program prog = new Program();
+        if (prog.load("diskload.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        for (int policy = DiskScheduler.FCFS; policy <= DiskScheduler.CLOOK; policy++) {
+            RAM ram = new RAM(numProcs * 512, 0);
+            InterruptController ic = new InterruptController();
+            CPU cpu = new CPU(ram, ic);
+            cpu.setVerbose(false);
+            SOS os = new SOS(cpu, ram);
+
+            // 1000 blocks of 8 words on 100 cylinders
+            DiskGeometry geometry = new DiskGeometry(1000, 8, 10, 50, 5, 10);
+            os.registerDevice(new MemDisk(ic, geometry), 0);
+            os.setSchedulingPolicy(0, policy);
+
+            for (int i = 0; i < numProcs; i++) {
+                os.createProcess(prog, 300);
+            }
+            cpu.run();
+
+            System.out.println(String.format("%-7s %s",
+                    DiskScheduler.POLICY_NAMES[policy], os.getDeviceStats(0)));
+        }// for
+
+    }// main
+
+};// class DiskBench
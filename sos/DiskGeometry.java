@@ -0,0 +1,109 @@
+package sos;
+
+/**
+ * This class describes the physical layout and timing of a simulated disk.
+ * Blocks are numbered consecutively across cylinders, so block <i>b</i> lives
+ * on cylinder <i>b / blocksPerCylinder</i>. The time to service a request is
+ * a fixed per-request overhead (controller and rotational delay), plus a seek
+ * proportional to the number of cylinders the head crosses, plus a transfer
+ * time per block. All times are in virtual CPU ticks.
+ *
+ * @see BlockDevice
+ * @see DiskScheduler
+ */
+public class DiskGeometry {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the number of blocks on the disk */
+    private int m_numBlocks;
+
+    /** the size of each block (expressed as a number of integers) */
+    private int m_blockSize;
+
+    /** the number of consecutive blocks stored on one cylinder */
+    private int m_blocksPerCylinder;
+
+    /** ticks charged to every request regardless of head position */
+    private int m_fixedLatency;
+
+    /** ticks charged for each cylinder the head moves across */
+    private int m_seekPerCylinder;
+
+    /** ticks needed to transfer a single block */
+    private int m_transferLatency;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * DiskGeometry ctor
+     *
+     * @param numBlocks
+     *            the number of blocks on the disk
+     * @param blockSize
+     *            number of integers ("words") in a block
+     * @param blocksPerCylinder
+     *            blocks stored on each cylinder
+     * @param fixedLatency
+     *            ticks charged to every request
+     * @param seekPerCylinder
+     *            ticks per cylinder of head movement
+     * @param transferLatency
+     *            ticks to transfer one block
+     */
+    public DiskGeometry(int numBlocks, int blockSize, int blocksPerCylinder,
+            int fixedLatency, int seekPerCylinder, int transferLatency) {
+        m_numBlocks = numBlocks;
+        m_blockSize = blockSize;
+        m_blocksPerCylinder = Math.max(1, blocksPerCylinder);
+        m_fixedLatency = fixedLatency;
+        m_seekPerCylinder = seekPerCylinder;
+        m_transferLatency = transferLatency;
+    }// DiskGeometry ctor
+
+    public int getNumBlocks() {
+        return m_numBlocks;
+    }
+
+    public int getBlockSize() {
+        return m_blockSize;
+    }
+
+    /**
+     * getNumCylinders
+     *
+     * @return the number of cylinders needed to hold all the blocks
+     */
+    public int getNumCylinders() {
+        return (m_numBlocks + m_blocksPerCylinder - 1) / m_blocksPerCylinder;
+    }
+
+    /**
+     * cylinderOf
+     *
+     * @param block
+     *            a block number
+     * @return the cylinder the block is stored on
+     */
+    public int cylinderOf(int block) {
+        return block / m_blocksPerCylinder;
+    }
+
+    /**
+     * serviceTicks
+     *
+     * @param distance
+     *            the number of cylinders the head moves
+     * @param count
+     *            the number of blocks transferred
+     * @return the virtual time needed to service the request
+     */
+    public long serviceTicks(int distance, int count) {
+        return m_fixedLatency + (long) m_seekPerCylinder * distance
+                + (long) m_transferLatency * count;
+    }// serviceTicks
+
+};// class DiskGeometry
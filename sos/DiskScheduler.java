@@ -0,0 +1,246 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class holds the queue of requests waiting for one block device and
+ * decides which of them the device services next. The order is chosen by one
+ * of the classic disk scheduling policies, using the current head position:
+ * <ul>
+ * <li>FCFS - first come first served</li>
+ * <li>SSTF - shortest seek time first</li>
+ * <li>SCAN - the elevator: sweep to the edge of the disk and back</li>
+ * <li>C-LOOK - sweep upward only as far as the last request, then jump back
+ * to the lowest pending request</li>
+ * </ul>
+ *
+ * @see BlockDevice
+ * @see SOS
+ */
+public class DiskScheduler {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    public static final int FCFS = 0;
+    public static final int SSTF = 1;
+    public static final int SCAN = 2;
+    public static final int CLOOK = 3;
+
+    public static final String[] POLICY_NAMES = { "FCFS", "SSTF", "SCAN",
+            "C-LOOK" };
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * the policy used to pick the next request
+     **/
+    private int m_policy = FCFS;
+
+    /**
+     * the layout of the device the requests are for
+     **/
+    private DiskGeometry m_geometry = null;
+
+    /**
+     * pending requests in the order they arrived
+     **/
+    private ArrayList<IORequest> m_queue = null;
+
+    /**
+     * true while a SCAN sweep is moving toward higher cylinders
+     **/
+    private boolean m_up = true;
+
+    /**
+     * set by {@link #next} when the head has to reach the edge of the disk
+     * before the chosen request (SCAN only), otherwise -1
+     **/
+    private int m_via = -1;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * DiskScheduler ctor
+     *
+     * @param geometry
+     *            the layout of the device being scheduled
+     * @param policy
+     *            one of FCFS, SSTF, SCAN or CLOOK
+     */
+    public DiskScheduler(DiskGeometry geometry, int policy) {
+        m_geometry = geometry;
+        m_policy = policy;
+        m_queue = new ArrayList<IORequest>();
+    }// DiskScheduler ctor
+
+    public int getPolicy() {
+        return m_policy;
+    }
+
+    public void setPolicy(int policy) {
+        m_policy = policy;
+    }
+
+    /**
+     * size
+     *
+     * @return the number of requests waiting
+     */
+    public int size() {
+        return m_queue.size();
+    }
+
+    public boolean isEmpty() {
+        return m_queue.isEmpty();
+    }
+
+    /**
+     * add
+     *
+     * queues a request
+     */
+    public void add(IORequest req) {
+        m_queue.add(req);
+    }
+
+    /**
+     * getVia
+     *
+     * @return the cylinder the head has to pass over before servicing the
+     *         request last returned by {@link #next}, or -1
+     */
+    public int getVia() {
+        return m_via;
+    }
+
+    /**
+     * next
+     *
+     * removes the request that should be serviced next
+     *
+     * @param head
+     *            the cylinder the head is currently over
+     * @return the chosen request or null if the queue is empty
+     */
+    public IORequest next(int head) {
+        m_via = -1;
+        if (m_queue.isEmpty()) {
+            return null;
+        }
+
+        int index;
+        switch (m_policy) {
+        case SSTF:
+            index = pickNearest(head);
+            break;
+        case SCAN:
+            index = pickScan(head);
+            break;
+        case CLOOK:
+            index = pickCLook(head);
+            break;
+        default:
+            index = 0;
+            break;
+        }// switch
+
+        return m_queue.remove(index);
+    }// next
+
+    /**
+     * pickNearest
+     *
+     * @return the index of the request closest to the head (the earliest
+     *         arrival wins ties)
+     */
+    private int pickNearest(int head) {
+        int best = 0;
+        int bestDist = Integer.MAX_VALUE;
+        for (int i = 0; i < m_queue.size(); i++) {
+            int dist = Math.abs(cylinderAt(i) - head);
+            if (dist < bestDist) {
+                best = i;
+                bestDist = dist;
+            }
+        }
+        return best;
+    }// pickNearest
+
+    /**
+     * pickAbove
+     *
+     * @return the index of the lowest request at or above the given cylinder,
+     *         or -1 if there is none
+     */
+    private int pickAbove(int cyl) {
+        int best = -1;
+        for (int i = 0; i < m_queue.size(); i++) {
+            int c = cylinderAt(i);
+            if (c >= cyl && (best < 0 || c < cylinderAt(best))) {
+                best = i;
+            }
+        }
+        return best;
+    }// pickAbove
+
+    /**
+     * pickBelow
+     *
+     * @return the index of the highest request at or below the given
+     *         cylinder, or -1 if there is none
+     */
+    private int pickBelow(int cyl) {
+        int best = -1;
+        for (int i = 0; i < m_queue.size(); i++) {
+            int c = cylinderAt(i);
+            if (c <= cyl && (best < 0 || c > cylinderAt(best))) {
+                best = i;
+            }
+        }
+        return best;
+    }// pickBelow
+
+    /**
+     * pickScan
+     *
+     * continues the current sweep; when nothing is left ahead of the head it
+     * travels to the edge of the disk and reverses
+     */
+    private int pickScan(int head) {
+        int index = m_up ? pickAbove(head) : pickBelow(head);
+        if (index >= 0) {
+            return index;
+        }
+
+        int edge = m_up ? m_geometry.getNumCylinders() - 1 : 0;
+        if (head != edge) {
+            m_via = edge;
+        }
+        m_up = !m_up;
+        return m_up ? pickAbove(0) : pickBelow(edge);
+    }// pickScan
+
+    /**
+     * pickCLook
+     *
+     * services requests in increasing cylinder order, wrapping around to the
+     * lowest pending request when nothing is left above the head
+     */
+    private int pickCLook(int head) {
+        int index = pickAbove(head);
+        if (index < 0) {
+            index = pickAbove(0);
+        }
+        return index;
+    }// pickCLook
+
+    private int cylinderAt(int i) {
+        return m_geometry.cylinderOf(m_queue.get(i).block);
+    }
+
+};// class DiskScheduler
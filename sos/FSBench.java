@@ -0,0 +1,132 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class helps choose the size of the file system buffer cache. For each
+ * cache size it formats a fresh in-memory disk, writes a set of files, reads
+ * them back sequentially and then at random, and prints the cache statistics
+ * together with the virtual time charged for demand reads.
+ *
+ * The files are much bigger than the largest cache, so their blocks are
+ * evicted and written back while they are used. Every read is checked
+ * against what was written, and so is a final read of every file through a
+ * file system mounted afresh on the same disk; the exit status is 1 if any
+ * word differs.
+ *
+ * @see BufferCache
+ * @see FileSystem
+ */
+public class FSBench {
+    /**
+     * the constructor does nothing
+     *
+     */
+    public FSBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the cache sizes to try (default 4 8 16 32 64)
+     */
+    public static void main(String[] args) {
+        boolean allSame = true;
+        int[] sizes = { 4, 8, 16, 32, 64 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        final int numFiles = 8;
+        final int fileSize = 2000;
+        for (int size : sizes) {
+            DiskGeometry geometry = new DiskGeometry(1024, 64, 16, 50, 5, 10);
+            MemDisk disk = new MemDisk(new InterruptController(), geometry);
+            FileSystem fs = new FileSystem(disk, size);
+            fs.format(64);
+            fs.mount();
+
+            int[] buf = new int[fileSize];
+            int[] inodes = new int[numFiles];
+            boolean same = true;
+            for (int f = 0; f < numFiles; f++) {
+                for (int k = 0; k < fileSize; k++) {
+                    buf[k] = word(f, k);
+                }
+                inodes[f] = fs.create("/file" + f, FileSystem.TYPE_FILE);
+                same &= fs.write(inodes[f], 0, buf, 0, fileSize) == fileSize;
+            }
+            same &= fs.sync() == 0;
+            fs.getCache().takeIoTicks();
+
+            // sequential pass: every file read start to finish in 50 word
+            // chunks
+            for (int f = 0; f < numFiles; f++) {
+                for (int off = 0; off < fileSize; off += 50) {
+                    same &= fs.read(inodes[f], off, buf, 0, 50) == 50
+                            && check(buf, f, off, 50);
+                }
+            }
+            long seqTicks = fs.getCache().takeIoTicks();
+
+            // random pass with some locality: most reads hit two hot files
+            Random rand = new Random(42);
+            for (int i = 0; i < 2000; i++) {
+                int f = rand.nextInt(10) < 8 ? rand.nextInt(2) : rand
+                        .nextInt(numFiles);
+                int off = rand.nextInt(fileSize - 10);
+                same &= fs.read(inodes[f], off, buf, 0, 10) == 10
+                        && check(buf, f, off, 10);
+            }
+            long randTicks = fs.getCache().takeIoTicks();
+
+            // everything written must have reached the disk
+            FileSystem again = new FileSystem(disk, size);
+            same &= again.mount() == 0;
+            for (int f = 0; f < numFiles && same; f++) {
+                int ino = again.lookup("/file" + f);
+                same &= ino >= 0
+                        && again.read(ino, 0, buf, 0, fileSize) == fileSize
+                        && check(buf, f, 0, fileSize);
+            }
+
+            System.out.println(String.format(
+                    "%s seqTicks=%d randTicks=%d", fs.getCache(), seqTicks,
+                    randTicks));
+            System.out.println("  data read back "
+                    + (same ? "the same" : "DIFFERENT"));
+            allSame &= same;
+        }// for
+        if (!allSame) {
+            System.exit(1);
+        }
+    }// main
+
+    /**
+     * word
+     *
+     * @return what word k of file f holds
+     */
+    private static int word(int f, int k) {
+        return f * 100003 + k;
+    }
+
+    /**
+     * check
+     *
+     * @return true if the first len words of buf are words off.. of file f
+     */
+    private static boolean check(int[] buf, int f, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (buf[i] != word(f, off + i)) {
+                return false;
+            }
+        }
+        return true;
+    }// check
+
+};// class FSBench
@@ -0,0 +1,768 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class implements a simple inode-based file system on top of a
+ * {@link BlockDevice}. Every access goes through a {@link BufferCache}.
+ *
+ * The device is laid out as follows (B is the block size in words, which
+ * must be a multiple of 16):
+ * <pre>
+ *   block 0             superblock
+ *   bitmapStart ...     one bit per block, set when the block is in use
+ *   inodeStart ...      the inode table, 16 words per inode
+ *   dataStart ...       file and directory contents
+ * </pre>
+ * An inode holds its type, its size in words, 10 direct block pointers and
+ * one single-indirect block, so a file can hold (10 + B) * B words. A
+ * directory is a file of 8-word entries: the inode number followed by a name
+ * of up to 28 characters packed four to a word. Inode 0 is the root
+ * directory, which also means an entry whose inode number is 0 is unused.
+ *
+ * @see BufferCache
+ * @see SOS
+ */
+public class FileSystem {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    public static final int MAGIC = 0x50494446; // "PIDF"
+
+    // inode types
+    public static final int TYPE_FREE = 0;
+    public static final int TYPE_FILE = 1;
+    public static final int TYPE_DIR = 2;
+
+    // error codes (all negative)
+    public static final int ERR_IO = -3; /* the device reported an error */
+    public static final int ERR_NOENT = -4; /* no such file or directory */
+    public static final int ERR_NOSPC = -5; /* no free blocks or inodes */
+    public static final int ERR_EXIST = -7; /* the name is already in use */
+    public static final int ERR_NOTDIR = -8; /* a path component is a file */
+    public static final int ERR_INVAL = -9; /* bad name or argument */
+    public static final int ERR_NOTEMPTY = -10; /* directory is not empty */
+
+    // superblock layout
+    private static final int SB_MAGIC = 0;
+    private static final int SB_NUMINODES = 1;
+    private static final int SB_BITMAP = 2;
+    private static final int SB_INODES = 3;
+    private static final int SB_DATA = 4;
+
+    // inode layout
+    public static final int INODE_SIZE = 16;
+    public static final int NUM_DIRECT = 10;
+    private static final int I_TYPE = 0;
+    private static final int I_SIZE = 1;
+    private static final int I_DIRECT = 2;
+    private static final int I_INDIRECT = I_DIRECT + NUM_DIRECT;
+
+    // directory entry layout
+    public static final int DIRENT_SIZE = 8;
+    public static final int MAX_NAME = (DIRENT_SIZE - 1) * 4;
+
+    public static final int ROOT = 0;
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the device holding the file system */
+    private BlockDevice m_dev = null;
+
+    /** every block access goes through here */
+    private BufferCache m_cache = null;
+
+    /** the size of a block (expressed as a number of integers) */
+    private int m_blockSize = 0;
+
+    // the layout read from the superblock
+    private int m_numInodes = 0;
+    private int m_bitmapStart = 0;
+    private int m_inodeStart = 0;
+    private int m_dataStart = 0;
+
+    /** where the next search for a free block begins */
+    private int m_allocHint = 0;
+
+    /**
+     * for each inode being read, the offset a sequential reader would read
+     * next (used to decide when to read ahead)
+     **/
+    private HashMap<Integer, Integer> m_seqNext = null;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * FileSystem ctor
+     *
+     * @param dev
+     *            the device holding the file system
+     * @param cacheBlocks
+     *            the number of blocks the buffer cache can hold
+     */
+    public FileSystem(BlockDevice dev, int cacheBlocks) {
+        m_dev = dev;
+        m_blockSize = dev.getBlockSize();
+        m_cache = new BufferCache(dev, cacheBlocks);
+        m_seqNext = new HashMap<Integer, Integer>();
+    }// FileSystem ctor
+
+    public BufferCache getCache() {
+        return m_cache;
+    }
+
+    /**
+     * format
+     *
+     * writes an empty file system (just the root directory) to the device
+     *
+     * @param numInodes
+     *            the number of files and directories the file system can hold
+     * @return 0 is success; anything else is a failure code
+     */
+    public int format(int numInodes) {
+        int numBlocks = m_dev.getNumBlocks();
+        if (m_blockSize % INODE_SIZE != 0 || numInodes < 1) {
+            return ERR_INVAL;
+        }
+
+        int bitsPerBlock = m_blockSize * 32;
+        int bitmapBlocks = (numBlocks + bitsPerBlock - 1) / bitsPerBlock;
+        int inodeBlocks = (numInodes * INODE_SIZE + m_blockSize - 1)
+                / m_blockSize;
+        int dataStart = 1 + bitmapBlocks + inodeBlocks;
+        if (dataStart >= numBlocks) {
+            return ERR_NOSPC;
+        }
+
+        BufferCache.Buffer sb = m_cache.create(0);
+        if (sb == null) {
+            return ERR_IO;
+        }
+        sb.data[SB_MAGIC] = MAGIC;
+        sb.data[SB_NUMINODES] = numInodes;
+        sb.data[SB_BITMAP] = 1;
+        sb.data[SB_INODES] = 1 + bitmapBlocks;
+        sb.data[SB_DATA] = dataStart;
+
+        for (int i = 1; i < dataStart; i++) {
+            if (m_cache.create(i) == null) {
+                return ERR_IO;
+            }
+        }
+        m_bitmapStart = 1;
+        m_inodeStart = 1 + bitmapBlocks;
+        m_dataStart = dataStart;
+        m_numInodes = numInodes;
+
+        // the metadata blocks are never free
+        for (int i = 0; i < dataStart; i++) {
+            setBit(i, true);
+        }
+        setField(ROOT, I_TYPE, TYPE_DIR);
+
+        return sync();
+    }// format
+
+    /**
+     * mount
+     *
+     * reads the superblock
+     *
+     * @return 0 is success; anything else is a failure code (e.g., the
+     *         device has not been formatted)
+     */
+    public int mount() {
+        BufferCache.Buffer sb = m_cache.get(0);
+        if (sb == null) {
+            return ERR_IO;
+        }
+        if (sb.data[SB_MAGIC] != MAGIC) {
+            return ERR_INVAL;
+        }
+        m_numInodes = sb.data[SB_NUMINODES];
+        m_bitmapStart = sb.data[SB_BITMAP];
+        m_inodeStart = sb.data[SB_INODES];
+        m_dataStart = sb.data[SB_DATA];
+        m_allocHint = m_dataStart;
+        return 0;
+    }// mount
+
+    /**
+     * sync
+     *
+     * writes every modified block back to the device. Blocks that could
+     * not be written are kept and tried again on the next sync.
+     *
+     * @return 0 is success; ERR_IO if a block could not be written
+     */
+    public int sync() {
+        return m_cache.flush() == 0 ? 0 : ERR_IO;
+    }
+
+    /*
+     * ======================================================================
+     * Paths and Directories
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * lookup
+     *
+     * @param path
+     *            a '/' separated path from the root directory
+     * @return the inode the path names, or a negative error code
+     */
+    public int lookup(String path) {
+        String[] names = splitPath(path);
+        int ino = ROOT;
+        for (String name : names) {
+            if (getField(ino, I_TYPE) != TYPE_DIR) {
+                return ERR_NOTDIR;
+            }
+            ino = dirLookup(ino, name);
+            if (ino < 0) {
+                return ino;
+            }
+        }
+        return ino;
+    }// lookup
+
+    /**
+     * create
+     *
+     * makes a new, empty file or directory
+     *
+     * @param path
+     *            the path of the new file; its parent must exist
+     * @param type
+     *            TYPE_FILE or TYPE_DIR
+     * @return the new inode, or a negative error code
+     */
+    public int create(String path, int type) {
+        String[] names = splitPath(path);
+        if (names.length == 0) {
+            return ERR_EXIST;
+        }
+        String name = names[names.length - 1];
+        if (name.length() > MAX_NAME) {
+            return ERR_INVAL;
+        }
+        int parent = lookupParent(names);
+        if (parent < 0) {
+            return parent;
+        }
+        if (dirLookup(parent, name) >= 0) {
+            return ERR_EXIST;
+        }
+
+        int ino = allocInode(type);
+        if (ino < 0) {
+            return ino;
+        }
+        int err = dirAdd(parent, name, ino);
+        if (err < 0) {
+            setField(ino, I_TYPE, TYPE_FREE);
+            return err;
+        }
+        return ino;
+    }// create
+
+    /**
+     * unlink
+     *
+     * removes a file or an empty directory and frees its blocks
+     *
+     * @param path
+     *            the path of the file to remove
+     * @return 0 is success; anything else is a failure code
+     */
+    public int unlink(String path) {
+        String[] names = splitPath(path);
+        if (names.length == 0) {
+            return ERR_INVAL;
+        }
+        int parent = lookupParent(names);
+        if (parent < 0) {
+            return parent;
+        }
+        String name = names[names.length - 1];
+        int ino = dirLookup(parent, name);
+        if (ino < 0) {
+            return ino;
+        }
+        if (getField(ino, I_TYPE) == TYPE_DIR && !dirIsEmpty(ino)) {
+            return ERR_NOTEMPTY;
+        }
+
+        truncate(ino);
+        setField(ino, I_TYPE, TYPE_FREE);
+        m_seqNext.remove(ino);
+        return dirRemove(parent, name);
+    }// unlink
+
+    /**
+     * getType
+     *
+     * @return TYPE_FILE, TYPE_DIR or TYPE_FREE
+     */
+    public int getType(int ino) {
+        return getField(ino, I_TYPE);
+    }
+
+    /**
+     * getSize
+     *
+     * @return the number of words in a file
+     */
+    public int getSize(int ino) {
+        return getField(ino, I_SIZE);
+    }
+
+    private String[] splitPath(String path) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (String name : path.split("/")) {
+            if (name.length() > 0) {
+                names.add(name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }// splitPath
+
+    /**
+     * lookupParent
+     *
+     * @return the inode of the directory holding the last name in the path
+     */
+    private int lookupParent(String[] names) {
+        int ino = ROOT;
+        for (int i = 0; i < names.length - 1; i++) {
+            ino = dirLookup(ino, names[i]);
+            if (ino < 0) {
+                return ino;
+            }
+        }
+        if (getField(ino, I_TYPE) != TYPE_DIR) {
+            return ERR_NOTDIR;
+        }
+        return ino;
+    }// lookupParent
+
+    /**
+     * dirLookup
+     *
+     * @return the inode of the named entry in a directory, or ERR_NOENT
+     */
+    private int dirLookup(int dir, String name) {
+        int slot = dirFind(dir, name);
+        if (slot < 0) {
+            return slot;
+        }
+        int[] entry = new int[DIRENT_SIZE];
+        readData(dir, slot, entry, 0, DIRENT_SIZE);
+        return entry[0];
+    }// dirLookup
+
+    /**
+     * dirFind
+     *
+     * @return the offset of the named entry in a directory, or ERR_NOENT
+     */
+    private int dirFind(int dir, String name) {
+        int size = getField(dir, I_SIZE);
+        int[] entry = new int[DIRENT_SIZE];
+        for (int pos = 0; pos < size; pos += DIRENT_SIZE) {
+            if (readData(dir, pos, entry, 0, DIRENT_SIZE) < 0) {
+                return ERR_IO;
+            }
+            if (entry[0] != 0 && name.equals(unpackName(entry))) {
+                return pos;
+            }
+        }
+        return ERR_NOENT;
+    }// dirFind
+
+    /**
+     * dirAdd
+     *
+     * adds an entry to a directory, reusing an empty slot if there is one
+     */
+    private int dirAdd(int dir, String name, int ino) {
+        int size = getField(dir, I_SIZE);
+        int[] entry = new int[DIRENT_SIZE];
+        int pos = 0;
+        while (pos < size) {
+            readData(dir, pos, entry, 0, DIRENT_SIZE);
+            if (entry[0] == 0) {
+                break;
+            }
+            pos += DIRENT_SIZE;
+        }
+        packName(name, entry);
+        entry[0] = ino;
+        int n = write(dir, pos, entry, 0, DIRENT_SIZE);
+        return n < 0 ? n : 0;
+    }// dirAdd
+
+    /**
+     * dirRemove
+     *
+     * clears the named entry of a directory
+     */
+    private int dirRemove(int dir, String name) {
+        int pos = dirFind(dir, name);
+        if (pos < 0) {
+            return pos;
+        }
+        int n = write(dir, pos, new int[DIRENT_SIZE], 0, DIRENT_SIZE);
+        return n < 0 ? n : 0;
+    }// dirRemove
+
+    private boolean dirIsEmpty(int dir) {
+        int size = getField(dir, I_SIZE);
+        int[] entry = new int[DIRENT_SIZE];
+        for (int pos = 0; pos < size; pos += DIRENT_SIZE) {
+            readData(dir, pos, entry, 0, DIRENT_SIZE);
+            if (entry[0] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }// dirIsEmpty
+
+    private static void packName(String name, int[] entry) {
+        Arrays.fill(entry, 0);
+        for (int i = 0; i < name.length(); i++) {
+            entry[1 + i / 4] |= (name.charAt(i) & 0xff) << (24 - 8 * (i % 4));
+        }
+    }// packName
+
+    private static String unpackName(int[] entry) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MAX_NAME; i++) {
+            int c = (entry[1 + i / 4] >>> (24 - 8 * (i % 4))) & 0xff;
+            if (c == 0) {
+                break;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }// unpackName
+
+    /*
+     * ======================================================================
+     * File Contents
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * read
+     *
+     * copies words out of a file. If this read continues where the previous
+     * read of the same file stopped, the block after the one just read is
+     * prefetched into the cache.
+     *
+     * @param ino
+     *            the file
+     * @param offset
+     *            the first word to read
+     * @param dst
+     *            receives the words
+     * @param dstOff
+     *            where in dst to start
+     * @param len
+     *            the maximum number of words to read
+     * @return the number of words read (0 at end of file) or a negative
+     *         error code
+     */
+    public int read(int ino, int offset, int[] dst, int dstOff, int len) {
+        int n = readData(ino, offset, dst, dstOff, len);
+        if (n <= 0) {
+            return n;
+        }
+
+        Integer expected = m_seqNext.get(ino);
+        if (expected != null && expected.intValue() == offset) {
+            int next = blockFor(ino, (offset + n - 1) / m_blockSize + 1, false);
+            if (next > 0) {
+                m_cache.prefetch(next);
+            }
+        }
+        m_seqNext.put(ino, offset + n);
+        return n;
+    }// read
+
+    /**
+     * write
+     *
+     * copies words into a file, allocating blocks and growing the file as
+     * needed
+     *
+     * @param ino
+     *            the file
+     * @param offset
+     *            the first word to write (may be past the end of the file)
+     * @param src
+     *            the words to write
+     * @param srcOff
+     *            where in src to start
+     * @param len
+     *            the number of words to write
+     * @return the number of words written or a negative error code
+     */
+    public int write(int ino, int offset, int[] src, int srcOff, int len) {
+        if (offset < 0 || len < 0) {
+            return ERR_INVAL;
+        }
+        int done = 0;
+        int err = 0;
+        while (done < len) {
+            int pos = offset + done;
+            int within = pos % m_blockSize;
+            int n = Math.min(m_blockSize - within, len - done);
+            int bn = blockFor(ino, pos / m_blockSize, true);
+            if (bn < 0) {
+                err = bn;
+                break;
+            }
+            BufferCache.Buffer b = m_cache.get(bn);
+            if (b == null) {
+                err = ERR_IO;
+                break;
+            }
+            System.arraycopy(src, srcOff + done, b.data, within, n);
+            b.dirty = true;
+            done += n;
+        }
+
+        if (offset + done > getField(ino, I_SIZE)) {
+            setField(ino, I_SIZE, offset + done);
+        }
+        if (done == 0 && len > 0) {
+            return err;
+        }
+        return done;
+    }// write
+
+    /**
+     * readData
+     *
+     * copies words out of a file without any read-ahead
+     */
+    private int readData(int ino, int offset, int[] dst, int dstOff, int len) {
+        int size = getField(ino, I_SIZE);
+        if (offset < 0 || len < 0) {
+            return ERR_INVAL;
+        }
+        if (offset >= size) {
+            return 0;
+        }
+        len = Math.min(len, size - offset);
+
+        int done = 0;
+        while (done < len) {
+            int pos = offset + done;
+            int within = pos % m_blockSize;
+            int n = Math.min(m_blockSize - within, len - done);
+            int bn = blockFor(ino, pos / m_blockSize, false);
+            if (bn < 0) {
+                return bn;
+            }
+            if (bn == 0) {
+                // a hole in the file reads as zeros
+                Arrays.fill(dst, dstOff + done, dstOff + done + n, 0);
+            } else {
+                BufferCache.Buffer b = m_cache.get(bn);
+                if (b == null) {
+                    return ERR_IO;
+                }
+                System.arraycopy(b.data, within, dst, dstOff + done, n);
+            }
+            done += n;
+        }
+        return len;
+    }// readData
+
+    /**
+     * blockFor
+     *
+     * maps a block index within a file to a block on the device
+     *
+     * @param ino
+     *            the file
+     * @param index
+     *            the block index within the file
+     * @param allocate
+     *            if true a missing block is allocated
+     * @return the device block, 0 if the block is missing (and was not
+     *         allocated), or a negative error code
+     */
+    private int blockFor(int ino, int index, boolean allocate) {
+        if (index < NUM_DIRECT) {
+            int bn = getField(ino, I_DIRECT + index);
+            if (bn == 0 && allocate) {
+                bn = allocBlock();
+                if (bn > 0) {
+                    setField(ino, I_DIRECT + index, bn);
+                }
+            }
+            return bn;
+        }
+
+        index -= NUM_DIRECT;
+        if (index >= m_blockSize) {
+            return allocate ? ERR_NOSPC : 0;
+        }
+        int ind = getField(ino, I_INDIRECT);
+        if (ind == 0) {
+            if (!allocate) {
+                return 0;
+            }
+            ind = allocBlock();
+            if (ind < 0) {
+                return ind;
+            }
+            setField(ino, I_INDIRECT, ind);
+        }
+
+        BufferCache.Buffer ib = m_cache.get(ind);
+        if (ib == null) {
+            return ERR_IO;
+        }
+        int bn = ib.data[index];
+        if (bn == 0 && allocate) {
+            bn = allocBlock();
+            if (bn > 0) {
+                // allocating may have evicted the indirect block
+                ib = m_cache.get(ind);
+                if (ib == null) {
+                    setBit(bn, false);
+                    return ERR_IO;
+                }
+                ib.data[index] = bn;
+                ib.dirty = true;
+            }
+        }
+        return bn;
+    }// blockFor
+
+    /**
+     * truncate
+     *
+     * frees every block of a file and sets its size to zero
+     */
+    private void truncate(int ino) {
+        for (int i = 0; i < NUM_DIRECT; i++) {
+            int bn = getField(ino, I_DIRECT + i);
+            if (bn != 0) {
+                setBit(bn, false);
+                setField(ino, I_DIRECT + i, 0);
+            }
+        }
+        int ind = getField(ino, I_INDIRECT);
+        if (ind != 0) {
+            BufferCache.Buffer ib = m_cache.get(ind);
+            int[] blocks = ib == null ? new int[0] : ib.data.clone();
+            for (int bn : blocks) {
+                if (bn != 0) {
+                    setBit(bn, false);
+                }
+            }
+            setBit(ind, false);
+            setField(ino, I_INDIRECT, 0);
+        }
+        setField(ino, I_SIZE, 0);
+    }// truncate
+
+    /*
+     * ======================================================================
+     * Inodes and the Block Bitmap
+     * ----------------------------------------------------------------------
+     */
+
+    private int getField(int ino, int field) {
+        int pos = ino * INODE_SIZE + field;
+        BufferCache.Buffer b = m_cache.get(m_inodeStart + pos / m_blockSize);
+        return b == null ? 0 : b.data[pos % m_blockSize];
+    }// getField
+
+    private void setField(int ino, int field, int value) {
+        int pos = ino * INODE_SIZE + field;
+        BufferCache.Buffer b = m_cache.get(m_inodeStart + pos / m_blockSize);
+        if (b != null) {
+            b.data[pos % m_blockSize] = value;
+            b.dirty = true;
+        }
+    }// setField
+
+    /**
+     * allocInode
+     *
+     * @return a free inode initialized to an empty file of the given type, or
+     *         ERR_NOSPC
+     */
+    private int allocInode(int type) {
+        for (int ino = ROOT + 1; ino < m_numInodes; ino++) {
+            if (getField(ino, I_TYPE) == TYPE_FREE) {
+                for (int f = 0; f < INODE_SIZE; f++) {
+                    setField(ino, f, 0);
+                }
+                setField(ino, I_TYPE, type);
+                return ino;
+            }
+        }
+        return ERR_NOSPC;
+    }// allocInode
+
+    /**
+     * allocBlock
+     *
+     * @return a free data block (already zeroed in the cache), ERR_NOSPC or
+     *         ERR_IO if there was no room in the cache for it
+     */
+    private int allocBlock() {
+        int numBlocks = m_dev.getNumBlocks();
+        int numData = numBlocks - m_dataStart;
+        for (int i = 0; i < numData; i++) {
+            int bn = m_dataStart + (m_allocHint - m_dataStart + i) % numData;
+            if (!getBit(bn)) {
+                setBit(bn, true);
+                if (m_cache.create(bn) == null) {
+                    setBit(bn, false);
+                    return ERR_IO;
+                }
+                m_allocHint = bn + 1 < numBlocks ? bn + 1 : m_dataStart;
+                return bn;
+            }
+        }
+        return ERR_NOSPC;
+    }// allocBlock
+
+    private boolean getBit(int bn) {
+        int bitsPerBlock = m_blockSize * 32;
+        BufferCache.Buffer b = m_cache.get(m_bitmapStart + bn / bitsPerBlock);
+        int word = (bn % bitsPerBlock) / 32;
+        return b != null && (b.data[word] & (1 << (bn % 32))) != 0;
+    }// getBit
+
+    private void setBit(int bn, boolean used) {
+        int bitsPerBlock = m_blockSize * 32;
+        BufferCache.Buffer b = m_cache.get(m_bitmapStart + bn / bitsPerBlock);
+        if (b == null) {
+            return;
+        }
+        int word = (bn % bitsPerBlock) / 32;
+        if (used) {
+            b.data[word] |= 1 << (bn % 32);
+        } else {
+            b.data[word] &= ~(1 << (bn % 32));
+        }
+        b.dirty = true;
+    }// setBit
+
+};// class FileSystem
@@ -0,0 +1,169 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class measures superinstruction fusion. For each workload it first
+ * runs the programs with profiling on, chooses the superinstructions from
+ * the opcode pair counts, and then times the workload with and without those
+ * superinstructions. It prints the number of dispatches saved and checks
+ * that the fused runs, with the tuned loop and with the general one, end at
+ * the same virtual time with the same registers and output as the plain
+ * run; the exit status is 1 if any does not.
+ *
+ * @see Superinstructions
+ */
+public class FusionBench {
+    /**
+     * The workloads: the programs run together and how many copies of each
+     **/
+    private static final String[][] WORKLOADS = { { "countloop.asm" },
+            { "racecount.asm", "racecount.asm", "racecount.asm" },
+            { "producer.asm", "filter.asm", "consumer.asm" } };
+
+    /**
+     * the number of timed runs of each configuration (the best is reported)
+     **/
+    private static final int REPS = 20;
+
+    /**
+     * how long each workload is run both ways before timing starts, so that
+     * a short one is not timed before the JIT has compiled the loop
+     **/
+    private static final long WARMUP_NANOS = 1000000000L;
+
+    /**
+     * the share of executed pairs a pattern needs to be fused
+     **/
+    private static final double MIN_SHARE = 0.05;
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public FusionBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        boolean allSame = true;
+        for (String[] files : WORKLOADS) {
+            Program[] progs = new Program[files.length];
+            for (int i = 0; i < files.length; i++) {
+                progs[i] = new Program();
+                if (progs[i].load(files[i], false) != 0) {
+                    // Error loading program so exit
+                    System.exit(1);
+                }
+            }
+
+            CPU profiled = runWorkload(progs, true, 0, true, null);
+            long instrs = 0;
+            for (long n : profiled.getOpcodeCounts()) {
+                instrs += n;
+            }
+            int mask = Superinstructions.choose(profiled.getPairCounts(),
+                    MIN_SHARE);
+
+            long plainTime = Long.MAX_VALUE;
+            long fusedTime = Long.MAX_VALUE;
+            long warm = System.nanoTime() + WARMUP_NANOS;
+            while (System.nanoTime() < warm) {
+                runWorkload(progs, false, 0, true, null);
+                runWorkload(progs, false, mask, true, null);
+            }
+            for (int rep = 0; rep < REPS; rep++) {
+                long start = System.nanoTime();
+                runWorkload(progs, false, 0, true, null);
+                plainTime = Math.min(plainTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                runWorkload(progs, false, mask, true, null);
+                fusedTime = Math.min(fusedTime, System.nanoTime() - start);
+            }
+
+            String[] text = new String[1];
+            CPU plain = runWorkload(progs, false, 0, true, text);
+            String plainText = text[0];
+            CPU fused = runWorkload(progs, false, mask, true, text);
+            String fusedText = text[0];
+            CPU general = runWorkload(progs, false, mask, false, text);
+            long dispatches = instrs - fused.getFusedInstructions()
+                    + fused.getFusedDispatches();
+            boolean same = sameRun(plain, plainText, fused, fusedText)
+                    && sameRun(plain, plainText, general, text[0]);
+            allSame &= same;
+
+            System.out.println(String.join(" ", files));
+            System.out.println(String.format("  fused: %s", Superinstructions
+                    .describe(mask)));
+            System.out.println(String.format("  %d instructions in %d "
+                    + "dispatches (%.1f%% fewer), same result: %b", instrs,
+                    dispatches, 100.0 * (instrs - dispatches) / instrs, same));
+            System.out.println(String.format("  plain %.1f ms, fused %.1f ms "
+                    + "(%.2fx)", plainTime / 1e6, fusedTime / 1e6,
+                    (double) plainTime / fusedTime));
+        }// for
+        if (!allSame) {
+            System.exit(1);
+        }
+    }// main
+
+    /**
+     * sameRun
+     *
+     * @return true if two runs ended at the same virtual time with the same
+     *         registers and output
+     */
+    private static boolean sameRun(CPU a, String aText, CPU b, String bText) {
+        return a.getTicks() == b.getTicks()
+                && Arrays.equals(a.getRegisters(), b.getRegisters())
+                && aText.equals(bText);
+    }// sameRun
+
+    /**
+     * runWorkload
+     *
+     * runs a set of programs, one process each, on a fresh machine
+     *
+     * @param progs
+     *            the programs
+     * @param profile
+     *            true to count the opcodes executed
+     * @param fusion
+     *            the superinstructions to use
+     * @param tuned
+     *            false to use the general instruction loop
+     * @param text
+     *            its first element is set to the output (may be null)
+     * @return the CPU, after the run
+     */
+    private static CPU runWorkload(Program[] progs, boolean profile,
+            int fusion, boolean tuned, String[] text) {
+        RAM ram = new RAM(progs.length * 256 + 16, 0);
+        CPU cpu = new CPU(ram);
+        cpu.setVerbose(false);
+        cpu.setProfiling(profile);
+        cpu.setFusion(fusion);
+        cpu.setLoopFastPath(false);
+        cpu.setTunedInterpreter(tuned);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(out));
+        for (Program prog : progs) {
+            os.createProcess(prog, 200);
+        }
+        cpu.run();
+        if (text != null) {
+            text[0] = out.toString();
+        }
+        return cpu;
+    }// runWorkload
+
+};// class FusionBench
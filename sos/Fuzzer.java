@@ -0,0 +1,744 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class stress-tests the CPU, assembler and SOS with random programs.
+ * Each program is generated from its own seed as Pidgin source (every
+ * instruction, labels and branches to them, and system calls that print,
+ * get the process id or exit), assembled by {@link Program#loadSource} and
+ * run on a fresh machine by each of the CPU's engines, with an instruction
+ * limit so that every run ends. The engines are checked against a reference:
+ * <ul>
+ * <li>with the code in each process's memory, the general loop is the
+ * reference for the tuned loop with the loop fast path, the general and
+ * tuned loops with superinstructions, the general loop following the
+ * pipeline model and the general loop stopping (and being resumed) at
+ * breakpoints and watchpoints</li>
+ * <li>with the code shared, the general loop is the reference for the tuned
+ * loop and for the tuned loop running the program after
+ * {@link Program#optimize}. Optimizing can move the code, so unless it did
+ * not a program that uses LOAD, SAVE or CAS is not compared, and only the
+ * status, time, output and general registers are.</li>
+ * </ul>
+ * Two runs agree if they end the same way (every process exited, the
+ * instruction limit, a fault, every process blocked, or an exception) after
+ * the same instructions and virtual time, with the same registers and
+ * output; for runs that threw only the exception is compared, since the
+ * registers are left as they were. A program on which they disagree is
+ * minimized by removing instructions for as long as the same engine still
+ * disagrees, and saved as an .asm file that {@link Sim} can run.
+ *
+ * The programs are spread over a pool of threads, each building its own
+ * machines, so the work grows with the host's cores.
+ *
+ * Usage: <code>java sos.Fuzzer [-count N] [-seconds S] [-threads N]
+ * [-seed S] [-length N] [-limit N] [-dir D] [-replay SEED]</code>.
+ * -replay prints the program of one seed and what each engine made of it.
+ */
+public class Fuzzer {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    public static final long DEFAULT_COUNT = 100000;
+    public static final int DEFAULT_LENGTH = 24;
+    public static final long DEFAULT_LIMIT = 2000;
+
+    /** the words of each process's memory beyond its code */
+    public static final int STACK_SIZE = 64;
+
+    /** the words of RAM in each machine */
+    public static final int RAM_SIZE = 4096;
+
+    /** the most failing programs saved */
+    public static final int MAX_SAVED = 10;
+
+    // The engines
+    private static final int GENERAL = 0;
+    private static final int TUNED = 1;
+    private static final int FUSED = 2;
+    private static final int TUNED_FUSED = 3;
+    private static final int PIPELINE = 4;
+    private static final int DEBUG = 5;
+    private static final int SHARED = 6;
+    private static final int SHARED_TUNED = 7;
+    private static final int OPTIMIZED = 8;
+    private static final int NUMENGINES = 9;
+
+    private static final String[] ENGINE_NAMES = { "general", "tuned",
+            "fused", "tuned fused", "pipeline", "debug", "shared general",
+            "shared tuned", "optimized" };
+
+    /**
+     * the engine each one is checked against (-1 for the references)
+     **/
+    private static final int[] REFERENCE = { -1, GENERAL, GENERAL, GENERAL,
+            GENERAL, GENERAL, -1, SHARED, SHARED };
+
+    /**
+     * the system calls the programs make, none of which depends on where
+     * the process is in memory
+     **/
+    private static final int[] SYSCALLS = { SOS.SYSCALL_EXIT,
+            SOS.SYSCALL_OUTPUT, SOS.SYSCALL_OUTPUT, SOS.SYSCALL_GETPID };
+
+    // The outcome of a run (see BatchRunner)
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_LIMIT = "limit";
+    public static final String STATUS_FAULT = "fault";
+    public static final String STATUS_BLOCKED = "blocked";
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * the programs run, and the instructions they took on all engines
+     **/
+    private LongAdder m_programs = new LongAdder();
+    private LongAdder m_instructions = new LongAdder();
+
+    /**
+     * how the reference runs ended
+     **/
+    private ConcurrentHashMap<String, LongAdder> m_statuses = new ConcurrentHashMap<String, LongAdder>();
+
+    /**
+     * the programs on which the engines disagreed
+     **/
+    private AtomicLong m_failures = new AtomicLong(0);
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public Fuzzer() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            the options described above
+     */
+    public static void main(String[] args) {
+        long count = DEFAULT_COUNT;
+        long seconds = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = System.currentTimeMillis();
+        int length = DEFAULT_LENGTH;
+        long limit = DEFAULT_LIMIT;
+        String dir = ".";
+        for (int i = 0; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                System.out.println("ERROR: no value for " + args[i]);
+                return;
+            } else if (args[i].equals("-count")) {
+                count = Long.parseLong(value);
+            } else if (args[i].equals("-seconds")) {
+                seconds = Long.parseLong(value);
+                count = seconds > 0 ? Long.MAX_VALUE : count;
+            } else if (args[i].equals("-threads")) {
+                threads = Math.max(1, Integer.parseInt(value));
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(value);
+            } else if (args[i].equals("-length")) {
+                length = Math.max(1, Integer.parseInt(value));
+            } else if (args[i].equals("-limit")) {
+                limit = Math.max(1, Long.parseLong(value));
+            } else if (args[i].equals("-dir")) {
+                dir = value;
+            } else if (args[i].equals("-replay")) {
+                replay(Long.parseLong(value), length, limit);
+                return;
+            } else {
+                System.out.println("ERROR: unknown option " + args[i]);
+                return;
+            }
+        }// for
+
+        System.out.println("fuzzing from seed " + seed + " on " + threads
+                + " threads");
+        Fuzzer fuzzer = new Fuzzer();
+        long start = System.nanoTime();
+        fuzzer.fuzz(seed, count, seconds, threads, length, limit, dir);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        long programs = fuzzer.m_programs.sum();
+        System.out.println(String.format("%d programs (%.1f M instructions) "
+                + "on %d threads in %.2f s: %.0f programs/hour, %d failed %s",
+                programs, fuzzer.m_instructions.sum() / 1e6, threads, secs,
+                programs / secs * 3600, fuzzer.m_failures.get(),
+                new TreeMap<String, LongAdder>(fuzzer.m_statuses)));
+    }// main
+
+    /**
+     * fuzz
+     *
+     * runs the programs of seeds seed, seed + 1, ... on a pool of threads
+     * until count have been run or the time is up, reporting and saving any
+     * that fail
+     *
+     * @param seconds
+     *            how long to run (0 for no limit)
+     * @param dir
+     *            where to save the failing programs
+     */
+    public void fuzz(final long seed, final long count, long seconds,
+            int threads, final int length, final long limit, final String dir) {
+        final long deadline = seconds > 0 ? System.nanoTime() + seconds
+                * 1000000000L : Long.MAX_VALUE;
+        final AtomicLong next = new AtomicLong(0);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(new Runnable() {
+                public void run() {
+                    long i;
+                    while ((i = next.getAndIncrement()) < count
+                            && System.nanoTime() < deadline) {
+                        fuzzOne(seed + i, length, limit, dir);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+        }
+    }// fuzz
+
+    /**
+     * fuzzOne
+     *
+     * generates, runs and checks the program of one seed
+     */
+    private void fuzzOne(long seed, int length, long limit, String dir) {
+        Case c = generate(seed, length);
+        Outcome[] outcomes = new Outcome[NUMENGINES];
+        Finding f = check(c, limit, outcomes);
+        m_programs.increment();
+        for (Outcome o : outcomes) {
+            if (o != null) {
+                m_instructions.add(o.instructions);
+            }
+        }
+        String status = outcomes[GENERAL].status;
+        m_statuses.putIfAbsent(status, new LongAdder());
+        m_statuses.get(status).increment();
+        if (f == null) {
+            return;
+        }
+
+        long n = m_failures.incrementAndGet();
+        synchronized (this) {
+            System.out.println("FAIL seed " + seed + ": " + f);
+        }
+        if (n > MAX_SAVED) {
+            return;
+        }
+
+        Case small = minimize(c, f, limit);
+        Finding sf = check(small, limit, new Outcome[NUMENGINES]);
+        Program prog = new Program();
+        prog.loadSource(small.source(), false);
+        StringBuilder report = new StringBuilder();
+        report.append("# found by sos.Fuzzer from seed " + seed
+                + "; run with procs=" + small.procs + " quantum="
+                + small.quantum + " alloc="
+                + (prog.export().length + STACK_SIZE) + " cpu.limit="
+                + limit + "\n");
+        report.append("# " + sf + "\n");
+        for (String line : small.lines) {
+            report.append(line).append('\n');
+        }
+        File file = new File(dir, "fuzz-" + seed + ".asm");
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(file));
+            out.print(report);
+            out.close();
+        } catch (IOException e) {
+            System.out.println("ERROR: could not write " + file + ": " + e);
+            return;
+        }
+        synchronized (this) {
+            System.out.println("  seed " + seed + " minimized to "
+                    + countInstructions(small) + " instructions in " + file);
+        }
+    }// fuzzOne
+
+    /**
+     * replay
+     *
+     * prints the program of a seed and the outcome of each engine
+     */
+    private static void replay(long seed, int length, long limit) {
+        Case c = generate(seed, length);
+        System.out.println("# seed " + seed + ", procs=" + c.procs
+                + " quantum=" + c.quantum);
+        for (String line : c.lines) {
+            System.out.println(line);
+        }
+        Outcome[] outcomes = new Outcome[NUMENGINES];
+        Finding f = check(c, limit, outcomes);
+        for (int e = 0; e < NUMENGINES; e++) {
+            System.out.println(String.format("%-15s %s", ENGINE_NAMES[e],
+                    outcomes[e] == null ? "not compared" : outcomes[e]));
+        }
+        System.out.println(f == null ? "the engines agree" : "FAIL: " + f);
+    }// replay
+
+    /**
+     * generate
+     *
+     * @param seed
+     *            the seed the program is made from
+     * @param length
+     *            the most instructions (not counting those that set up system
+     *            calls)
+     * @return a random program, with the number of processes to run it in
+     *         and the clock interval
+     */
+    public static Case generate(long seed, int length) {
+        Random rnd = new Random(seed);
+        Case c = new Case();
+        c.procs = 1 + rnd.nextInt(2);
+        c.quantum = 5 + rnd.nextInt(200);
+
+        int n = 1 + rnd.nextInt(length);
+        int labels = 1 + rnd.nextInt(3);
+        int[] at = new int[labels];
+        for (int k = 0; k < labels; k++) {
+            at[k] = rnd.nextInt(n + 1);
+        }
+
+        for (int i = 0; i <= n; i++) {
+            for (int k = 0; k < labels; k++) {
+                if (at[k] == i) {
+                    c.lines.add(":L" + k);
+                }
+            }
+            if (i == n) {
+                break;
+            }
+            String label = "L" + rnd.nextInt(labels);
+            int pick = rnd.nextInt(100);
+            if (pick < 20) {
+                c.lines.add("SET " + reg(rnd) + " " + immediate(rnd));
+            } else if (pick < 40) {
+                String[] ops = { "ADD", "SUB", "MUL", "DIV" };
+                c.lines.add(ops[rnd.nextInt(ops.length)] + " " + reg(rnd)
+                        + " " + reg(rnd) + " " + reg(rnd));
+            } else if (pick < 45) {
+                c.lines.add("COPY " + reg(rnd) + " " + reg(rnd));
+            } else if (pick < 48) {
+                c.lines.add("BRANCH " + label);
+            } else if (pick < 58) {
+                c.lines.add((rnd.nextBoolean() ? "BNE " : "BLT ") + reg(rnd)
+                        + " " + reg(rnd) + " " + label);
+            } else if (pick < 66) {
+                c.lines.add((rnd.nextBoolean() ? "PUSH " : "POP ") + reg(rnd));
+            } else if (pick < 80) {
+                c.lines.add((rnd.nextBoolean() ? "LOAD " : "SAVE ") + reg(rnd)
+                        + " " + reg(rnd));
+            } else if (pick < 85) {
+                c.lines.add("CAS " + reg(rnd) + " " + reg(rnd) + " "
+                        + reg(rnd));
+            } else if (pick < 95) {
+                // a system call with its argument (if any) on the stack
+                int call = SYSCALLS[rnd.nextInt(SYSCALLS.length)];
+                String r = "R" + rnd.nextInt(CPU.NUMGENREG);
+                if (call == SOS.SYSCALL_OUTPUT) {
+                    c.lines.add("PUSH " + reg(rnd));
+                }
+                c.lines.add("SET " + r + " " + call);
+                c.lines.add("PUSH " + r);
+                c.lines.add("TRAP");
+            } else {
+                c.lines.add("TRAP");
+            }
+        }// for
+        return c;
+    }// generate
+
+    /**
+     * reg
+     *
+     * @return a register operand, nearly always a general one
+     */
+    private static String reg(Random rnd) {
+        return "R" + (rnd.nextInt(50) == 0 ? rnd.nextInt(CPU.NUMREG) : rnd
+                .nextInt(CPU.NUMGENREG));
+    }
+
+    /**
+     * immediate
+     *
+     * @return a value for SET, usually a small one that can be used as an
+     *         address, count or system call
+     */
+    private static int immediate(Random rnd) {
+        int pick = rnd.nextInt(10);
+        if (pick < 6) {
+            return rnd.nextInt(STACK_SIZE * 2);
+        } else if (pick < 9) {
+            return rnd.nextInt(17) - 8;
+        }
+        return rnd.nextInt();
+    }// immediate
+
+    /**
+     * check
+     *
+     * runs a program on every engine
+     *
+     * @param outcomes
+     *            filled in with what each engine made of it (null where an
+     *            engine is not compared)
+     * @return the first disagreement with a reference, or null if there is
+     *         none
+     */
+    public static Finding check(Case c, long limit, Outcome[] outcomes) {
+        Program prog = new Program();
+        if (prog.loadSource(c.source(), false) != 0) {
+            Finding f = new Finding();
+            f.engine = GENERAL;
+            f.detail = "the program did not assemble";
+            return f;
+        }
+        Program opt = new Program();
+        opt.loadSource(c.source(), false);
+        opt.optimize();
+        boolean moved = opt.export().length != prog.export().length;
+        if (moved && usesMemory(prog)) {
+            opt = null;
+        }
+
+        for (int e = 0; e < NUMENGINES; e++) {
+            if (e == OPTIMIZED && opt == null) {
+                continue;
+            }
+            outcomes[e] = run(e == OPTIMIZED ? opt : prog, e, c, limit);
+        }
+        for (int e = 0; e < NUMENGINES; e++) {
+            if (REFERENCE[e] < 0 || outcomes[e] == null) {
+                continue;
+            }
+            String detail = outcomes[e].differs(outcomes[REFERENCE[e]],
+                    e == OPTIMIZED && moved);
+            if (detail != null) {
+                Finding f = new Finding();
+                f.engine = e;
+                f.detail = detail;
+                return f;
+            }
+        }// for
+        return null;
+    }// check
+
+    /**
+     * usesMemory
+     *
+     * @return true if the program has a LOAD, SAVE or CAS, whose addresses
+     *         depend on where the code is
+     */
+    private static boolean usesMemory(Program prog) {
+        int[] code = prog.export();
+        for (int i = 0; i < code.length; i += CPU.INSTRSIZE) {
+            if (code[i] == CPU.LOAD || code[i] == CPU.SAVE
+                    || code[i] == CPU.CAS) {
+                return true;
+            }
+        }
+        return false;
+    }// usesMemory
+
+    /**
+     * run
+     *
+     * runs a program on a fresh machine with one of the engines. Each
+     * process is given STACK_SIZE words beyond its code, so that an
+     * optimized program has as much stack as the original.
+     */
+    private static Outcome run(Program prog, int engine, Case c, long limit) {
+        int alloc = prog.export().length + STACK_SIZE;
+        RAM ram = new RAM(RAM_SIZE, 0);
+        CPU cpu = new CPU(ram, new InterruptController());
+        cpu.setVerbose(false);
+        boolean tuned = engine == TUNED || engine == TUNED_FUSED
+                || engine == SHARED_TUNED || engine == OPTIMIZED;
+        cpu.setTunedInterpreter(tuned);
+        cpu.setLoopFastPath(tuned || engine == FUSED);
+        if (engine == FUSED || engine == TUNED_FUSED) {
+            cpu.setFusion(Superinstructions.ALL);
+        }
+        if (engine == PIPELINE) {
+            cpu.setPipeline(new Pipeline(true));
+        }
+        cpu.setInstructionLimit(limit);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+        os.setCodeSharing(engine >= SHARED);
+        cpu.setClockInterval(c.quantum);
+        for (int i = 0; i < c.procs; i++) {
+            os.createProcess(prog, alloc);
+        }
+        if (engine == DEBUG) {
+            // stop at every label and whenever the words watched change
+            for (int k = 0; prog.getLabelAddress("L" + k) >= 0; k++) {
+                cpu.addBreakpoint(prog.getLabelAddress("L" + k));
+            }
+            for (int a = 0; a < RAM_SIZE; a += STACK_SIZE / 2) {
+                cpu.addWatchpoint(a);
+            }
+        }
+
+        Outcome o = new Outcome();
+        try {
+            do {
+                cpu.run();
+            } while (cpu.isDebugStopped());
+            if (cpu.isLimitReached()) {
+                o.status = STATUS_LIMIT;
+            } else if (!cpu.isHalted()) {
+                o.status = STATUS_FAULT;
+            } else if (os.getProcessCount() > 0) {
+                o.status = STATUS_BLOCKED;
+            } else {
+                o.status = STATUS_OK;
+            }
+        } catch (RuntimeException e) {
+            o.status = e.getClass().getSimpleName();
+            o.threw = true;
+        }
+        o.instructions = cpu.getInstructions();
+        o.ticks = cpu.getTicks();
+        o.registers = cpu.getRegisters().clone();
+        o.output = text.toString().trim().replace("\n", "; ");
+        return o;
+    }// run
+
+    /**
+     * minimize
+     *
+     * removes instructions from a failing program, first in large blocks and
+     * then one at a time, for as long as the same engine still disagrees
+     * with its reference, then drops the labels nothing refers to
+     *
+     * @return the smallest failing program found
+     */
+    public static Case minimize(Case c, Finding f, long limit) {
+        if (c.procs > 1) {
+            Case one = c.copy();
+            one.procs = 1;
+            if (fails(one, f, limit)) {
+                c = one;
+            }
+        }
+        for (int chunk = countInstructions(c) / 2; chunk >= 1;) {
+            boolean smaller = false;
+            for (int start = 0; start < countInstructions(c);) {
+                Case candidate = c.copy();
+                candidate.removeInstructions(start, chunk);
+                if (fails(candidate, f, limit)) {
+                    c = candidate;
+                    smaller = true;
+                } else {
+                    start += chunk;
+                }
+            }// for
+            if (!smaller) {
+                chunk /= 2;
+            }
+        }// for
+
+        Case tidy = c.copy();
+        tidy.dropUnusedLabels();
+        return fails(tidy, f, limit) ? tidy : c;
+    }// minimize
+
+    /**
+     * fails
+     *
+     * @return true if the same engine as in the finding disagrees with its
+     *         reference on the program
+     */
+    private static boolean fails(Case c, Finding f, long limit) {
+        if (countInstructions(c) == 0) {
+            return false;
+        }
+        Finding g = check(c, limit, new Outcome[NUMENGINES]);
+        return g != null && g.engine == f.engine;
+    }
+
+    private static int countInstructions(Case c) {
+        int n = 0;
+        for (String line : c.lines) {
+            n += line.startsWith(":") ? 0 : 1;
+        }
+        return n;
+    }
+
+    /**
+     * Case
+     *
+     * A generated program and the machine it is run on.
+     */
+    public static class Case {
+        Vector<String> lines = new Vector<String>();
+        int procs = 1;
+        int quantum = SOS.DEFAULT_QUANTUM;
+
+        /**
+         * source
+         *
+         * @return the program as Pidgin source
+         */
+        String source() {
+            StringBuilder sb = new StringBuilder();
+            for (String line : lines) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        }
+
+        Case copy() {
+            Case c = new Case();
+            c.lines.addAll(lines);
+            c.procs = procs;
+            c.quantum = quantum;
+            return c;
+        }
+
+        /**
+         * removeInstructions
+         *
+         * removes n instructions (but not labels) starting at the given
+         * instruction
+         */
+        void removeInstructions(int start, int n) {
+            int index = 0;
+            for (int i = 0; i < lines.size() && n > 0;) {
+                if (lines.get(i).startsWith(":")) {
+                    i++;
+                } else if (index++ >= start) {
+                    lines.remove(i);
+                    n--;
+                } else {
+                    i++;
+                }
+            }// for
+        }// removeInstructions
+
+        /**
+         * dropUnusedLabels
+         *
+         * removes the labels that no instruction refers to
+         */
+        void dropUnusedLabels() {
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String line = lines.get(i);
+                if (!line.startsWith(":")) {
+                    continue;
+                }
+                boolean used = false;
+                for (String other : lines) {
+                    used |= other.endsWith(" " + line.substring(1));
+                }
+                if (!used) {
+                    lines.remove(i);
+                }
+            }// for
+        }// dropUnusedLabels
+    }// class Case
+
+    /**
+     * Outcome
+     *
+     * How a run ended.
+     */
+    public static class Outcome {
+        String status;
+        boolean threw = false;
+        long instructions;
+        long ticks;
+        int[] registers;
+        String output;
+
+        /**
+         * differs
+         *
+         * @param ref
+         *            the reference run
+         * @param moved
+         *            true if the code was moved, so that only the general
+         *            registers are compared
+         * @return how this run differs from the reference, or null if it
+         *         does not
+         */
+        String differs(Outcome ref, boolean moved) {
+            if (!status.equals(ref.status)) {
+                return "status " + status + " instead of " + ref.status;
+            }
+            if (threw) {
+                return null;
+            }
+            if (instructions != ref.instructions || ticks != ref.ticks) {
+                return instructions + " instructions in " + ticks
+                        + " ticks instead of " + ref.instructions + " in "
+                        + ref.ticks;
+            }
+            int n = moved ? CPU.NUMGENREG : CPU.NUMREG;
+            for (int i = 0; i < n; i++) {
+                if (registers[i] != ref.registers[i]) {
+                    return "register " + i + " is " + registers[i]
+                            + " instead of " + ref.registers[i];
+                }
+            }
+            if (!output.equals(ref.output)) {
+                return "output \"" + output + "\" instead of \"" + ref.output
+                        + "\"";
+            }
+            return null;
+        }// differs
+
+        /**
+         * toString
+         */
+        public String toString() {
+            return status + " after " + instructions + " instructions, "
+                    + ticks + " ticks, registers "
+                    + Arrays.toString(registers) + ", output \"" + output
+                    + "\"";
+        }
+    }// class Outcome
+
+    /**
+     * Finding
+     *
+     * An engine that disagreed with its reference.
+     */
+    public static class Finding {
+        int engine;
+        String detail;
+
+        public String toString() {
+            return ENGINE_NAMES[engine] + " differs from "
+                    + (REFERENCE[engine] < 0 ? "itself"
+                            : ENGINE_NAMES[REFERENCE[engine]]) + ": "
+                    + detail;
+        }
+    }// class Finding
+
+};// class Fuzzer
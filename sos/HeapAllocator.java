@@ -0,0 +1,299 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class manages the heap of one process: the words between the end of
+ * its code and its break, which the process moves with the BRK and SBRK
+ * system calls and which MALLOC and FREE hand out in pieces. Addresses are
+ * process-relative, as used by LOAD and SAVE.
+ *
+ * The allocator uses segregated free lists. Requests are rounded up to a
+ * size class (every size up to 8 words, then four classes per power of two)
+ * and a freed block goes on the list of its class, so both MALLOC and FREE
+ * take constant time. A request whose list is empty is carved from the top
+ * of the heap, moving the break; if the break cannot move it is split off a
+ * free block of a larger class. Blocks are not coalesced, so a program that
+ * frees many small blocks and then asks for large ones fragments its heap;
+ * {@link #externalFragmentation} and {@link #internalFragmentation} say how
+ * much.
+ *
+ * The bookkeeping is kept by the SOS rather than in the process's memory,
+ * so a program cannot corrupt it.
+ *
+ * @see SOS
+ */
+public class HeapAllocator {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    /**
+     * the block sizes of the classes, smallest first
+     **/
+    private static final int[] CLASS_SIZES = makeClassSizes();
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the first address of the heap */
+    private int m_start;
+
+    /** the first address after the heap */
+    private int m_brk;
+
+    /** the end of the highest block carved by malloc */
+    private int m_mallocTop;
+
+    /** the free blocks of each class (their addresses) */
+    private Vector<ArrayDeque<Integer>> m_free;
+
+    /** the words requested for every allocated block, by address */
+    private HashMap<Integer, Integer> m_allocated = new HashMap<Integer, Integer>();
+
+    /** statistics */
+    private long m_mallocs = 0;
+    private long m_frees = 0;
+    private long m_failures = 0;
+    private long m_liveRequested = 0; // words asked for by live blocks
+    private long m_liveWords = 0; // words held by live blocks
+    private long m_freeWords = 0; // words on the free lists
+    private int m_peakBrk;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * HeapAllocator ctor
+     *
+     * @param start
+     *            the first address of the heap (the end of the code)
+     */
+    @SuppressWarnings("unchecked")
+    public HeapAllocator(int start) {
+        m_start = start;
+        m_brk = start;
+        m_mallocTop = start;
+        m_peakBrk = start;
+        m_free = new Vector<ArrayDeque<Integer>>(CLASS_SIZES.length);
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            m_free.add(new ArrayDeque<Integer>());
+        }
+    }// HeapAllocator ctor
+
+    /**
+     * makeClassSizes
+     *
+     * @return 1..8, then 10, 12, 14, 16, 20, 24, 28, 32, 40, ... up to 2^24
+     */
+    private static int[] makeClassSizes() {
+        Vector<Integer> sizes = new Vector<Integer>();
+        for (int s = 1; s <= 8; s++) {
+            sizes.add(s);
+        }
+        for (int pow = 8; pow < (1 << 24); pow *= 2) {
+            for (int q = 1; q <= 4; q++) {
+                sizes.add(pow + q * pow / 4);
+            }
+        }
+        int[] result = new int[sizes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sizes.get(i);
+        }
+        return result;
+    }// makeClassSizes
+
+    /**
+     * classOf
+     *
+     * @return the smallest class whose blocks hold size words, or -1 if the
+     *         size is too large
+     */
+    private static int classOf(int size) {
+        int i = Arrays.binarySearch(CLASS_SIZES, size);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < CLASS_SIZES.length ? i : -1;
+    }// classOf
+
+    public int getStart() {
+        return m_start;
+    }
+
+    public int getBreak() {
+        return m_brk;
+    }
+
+    /**
+     * setBreak
+     *
+     * moves the break. The caller has checked that the new break does not
+     * run into the stack.
+     *
+     * @param brk
+     *            the new break
+     * @return false if the break would fall below the heap or below a block
+     *         handed out by {@link #malloc}
+     */
+    public boolean setBreak(int brk) {
+        if (brk < m_mallocTop) {
+            return false;
+        }
+        m_brk = brk;
+        m_peakBrk = Math.max(m_peakBrk, brk);
+        return true;
+    }// setBreak
+
+    /**
+     * malloc
+     *
+     * @param size
+     *            the number of words wanted
+     * @param maxBrk
+     *            the highest the break may be moved to
+     * @return the address of a block of at least size words, or -1 if there
+     *         is no room
+     */
+    public int malloc(int size, int maxBrk) {
+        int c = size > 0 ? classOf(size) : -1;
+        if (c < 0) {
+            m_failures++;
+            return -1;
+        }
+        int blockSize = CLASS_SIZES[c];
+
+        int addr;
+        if (!m_free.get(c).isEmpty()) {
+            addr = m_free.get(c).pop();
+            m_freeWords -= blockSize;
+        } else if (m_brk + (long) blockSize <= maxBrk) {
+            addr = m_brk;
+            m_brk += blockSize;
+            m_mallocTop = m_brk;
+            m_peakBrk = Math.max(m_peakBrk, m_brk);
+        } else {
+            addr = split(c);
+            if (addr < 0) {
+                m_failures++;
+                return -1;
+            }
+        }
+
+        m_allocated.put(addr, size);
+        m_mallocs++;
+        m_liveRequested += size;
+        m_liveWords += blockSize;
+        return addr;
+    }// malloc
+
+    /**
+     * split
+     *
+     * takes a free block of a larger class than c, keeps the first
+     * CLASS_SIZES[c] words of it and puts the rest on the free lists
+     *
+     * @return the address of the kept part, or -1 if there is no larger
+     *         free block
+     */
+    private int split(int c) {
+        for (int big = c + 1; big < m_free.size(); big++) {
+            if (m_free.get(big).isEmpty()) {
+                continue;
+            }
+            int addr = m_free.get(big).pop();
+            m_freeWords -= CLASS_SIZES[big];
+
+            // give the remainder back in the largest pieces that fit
+            int rest = addr + CLASS_SIZES[c];
+            int left = CLASS_SIZES[big] - CLASS_SIZES[c];
+            while (left > 0) {
+                int k = classOf(left);
+                if (CLASS_SIZES[k] > left) {
+                    k--;
+                }
+                m_free.get(k).push(rest);
+                m_freeWords += CLASS_SIZES[k];
+                rest += CLASS_SIZES[k];
+                left -= CLASS_SIZES[k];
+            }
+            return addr;
+        }
+        return -1;
+    }// split
+
+    /**
+     * free
+     *
+     * @param addr
+     *            the address of a block returned by {@link #malloc}
+     * @return false if addr is not an allocated block
+     */
+    public boolean free(int addr) {
+        Integer size = m_allocated.remove(addr);
+        if (size == null) {
+            return false;
+        }
+        int c = classOf(size);
+        int blockSize = CLASS_SIZES[c];
+        m_free.get(c).push(addr);
+        m_frees++;
+        m_liveRequested -= size;
+        m_liveWords -= blockSize;
+        m_freeWords += blockSize;
+        return true;
+    }// free
+
+    public long getMallocs() {
+        return m_mallocs;
+    }
+
+    public long getFrees() {
+        return m_frees;
+    }
+
+    public long getFailures() {
+        return m_failures;
+    }
+
+    public int getPeakSize() {
+        return m_peakBrk - m_start;
+    }
+
+    /**
+     * internalFragmentation
+     *
+     * @return the share of the words in live blocks that was not asked for
+     *         (lost to rounding up to a size class)
+     */
+    public double internalFragmentation() {
+        return m_liveWords == 0 ? 0 : 1.0 - (double) m_liveRequested
+                / m_liveWords;
+    }
+
+    /**
+     * externalFragmentation
+     *
+     * @return the share of the words malloc has carved from the heap that
+     *         are sitting on the free lists
+     */
+    public double externalFragmentation() {
+        long carved = m_liveWords + m_freeWords;
+        return carved == 0 ? 0 : (double) m_freeWords / carved;
+    }
+
+    /**
+     * toString
+     */
+    public String toString() {
+        return String.format("mallocs=%d frees=%d failed=%d live=%d words "
+                + "free-listed=%d words peak heap=%d words "
+                + "fragmentation(internal=%.1f%% external=%.1f%%)",
+                m_mallocs, m_frees, m_failures, m_liveWords, m_freeWords,
+                getPeakSize(), 100 * internalFragmentation(),
+                100 * externalFragmentation());
+    }// toString
+
+};// class HeapAllocator
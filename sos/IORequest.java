@@ -0,0 +1,124 @@
+package sos;
+
+/**
+ * This class describes a single block transfer between a device and the
+ * simulated RAM. A request is created by the SOS when a process makes an I/O
+ * system call, queued by the SOS until the device is free, serviced by the
+ * device and then delivered back to the SOS as a completion interrupt once
+ * the virtual clock reaches its due time.
+ *
+ * @see BlockDevice
+ * @see InterruptController
+ * @see SOS
+ */
+public class IORequest {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    public static final int READ = 0; // device --> RAM
+    public static final int WRITE = 1; // RAM --> device
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** READ or WRITE */
+    public int op;
+
+    /** the id of the device servicing this request */
+    public int devId;
+
+    /** the first block to transfer */
+    public int block;
+
+    /** the number of consecutive blocks to transfer */
+    public int count;
+
+    /** the physical RAM address the blocks are moved to/from */
+    public int addr;
+
+    /** the id of the process that issued the request */
+    public int pid;
+
+    /**
+     * holds the data being transferred. For a WRITE this is filled from RAM
+     * when the request is issued; for a READ it is filled by the device and
+     * copied into RAM when the completion interrupt is delivered.
+     */
+    public int[] buf;
+
+    /** virtual time (in CPU ticks) at which the request was issued */
+    public long issueTick;
+
+    /** virtual time at which the device began servicing the request */
+    public long startTick;
+
+    /** virtual time at which the device will have finished the request */
+    public long dueTick;
+
+    /** order in which the request was posted (used to break ties) */
+    public long seq;
+
+    /**
+     * for a request standing for a DMA transfer, the device request whose
+     * data it moves (null otherwise)
+     */
+    public IORequest origin = null;
+
+    /** 0 on success or a negative error code set by the device */
+    public int status = 0;
+
+    /** set by the device thread once the host I/O has finished */
+    private boolean m_done = false;
+
+    /** set by the CPU once the completion interrupt has been handled */
+    private boolean m_delivered = false;
+
+    /**
+     * IORequest ctor
+     */
+    public IORequest(int op, int devId, int block, int count, int addr) {
+        this.op = op;
+        this.devId = devId;
+        this.block = block;
+        this.count = count;
+        this.addr = addr;
+    }// IORequest ctor
+
+    /**
+     * markDone
+     *
+     * called by the device thread when the host side of the transfer has
+     * finished (successfully or not).
+     */
+    public synchronized void markDone(int status) {
+        this.status = status;
+        m_done = true;
+        notifyAll();
+    }// markDone
+
+    /**
+     * awaitDone
+     *
+     * blocks the calling (host) thread until the device has finished the
+     * transfer. Virtual time does not advance while waiting.
+     */
+    public synchronized void awaitDone() {
+        while (!m_done) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {/* do nothing */
+            }
+        }
+    }// awaitDone
+
+    public void markDelivered() {
+        m_delivered = true;
+    }
+
+    public boolean isDelivered() {
+        return m_delivered;
+    }
+
+};// class IORequest
@@ -0,0 +1,137 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class records the timing of every request completed by a device so
+ * that scheduling policies can be compared. For each request it keeps the
+ * service time (from the moment the device starts it until it is due) and
+ * the response time (from the system call that issued it until it is due),
+ * both in virtual CPU ticks.
+ *
+ * @see DiskScheduler
+ * @see SOS
+ */
+public class IOStats {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** service times of the completed requests */
+    private long[] m_service = new long[64];
+
+    /** response times of the completed requests */
+    private long[] m_response = new long[64];
+
+    /** the number of completed requests */
+    private int m_count = 0;
+
+    /** the issue time of the first request recorded */
+    private long m_firstIssue = Long.MAX_VALUE;
+
+    /** the due time of the last request recorded */
+    private long m_lastDue = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * record
+     *
+     * adds the timing of a completed request
+     */
+    public void record(IORequest req) {
+        if (m_count == m_service.length) {
+            m_service = Arrays.copyOf(m_service, m_count * 2);
+            m_response = Arrays.copyOf(m_response, m_count * 2);
+        }
+        m_service[m_count] = req.dueTick - req.startTick;
+        m_response[m_count] = req.dueTick - req.issueTick;
+        m_count++;
+        m_firstIssue = Math.min(m_firstIssue, req.issueTick);
+        m_lastDue = Math.max(m_lastDue, req.dueTick);
+    }// record
+
+    public int getCount() {
+        return m_count;
+    }
+
+    public double meanService() {
+        return mean(m_service);
+    }
+
+    public double meanResponse() {
+        return mean(m_response);
+    }
+
+    /**
+     * percentileService
+     *
+     * @param p
+     *            the percentile wanted (0-100)
+     * @return the service time that p percent of requests did not exceed
+     */
+    public long percentileService(double p) {
+        return percentile(m_service, p);
+    }
+
+    /**
+     * percentileResponse
+     *
+     * @param p
+     *            the percentile wanted (0-100)
+     * @return the response time that p percent of requests did not exceed
+     */
+    public long percentileResponse(double p) {
+        return percentile(m_response, p);
+    }
+
+    /**
+     * throughput
+     *
+     * @return requests completed per 1000 ticks between the first request
+     *         being issued and the last one finishing
+     */
+    public double throughput() {
+        if (m_count == 0 || m_lastDue <= m_firstIssue) {
+            return 0.0;
+        }
+        return m_count * 1000.0 / (m_lastDue - m_firstIssue);
+    }// throughput
+
+    /**
+     * toString
+     *
+     * @return a one-line summary of the statistics
+     */
+    public String toString() {
+        return String.format("n=%d service(mean=%.1f p95=%d p99=%d) "
+                + "response(mean=%.1f p95=%d p99=%d) throughput=%.3f/ktick",
+                m_count, meanService(), percentileService(95),
+                percentileService(99), meanResponse(),
+                percentileResponse(95), percentileResponse(99), throughput());
+    }// toString
+
+    private double mean(long[] values) {
+        if (m_count == 0) {
+            return 0.0;
+        }
+        long sum = 0;
+        for (int i = 0; i < m_count; i++) {
+            sum += values[i];
+        }
+        return (double) sum / m_count;
+    }// mean
+
+    private long percentile(long[] values, double p) {
+        if (m_count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(values, m_count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * m_count) - 1;
+        return sorted[Math.max(0, Math.min(m_count - 1, rank))];
+    }// percentile
+
+};// class IOStats
@@ -0,0 +1,74 @@
+package sos;
+
+/**
+ * This class measures message passing between processes. It runs one or
+ * more three-stage pipelines (<code>producer.asm</code> sends 1..1000 to
+ * queue 1, <code>filter.asm</code> doubles each message onto queue 2 and
+ * <code>consumer.asm</code> sums them) and prints the message rate in real
+ * time along with the per-queue statistics in virtual time.
+ *
+ * @see MessageQueue
+ */
+public class IPCBench {
+    /**
+     * the constructor does nothing
+     *
+     */
+    public IPCBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of pipelines (default 1) and the
+     *            queue capacity (default {@link SOS#DEFAULT_QUEUE_CAPACITY})
+     */
+    public static void main(String[] args) {
+        int numPipelines = 1;
+        int capacity = SOS.DEFAULT_QUEUE_CAPACITY;
+        if (args.length > 0) {
+            numPipelines = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            capacity = Integer.parseInt(args[1]);
+        }
+
+        Program producer = new Program();
+        Program filter = new Program();
+        Program consumer = new Program();
+        if (producer.load("producer.asm", false) != 0
+                || filter.load("filter.asm", false) != 0
+                || consumer.load("consumer.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        RAM ram = new RAM(numPipelines * 3 * 128, 0);
+        CPU cpu = new CPU(ram);
+        cpu.setVerbose(false);
+        SOS os = new SOS(cpu, ram);
+        os.setMessageQueueCapacity(capacity);
+
+        for (int i = 0; i < numPipelines; i++) {
+            os.createProcess(producer, 100);
+            os.createProcess(filter, 100);
+            os.createProcess(consumer, 100);
+        }
+
+        long start = System.nanoTime();
+        cpu.run();
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        long received = 0;
+        for (MessageQueue q : os.getMessageQueues()) {
+            System.out.println(q);
+            received += q.getReceived();
+        }
+        System.out.println(String.format("%d messages in %d ticks, %.3f s "
+                + "(%.0f msgs/sec)", received, cpu.getTicks(), secs,
+                received / secs));
+
+    }// main
+
+};// class IPCBench
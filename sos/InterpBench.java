@@ -0,0 +1,154 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class compares the CPU's general instruction loop with its tuned one,
+ * and the tuned one with the loop fast path. Without the fast path every
+ * instruction goes through the interpreter being measured; with it,
+ * register-only loops such as <code>countloop.asm</code> (solved in closed
+ * form) and <code>sumloop.asm</code> (the tight inner loop) are run by
+ * {@link CountedLoop}, several copies at a time under the normal clock
+ * quantum. For each workload it prints the best time of each, the
+ * instructions per second and the share of them run by the fast path. Every
+ * run must end at the same virtual time with the same registers and output;
+ * the exit status is 1 if one does not.
+ *
+ * @see CPU#setTunedInterpreter
+ * @see CPU#setLoopFastPath
+ */
+public class InterpBench {
+    /**
+     * The workloads: the programs run together, one process each
+     **/
+    private static final String[][] WORKLOADS = {
+            { "countloop.asm", "countloop.asm", "countloop.asm" },
+            { "sumloop.asm", "sumloop.asm", "sumloop.asm" },
+            { "memloop.asm" }, { "producer.asm", "filter.asm", "consumer.asm" } };
+
+    /**
+     * the number of timed runs of each configuration (the best is reported)
+     **/
+    private static final int REPS = 20;
+
+    /**
+     * how long each workload is run every way before timing starts, so that
+     * a short one is not timed before the JIT has compiled the loops
+     **/
+    private static final long WARMUP_NANOS = 1000000000L;
+
+    // The ways each workload is run
+    private static final int GENERAL = 0;
+    private static final int TUNED = 1;
+    private static final int LOOPS = 2;
+
+    private static final String[] MODE_NAMES = { "general", "tuned",
+            "tuned+loops" };
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public InterpBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        boolean allSame = true;
+        for (String[] files : WORKLOADS) {
+            Program[] progs = new Program[files.length];
+            for (int i = 0; i < files.length; i++) {
+                progs[i] = new Program();
+                if (progs[i].load(files[i], false) != 0) {
+                    // Error loading program so exit
+                    System.exit(1);
+                }
+            }
+
+            long[] times = new long[MODE_NAMES.length];
+            Arrays.fill(times, Long.MAX_VALUE);
+            long warm = System.nanoTime() + WARMUP_NANOS;
+            while (System.nanoTime() < warm) {
+                for (int mode = GENERAL; mode <= LOOPS; mode++) {
+                    runWorkload(progs, mode, null);
+                }
+            }
+            for (int rep = 0; rep < REPS; rep++) {
+                for (int mode = GENERAL; mode <= LOOPS; mode++) {
+                    long start = System.nanoTime();
+                    runWorkload(progs, mode, null);
+                    times[mode] = Math.min(times[mode], System.nanoTime()
+                            - start);
+                }
+            }
+
+            String[] text = new String[1];
+            CPU general = runWorkload(progs, GENERAL, text);
+            String expected = text[0];
+            boolean same = true;
+            CPU cpu = null;
+            for (int mode = TUNED; mode <= LOOPS; mode++) {
+                cpu = runWorkload(progs, mode, text);
+                same &= general.getTicks() == cpu.getTicks()
+                        && Arrays.equals(general.getRegisters(), cpu
+                                .getRegisters()) && expected.equals(text[0]);
+            }
+            allSame &= same;
+
+            long ticks = general.getTicks();
+            System.out.println(String.format("%s: %d ticks, %.1f%% in the "
+                    + "loop fast path, same result: %b", String.join(" ",
+                    files), ticks, 100.0 * cpu.getLoopInstructions() / ticks,
+                    same));
+            String line = " ";
+            for (int mode = GENERAL; mode <= LOOPS; mode++) {
+                line += String.format(" %s %.1f ms (%.0f M instr/s, %.2fx)",
+                        MODE_NAMES[mode], times[mode] / 1e6, ticks * 1e3
+                                / times[mode], (double) times[GENERAL]
+                                / times[mode]);
+            }
+            System.out.println(line);
+        }// for
+        if (!allSame) {
+            System.exit(1);
+        }
+    }// main
+
+    /**
+     * runWorkload
+     *
+     * runs a set of programs, one process each, on a fresh machine
+     *
+     * @param mode
+     *            GENERAL, TUNED or LOOPS
+     * @param text
+     *            its first element is set to the output (may be null)
+     * @return the CPU, after the run
+     */
+    private static CPU runWorkload(Program[] progs, int mode, String[] text) {
+        RAM ram = new RAM(progs.length * 256, 0);
+        CPU cpu = new CPU(ram);
+        cpu.setVerbose(false);
+        cpu.setLoopFastPath(mode == LOOPS);
+        cpu.setTunedInterpreter(mode != GENERAL);
+        SOS os = new SOS(cpu, ram);
+        // the output goes to a buffer so the host console is not timed
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(out));
+        for (Program prog : progs) {
+            os.createProcess(prog, 200);
+        }
+        cpu.run();
+        if (text != null) {
+            text[0] = out.toString();
+        }
+        return cpu;
+    }// runWorkload
+
+};// class InterpBench
@@ -0,0 +1,107 @@
+package sos;
+
+import java.util.*;
+
+/**
+ * This class simulates the interrupt controller that sits between the devices
+ * and the CPU. Devices post completed (or in-flight) requests here together
+ * with the virtual time at which they finish; the CPU polls the controller
+ * between instructions and raises a completion interrupt for every request
+ * whose due time has been reached.
+ *
+ * @see CPU
+ * @see IORequest
+ */
+public class InterruptController {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * pending requests ordered by due time (ties are broken by posting order
+     * so that delivery is deterministic)
+     **/
+    private PriorityQueue<IORequest> m_pending = null;
+
+    /**
+     * the due time of the earliest pending request, cached so the CPU can
+     * test it with a single compare on every instruction
+     **/
+    private long m_nextDue = Long.MAX_VALUE;
+
+    /**
+     * counts posted requests so that each one gets a unique sequence number
+     **/
+    private long m_seq = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * InterruptController ctor
+     */
+    public InterruptController() {
+        m_pending = new PriorityQueue<IORequest>(16, new Comparator<IORequest>() {
+            public int compare(IORequest a, IORequest b) {
+                if (a.dueTick != b.dueTick) {
+                    return a.dueTick < b.dueTick ? -1 : 1;
+                }
+                return Long.compare(a.seq, b.seq);
+            }
+        });
+    }// InterruptController ctor
+
+    /**
+     * post
+     *
+     * queues a request so that its completion interrupt is raised once the
+     * virtual clock reaches its due time
+     *
+     * @param req
+     *            the request to post
+     */
+    public void post(IORequest req) {
+        req.seq = m_seq++;
+        m_pending.add(req);
+        m_nextDue = m_pending.peek().dueTick;
+    }// post
+
+    /**
+     * nextDue
+     *
+     * @return the virtual time of the next interrupt, or Long.MAX_VALUE if
+     *         nothing is pending
+     */
+    public long nextDue() {
+        return m_nextDue;
+    }
+
+    /**
+     * isEmpty
+     *
+     * @return true if no interrupts are pending
+     */
+    public boolean isEmpty() {
+        return m_pending.isEmpty();
+    }
+
+    /**
+     * poll
+     *
+     * removes and returns the earliest pending request if it is due
+     *
+     * @param now
+     *            the current virtual time
+     * @return the request or null if none are due yet
+     */
+    public IORequest poll(long now) {
+        if (now < m_nextDue) {
+            return null;
+        }
+        IORequest req = m_pending.poll();
+        m_nextDue = m_pending.isEmpty() ? Long.MAX_VALUE : m_pending.peek().dueTick;
+        return req;
+    }// poll
+
+};// class InterruptController
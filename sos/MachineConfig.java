@@ -0,0 +1,720 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class describes a simulated machine: its memory, CPU options,
+ * scheduling, devices, the programs to run and what to trace. The settings
+ * start at defaults chosen for throughput (no tracing, no memory latency, the
+ * tuned interpreter and loop fast path on) and can be changed by a
+ * configuration file and then by <code>key=value</code> overrides, e.g. from
+ * the command line. {@link #build} then creates the RAM, CPU, SOS and devices
+ * and loads the processes.
+ *
+ * The configuration file has one <code>key = value</code> per line; blank
+ * lines and lines starting with '#' are ignored. The keys are:
+ * <ul>
+ * <li>ram.size, ram.latency: words of RAM and ticks per access</li>
+ * <li>ram.backend: how RAM is stored (only "flat" for now)</li>
+ * <li>mem.policy: how RAM is given to processes, "buddy" or "first-fit"</li>
+ * <li>swap: "none", "temp" or the file to swap processes out to when RAM
+ * is full; swap.setup and swap.rate are the ticks to start a swap and the
+ * words moved per tick</li>
+ * <li>code.shared: processes running the same program share one copy of
+ * its code</li>
+ * <li>cores: number of CPUs (only 1 for now)</li>
+ * <li>cpu.tuned, cpu.loops: the tuned interpreter and loop fast path</li>
+ * <li>cpu.fusion: superinstructions to use ("none", "all" or a
+ * {@link Superinstructions} mask)</li>
+ * <li>cpu.limit: instructions to retire before stopping (0 for no limit)</li>
+ * <li>cpu.cost: charge instructions by the {@link CostModel} instead of one
+ * tick each; cpu.cycles.OPCODE (e.g. cpu.cycles.DIV) sets the cycles of an
+ * opcode, cpu.predictor the branch predictor ("none", "static" or "2bit")
+ * and cpu.mispredict the cycles a mispredicted branch costs</li>
+ * <li>cpu.pipeline: follow the instructions through the five-stage
+ * {@link Pipeline} timing model; cpu.forwarding turns its forwarding
+ * paths on or off</li>
+ * <li>scheduler: "rr" (preempt every quantum) or "fcfs" (never preempt)</li>
+ * <li>quantum: ticks between clock interrupts</li>
+ * <li>queue.capacity: messages a queue holds before senders block</li>
+ * <li>disk.N.type: "mem" or "file" adds device N; disk.N.path,
+ * disk.N.blocks, disk.N.blocksize, disk.N.cylinder (blocks per cylinder),
+ * disk.N.latency, disk.N.seek, disk.N.transfer and disk.N.scheduler
+ * (FCFS, SSTF, SCAN or C-LOOK) describe it</li>
+ * <li>dma: true to move device data with a {@link DMAController};
+ * dma.setup and dma.rate are the ticks to start a transfer and the words
+ * moved per tick, dma.contention whether transfers steal bus cycles from
+ * the CPU</li>
+ * <li>fs.device: the device to mount a file system from (-1 for none);
+ * fs.cache is the size of its buffer cache in blocks and fs.inodes the
+ * number of inodes if it has to be formatted</li>
+ * <li>program: the programs to run, separated by commas; procs is how many
+ * processes run each one and alloc the words given to each process;
+ * program.optimize runs {@link Program#optimize} on each once it has
+ * loaded</li>
+ * <li>trace.cpu, trace.os, trace.profile: print every instruction, print
+ * kernel events, count opcodes</li>
+ * <li>debug.break: labels of the programs or code offsets to report each
+ * time a process reaches them, separated by commas; debug.watch: physical
+ * addresses to report each time they change (see {@link Debugger})</li>
+ * <li>metrics.export: "none", "jmx" or a CSV file to append samples to;
+ * metrics.interval is the milliseconds between samples and
+ * metrics.summary whether to print the totals at the end</li>
+ * </ul>
+ *
+ * @see Sim
+ */
+public class MachineConfig {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    // memory
+    public int ramSize = 4096;
+    public int ramLatency = 0;
+    public String ramBackend = "flat";
+    public String memPolicy = "buddy";
+    public String swap = "none";
+    public int swapSetup = SwapStore.DEFAULT_SETUP_TICKS;
+    public int swapRate = SwapStore.DEFAULT_WORDS_PER_TICK;
+    public boolean sharedCode = false;
+
+    // CPU
+    public int cores = 1;
+    public boolean tuned = true;
+    public boolean loops = true;
+    public int fusion = 0;
+    public long limit = 0;
+    public boolean cost = false;
+    public int[] cycles = CostModel.DEFAULT_CYCLES.clone();
+    public String predictor = "2bit";
+    public int mispredict = CostModel.DEFAULT_PENALTY;
+    public boolean pipeline = false;
+    public boolean forwarding = true;
+
+    // scheduling
+    public String scheduler = "rr";
+    public int quantum = SOS.DEFAULT_QUANTUM;
+    public int queueCapacity = SOS.DEFAULT_QUEUE_CAPACITY;
+
+    // devices (indexed by device id, null where no device is configured)
+    public Vector<DiskConfig> disks = new Vector<DiskConfig>();
+    public boolean dma = false;
+    public int dmaSetup = DMAController.DEFAULT_SETUP_TICKS;
+    public int dmaRate = DMAController.DEFAULT_WORDS_PER_TICK;
+    public boolean dmaContention = false;
+    public int fsDevice = -1;
+    public int fsCache = 32;
+    public int fsInodes = 64;
+
+    // processes
+    public String[] programs = { "robinsom16_haas16_hw1.asm" };
+    public int procs = 1;
+    public int alloc = 300;
+    public boolean optimize = false;
+
+    // tracing
+    public boolean traceCPU = false;
+    public boolean traceOS = false;
+    public boolean profile = false;
+
+    // debugging
+    public String[] breakpoints = {};
+    public int[] watches = {};
+
+    // metrics
+    public String metricsExport = "none";
+    public long metricsInterval = 1000;
+    public boolean metricsSummary = true;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * the constructor leaves every setting at its default
+     *
+     */
+    public MachineConfig() {
+    }
+
+    /**
+     * parse
+     *
+     * builds a configuration from command line arguments: an optional
+     * configuration file followed by any number of key=value overrides
+     *
+     * @return the configuration, or null if an argument was bad
+     */
+    public static MachineConfig parse(String[] args) {
+        MachineConfig config = new MachineConfig();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].indexOf('=') < 0) {
+                if (i > 0 || config.load(args[i]) != 0) {
+                    return null;
+                }
+            } else if (!config.set(args[i])) {
+                return null;
+            }
+        }
+        return config;
+    }// parse
+
+    /**
+     * load
+     *
+     * applies the settings in a configuration file
+     *
+     * @param path
+     *            the file
+     * @return 0 on success, -1 if the file could not be read or has a bad
+     *         setting
+     */
+    public int load(String path) {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(path));
+            String line;
+            int lineNum = 0;
+            while ((line = in.readLine()) != null) {
+                lineNum++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                if (!set(line)) {
+                    System.out.println("ERROR (" + path + " line " + lineNum
+                            + ")");
+                    in.close();
+                    return -1;
+                }
+            }
+            in.close();
+        } catch (IOException e) {
+            System.out.println("ERROR: could not read " + path + ": " + e);
+            return -1;
+        }
+        return 0;
+    }// load
+
+    /**
+     * set
+     *
+     * applies one setting
+     *
+     * @param setting
+     *            "key=value"
+     * @return false (after printing an error) if the setting is not
+     *         understood
+     */
+    public boolean set(String setting) {
+        int eq = setting.indexOf('=');
+        if (eq < 0) {
+            System.out.println("ERROR: expected key=value: " + setting);
+            return false;
+        }
+        return set(setting.substring(0, eq).trim(), setting.substring(eq + 1)
+                .trim());
+    }// set
+
+    /**
+     * set
+     *
+     * applies one setting
+     *
+     * @return false (after printing an error) if the setting is not
+     *         understood
+     */
+    public boolean set(String key, String value) {
+        try {
+            if (key.startsWith("disk.")) {
+                return setDisk(key, value);
+            } else if (key.equals("ram.size")) {
+                ramSize = positive(value);
+            } else if (key.equals("ram.latency")) {
+                ramLatency = nonNegative(value);
+            } else if (key.equals("ram.backend")) {
+                ramBackend = oneOf(value, "flat");
+            } else if (key.equals("mem.policy")) {
+                memPolicy = oneOf(value, SOS.MEM_POLICY_NAMES);
+            } else if (key.equals("swap")) {
+                swap = value;
+            } else if (key.equals("swap.setup")) {
+                swapSetup = nonNegative(value);
+            } else if (key.equals("swap.rate")) {
+                swapRate = positive(value);
+            } else if (key.equals("code.shared")) {
+                sharedCode = bool(value);
+            } else if (key.equals("cores")) {
+                cores = Integer.parseInt(value);
+                if (cores != 1) {
+                    throw new IllegalArgumentException(
+                            "only one core is simulated");
+                }
+            } else if (key.equals("cpu.tuned")) {
+                tuned = bool(value);
+            } else if (key.equals("cpu.loops")) {
+                loops = bool(value);
+            } else if (key.equals("cpu.fusion")) {
+                fusion = value.equals("none") ? 0 : value.equals("all")
+                        ? Superinstructions.ALL : nonNegative(value)
+                                & Superinstructions.ALL;
+            } else if (key.equals("cpu.limit")) {
+                limit = Long.parseLong(value);
+            } else if (key.equals("cpu.cost")) {
+                cost = bool(value);
+            } else if (key.startsWith("cpu.cycles.")) {
+                int op = CostModel.opcodeOf(key.substring(11));
+                if (op < 0) {
+                    System.out.println("ERROR: unknown opcode in " + key);
+                    return false;
+                }
+                cycles[op] = positive(value);
+            } else if (key.equals("cpu.predictor")) {
+                predictor = oneOf(value, CostModel.PREDICTOR_NAMES);
+            } else if (key.equals("cpu.mispredict")) {
+                mispredict = nonNegative(value);
+            } else if (key.equals("cpu.pipeline")) {
+                pipeline = bool(value);
+            } else if (key.equals("cpu.forwarding")) {
+                forwarding = bool(value);
+            } else if (key.equals("scheduler")) {
+                scheduler = oneOf(value, "rr", "fcfs");
+            } else if (key.equals("quantum")) {
+                quantum = positive(value);
+            } else if (key.equals("queue.capacity")) {
+                queueCapacity = positive(value);
+            } else if (key.equals("dma")) {
+                dma = bool(value);
+            } else if (key.equals("dma.setup")) {
+                dmaSetup = nonNegative(value);
+            } else if (key.equals("dma.rate")) {
+                dmaRate = positive(value);
+            } else if (key.equals("dma.contention")) {
+                dmaContention = bool(value);
+            } else if (key.equals("fs.device")) {
+                fsDevice = Integer.parseInt(value);
+            } else if (key.equals("fs.cache")) {
+                fsCache = positive(value);
+            } else if (key.equals("fs.inodes")) {
+                fsInodes = positive(value);
+            } else if (key.equals("program")) {
+                programs = value.split("\\s*,\\s*");
+            } else if (key.equals("procs")) {
+                procs = positive(value);
+            } else if (key.equals("alloc")) {
+                alloc = positive(value);
+            } else if (key.equals("program.optimize")) {
+                optimize = bool(value);
+            } else if (key.equals("trace.cpu")) {
+                traceCPU = bool(value);
+            } else if (key.equals("trace.os")) {
+                traceOS = bool(value);
+            } else if (key.equals("trace.profile")) {
+                profile = bool(value);
+            } else if (key.equals("debug.break")) {
+                breakpoints = list(value);
+            } else if (key.equals("debug.watch")) {
+                String[] items = list(value);
+                watches = new int[items.length];
+                for (int i = 0; i < items.length; i++) {
+                    watches[i] = nonNegative(items[i]);
+                }
+            } else if (key.equals("metrics.export")) {
+                metricsExport = value;
+            } else if (key.equals("metrics.interval")) {
+                metricsInterval = positive(value);
+            } else if (key.equals("metrics.summary")) {
+                metricsSummary = bool(value);
+            } else {
+                System.out.println("ERROR: unknown setting " + key);
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR: bad value for " + key + ": " + value
+                    + " (" + e.getMessage() + ")");
+            return false;
+        }
+        return true;
+    }// set
+
+    /**
+     * setDisk
+     *
+     * applies a disk.N.field setting, creating disk N if necessary
+     */
+    private boolean setDisk(String key, String value) {
+        String[] parts = key.split("\\.");
+        if (parts.length != 3) {
+            System.out.println("ERROR: unknown setting " + key);
+            return false;
+        }
+        int id = Integer.parseInt(parts[1]);
+        if (id < 0) {
+            throw new IllegalArgumentException("bad device id");
+        }
+        while (disks.size() <= id) {
+            disks.add(null);
+        }
+        DiskConfig disk = disks.get(id);
+        if (disk == null) {
+            disk = new DiskConfig();
+            disks.set(id, disk);
+        }
+
+        String field = parts[2];
+        if (field.equals("type")) {
+            disk.type = oneOf(value, "mem", "file");
+        } else if (field.equals("path")) {
+            disk.path = value;
+        } else if (field.equals("blocks")) {
+            disk.blocks = positive(value);
+        } else if (field.equals("blocksize")) {
+            disk.blockSize = positive(value);
+        } else if (field.equals("cylinder")) {
+            disk.blocksPerCylinder = positive(value);
+        } else if (field.equals("latency")) {
+            disk.latency = nonNegative(value);
+        } else if (field.equals("seek")) {
+            disk.seek = nonNegative(value);
+        } else if (field.equals("transfer")) {
+            disk.transfer = nonNegative(value);
+        } else if (field.equals("scheduler")) {
+            disk.policy = Arrays.asList(DiskScheduler.POLICY_NAMES).indexOf(
+                    value.toUpperCase());
+            if (disk.policy < 0) {
+                throw new IllegalArgumentException("expected one of "
+                        + Arrays.toString(DiskScheduler.POLICY_NAMES));
+            }
+        } else {
+            System.out.println("ERROR: unknown setting " + key);
+            return false;
+        }
+        return true;
+    }// setDisk
+
+    private static int positive(String value) {
+        int n = Integer.parseInt(value);
+        if (n <= 0) {
+            throw new IllegalArgumentException("must be positive");
+        }
+        return n;
+    }
+
+    private static int nonNegative(String value) {
+        int n = Integer.parseInt(value);
+        if (n < 0) {
+            throw new IllegalArgumentException("must not be negative");
+        }
+        return n;
+    }
+
+    private static boolean bool(String value) {
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException("expected true or false");
+        }
+        return value.equals("true");
+    }
+
+    private static String[] list(String value) {
+        return value.length() == 0 ? new String[0] : value
+                .split("\\s*,\\s*");
+    }
+
+    private static String oneOf(String value, String... choices) {
+        if (!Arrays.asList(choices).contains(value)) {
+            throw new IllegalArgumentException("expected one of "
+                    + Arrays.toString(choices));
+        }
+        return value;
+    }
+
+    /**
+     * build
+     *
+     * creates the machine this configuration describes: RAM, CPU, SOS and
+     * devices, with the file system mounted and the processes created
+     *
+     * @param console
+     *            where the SOS prints program output and errors
+     * @return the machine, or null (after printing an error) if it could not
+     *         be built
+     */
+    public Machine build(PrintStream console) {
+        Machine m = new Machine();
+        m.ram = new RAM(ramSize, ramLatency);
+        m.ic = new InterruptController();
+        m.cpu = new CPU(m.ram, m.ic);
+        m.cpu.setVerbose(traceCPU);
+        m.cpu.setProfiling(profile);
+        m.cpu.setTunedInterpreter(tuned);
+        m.cpu.setLoopFastPath(loops);
+        m.cpu.setFusion(fusion);
+        if (limit > 0) {
+            m.cpu.setInstructionLimit(limit);
+        }
+        if (cost) {
+            CostModel model = new CostModel();
+            for (int op = 0; op < cycles.length; op++) {
+                model.setCycles(op, cycles[op]);
+            }
+            model.setPredictor(Arrays.asList(CostModel.PREDICTOR_NAMES)
+                    .indexOf(predictor));
+            model.setPenalty(mispredict);
+            m.cpu.setCostModel(model);
+        }
+        if (pipeline) {
+            m.cpu.setPipeline(new Pipeline(forwarding));
+        }
+
+        m.os = new SOS(m.cpu, m.ram);
+        m.os.setConsole(console);
+        m.os.setVerbose(traceOS);
+        m.os.setMemoryPolicy(Arrays.asList(SOS.MEM_POLICY_NAMES).indexOf(
+                memPolicy));
+        m.os.setCodeSharing(sharedCode);
+        m.os.setMessageQueueCapacity(queueCapacity);
+        m.cpu.setClockInterval(scheduler.equals("fcfs") ? 0 : quantum);
+
+        for (int id = 0; id < disks.size(); id++) {
+            DiskConfig dc = disks.get(id);
+            if (dc == null) {
+                continue;
+            }
+            DiskGeometry geometry = new DiskGeometry(dc.blocks, dc.blockSize,
+                    dc.blocksPerCylinder, dc.latency, dc.seek, dc.transfer);
+            BlockDevice dev;
+            if (dc.type.equals("file") && dc.path == null) {
+                console.println("ERROR: device " + id + " needs a path");
+                m.close();
+                return null;
+            } else if (dc.type.equals("file")) {
+                dev = new Disk(m.ic, dc.path, geometry);
+            } else {
+                dev = new MemDisk(m.ic, geometry);
+            }
+            if (dev.open() != 0) {
+                console.println("ERROR: could not open device " + id);
+                m.close();
+                return null;
+            }
+            m.devices.add(dev);
+            if (id != fsDevice) {
+                m.os.registerDevice(dev, id);
+                m.os.setSchedulingPolicy(id, dc.policy);
+            } else if (m.os.mountFileSystem(dev, fsCache, fsInodes) != 0) {
+                m.close();
+                return null;
+            }
+        }// for
+        if (fsDevice >= 0
+                && (fsDevice >= disks.size() || disks.get(fsDevice) == null)) {
+            console.println("ERROR: no device " + fsDevice
+                    + " to mount a file system from");
+            m.close();
+            return null;
+        }
+
+        if (dma) {
+            m.dma = new DMAController(m.ic, m.ram);
+            m.dma.setTiming(dmaSetup, dmaRate);
+            m.dma.setBusContention(dmaContention);
+            m.dma.open();
+            m.os.setDMAController(m.dma);
+        }
+
+        if (!swap.equals("none")) {
+            m.swap = new SwapStore(swap.equals("temp") ? null : swap);
+            m.swap.setTiming(swapSetup, swapRate);
+            if (m.swap.open() != 0) {
+                m.close();
+                return null;
+            }
+            m.os.setSwapStore(m.swap);
+        }
+
+        m.metrics = new Metrics();
+        m.cpu.registerMetrics(m.metrics);
+        m.ram.registerMetrics(m.metrics);
+        m.os.registerMetrics(m.metrics);
+        if (m.dma != null) {
+            m.dma.registerMetrics(m.metrics);
+        }
+
+        Vector<Program> loaded = new Vector<Program>();
+        for (String file : programs) {
+            Program prog = new Program();
+            if (prog.load(file, false) != 0) {
+                // Error loading program
+                m.close();
+                return null;
+            }
+            if (optimize) {
+                prog.optimize();
+            }
+            loaded.add(prog);
+        }
+
+        if (breakpoints.length > 0 || watches.length > 0) {
+            m.debugger = new Debugger(m.cpu, m.ram, m.os, console);
+            for (String where : breakpoints) {
+                if (m.debugger.breakAt(where, loaded) != 0) {
+                    m.close();
+                    return null;
+                }
+            }
+            for (int address : watches) {
+                if (m.debugger.watch(address) != 0) {
+                    m.close();
+                    return null;
+                }
+            }
+        }
+
+        for (Program prog : loaded) {
+            for (int i = 0; i < procs; i++) {
+                m.os.createProcess(prog, alloc);
+            }
+        }
+        return m;
+    }// build
+
+    /**
+     * toString
+     *
+     * @return the settings, one key = value per line, in a form {@link #load}
+     *         accepts
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ram.size = " + ramSize + "\n");
+        sb.append("ram.latency = " + ramLatency + "\n");
+        sb.append("ram.backend = " + ramBackend + "\n");
+        sb.append("mem.policy = " + memPolicy + "\n");
+        sb.append("swap = " + swap + "\n");
+        sb.append("swap.setup = " + swapSetup + "\n");
+        sb.append("swap.rate = " + swapRate + "\n");
+        sb.append("code.shared = " + sharedCode + "\n");
+        sb.append("cores = " + cores + "\n");
+        sb.append("cpu.tuned = " + tuned + "\n");
+        sb.append("cpu.loops = " + loops + "\n");
+        sb.append("cpu.fusion = " + fusion + "\n");
+        sb.append("cpu.limit = " + limit + "\n");
+        sb.append("cpu.cost = " + cost + "\n");
+        for (int op = 0; op < cycles.length; op++) {
+            if (cycles[op] != CostModel.DEFAULT_CYCLES[op]) {
+                sb.append("cpu.cycles." + CostModel.OPCODE_NAMES[op] + " = "
+                        + cycles[op] + "\n");
+            }
+        }
+        sb.append("cpu.predictor = " + predictor + "\n");
+        sb.append("cpu.mispredict = " + mispredict + "\n");
+        sb.append("cpu.pipeline = " + pipeline + "\n");
+        sb.append("cpu.forwarding = " + forwarding + "\n");
+        sb.append("scheduler = " + scheduler + "\n");
+        sb.append("quantum = " + quantum + "\n");
+        sb.append("queue.capacity = " + queueCapacity + "\n");
+        for (int id = 0; id < disks.size(); id++) {
+            DiskConfig dc = disks.get(id);
+            if (dc != null) {
+                String p = "disk." + id + ".";
+                sb.append(p + "type = " + dc.type + "\n");
+                if (dc.path != null) {
+                    sb.append(p + "path = " + dc.path + "\n");
+                }
+                sb.append(p + "blocks = " + dc.blocks + "\n");
+                sb.append(p + "blocksize = " + dc.blockSize + "\n");
+                sb.append(p + "cylinder = " + dc.blocksPerCylinder + "\n");
+                sb.append(p + "latency = " + dc.latency + "\n");
+                sb.append(p + "seek = " + dc.seek + "\n");
+                sb.append(p + "transfer = " + dc.transfer + "\n");
+                sb.append(p + "scheduler = "
+                        + DiskScheduler.POLICY_NAMES[dc.policy] + "\n");
+            }
+        }
+        sb.append("dma = " + dma + "\n");
+        sb.append("dma.setup = " + dmaSetup + "\n");
+        sb.append("dma.rate = " + dmaRate + "\n");
+        sb.append("dma.contention = " + dmaContention + "\n");
+        sb.append("fs.device = " + fsDevice + "\n");
+        sb.append("fs.cache = " + fsCache + "\n");
+        sb.append("fs.inodes = " + fsInodes + "\n");
+        sb.append("program = " + String.join(",", programs) + "\n");
+        sb.append("procs = " + procs + "\n");
+        sb.append("alloc = " + alloc + "\n");
+        sb.append("program.optimize = " + optimize + "\n");
+        sb.append("trace.cpu = " + traceCPU + "\n");
+        sb.append("trace.os = " + traceOS + "\n");
+        sb.append("trace.profile = " + profile + "\n");
+        sb.append("debug.break = " + String.join(",", breakpoints) + "\n");
+        StringBuilder w = new StringBuilder();
+        for (int address : watches) {
+            w.append(w.length() > 0 ? "," : "").append(address);
+        }
+        sb.append("debug.watch = " + w + "\n");
+        sb.append("metrics.export = " + metricsExport + "\n");
+        sb.append("metrics.interval = " + metricsInterval + "\n");
+        sb.append("metrics.summary = " + metricsSummary + "\n");
+        return sb.toString();
+    }// toString
+
+    /**
+     * DiskConfig
+     *
+     * The settings of one block device.
+     */
+    public static class DiskConfig {
+        public String type = "mem";
+        public String path = null;
+        public int blocks = 1024;
+        public int blockSize = 64;
+        public int blocksPerCylinder = 16;
+        public int latency = 50;
+        public int seek = 5;
+        public int transfer = 10;
+        public int policy = DiskScheduler.FCFS;
+    }// class DiskConfig
+
+    /**
+     * Machine
+     *
+     * The parts of a machine built from a configuration.
+     */
+    public static class Machine {
+        public RAM ram;
+        public InterruptController ic;
+        public CPU cpu;
+        public SOS os;
+        public Vector<BlockDevice> devices = new Vector<BlockDevice>();
+        public DMAController dma;
+        public SwapStore swap;
+        public Metrics metrics;
+        public Debugger debugger;
+
+        /**
+         * close
+         *
+         * flushes the file system (if any) and closes the devices
+         */
+        public void close() {
+            if (metrics != null) {
+                metrics.stop();
+            }
+            if (os != null && os.getFileSystem() != null
+                    && os.getFileSystem().sync() != 0) {
+                System.out.println("ERROR: could not write back the file "
+                        + "system");
+            }
+            for (BlockDevice dev : devices) {
+                dev.close();
+            }
+            if (dma != null) {
+                dma.close();
+            }
+            if (swap != null) {
+                swap.close();
+            }
+        }// close
+    }// class Machine
+
+};// class MachineConfig
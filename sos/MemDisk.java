@@ -0,0 +1,51 @@
+package sos;
+
+/**
+ * This class simulates a disk whose blocks are kept in host memory. It has
+ * the same geometry and timing model as {@link Disk} but performs transfers
+ * immediately, which makes it suitable for scheduling experiments where the
+ * host file I/O would only add noise.
+ *
+ * @see BlockDevice
+ * @see DiskGeometry
+ */
+public class MemDisk extends BlockDevice {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * This array contains the blocks, one after the other
+     **/
+    private int m_data[] = null;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * MemDisk ctor
+     *
+     * @param ic
+     *            where completion interrupts are posted
+     * @param geometry
+     *            the layout and timing of the disk
+     */
+    public MemDisk(InterruptController ic, DiskGeometry geometry) {
+        super(ic, geometry);
+        m_data = new int[geometry.getNumBlocks() * geometry.getBlockSize()];
+    }// MemDisk ctor
+
+    public int readBlocks(int block, int count, int[] dest) {
+        System.arraycopy(m_data, block * getBlockSize(), dest, 0, count
+                * getBlockSize());
+        return 0;
+    }
+
+    public int writeBlocks(int block, int count, int[] src) {
+        System.arraycopy(src, 0, m_data, block * getBlockSize(), count
+                * getBlockSize());
+        return 0;
+    }
+
+};// class MemDisk
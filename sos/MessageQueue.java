@@ -0,0 +1,156 @@
+package sos;
+
+/**
+ * This class is a bounded FIFO of one-word messages passed between
+ * processes. Each message remembers the virtual time it was sent so the
+ * queue can report how long messages waited before being received. The SOS
+ * takes care of blocking senders when the queue is full and receivers when
+ * it is empty.
+ *
+ * @see SOS
+ */
+public class MessageQueue {
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the key processes use to name this queue */
+    private int m_key;
+
+    /** the messages, stored as a ring buffer */
+    private int[] m_values = null;
+
+    /** the virtual time each message was sent */
+    private long[] m_sentAt = null;
+
+    /** index of the oldest message */
+    private int m_head = 0;
+
+    /** the number of messages currently queued */
+    private int m_count = 0;
+
+    // statistics
+    private long m_sent = 0;
+    private long m_received = 0;
+    private long m_totalWait = 0;
+    private long m_maxWait = 0;
+    private long m_firstSend = -1;
+    private long m_lastReceive = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * MessageQueue ctor
+     *
+     * @param key
+     *            the key processes use to name this queue
+     * @param capacity
+     *            the maximum number of messages held at once
+     */
+    public MessageQueue(int key, int capacity) {
+        m_key = key;
+        m_values = new int[Math.max(1, capacity)];
+        m_sentAt = new long[m_values.length];
+    }// MessageQueue ctor
+
+    public int getKey() {
+        return m_key;
+    }
+
+    public boolean isFull() {
+        return m_count == m_values.length;
+    }
+
+    public boolean isEmpty() {
+        return m_count == 0;
+    }
+
+    public int size() {
+        return m_count;
+    }
+
+    /**
+     * put
+     *
+     * adds a message to the back of the queue (which must not be full)
+     *
+     * @param value
+     *            the message
+     * @param now
+     *            the virtual time the message was sent
+     */
+    public void put(int value, long now) {
+        int tail = (m_head + m_count) % m_values.length;
+        m_values[tail] = value;
+        m_sentAt[tail] = now;
+        m_count++;
+        m_sent++;
+        if (m_firstSend < 0) {
+            m_firstSend = now;
+        }
+    }// put
+
+    /**
+     * take
+     *
+     * removes the message at the front of the queue (which must not be
+     * empty)
+     *
+     * @param now
+     *            the virtual time the message is received
+     * @return the message
+     */
+    public int take(long now) {
+        int value = m_values[m_head];
+        long wait = now - m_sentAt[m_head];
+        m_head = (m_head + 1) % m_values.length;
+        m_count--;
+
+        m_received++;
+        m_totalWait += wait;
+        m_maxWait = Math.max(m_maxWait, wait);
+        m_lastReceive = now;
+        return value;
+    }// take
+
+    public long getReceived() {
+        return m_received;
+    }
+
+    /**
+     * meanWait
+     *
+     * @return the mean number of ticks between a message being sent and
+     *         received
+     */
+    public double meanWait() {
+        return m_received == 0 ? 0.0 : (double) m_totalWait / m_received;
+    }
+
+    /**
+     * throughput
+     *
+     * @return messages received per 1000 ticks between the first send and
+     *         the last receive
+     */
+    public double throughput() {
+        if (m_received == 0 || m_lastReceive <= m_firstSend) {
+            return 0.0;
+        }
+        return m_received * 1000.0 / (m_lastReceive - m_firstSend);
+    }// throughput
+
+    /**
+     * toString
+     *
+     * @return a one-line summary of the queue statistics
+     */
+    public String toString() {
+        return String.format("queue %d: sent=%d received=%d "
+                + "wait(mean=%.1f max=%d) throughput=%.3f/ktick", m_key,
+                m_sent, m_received, meanWait(), m_maxWait, throughput());
+    }// toString
+
+};// class MessageQueue
@@ -0,0 +1,336 @@
+package sos;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * This class is a registry of the numbers worth watching while a simulation
+ * runs: instructions retired, memory traffic, faults, context switches,
+ * queue lengths, system calls and so on. The parts of the machine register
+ * them with {@link CPU#registerMetrics}, {@link RAM#registerMetrics} and
+ * {@link SOS#registerMetrics}.
+ *
+ * Nothing is added to the instruction loop to keep these numbers. Most of
+ * them are gauges that read a count the machine already keeps (such as the
+ * virtual clock) when a sample is taken; events that happen outside the
+ * instruction loop (system calls, context switches) are counted with
+ * {@link LongAdder}s, which stay cheap when devices and the CPU update them
+ * from different threads. A sample taken while the machine runs may be a
+ * little behind the CPU thread but is never torn.
+ *
+ * Samples can be appended to a CSV file, or the metrics published as a JMX
+ * MBean, at a fixed period; {@link #summary} gives the totals at the end.
+ *
+ * @see MachineConfig
+ */
+public class Metrics {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    /**
+     * the name of the gauge the instruction rate is worked out from
+     **/
+    public static final String INSTRUCTIONS = "cpu.instructions";
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /**
+     * the metrics in the order they were registered
+     **/
+    private LinkedHashMap<String, LongSupplier> m_metrics = new LinkedHashMap<String, LongSupplier>();
+
+    /**
+     * the host time at which {@link #start} was called
+     **/
+    private long m_startNanos = 0;
+
+    /**
+     * takes samples for the periodic export (null if not exporting)
+     **/
+    private ScheduledExecutorService m_exporter = null;
+
+    /**
+     * where samples are written (null if not exporting to a file)
+     **/
+    private PrintStream m_out = null;
+
+    /**
+     * the name the MBean was registered under (null if not using JMX)
+     **/
+    private ObjectName m_mbeanName = null;
+
+    /**
+     * the instructions and host time of the previous sample, for the
+     * instruction rate
+     **/
+    private long m_lastInstructions = 0;
+    private long m_lastNanos = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * the constructor creates an empty registry
+     *
+     */
+    public Metrics() {
+    }
+
+    /**
+     * counter
+     *
+     * creates a counter for events that are counted as they happen
+     *
+     * @param name
+     *            the name of the counter, e.g. "os.context_switches"
+     * @return the counter, to be incremented by the caller
+     */
+    public LongAdder counter(String name) {
+        final LongAdder adder = new LongAdder();
+        gauge(name, new LongSupplier() {
+            public long getAsLong() {
+                return adder.sum();
+            }
+        });
+        return adder;
+    }// counter
+
+    /**
+     * gauge
+     *
+     * registers a number that is read when a sample is taken
+     *
+     * @param name
+     *            the name of the metric
+     * @param value
+     *            reads the current value
+     */
+    public synchronized void gauge(String name, LongSupplier value) {
+        m_metrics.put(name, value);
+    }
+
+    /**
+     * get
+     *
+     * @return the current value of a metric, or 0 if there is no such metric
+     */
+    public synchronized long get(String name) {
+        LongSupplier value = m_metrics.get(name);
+        return value == null ? 0 : value.getAsLong();
+    }
+
+    /**
+     * getNames
+     *
+     * @return the names of the metrics, in the order they were registered
+     */
+    public synchronized Vector<String> getNames() {
+        return new Vector<String>(m_metrics.keySet());
+    }
+
+    /**
+     * snapshot
+     *
+     * @return the current value of every metric, plus "elapsed_ms" and
+     *         "mips" (the instruction rate since the previous snapshot, or
+     *         since {@link #start} for the first one)
+     */
+    public synchronized LinkedHashMap<String, Long> snapshot() {
+        LinkedHashMap<String, Long> values = new LinkedHashMap<String, Long>();
+        long now = System.nanoTime();
+        values.put("elapsed_ms", (now - m_startNanos) / 1000000);
+        for (Map.Entry<String, LongSupplier> e : m_metrics.entrySet()) {
+            values.put(e.getKey(), e.getValue().getAsLong());
+        }
+
+        long instrs = get(INSTRUCTIONS);
+        long nanos = now - m_lastNanos;
+        values.put("mips", nanos > 0 ? (instrs - m_lastInstructions) * 1000
+                / nanos : 0);
+        m_lastInstructions = instrs;
+        m_lastNanos = now;
+        return values;
+    }// snapshot
+
+    /**
+     * start
+     *
+     * marks the host time the simulation starts and begins exporting
+     * samples, if asked to
+     *
+     * @param export
+     *            "none", "jmx" or the path of a CSV file to append samples to
+     * @param periodMs
+     *            milliseconds between samples
+     * @return 0 on success, -1 if the export could not be set up
+     */
+    public int start(String export, long periodMs) {
+        m_startNanos = System.nanoTime();
+        m_lastNanos = m_startNanos;
+        m_lastInstructions = get(INSTRUCTIONS);
+
+        if (export == null || export.equals("none")) {
+            return 0;
+        }
+
+        if (export.equals("jmx")) {
+            try {
+                m_mbeanName = new ObjectName("sos:type=Metrics,id="
+                        + Integer.toHexString(System.identityHashCode(this)));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new MetricsMBean(), m_mbeanName);
+            } catch (JMException e) {
+                System.out.println("ERROR: could not register metrics MBean: "
+                        + e);
+                m_mbeanName = null;
+                return -1;
+            }
+            return 0;
+        }
+
+        try {
+            m_out = new PrintStream(new FileOutputStream(export, true), true);
+        } catch (IOException e) {
+            System.out.println("ERROR: could not open " + export + ": " + e);
+            return -1;
+        }
+        m_out.println(String.join(",", snapshot().keySet()));
+        m_exporter = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "metrics-export");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        m_exporter.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                writeSample();
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        return 0;
+    }// start
+
+    /**
+     * writeSample
+     *
+     * appends the current values to the export file
+     */
+    private void writeSample() {
+        StringBuilder line = new StringBuilder();
+        for (long v : snapshot().values()) {
+            line.append(line.length() == 0 ? "" : ",").append(v);
+        }
+        m_out.println(line);
+    }// writeSample
+
+    /**
+     * stop
+     *
+     * stops exporting, writing a last sample to the export file
+     */
+    public void stop() {
+        if (m_exporter != null) {
+            m_exporter.shutdownNow();
+            try {
+                m_exporter.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {/* do nothing */
+            }
+            m_exporter = null;
+        }
+        if (m_out != null) {
+            writeSample();
+            m_out.close();
+            m_out = null;
+        }
+        if (m_mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        m_mbeanName);
+            } catch (JMException e) {/* already gone */
+            }
+            m_mbeanName = null;
+        }
+    }// stop
+
+    /**
+     * summary
+     *
+     * @return every metric with its final value, and the average instruction
+     *         rate since {@link #start}
+     */
+    public synchronized String summary() {
+        long nanos = System.nanoTime() - m_startNanos;
+        StringBuilder sb = new StringBuilder("METRICS");
+        sb.append(String.format("\n  %-28s %d", "elapsed_ms", nanos / 1000000));
+        sb.append(String.format("\n  %-28s %.1f", "mips", nanos > 0 ? get(
+                INSTRUCTIONS) * 1000.0 / nanos : 0.0));
+        for (Map.Entry<String, LongSupplier> e : m_metrics.entrySet()) {
+            long v = e.getValue().getAsLong();
+            if (v != 0) {
+                sb.append(String.format("\n  %-28s %d", e.getKey(), v));
+            }
+        }
+        return sb.toString();
+    }// summary
+
+    /**
+     * MetricsMBean
+     *
+     * Publishes every metric as a read-only JMX attribute of type long.
+     */
+    private class MetricsMBean implements DynamicMBean {
+        public Object getAttribute(String name)
+                throws AttributeNotFoundException {
+            synchronized (Metrics.this) {
+                if (!m_metrics.containsKey(name)) {
+                    throw new AttributeNotFoundException(name);
+                }
+                return get(name);
+            }
+        }
+
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                list.add(new Attribute(name, get(name)));
+            }
+            return list;
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            Vector<String> names = getNames();
+            MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[names.size()];
+            for (int i = 0; i < attrs.length; i++) {
+                attrs[i] = new MBeanAttributeInfo(names.get(i), "long",
+                        names.get(i), true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(),
+                    "SOS simulation metrics", attrs, null, null, null);
+        }
+
+        public void setAttribute(Attribute attribute)
+                throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("metrics are read-only");
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String action, Object[] params, String[] sig)
+                throws MBeanException {
+            throw new MBeanException(null, "no operations");
+        }
+    }// class MetricsMBean
+
+};// class Metrics
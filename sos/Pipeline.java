@@ -0,0 +1,294 @@
+package sos;
+
+/**
+ * This class is a timing model of a classic five-stage pipeline (fetch,
+ * decode, execute, memory, write back) that runs alongside the CPU. The CPU
+ * tells it about every instruction it executes and the model works out the
+ * cycle in which that instruction would have been decoded on an in-order
+ * pipeline issuing one instruction per cycle, counting the cycles lost to
+ * <ul>
+ * <li>data hazards: an instruction that reads a register written by one
+ * shortly before it waits until the value can reach its execute stage.
+ * With forwarding an ALU result is there for the very next instruction and
+ * a value read from memory (LOAD, POP, CAS) one cycle later; without it
+ * every value has to be written back first.</li>
+ * <li>control hazards: branches are predicted not taken. A taken BNE or BLT
+ * is resolved in the execute stage and costs two bubbles; a BRANCH is known
+ * in decode and costs one.</li>
+ * <li>drains: a TRAP, and any interrupt, lets the pipeline empty before the
+ * next instruction is decoded.</li>
+ * </ul>
+ * The registers read and written are taken from the operands in instr[1..3]
+ * (and SP for PUSH and POP). The model only counts; it never changes what
+ * the CPU does or the CPU's virtual clock. Its state is a scoreboard of one
+ * number per register, allocated once, so following an instruction costs a
+ * few array accesses.
+ *
+ * @see CPU#setPipeline
+ */
+public class Pipeline {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    /** the number of stages */
+    public static final int STAGES = 5;
+
+    /** bubbles after a taken conditional branch and after a BRANCH */
+    public static final int TAKEN_BRANCH_BUBBLES = 2;
+    public static final int JUMP_BUBBLES = 1;
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** whether results are forwarded to the execute stage */
+    private boolean m_forwarding = true;
+
+    /**
+     * the scoreboard: the first cycle in which an instruction may execute
+     * using each register's latest value
+     **/
+    private long[] m_ready = new long[CPU.NUMREG];
+
+    /** whether each register's latest value is read from memory */
+    private boolean[] m_fromMemory = new boolean[CPU.NUMREG];
+
+    /** the cycle the last instruction was decoded in */
+    private long m_decode = 0;
+
+    /** the earliest cycle the next instruction can be decoded in */
+    private long m_nextDecode = 1;
+
+    /** counts of the instructions and the cycles lost to each hazard */
+    private long m_instructions = 0;
+    private long m_dataStalls = 0;
+    private long m_loadUseStalls = 0;
+    private long m_branchStalls = 0;
+    private long m_drainStalls = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * Pipeline ctor
+     *
+     * @param forwarding
+     *            true to forward results to the execute stage
+     */
+    public Pipeline(boolean forwarding) {
+        m_forwarding = forwarding;
+    }// Pipeline ctor
+
+    public boolean isForwarding() {
+        return m_forwarding;
+    }
+
+    /**
+     * issue
+     *
+     * follows an instruction the CPU has just executed through the pipeline
+     *
+     * @param instr
+     *            the instruction
+     * @param taken
+     *            true if it was a branch that was taken
+     */
+    public void issue(int[] instr, boolean taken) {
+        long decode = m_nextDecode;
+
+        // wait for the registers read
+        switch (instr[0]) {
+        case CPU.ADD:
+        case CPU.SUB:
+        case CPU.MUL:
+        case CPU.DIV:
+            decode = waitFor(decode, instr[2], instr[3], -1);
+            break;
+        case CPU.COPY:
+        case CPU.LOAD:
+            decode = waitFor(decode, instr[2], -1, -1);
+            break;
+        case CPU.BNE:
+        case CPU.BLT:
+        case CPU.SAVE:
+            decode = waitFor(decode, instr[1], instr[2], -1);
+            break;
+        case CPU.PUSH:
+            decode = waitFor(decode, instr[1], CPU.SP, -1);
+            break;
+        case CPU.POP:
+        case CPU.TRAP:
+            decode = waitFor(decode, CPU.SP, -1, -1);
+            break;
+        case CPU.CAS:
+            decode = waitFor(decode, instr[1], instr[2], instr[3]);
+            break;
+        }// switch
+        m_dataStalls += decode - m_nextDecode;
+
+        // say when the registers written can be used
+        long alu = m_forwarding ? decode + 2 : decode + 4;
+        long mem = m_forwarding ? decode + 3 : decode + 4;
+        switch (instr[0]) {
+        case CPU.SET:
+        case CPU.ADD:
+        case CPU.SUB:
+        case CPU.MUL:
+        case CPU.DIV:
+        case CPU.COPY:
+            written(instr[1], alu, false);
+            break;
+        case CPU.PUSH:
+            written(CPU.SP, alu, false);
+            break;
+        case CPU.POP:
+            written(CPU.SP, alu, false);
+            written(instr[1], mem, true);
+            break;
+        case CPU.LOAD:
+        case CPU.CAS:
+            written(instr[1], mem, true);
+            break;
+        }// switch
+
+        // and when the next instruction can be decoded
+        long next = decode + 1;
+        switch (instr[0]) {
+        case CPU.BNE:
+        case CPU.BLT:
+            if (taken) {
+                next += TAKEN_BRANCH_BUBBLES;
+                m_branchStalls += TAKEN_BRANCH_BUBBLES;
+            }
+            break;
+        case CPU.BRANCH:
+            next += JUMP_BUBBLES;
+            m_branchStalls += JUMP_BUBBLES;
+            break;
+        case CPU.TRAP:
+            next += STAGES - 2;
+            m_drainStalls += STAGES - 2;
+            break;
+        }// switch
+
+        m_decode = decode;
+        m_nextDecode = next;
+        m_instructions++;
+    }// issue
+
+    /**
+     * waitFor
+     *
+     * @return the first cycle from decode on in which an instruction reading
+     *         the given registers (-1 for none) can be decoded
+     */
+    private long waitFor(long decode, int a, int b, int c) {
+        long ready = waitFor(decode, a);
+        ready = waitFor(ready, b);
+        return waitFor(ready, c);
+    }// waitFor
+
+    /**
+     * waitFor
+     *
+     * @return the first cycle from decode on in which an instruction reading
+     *         the given register (-1 for none) can be decoded, counting any
+     *         cycles lost to a value still coming from memory
+     */
+    private long waitFor(long decode, int reg) {
+        if (reg < 0 || reg >= m_ready.length || m_ready[reg] - 1 <= decode) {
+            return decode;
+        }
+        if (m_fromMemory[reg]) {
+            m_loadUseStalls += m_ready[reg] - 1 - decode;
+        }
+        return m_ready[reg] - 1;
+    }// waitFor
+
+    /**
+     * written
+     *
+     * records that a register gets a new value that can be executed on from
+     * the given cycle
+     */
+    private void written(int reg, long cycle, boolean fromMemory) {
+        if (reg >= 0 && reg < m_ready.length) {
+            m_ready[reg] = cycle;
+            m_fromMemory[reg] = fromMemory;
+        }
+    }// written
+
+    /**
+     * drain
+     *
+     * lets the pipeline empty, as the CPU does before it takes an interrupt
+     */
+    public void drain() {
+        long next = Math.max(m_nextDecode, m_decode + STAGES - 1);
+        m_drainStalls += next - m_nextDecode;
+        m_nextDecode = next;
+    }// drain
+
+    public long getInstructions() {
+        return m_instructions;
+    }
+
+    /**
+     * getCycles
+     *
+     * @return the cycles from fetching the first instruction to writing
+     *         back the last one
+     */
+    public long getCycles() {
+        return m_instructions == 0 ? 0 : m_decode + STAGES - 2;
+    }
+
+    /**
+     * getStalls
+     *
+     * @return the cycles lost to hazards and drains
+     */
+    public long getStalls() {
+        return m_dataStalls + m_branchStalls + m_drainStalls;
+    }
+
+    public long getDataStalls() {
+        return m_dataStalls;
+    }
+
+    public long getLoadUseStalls() {
+        return m_loadUseStalls;
+    }
+
+    public long getBranchStalls() {
+        return m_branchStalls;
+    }
+
+    public long getDrainStalls() {
+        return m_drainStalls;
+    }
+
+    /**
+     * getCPI
+     *
+     * @return the cycles per instruction (0 if none have been issued)
+     */
+    public double getCPI() {
+        return m_instructions == 0 ? 0 : (double) getCycles()
+                / m_instructions;
+    }
+
+    /**
+     * toString
+     */
+    public String toString() {
+        return String.format("pipeline(%s): %d cycles, CPI %.3f, stalls "
+                + "data=%d (load-use=%d) branch=%d drain=%d",
+                m_forwarding ? "forwarding" : "no forwarding", getCycles(),
+                getCPI(), m_dataStalls, m_loadUseStalls, m_branchStalls,
+                m_drainStalls);
+    }// toString
+
+};// class Pipeline
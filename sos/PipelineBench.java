@@ -0,0 +1,190 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class measures the {@link Pipeline} timing model and the
+ * {@link CostModel}. Each sample program is run on a fresh machine with the
+ * tuned interpreter, with the general one (dispatching every instruction, as
+ * it has to for the models), and with the general one following a pipeline
+ * with and without forwarding. For each it prints the host time, the best
+ * of a few runs; for the pipeline it also prints the cycles, CPI and stalls
+ * and how many times slower the run was than the general interpreter alone.
+ * Then the program is run under the default cost model with each of the
+ * branch predictors, and the instructions, cycles, CPI and share of
+ * conditional branches mispredicted are printed, with where the cycles went
+ * for the two-bit predictor. <code>oddcount.asm</code> and
+ * <code>oddflag.asm</code> compute the same thing two ways, one dividing and
+ * one flipping a flag, to show how a choice of code shows up in the CPI.
+ *
+ * Neither model may change what the program does, so every run must end
+ * with the same instructions, output and registers, and every run without
+ * the cost model (which charges cycles to the clock) at the same virtual
+ * time; the exit status is 1 if one does not.
+ *
+ * @see CPU#setPipeline
+ * @see CPU#setCostModel
+ */
+public class PipelineBench {
+    /**
+     * The programs measured
+     **/
+    private static final String[] PROGRAMS = { "countloop.asm",
+            "sumloop.asm", "memloop.asm", "oddcount.asm", "oddflag.asm" };
+
+    /**
+     * the words each process is given
+     **/
+    private static final int ALLOC_SIZE = 256;
+
+    /**
+     * the runs of each kind, the fastest of which is reported
+     **/
+    private static final int RUNS = 3;
+
+    // The ways each program is run
+    private static final int TUNED = 0;
+    private static final int GENERAL = 1;
+    private static final int FORWARDING = 2;
+    private static final int NO_FORWARDING = 3;
+
+    private static final String[] MODE_NAMES = { "tuned", "general",
+            "forwarding", "no forwarding" };
+
+    // What runWorkload measures
+    private static final int NANOS = 0;
+    private static final int TICKS = 1;
+    private static final int INSTRUCTIONS = 2;
+    private static final int CYCLES = 3;
+    private static final int NUMSTATS = 4;
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public PipelineBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            not used
+     */
+    public static void main(String[] args) {
+        boolean allSame = true;
+        for (String file : PROGRAMS) {
+            Program prog = new Program();
+            if (prog.load(file, false) != 0) {
+                // Error loading program so exit
+                System.exit(1);
+            }
+            System.out.println(file);
+            String expected = null;
+            long ticks = -1;
+            boolean same = true;
+            long general = 0;
+            for (int mode = TUNED; mode <= NO_FORWARDING; mode++) {
+                long best = Long.MAX_VALUE;
+                Pipeline pipeline = null;
+                for (int i = 0; i < RUNS; i++) {
+                    pipeline = mode == FORWARDING ? new Pipeline(true)
+                            : mode == NO_FORWARDING ? new Pipeline(false)
+                                    : null;
+                    long[] stats = new long[NUMSTATS];
+                    String result = runWorkload(prog, mode == TUNED,
+                            pipeline, null, stats);
+                    best = Math.min(best, stats[NANOS]);
+                    if (expected == null) {
+                        expected = result;
+                        ticks = stats[TICKS];
+                    }
+                    same &= expected.equals(result) && ticks == stats[TICKS];
+                }
+                if (mode == GENERAL) {
+                    general = best;
+                }
+                String line = String.format("  %-13s %8.2f ms",
+                        MODE_NAMES[mode], best / 1e6);
+                if (pipeline != null) {
+                    line += String.format(" (x%.1f), %d cycles, CPI %.3f, "
+                            + "stalls data=%d (load-use=%d) branch=%d "
+                            + "drain=%d", (double) best / general,
+                            pipeline.getCycles(), pipeline.getCPI(),
+                            pipeline.getDataStalls(),
+                            pipeline.getLoadUseStalls(),
+                            pipeline.getBranchStalls(),
+                            pipeline.getDrainStalls());
+                }
+                System.out.println(line);
+            }// for
+
+            for (int p = 0; p < CostModel.PREDICTOR_NAMES.length; p++) {
+                CostModel cost = new CostModel();
+                cost.setPredictor(p);
+                long[] stats = new long[NUMSTATS];
+                same &= expected.equals(runWorkload(prog, false, null, cost,
+                        stats));
+                System.out.println(String.format("  %-13s %d instructions, "
+                        + "%d cycles, CPI %.3f, %.1f%% mispredicted",
+                        CostModel.PREDICTOR_NAMES[p], stats[INSTRUCTIONS],
+                        stats[CYCLES], (double) stats[CYCLES]
+                                / stats[INSTRUCTIONS],
+                        cost.getBranches() == 0 ? 0.0 : 100.0
+                                * cost.getMispredicts() / cost.getBranches()));
+                if (p == CostModel.PREDICT_2BIT) {
+                    System.out.println("                " + cost);
+                }
+            }// for
+            System.out.println("  results " + (same ? "the same" : "DIFFERENT")
+                    + " with the models: " + ticks + " ticks, " + expected);
+            allSame &= same;
+        }// for
+        if (!allSame) {
+            System.exit(1);
+        }
+    }// main
+
+    /**
+     * runWorkload
+     *
+     * runs the program on a fresh machine with the given interpreter,
+     * pipeline and cost model (null for none)
+     *
+     * @param stats
+     *            set to the host time, virtual time, instructions and cycles
+     *            of the run
+     * @return the instructions, output and registers of the run
+     */
+    private static String runWorkload(Program prog, boolean tuned,
+            Pipeline pipeline, CostModel cost, long[] stats) {
+        RAM ram = new RAM(ALLOC_SIZE * 4, 0);
+        InterruptController ic = new InterruptController();
+        CPU cpu = new CPU(ram, ic);
+        cpu.setVerbose(false);
+        cpu.setTunedInterpreter(tuned);
+        if (!tuned) {
+            cpu.setLoopFastPath(false);
+        }
+        cpu.setPipeline(pipeline);
+        cpu.setCostModel(cost);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+
+        os.createProcess(prog, ALLOC_SIZE);
+        long start = System.nanoTime();
+        cpu.run();
+        stats[NANOS] = System.nanoTime() - start;
+        stats[TICKS] = cpu.getTicks();
+        stats[INSTRUCTIONS] = cpu.getInstructions();
+        stats[CYCLES] = cpu.getCycles();
+
+        return cpu.getInstructions()
+                + " instructions, output "
+                + text.toString().trim().replace("\n", " ") + ", registers "
+                + Arrays.toString(cpu.getRegisters());
+    }// runWorkload
+
+};// class PipelineBench
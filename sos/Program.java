@@ -25,11 +25,64 @@ public class Program
         String name;            // the name of the label
     };
     
+    // The kinds of instruction operand, as checked by the verifier
+    private static final int NONE = 0;   // not used
+    private static final int REG = 1;    // a register
+    private static final int IMM = 2;    // an immediate value
+    private static final int TARGET = 3; // a branch target
+
+    /**
+     * the kind of each of the three operands of each opcode (null for the
+     * unused opcodes)
+     **/
+    private static final int[][] OPERANDS = {
+        { REG, IMM, NONE },         // SET
+        { REG, REG, REG },          // ADD
+        { REG, REG, REG },          // SUB
+        { REG, REG, REG },          // MUL
+        { REG, REG, REG },          // DIV
+        { REG, REG, NONE },         // COPY
+        { TARGET, NONE, NONE },     // BRANCH
+        { REG, REG, TARGET },       // BNE
+        { REG, REG, TARGET },       // BLT
+        { REG, NONE, NONE },        // POP
+        { REG, NONE, NONE },        // PUSH
+        { REG, REG, NONE },         // LOAD
+        { REG, REG, NONE },         // SAVE
+        { REG, REG, REG },          // CAS
+        null,
+        { NONE, NONE, NONE }        // TRAP
+    };
+
     /**
      * a Vector of Integer used to store the program as it is parsed
      **/
     private Vector<Integer> m_prog = null;
 
+    /**
+     * the source line of each instruction in m_prog (0 for the ones added by
+     * the assembler).  Together with m_labels this is the program's source
+     * map.
+     **/
+    private Vector<Integer> m_lines = null;
+
+    /**
+     * the positions in m_prog that hold the address of a label
+     **/
+    private HashSet<Integer> m_labelRefs = null;
+
+    /**
+     * true if the program has passed the verifier and names no registers
+     * but R0..R4
+     **/
+    private boolean m_verified = false;
+
+    /**
+     * the program as returned by export, kept until the program is loaded
+     * again (null until export is first called)
+     **/
+    private int[] m_image = null;
+
     /**
      * an Vector of Label used to store all the labels found in the code
      **/
@@ -61,7 +114,8 @@ public class Program
 
     /**
      * when this program is being used by the simulation, this variable tracks
-     * how many times it has been used to create a process
+     * how many processes are running it (and sharing its code, if code is
+     * shared)
      */
     public int callCount = 0;
      
@@ -73,6 +127,8 @@ public class Program
     public Program()
     {
         m_prog = new Vector<Integer>();
+        m_lines = new Vector<Integer>();
+        m_labelRefs = new HashSet<Integer>();
         m_labels = new Vector<Label>();
         m_orphans = new Vector<Label>();
     }
@@ -98,6 +154,53 @@ public class Program
         return m_prog.size();
     }
 
+    /**
+     * getLine
+     *
+     * @param addr  an address in the program
+     * @return      the source line of the instruction at the address, or 0
+     *              if the address is outside the program or the instruction
+     *              was added by the assembler
+     */
+    public int getLine(int addr)
+    {
+        int i = addr / CPU.INSTRSIZE;
+        if ( (addr < 0) || (i >= m_lines.size()) ) return 0;
+        return m_lines.get(i);
+    }//getLine
+
+    /**
+     * getLabel
+     *
+     * @param addr  an address in the program
+     * @return      the name of the (first) label at the address, or null if
+     *              there is none
+     */
+    public String getLabel(int addr)
+    {
+        for(Label l : m_labels)
+        {
+            if (l.addr == addr) return l.name;
+        }
+        return null;
+    }//getLabel
+
+    /**
+     * getLabelAddress
+     *
+     * @param name  the name of a label (in any case)
+     * @return      its address in the program, or -1 if there is no such
+     *              label
+     */
+    public int getLabelAddress(String name)
+    {
+        for(Label l : m_labels)
+        {
+            if (l.name.equals(name.toUpperCase())) return l.addr;
+        }
+        return -1;
+    }//getLabelAddress
+
     /**
      * getDefaultAllocSize
      *
@@ -250,7 +353,14 @@ public class Program
                     return -106;
                 }
             case 'C':
-                return CPU.COPY;
+                if (instr.charAt(1) == 'A')
+                {
+                    return CPU.CAS;
+                }
+                else
+                {
+                    return CPU.COPY;
+                }
             case 'D':
                 return CPU.DIV;
             case 'L':
@@ -350,6 +460,7 @@ public class Program
                     bFound = true;
                 }
             }//for
+            m_labelRefs.add(m_prog.size());
 
             //If the label does not already exist, record an orphan label
             //reference storing it's location offset in the addr field
@@ -416,6 +527,7 @@ public class Program
 
         //Add the code to the program
         m_prog.add(intInstr);
+        m_lines.add(m_lineNum);
 
         //Read the arguments of the instruction.  Fill in zero values so that
         //all instructions are exactly CPU.INSTRSIZE ints
@@ -550,8 +662,8 @@ public class Program
      */
     public int load(String fileName, boolean verbose)
     {
-        int retVal = 0;         // return value (success is default)
         m_verbose = verbose;    // init verbose mode
+        m_image = null;         // the program is about to change
         
         //Step 1:  Open the file
         BufferedReader file=null;    // contains the pidgin asm
@@ -581,6 +693,43 @@ public class Program
             return -1;
         }
 
+        return assemble(file, fileName);
+    }//load
+
+    /**
+     * loadSource
+     *
+     * loads a program from the text of its source code rather than a file,
+     * e.g. one that has been generated
+     *
+     * @param source   the pidgin asm
+     * @param verbose  if set 'true' this will print detailed output as it
+     *                 parses
+     * @return         0 is success; anthing else is a failure code
+     * @see #load
+     */
+    public int loadSource(String source, boolean verbose)
+    {
+        m_verbose = verbose;    // init verbose mode
+        m_image = null;         // the program is about to change
+
+        return assemble(new BufferedReader(new StringReader(source)),
+                        "<source>");
+    }//loadSource
+
+    /**
+     * assemble
+     *
+     * does the work of {@link #load} once the source is open
+     *
+     * @param file      the pidgin asm, which is closed when it has been read
+     * @param fileName  where it came from, for error messages
+     * @return          0 is success; anthing else is a failure code
+     */
+    private int assemble(BufferedReader file, String fileName)
+    {
+        int retVal = 0;         // return value (success is default)
+
         //Step 2:  Parse the file into m_prog
         try
         {
@@ -637,13 +786,382 @@ public class Program
         m_prog.add(new Integer(0));
         m_prog.add(new Integer(0));
         m_prog.add(new Integer(0));
+        for(int i = 0; i < 3; i++)
+        {
+            m_lines.add(0);
+        }
+
+        //Step 7:  Check the operands
+        if (verify() != 0)
+        {
+            return -7;
+        }
 
 
         return retVal;
         
-    }//load
+    }//assemble
  
 
+    /**
+     * verify
+     *
+     * is called once the program has been parsed and its labels resolved.
+     * It checks that every register operand names a register and every
+     * branch target is the address of an instruction in the program, so that
+     * neither can fail at run time, and records whether the program names
+     * only the general registers R0..R4.
+     *
+     * @return a success/error code (0 is success; anything else is failure)
+     * @see #isVerified
+     */
+    private int verify()
+    {
+        int size = m_prog.size();   // the words of the program
+        m_verified = false;
+        boolean general = true;     // only R0..R4 named so far?
+        for(int i = 0; i < size; i += CPU.INSTRSIZE)
+        {
+            int op = m_prog.get(i);
+            int line = m_lines.get(i / CPU.INSTRSIZE);
+            for(int j = 1; j < CPU.INSTRSIZE; j++)
+            {
+                int arg = m_prog.get(i + j);
+                switch(OPERANDS[op][j - 1])
+                {
+                    case REG:
+                        if ( (arg < 0) || (arg >= CPU.NUMREG) )
+                        {
+                            System.out.println("\nERROR: bad register " + arg
+                                               + " on line " + line);
+                            return -1;
+                        }
+                        general &= (arg < CPU.NUMGENREG);
+                        break;
+                    case TARGET:
+                        if ( (arg < 0) || (arg >= size)
+                             || (arg % CPU.INSTRSIZE != 0) )
+                        {
+                            System.out.println("\nERROR: branch target " + arg
+                                               + " on line " + line
+                                               + " is not an instruction");
+                            return -1;
+                        }
+                        break;
+                }//switch
+            }//for
+        }//for
+
+        m_verified = general;
+        return 0;
+    }//verify
+
+    /**
+     * isVerified
+     *
+     * @return true if the program has been verified and names no registers
+     *         but R0..R4, so that {@link #optimize} can follow the values in
+     *         them
+     */
+    public boolean isVerified()
+    {
+        return m_verified;
+    }//isVerified
+
+    /**
+     * successors
+     *
+     * @param code  the program
+     * @param i     the index of an instruction
+     * @param succ  filled in with the indexes of the instructions that can
+     *              run next
+     * @return      how many there are
+     */
+    private int successors(int[] code, int i, int[] succ)
+    {
+        int n = code.length / CPU.INSTRSIZE;
+        int pos = i * CPU.INSTRSIZE;
+        int count = 0;
+        switch(code[pos])
+        {
+            case CPU.BRANCH:
+                succ[count++] = code[pos + 1] / CPU.INSTRSIZE;
+                return count;
+            case CPU.BNE:
+            case CPU.BLT:
+                succ[count++] = code[pos + 3] / CPU.INSTRSIZE;
+                break;
+        }//switch
+        if (i + 1 < n)
+        {
+            succ[count++] = i + 1;
+        }
+        return count;
+    }//successors
+
+    /**
+     * propagate
+     *
+     * follows the values that SET puts in the registers through the
+     * control-flow graph of a verified program.  Nothing is known about the
+     * registers when the program starts or after a TRAP.
+     *
+     * @param code   the program
+     * @param vals   filled in with the register values on entry to each
+     *               instruction
+     * @param known  filled in with a bit for each register whose value on
+     *               entry to the instruction is the same every way there
+     *               (and so is in vals)
+     * @return       which instructions can be reached from the first
+     */
+    private boolean[] propagate(int[] code, int[][] vals, int[] known)
+    {
+        int n = code.length / CPU.INSTRSIZE;
+        int[] succ = new int[2];         // successors of an instruction
+        boolean[] reached = new boolean[n];
+        int[] out = new int[CPU.NUMGENREG];
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        reached[0] = true;
+        work.add(0);
+        while(!work.isEmpty())
+        {
+            int i = work.poll();
+            int pos = i * CPU.INSTRSIZE;
+            int a = code[pos + 1];
+            int b = code[pos + 2];
+            int c = code[pos + 3];
+            System.arraycopy(vals[i], 0, out, 0, CPU.NUMGENREG);
+            int outKnown = known[i];
+            switch(code[pos])
+            {
+                case CPU.SET:
+                    out[a] = b;
+                    outKnown |= 1 << a;
+                    break;
+                case CPU.ADD:
+                case CPU.SUB:
+                case CPU.MUL:
+                case CPU.DIV:
+                    if (foldable(code[pos], known[i], vals[i], b, c))
+                    {
+                        out[a] = fold(code[pos], vals[i][b], vals[i][c]);
+                        outKnown |= 1 << a;
+                    }
+                    else
+                    {
+                        outKnown &= ~(1 << a);
+                    }
+                    break;
+                case CPU.COPY:
+                    out[a] = vals[i][b];
+                    outKnown = (outKnown & ~(1 << a))
+                        | (((known[i] >> b) & 1) << a);
+                    break;
+                case CPU.POP:
+                case CPU.LOAD:
+                case CPU.CAS:
+                    outKnown &= ~(1 << a);
+                    break;
+                case CPU.TRAP:
+                    //the operating system may change anything
+                    outKnown = 0;
+                    break;
+            }//switch
+
+            int count = successors(code, i, succ);
+            for(int k = 0; k < count; k++)
+            {
+                int s = succ[k];
+                if (!reached[s])
+                {
+                    reached[s] = true;
+                    System.arraycopy(out, 0, vals[s], 0, CPU.NUMGENREG);
+                    known[s] = outKnown;
+                    work.add(s);
+                    continue;
+                }
+                int merged = known[s] & outKnown;
+                for(int r = 0; r < CPU.NUMGENREG; r++)
+                {
+                    if (vals[s][r] != out[r]) merged &= ~(1 << r);
+                }
+                if (merged != known[s])
+                {
+                    known[s] = merged;
+                    work.add(s);
+                }
+            }//for
+        }//while
+
+        return reached;
+    }//propagate
+
+    /**
+     * optimize
+     *
+     * improves a verified program without changing what it computes.  It
+     * builds the control-flow graph of the program and then
+     * <ul>
+     * <li>propagates the values of SET through the registers, replacing
+     * each ADD, SUB, MUL or DIV whose operands are known with a SET of the
+     * result.  Every instruction stays one instruction, so the program
+     * takes as many steps, and ticks, as before.  Under a {@link CostModel}
+     * each folded instruction is charged as a SET, so the program takes
+     * fewer cycles; VerifyBench shows how many.</li>
+     * <li>drops the instructions that can never be reached, such as those
+     * after a BRANCH that nothing branches to, and moves the branch targets
+     * and labels after them.  This is not done if a label is used as a value,
+     * since moving the code would change it.</li>
+     * </ul>
+     * Neither is done if a LOAD, SAVE or CAS that can be reached uses an
+     * address inside the program's own code, or one the optimizer does not
+     * know, since the program could then see its code change.  A program
+     * whose stack grows into its code can still behave differently once it
+     * has been optimized.
+     *
+     * @return the number of instructions replaced or dropped (0 if the
+     *         program has not been verified)
+     */
+    public int optimize()
+    {
+        if (!m_verified) return 0;
+
+        int[] code = export().clone();   // the program being optimized
+        int n = code.length / CPU.INSTRSIZE;
+
+        //Step 1:  Work out the register values known at each instruction
+        int[][] vals = new int[n][CPU.NUMGENREG];
+        int[] known = new int[n];
+        boolean[] reached = propagate(code, vals, known);
+
+        //Step 2:  Fold the arithmetic on known values, and see whether the
+        //code is used as data
+        int changed = 0;
+        boolean movable = true;
+        for(int i = 0; i < n; i++)
+        {
+            if (!reached[i]) continue;
+            int pos = i * CPU.INSTRSIZE;
+            int op = code[pos];
+            int b = code[pos + 2];
+            int c = code[pos + 3];
+            //Both steps change the words of the code, so a program that
+            //may read or write them is left as it is
+            if ( ((op == CPU.LOAD) || (op == CPU.SAVE) || (op == CPU.CAS))
+                 && ( ((known[i] >> b & 1) == 0)
+                      || ((vals[i][b] >= 0) && (vals[i][b] < code.length)) ) )
+            {
+                return 0;
+            }
+            if ( (op >= CPU.ADD) && (op <= CPU.DIV)
+                 && foldable(op, known[i], vals[i], b, c) )
+            {
+                code[pos + 2] = fold(op, vals[i][b], vals[i][c]);
+                code[pos] = CPU.SET;
+                code[pos + 3] = 0;
+                changed++;
+            }
+        }//for
+        for(int ref : m_labelRefs)
+        {
+            int op = code[ref - ref % CPU.INSTRSIZE];
+            if (OPERANDS[op][ref % CPU.INSTRSIZE - 1] != TARGET)
+            {
+                movable = false;
+            }
+        }//for
+
+        //Step 3:  Drop the instructions that are never reached
+        int[] newIndex = new int[n + 1];
+        int kept = 0;
+        for(int i = 0; i < n; i++)
+        {
+            newIndex[i] = kept;
+            if (reached[i] || !movable) kept++;
+        }
+        newIndex[n] = kept;
+        Vector<Integer> lines = new Vector<Integer>();
+        HashSet<Integer> refs = new HashSet<Integer>();
+        m_prog = new Vector<Integer>();
+        for(int i = 0; i < n; i++)
+        {
+            if (!reached[i] && movable) continue;
+            int pos = i * CPU.INSTRSIZE;
+            switch(code[pos])
+            {
+                case CPU.BRANCH:
+                    code[pos + 1] = newIndex[code[pos + 1] / CPU.INSTRSIZE]
+                        * CPU.INSTRSIZE;
+                    break;
+                case CPU.BNE:
+                case CPU.BLT:
+                    code[pos + 3] = newIndex[code[pos + 3] / CPU.INSTRSIZE]
+                        * CPU.INSTRSIZE;
+                    break;
+            }//switch
+            for(int j = 0; j < CPU.INSTRSIZE; j++)
+            {
+                if (m_labelRefs.contains(pos + j))
+                {
+                    refs.add(m_prog.size());
+                }
+                m_prog.add(code[pos + j]);
+            }
+            lines.add(m_lines.get(i));
+        }//for
+        for(Label l : m_labels)
+        {
+            l.addr = newIndex[l.addr / CPU.INSTRSIZE] * CPU.INSTRSIZE;
+        }
+        m_lines = lines;
+        m_labelRefs = refs;
+        m_image = null;
+
+        if (m_verbose)
+        {
+            System.out.println("optimized: " + changed + " folded, "
+                               + (n - kept) + " dropped");
+        }
+        return changed + n - kept;
+    }//optimize
+
+    /**
+     * foldable
+     *
+     * @return true if an arithmetic instruction reading registers b and c
+     *         has a result known before it runs
+     */
+    private static boolean foldable(int op, int known, int[] vals, int b,
+                                    int c)
+    {
+        if ( ((known >> b & 1) == 0) || ((known >> c & 1) == 0) )
+        {
+            return false;
+        }
+        //leave a division by zero to fault when it runs
+        return (op != CPU.DIV) || (vals[c] != 0);
+    }//foldable
+
+    /**
+     * fold
+     *
+     * @return the result of an arithmetic instruction on known values
+     */
+    private static int fold(int op, int x, int y)
+    {
+        switch(op)
+        {
+            case CPU.ADD:
+                return x + y;
+            case CPU.SUB:
+                return x - y;
+            case CPU.MUL:
+                return x * y;
+            default:
+                return x / y;
+        }//switch
+    }//fold
+
     /**
      * print
      *
@@ -671,7 +1189,9 @@ public class Program
      * export
      *
      * converts the current program from an Vector of Integer to int[] that
-     * can be loaded into RAM
+     * can be loaded into RAM.  The conversion is only done the first time;
+     * after that the same array is returned until the program is loaded
+     * again, so callers must not change it.
      *
      * @return the converted program
      * @see RAM
@@ -679,6 +1199,7 @@ public class Program
     public int[] export()
     {
         if (m_prog.size() == 0) return null;
+        if (m_image != null) return m_image;
         
         int result[] = new int[m_prog.size()]; // the return value
         int i = 0;                             // counter/index
@@ -688,6 +1209,7 @@ public class Program
             i++;
         }
 
+        m_image = result;
         return result;
     }//export
 };//class Program
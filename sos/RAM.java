@@ -1,6 +1,10 @@
 package sos;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 /**
  * This class simulates a random access memory for the CPU class.
@@ -12,6 +16,12 @@ import java.util.*;
  * 
  */
 public class RAM {
+    /**
+     * Gives atomic access to single words of the memory array
+     **/
+    private static final VarHandle WORD = MethodHandles
+            .arrayElementVarHandle(int[].class);
+
     // member veriables
     /**
      * The size of the RAM (expressed as a number of integers)
@@ -25,17 +35,34 @@ public class RAM {
 
     /**
      * This describes how long it takes the simulated RAM to retrieve a given
-     * value.
+     * value, in ticks of the CPU's virtual clock.
      **/
     private int m_latency;
 
+    /**
+     * The latency of the accesses made since the CPU last collected it with
+     * {@link #takeStallTicks} (only accesses made by the CPU's thread)
+     **/
+    private long m_stallTicks = 0;
+
+    /**
+     * The number of words read and written on behalf of programs and the
+     * operating system (instruction fetches are not counted). Single words
+     * are only accessed by the CPU's thread; block transfers may also be made
+     * by a DMA controller, so they are counted separately.
+     **/
+    private long m_reads = 0;
+    private long m_writes = 0;
+    private LongAdder m_blockReads = new LongAdder();
+    private LongAdder m_blockWrites = new LongAdder();
+
     /**
      * the constructor does nothing special
      * 
      * @param size
      *            number of integers ("words") in ram
      * @param latency
-     *            the number of nanoseconds to delay for RAM latency
+     *            the number of ticks each access takes
      */
     public RAM(int size, int latency) {
         m_size = size;
@@ -59,13 +86,50 @@ public class RAM {
     /**
      * getLatency
      * 
-     * @return the time in nanoseconds required to retrieve a value from RAM
+     * @return the ticks required to retrieve a value from RAM
      * 
      */
     public int getLatency() {
         return m_latency;
     }
 
+    /**
+     * registerMetrics
+     * 
+     * adds the memory traffic counts to a metrics registry
+     */
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("ram.reads", new LongSupplier() {
+            public long getAsLong() {
+                return getReads();
+            }
+        });
+        metrics.gauge("ram.writes", new LongSupplier() {
+            public long getAsLong() {
+                return getWrites();
+            }
+        });
+    }// registerMetrics
+
+    public long getReads() {
+        return m_reads + m_blockReads.sum();
+    }
+
+    public long getWrites() {
+        return m_writes + m_blockWrites.sum();
+    }
+
+    /**
+     * addAccesses
+     * 
+     * counts reads and writes made directly on the array returned by
+     * {@link #getMemory}
+     */
+    public void addAccesses(long reads, long writes) {
+        m_reads += reads;
+        m_writes += writes;
+    }
+
     /**
      * fetch
      * 
@@ -83,6 +147,65 @@ public class RAM {
 
     }// fetch
 
+    /**
+     * getMemory
+     * 
+     * @return the array holding the simulated RAM, for the CPU's tuned
+     *         instruction loop (which reads and writes it directly when
+     *         there is no latency to simulate)
+     */
+    public int[] getMemory() {
+        return m_mem;
+    }
+
+    /**
+     * fetchWord
+     * 
+     * retrieves a single word of an instruction from the simulated RAM
+     * (without the data latency, like {@link #fetch})
+     * 
+     * @param addr
+     *            the location to retrieve from
+     * @return the value at the given location
+     */
+    public int fetchWord(int addr) {
+        return m_mem[addr];
+    }
+
+    /**
+     * delay
+     * 
+     * simulates the RAM latency of one access by adding it to the ticks the
+     * CPU will charge to its virtual clock, so the timing does not depend on
+     * the host. Block operations are modelled as bursts: the latency is paid
+     * once for the whole transfer.
+     */
+    private void delay() {
+        m_stallTicks += m_latency;
+    }// delay
+
+    /**
+     * getStallTicks
+     * 
+     * @return the latency of the accesses made since the last call to
+     *         {@link #takeStallTicks}, which the CPU has not charged yet
+     */
+    public long getStallTicks() {
+        return m_stallTicks;
+    }
+
+    /**
+     * takeStallTicks
+     * 
+     * @return the latency of the accesses made since the last call, which
+     *         the CPU adds to its clock
+     */
+    public long takeStallTicks() {
+        long ticks = m_stallTicks;
+        m_stallTicks = 0;
+        return ticks;
+    }// takeStallTicks
+
     /**
      * read
      * 
@@ -93,14 +216,9 @@ public class RAM {
      * @return the value at the given location
      */
     public int read(int addr) {
-        // Simulate RAM latency
-        if (m_latency > 0) {
-            try {
-                Thread.sleep(0, m_latency);
-            } catch (InterruptedException ie) {/* do nothing */
-            }
-        }
+        delay();
 
+        m_reads++;
         return m_mem[addr];
     }// read
 
@@ -115,15 +233,141 @@ public class RAM {
      *            the value to write
      */
     public void write(int addr, int val) {
-        // Simulate RAM latency
-        if (m_latency > 0) {
-            try {
-                Thread.sleep(0, m_latency);
-            } catch (InterruptedException ie) {/* do nothing */
-            }
-        }
+        delay();
 
+        m_writes++;
         m_mem[addr] = val;
     }// write
 
+    /**
+     * compareAndSwap
+     * 
+     * atomically replaces the integer at an address if it holds the expected
+     * value. The swap is a single hardware compare-and-exchange on the host,
+     * so it is atomic with respect to other host threads (e.g., devices)
+     * touching the same RAM without taking a lock.
+     * 
+     * @param addr
+     *            the address to update
+     * @param expected
+     *            the value the address must hold for the swap to happen
+     * @param val
+     *            the value to store
+     * @return the value the address held before the operation
+     */
+    public int compareAndSwap(int addr, int expected, int val) {
+        delay();
+
+        m_reads++;
+        m_writes++;
+        return (int) WORD.compareAndExchange(m_mem, addr, expected, val);
+    }// compareAndSwap
+
+    /**
+     * readBlock
+     * 
+     * copies a contiguous range of the simulated RAM into a buffer in a single
+     * burst transfer (used by the operating system to move whole blocks at
+     * once)
+     * 
+     * @param addr
+     *            the first address to copy from
+     * @param dest
+     *            the buffer to copy into
+     * @param off
+     *            the starting index in dest
+     * @param len
+     *            the number of integers to copy
+     */
+    public void readBlock(int addr, int[] dest, int off, int len) {
+        delay();
+        m_blockReads.add(len);
+        System.arraycopy(m_mem, addr, dest, off, len);
+    }// readBlock
+
+    /**
+     * writeBlock
+     * 
+     * copies a buffer into a contiguous range of the simulated RAM in a single
+     * burst transfer (used for program loading and by the operating system to
+     * move whole blocks at once)
+     * 
+     * @param addr
+     *            the first address to copy to
+     * @param src
+     *            the buffer to copy from
+     * @param off
+     *            the starting index in src
+     * @param len
+     *            the number of integers to copy
+     */
+    public void writeBlock(int addr, int[] src, int off, int len) {
+        delay();
+        m_blockWrites.add(len);
+        System.arraycopy(src, off, m_mem, addr, len);
+    }// writeBlock
+
+    /**
+     * deviceReadBlock
+     * 
+     * like {@link #readBlock} but for a device moving data on its own thread,
+     * such as a DMA controller. The device keeps its own time, so no latency
+     * is charged to the CPU.
+     */
+    public void deviceReadBlock(int addr, int[] dest, int off, int len) {
+        m_blockReads.add(len);
+        System.arraycopy(m_mem, addr, dest, off, len);
+    }// deviceReadBlock
+
+    /**
+     * deviceWriteBlock
+     * 
+     * like {@link #writeBlock} but for a device moving data on its own
+     * thread, such as a DMA controller. The device keeps its own time, so no
+     * latency is charged to the CPU.
+     */
+    public void deviceWriteBlock(int addr, int[] src, int off, int len) {
+        m_blockWrites.add(len);
+        System.arraycopy(src, off, m_mem, addr, len);
+    }// deviceWriteBlock
+
+    /**
+     * fill
+     * 
+     * sets a contiguous range of the simulated RAM to one value in a single
+     * burst transfer
+     * 
+     * @param addr
+     *            the first address to set
+     * @param len
+     *            the number of integers to set
+     * @param val
+     *            the value to store
+     */
+    public void fill(int addr, int len, int val) {
+        delay();
+        m_blockWrites.add(len);
+        Arrays.fill(m_mem, addr, addr + len, val);
+    }// fill
+
+    /**
+     * copy
+     * 
+     * moves a contiguous range of the simulated RAM to another address in a
+     * single burst transfer. The ranges may overlap.
+     * 
+     * @param src
+     *            the first address to copy from
+     * @param dest
+     *            the first address to copy to
+     * @param len
+     *            the number of integers to copy
+     */
+    public void copy(int src, int dest, int len) {
+        delay();
+        m_blockReads.add(len);
+        m_blockWrites.add(len);
+        System.arraycopy(m_mem, src, m_mem, dest, len);
+    }// copy
+
 };
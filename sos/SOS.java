@@ -1,19 +1,114 @@
 package sos;
 
+import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 /**
  * This class contains the simulated operating system (SOS). Realistically it
  * would run on the same processor (CPU) that it is managing but instead it uses
  * the real-world processor in order to allow a focus on the essentials of
  * operating system design using a high level programming language.
- * 
+ *
  * @author Max Robinson
  * @author Connor Haas
- * 
+ *
  */
 
-public class SOS {
+public class SOS implements CPU.TrapHandler {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    // These constants define the system calls this OS can currently handle
+    public static final int SYSCALL_EXIT = 0; /* exit the current program */
+    public static final int SYSCALL_OUTPUT = 1; /* outputs a number */
+    public static final int SYSCALL_GETPID = 2; /* get current process id */
+    public static final int SYSCALL_OPEN = 3; /* open a file */
+    public static final int SYSCALL_CLOSE = 4; /* close a file */
+    public static final int SYSCALL_READ = 5; /* read a block from a device */
+    public static final int SYSCALL_WRITE = 6; /* write a block to a device */
+    public static final int SYSCALL_FREAD = 7; /* read from a file */
+    public static final int SYSCALL_FWRITE = 8; /* write to a file */
+    public static final int SYSCALL_SEEK = 9; /* set a file's position */
+    public static final int SYSCALL_MKDIR = 10; /* create a directory */
+    public static final int SYSCALL_UNLINK = 11; /* remove a file */
+    public static final int SYSCALL_SHMAT = 12; /* attach shared memory */
+    public static final int SYSCALL_SHMDT = 13; /* detach shared memory */
+    public static final int SYSCALL_MSGSEND = 14; /* send to a message queue */
+    public static final int SYSCALL_MSGRECV = 15; /* receive from a message queue */
+    public static final int SYSCALL_SEMINIT = 16; /* set a semaphore's count */
+    public static final int SYSCALL_SEMWAIT = 17; /* decrement a semaphore */
+    public static final int SYSCALL_SEMPOST = 18; /* increment a semaphore */
+    public static final int SYSCALL_LOCK = 19; /* acquire a mutex */
+    public static final int SYSCALL_UNLOCK = 20; /* release a mutex */
+    public static final int SYSCALL_BRK = 21; /* set the end of the heap */
+    public static final int SYSCALL_SBRK = 22; /* grow or shrink the heap */
+    public static final int SYSCALL_MALLOC = 23; /* allocate heap memory */
+    public static final int SYSCALL_FREE = 24; /* release heap memory */
+
+    /**
+     * The names of the system calls (as used for their metrics)
+     **/
+    public static final String[] SYSCALL_NAMES = { "exit", "output", "getpid",
+            "open", "close", "read", "write", "fread", "fwrite", "seek",
+            "mkdir", "unlink", "shmat", "shmdt", "msgsend", "msgrecv",
+            "seminit", "semwait", "sempost", "lock", "unlock", "brk", "sbrk",
+            "malloc", "free" };
+
+    // Flags for SYSCALL_OPEN
+    public static final int OPEN_CREATE = 1; /* create the file if missing */
+
+    // Policies for allocating physical memory (see setMemoryPolicy)
+    public static final int MEM_FIRST_FIT = 0;
+    public static final int MEM_BUDDY = 1;
+
+    public static final String[] MEM_POLICY_NAMES = { "first-fit", "buddy" };
+
+    /**
+     * The number of words kept free between the top of a process's heap and
+     * its stack pointer
+     **/
+    public static final int HEAP_STACK_GAP = 16;
+
+    // These constants are pushed onto the stack as the result of a system call
+    public static final int SYSCALL_RET_SUCCESS = 0; /* no problem */
+    public static final int SYSCALL_RET_DNE = -1; /* device doesn't exist */
+    public static final int SYSCALL_RET_RANGE = -2; /* block or address out of range */
+    public static final int SYSCALL_RET_IO = -3; /* the device reported an error */
+    public static final int SYSCALL_RET_NOENT = FileSystem.ERR_NOENT; /* no such file */
+    public static final int SYSCALL_RET_NOSPC = FileSystem.ERR_NOSPC; /* file system full */
+    public static final int SYSCALL_RET_BADF = -6; /* not an open file descriptor */
+    public static final int SYSCALL_RET_EXIST = FileSystem.ERR_EXIST; /* file already exists */
+    public static final int SYSCALL_RET_NOTDIR = FileSystem.ERR_NOTDIR; /* path goes through a file */
+    public static final int SYSCALL_RET_INVAL = FileSystem.ERR_INVAL; /* bad argument */
+    public static final int SYSCALL_RET_NOTEMPTY = FileSystem.ERR_NOTEMPTY; /* directory not empty */
+    public static final int SYSCALL_RET_NOMEM = -11; /* not enough free RAM */
+    public static final int SYSCALL_RET_NOTOWNER = -12; /* mutex held by another process */
+
+    /**
+     * The default number of ticks a process may run before it is preempted
+     **/
+    public static final int DEFAULT_QUANTUM = 5000;
+
+    /**
+     * The number of ticks between flushes of dirty file system blocks
+     **/
+    public static final int FLUSH_INTERVAL = 50000;
+
+    /**
+     * The longest path a process may pass to a file system call
+     **/
+    public static final int MAX_PATH = 256;
+
+    /**
+     * The number of messages a queue holds before senders block, unless
+     * {@link #setMessageQueueCapacity} says otherwise
+     **/
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
     // ======================================================================
     // Member variables
     // ----------------------------------------------------------------------
@@ -22,7 +117,12 @@ public class SOS {
      * This flag causes the SOS to print lots of potentially helpful status
      * messages
      **/
-    public static final boolean m_verbose = false;
+    private boolean m_verbose = false;
+
+    /**
+     * Where program output and error messages are printed
+     **/
+    private PrintStream m_console = System.out;
 
     /**
      * The CPU the operating system is managing.
@@ -34,6 +134,139 @@ public class SOS {
      **/
     private RAM m_RAM = null;
 
+    /**
+     * The devices attached to the machine
+     **/
+    private Vector<DeviceInfo> m_devices = null;
+
+    /**
+     * All the processes that have been created and not yet exited
+     **/
+    private Vector<ProcessControlBlock> m_processes = null;
+
+    /**
+     * The processes that are ready to run, in the order they will be run.
+     * This is a lock-free queue so devices and other host threads can make
+     * processes ready without serializing against the CPU thread.
+     **/
+    private ConcurrentLinkedQueue<ProcessControlBlock> m_readyQueue = null;
+
+    /**
+     * The process currently running on the CPU (null if none)
+     **/
+    private ProcessControlBlock m_currProcess = null;
+
+    /**
+     * The id that will be given to the next process created
+     **/
+    private int m_nextProcessID = 1001;
+
+    /**
+     * The free regions of RAM, sorted by address (first fit only)
+     **/
+    private Vector<MemBlock> m_freeList = null;
+
+    /**
+     * The allocator for physical memory (null when using first fit)
+     **/
+    private BuddyAllocator m_buddy = null;
+
+    /**
+     * Where processes are swapped out to when RAM runs short (null to refuse
+     * to create processes that do not fit instead)
+     **/
+    private SwapStore m_swap = null;
+
+    /**
+     * The number of processes swapped out and back in
+     **/
+    private LongAdder m_swapOuts = new LongAdder();
+    private LongAdder m_swapIns = new LongAdder();
+
+    /**
+     * Moves the data of device requests to and from RAM (null to have the
+     * CPU copy it when the request is issued or completes)
+     **/
+    private DMAController m_dma = null;
+
+    /**
+     * The mounted file system (null if none)
+     **/
+    private FileSystem m_fs = null;
+
+    /**
+     * The virtual time at which dirty file system blocks are next flushed
+     **/
+    private long m_nextFlush = Long.MAX_VALUE;
+
+    /**
+     * The shared memory segments attached by at least one process, by key
+     **/
+    private HashMap<Integer, SharedSegment> m_segments = null;
+
+    /**
+     * Whether processes running the same program share one copy of its code
+     **/
+    private boolean m_shareCode = false;
+
+    /**
+     * The code of each program that running processes share, by program
+     **/
+    private HashMap<Program, SharedCode> m_sharedCode = new HashMap<Program, SharedCode>();
+
+    /**
+     * The template the processes of each program are made from, by program
+     **/
+    private HashMap<Program, ProcessTemplate> m_templates = new HashMap<Program, ProcessTemplate>();
+
+    /**
+     * The message queues that have been used, by key
+     **/
+    private HashMap<Integer, QueueInfo> m_queues = null;
+
+    /**
+     * The capacity given to newly created message queues
+     **/
+    private int m_queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * The semaphores that have been used, by key
+     **/
+    private HashMap<Integer, SemaphoreInfo> m_semaphores = null;
+
+    /**
+     * The mutexes that have been used, by key
+     **/
+    private HashMap<Integer, MutexInfo> m_mutexes = null;
+
+    /**
+     * The number of times each system call has been made (the last entry
+     * counts unknown system calls)
+     **/
+    private LongAdder[] m_syscallCounts = null;
+
+    /**
+     * The number of times a different process was put on the CPU
+     **/
+    private LongAdder m_contextSwitches = new LongAdder();
+
+    /**
+     * The process that was last put on the CPU
+     **/
+    private ProcessControlBlock m_lastProcess = null;
+
+    /**
+     * The heaps of the processes that have exited after using one, for
+     * their statistics
+     **/
+    private Vector<HeapAllocator> m_heapHistory = new Vector<HeapAllocator>();
+
+    /**
+     * The number of heap allocations made, and refused, by all processes
+     **/
+    private LongAdder m_heapMallocs = new LongAdder();
+    private LongAdder m_heapFailures = new LongAdder();
+
     /*
      * ======================================================================
      * Constructors & Debugging
@@ -47,23 +280,145 @@ public class SOS {
         // Init member list
         m_CPU = c;
         m_RAM = r;
+        m_devices = new Vector<DeviceInfo>();
+        m_processes = new Vector<ProcessControlBlock>();
+        m_readyQueue = new ConcurrentLinkedQueue<ProcessControlBlock>();
+        m_buddy = new BuddyAllocator(m_RAM.getSize());
+        m_segments = new HashMap<Integer, SharedSegment>();
+        m_queues = new HashMap<Integer, QueueInfo>();
+        m_semaphores = new HashMap<Integer, SemaphoreInfo>();
+        m_mutexes = new HashMap<Integer, MutexInfo>();
+        m_syscallCounts = new LongAdder[SYSCALL_NAMES.length + 1];
+        for (int i = 0; i < m_syscallCounts.length; i++) {
+            m_syscallCounts[i] = new LongAdder();
+        }
+
+        m_CPU.registerTrapHandler(this);
+        m_CPU.setClockInterval(DEFAULT_QUANTUM);
     }// SOS ctor
 
     /**
-     * Does a System.out.print as long as m_verbose is true
+     * setConsole
+     *
+     * @param console
+     *            where program output and error messages should be printed
+     *            (System.out by default)
+     */
+    public void setConsole(PrintStream console) {
+        m_console = console;
+    }
+
+    /**
+     * setVerbose
+     *
+     * @param verbose
+     *            true to print process switches, exits and I/O completions
+     */
+    public void setVerbose(boolean verbose) {
+        m_verbose = verbose;
+    }
+
+    /**
+     * registerMetrics
+     *
+     * adds the process, scheduling, device and system call counts to a
+     * metrics registry. Only devices registered so far are included.
+     */
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("os.processes", new LongSupplier() {
+            public long getAsLong() {
+                return m_processes.size();
+            }
+        });
+        metrics.gauge("os.ready_queue", new LongSupplier() {
+            public long getAsLong() {
+                return m_readyQueue.size();
+            }
+        });
+        metrics.gauge("os.context_switches", new LongSupplier() {
+            public long getAsLong() {
+                return m_contextSwitches.sum();
+            }
+        });
+        if (m_buddy != null) {
+            final BuddyAllocator buddy = m_buddy;
+            metrics.gauge("os.mem.free_words", new LongSupplier() {
+                public long getAsLong() {
+                    return buddy.getFreeWords();
+                }
+            });
+            metrics.gauge("os.mem.largest_free", new LongSupplier() {
+                public long getAsLong() {
+                    return buddy.getLargestFree();
+                }
+            });
+        }
+        if (m_swap != null) {
+            metrics.gauge("os.swap.outs", new LongSupplier() {
+                public long getAsLong() {
+                    return m_swapOuts.sum();
+                }
+            });
+            metrics.gauge("os.swap.ins", new LongSupplier() {
+                public long getAsLong() {
+                    return m_swapIns.sum();
+                }
+            });
+            metrics.gauge("os.swap.used_words", new LongSupplier() {
+                public long getAsLong() {
+                    return m_swap.getUsedWords();
+                }
+            });
+        }
+        metrics.gauge("os.heap.mallocs", new LongSupplier() {
+            public long getAsLong() {
+                return m_heapMallocs.sum();
+            }
+        });
+        metrics.gauge("os.heap.failures", new LongSupplier() {
+            public long getAsLong() {
+                return m_heapFailures.sum();
+            }
+        });
+        for (final DeviceInfo di : m_devices) {
+            String prefix = "dev." + di.device.getId() + ".";
+            metrics.gauge(prefix + "queue", new LongSupplier() {
+                public long getAsLong() {
+                    return di.scheduler.size();
+                }
+            });
+            metrics.gauge(prefix + "completed", new LongSupplier() {
+                public long getAsLong() {
+                    return di.stats.getCount();
+                }
+            });
+        }
+        for (int i = 0; i < m_syscallCounts.length; i++) {
+            final LongAdder count = m_syscallCounts[i];
+            metrics.gauge("os.syscall." + (i < SYSCALL_NAMES.length
+                    ? SYSCALL_NAMES[i] : "unknown"), new LongSupplier() {
+                public long getAsLong() {
+                    return count.sum();
+                }
+            });
+        }
+    }// registerMetrics
+
+    /**
+     * Does a print to the console as long as m_verbose is true
      **/
-    public static void debugPrint(String s) {
+    public void debugPrint(String s) {
         if (m_verbose) {
-            System.out.print(s);
+            m_console.print(s);
         }
     }
 
     /**
-     * Does a System.out.println as long as m_verbose is true
+     * Does a println to the console as long as m_verbose is true
      **/
-    public static void debugPrintln(String s) {
+    public void debugPrintln(String s) {
         if (m_verbose) {
-            System.out.println(s);
+            m_console.println(s);
         }
     }
 
@@ -73,66 +428,2057 @@ public class SOS {
      * ----------------------------------------------------------------------
      */
 
-    // None yet!
+    /**
+     * setMemoryPolicy
+     *
+     * chooses how physical memory is allocated. The buddy system (the
+     * default) allocates and frees in logarithmic time but rounds every
+     * region up to a power of two; first fit wastes nothing but scans a list
+     * of free regions that grows with the number of processes. Must be
+     * called before any memory is allocated.
+     *
+     * @param policy
+     *            MEM_FIRST_FIT or MEM_BUDDY
+     * @return 0 on success, -1 if memory is already in use
+     */
+    public int setMemoryPolicy(int policy) {
+        if (!m_processes.isEmpty() || !m_segments.isEmpty()) {
+            m_console.println("ERROR: the memory policy can only be set "
+                    + "before processes are created");
+            return -1;
+        }
+        if (policy == MEM_BUDDY) {
+            m_buddy = new BuddyAllocator(m_RAM.getSize());
+            m_freeList = null;
+        } else {
+            m_buddy = null;
+            m_freeList = new Vector<MemBlock>();
+            m_freeList.add(new MemBlock(0, m_RAM.getSize()));
+        }
+        return 0;
+    }// setMemoryPolicy
 
-    /*
-     * ======================================================================
-     * Device Management Methods
-     * ----------------------------------------------------------------------
+    /**
+     * getBuddyAllocator
+     *
+     * @return the buddy allocator, for its statistics, or null when using
+     *         first fit
+     */
+    public BuddyAllocator getBuddyAllocator() {
+        return m_buddy;
+    }// getBuddyAllocator
+
+    /**
+     * allocBlock
+     *
+     * allocates a region of RAM, from the buddy allocator or else from the
+     * first free region that is big enough (first fit)
+     *
+     * @param size
+     *            the number of words needed
+     * @return the address of the allocated region or -1 if there is no free
+     *         region big enough
+     */
+    private int allocBlock(int size) {
+        if (m_buddy != null) {
+            return m_buddy.alloc(size);
+        }
+        for (int i = 0; i < m_freeList.size(); i++) {
+            MemBlock mb = m_freeList.get(i);
+            if (mb.size >= size) {
+                int addr = mb.addr;
+                mb.addr += size;
+                mb.size -= size;
+                if (mb.size == 0) {
+                    m_freeList.remove(i);
+                }
+                return addr;
+            }
+        }
+        return -1;
+    }// allocBlock
+
+    /**
+     * freeBlock
+     *
+     * returns a region of RAM to the buddy allocator or else to the free
+     * list, merging it with any adjacent free regions
+     *
+     * @param addr
+     *            the start of the region
+     * @param size
+     *            the number of words in the region
      */
+    private void freeBlock(int addr, int size) {
+        if (m_buddy != null) {
+            m_buddy.free(addr, size);
+            return;
+        }
+        int i = 0;
+        while (i < m_freeList.size() && m_freeList.get(i).addr < addr) {
+            i++;
+        }
+        m_freeList.add(i, new MemBlock(addr, size));
 
-    // None yet!
+        // merge with the following block, then with the preceding one
+        if (i + 1 < m_freeList.size()) {
+            MemBlock next = m_freeList.get(i + 1);
+            if (addr + size == next.addr) {
+                m_freeList.get(i).size += next.size;
+                m_freeList.remove(i + 1);
+            }
+        }
+        if (i > 0) {
+            MemBlock prev = m_freeList.get(i - 1);
+            if (prev.addr + prev.size == addr) {
+                prev.size += m_freeList.get(i).size;
+                m_freeList.remove(i);
+            }
+        }
+    }// freeBlock
 
     /*
      * ======================================================================
-     * Process Management Methods
+     * Swapping Methods
      * ----------------------------------------------------------------------
      */
 
-    // None yet!
+    /**
+     * setSwapStore
+     *
+     * lets the SOS swap whole processes out when RAM runs short. A new
+     * process that does not fit, or a swapped out process that is next to
+     * run, is given memory by swapping out the ready processes that have
+     * been off the CPU longest. Processes that are running or blocked stay in
+     * RAM, since devices and other processes may still write to them.
+     *
+     * @param swap
+     *            the opened store to swap to, or null to stop swapping
+     */
+    public void setSwapStore(SwapStore swap) {
+        m_swap = swap;
+    }// setSwapStore
+
+    public SwapStore getSwapStore() {
+        return m_swap;
+    }
+
+    /**
+     * getSwappedCount
+     *
+     * @return the number of processes that are swapped out
+     */
+    public int getSwappedCount() {
+        int count = 0;
+        for (ProcessControlBlock pcb : m_processes) {
+            if (pcb.swapSlot >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }// getSwappedCount
+
+    /**
+     * setCodeSharing
+     *
+     * makes processes created from now on that run the same program share
+     * one read-only copy of its code, loaded when the first of them is
+     * created and freed when the last one exits. Each process gets a region
+     * of its own for its data, heap and stack, allocSize minus the length of
+     * the code long. The instruction marks and the loops the CPU has found in
+     * the code are shared as well, since they are kept by physical address.
+     *
+     * @param share
+     *            true to share code, false to give every process its own
+     *            copy (the default)
+     */
+    public void setCodeSharing(boolean share) {
+        m_shareCode = share;
+    }// setCodeSharing
+
+    /**
+     * getSharedCodeCount
+     *
+     * @return the number of programs whose code is loaded and shared
+     */
+    public int getSharedCodeCount() {
+        return m_sharedCode.size();
+    }// getSharedCodeCount
+
+    /**
+     * loadSharedCode
+     *
+     * @return the loaded code of the program, loading it if no running
+     *         process uses it yet, or null if there is no room for it
+     */
+    private SharedCode loadSharedCode(Program prog, int[] programExport) {
+        SharedCode code = m_sharedCode.get(prog);
+        if (code != null) {
+            return code;
+        }
+        int base = allocResident(programExport.length);
+        if (base < 0) {
+            return null;
+        }
+        m_RAM.writeBlock(base, programExport, 0, programExport.length);
+        m_CPU.markSuperinstructions(base, programExport);
+        m_CPU.forgetLoops(base, programExport.length);
+        code = new SharedCode(base, programExport.length);
+        m_sharedCode.put(prog, code);
+        debugPrintln("Loaded shared code at " + base);
+        return code;
+    }// loadSharedCode
+
+    /**
+     * releaseCode
+     *
+     * forgets that a process runs its program, and frees the program's
+     * shared code if no other process uses it
+     */
+    private void releaseCode(ProcessControlBlock pcb) {
+        pcb.program.callCount--;
+        SharedCode code = pcb.code;
+        if (code == null) {
+            return;
+        }
+        pcb.code = null;
+        if (--code.users == 0) {
+            freeBlock(code.base, code.size);
+            m_sharedCode.remove(pcb.program);
+        }
+    }// releaseCode
+
+    /**
+     * allocResident
+     *
+     * allocates a region of RAM, swapping out ready processes (the one that
+     * ran least recently first) until it fits if there is a swap store
+     *
+     * @param size
+     *            the number of words needed
+     * @return the address of the region or -1 if it does not fit
+     */
+    private int allocResident(int size) {
+        int addr = allocBlock(size);
+        while (addr < 0 && m_swap != null) {
+            ProcessControlBlock victim = null;
+            for (ProcessControlBlock pcb : m_readyQueue) {
+                if (pcb.swapSlot < 0
+                        && (victim == null || pcb.lastRun < victim.lastRun)) {
+                    victim = pcb;
+                }
+            }
+            if (victim == null || swapOut(victim) != 0) {
+                return -1;
+            }
+            addr = allocBlock(size);
+        }
+        return addr;
+    }// allocResident
+
+    /**
+     * swapOut
+     *
+     * copies the memory of a ready process to the swap store and frees it
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    private int swapOut(ProcessControlBlock pcb) {
+        int[] image = new int[pcb.size];
+        m_RAM.readBlock(pcb.base, image, 0, pcb.size);
+        long slot = m_swap.write(image);
+        if (slot < 0) {
+            m_console.println("ERROR: could not write process " + pcb.pid
+                    + " to the swap store");
+            return -1;
+        }
+        freeBlock(pcb.base, pcb.size);
+        pcb.swapSlot = slot;
+        m_CPU.addTicks(m_swap.getTransferTicks(pcb.size));
+        m_swapOuts.increment();
+        debugPrintln("Swapped out process " + pcb.pid);
+        return 0;
+    }// swapOut
+
+    /**
+     * swapIn
+     *
+     * brings a swapped out process back into RAM, wherever there is room,
+     * and moves its saved registers to the new region
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    private int swapIn(ProcessControlBlock pcb) {
+        int base = allocResident(pcb.size);
+        if (base < 0) {
+            return -1;
+        }
+        int[] image = new int[pcb.size];
+        if (m_swap.read(pcb.swapSlot, image) != 0) {
+            freeBlock(base, pcb.size);
+            return -1;
+        }
+        pcb.swapSlot = -1;
+
+        m_RAM.writeBlock(base, image, 0, pcb.size);
+        if (pcb.code == null) {
+            m_CPU.markSuperinstructions(base,
+                    Arrays.copyOf(image, pcb.codeSize));
+        }
+        m_CPU.forgetLoops(base, pcb.size);
+        int delta = base - pcb.base;
+        pcb.registers[CPU.BASE] += delta;
+        pcb.registers[CPU.LIM] += delta;
+        if (pcb.code == null) {
+            pcb.registers[CPU.PC] += delta;
+        }
+        pcb.registers[CPU.SP] += delta;
+        pcb.base = base;
+
+        m_CPU.addTicks(m_swap.getTransferTicks(pcb.size));
+        m_swapIns.increment();
+        debugPrintln("Swapped in process " + pcb.pid + " at " + base);
+        return 0;
+    }// swapIn
 
     /*
      * ======================================================================
-     * Program Management Methods
+     * Device Management Methods
      * ----------------------------------------------------------------------
      */
 
     /**
-     * Takes in a program and exports the program to an array of ints which 
-     * are copied into RAM. The Base and Limit are set, and the Stack pointer
-     * is set to the address of the Limit. 
-     * 
-     * @param prog      a program to be exported
-     * @param allocSize the amount of memory that the program will need
+     * registerDevice
+     *
+     * adds a new device to the list of devices managed by the OS. Requests
+     * for the device are serviced first come first served until
+     * {@link #setSchedulingPolicy} says otherwise.
+     *
+     * @param dev
+     *            the device driver
+     * @param id
+     *            the id to assign to this device
      */
-    public void createProcess(Program prog, int allocSize) {
-        int[] programExport = prog.export();
-        this.m_CPU.setBASE(4);
-        this.m_CPU.setLIM(this.m_CPU.getBASE() + allocSize);
+    public void registerDevice(BlockDevice dev, int id) {
+        dev.setId(id);
+        m_devices.add(new DeviceInfo(dev));
+    }// registerDevice
+
+    /**
+     * setSchedulingPolicy
+     *
+     * @param id
+     *            the id of a registered device
+     * @param policy
+     *            one of the policies defined in {@link DiskScheduler}
+     */
+    public void setSchedulingPolicy(int id, int policy) {
+        DeviceInfo di = findDevice(id);
+        if (di != null) {
+            di.scheduler.setPolicy(policy);
+        }
+    }// setSchedulingPolicy
+
+    /**
+     * getDeviceStats
+     *
+     * @param id
+     *            the id of a registered device
+     * @return the timing statistics of the requests the device has completed
+     *         (null if there is no such device)
+     */
+    public IOStats getDeviceStats(int id) {
+        DeviceInfo di = findDevice(id);
+        return di == null ? null : di.stats;
+    }// getDeviceStats
 
-        int address = this.m_CPU.getBASE();
-        for (int i = 0; i < programExport.length; ++i) {
-            this.m_RAM.write(address + i, programExport[i]);
+    /**
+     * findDevice
+     *
+     * @param id
+     *            the id of the device to look up
+     * @return the device with the given id or null if there is none
+     */
+    private DeviceInfo findDevice(int id) {
+        for (DeviceInfo di : m_devices) {
+            if (di.device.getId() == id) {
+                return di;
+            }
         }
+        return null;
+    }// findDevice
+
+    /**
+     * setDMAController
+     *
+     * has the data of device requests moved by a DMA controller, so the CPU
+     * can keep executing while it is copied. A read completes once the
+     * controller has moved the blocks into RAM; a write is given to the
+     * device once the controller has gathered the blocks from RAM.
+     *
+     * @param dma
+     *            the controller, or null to copy on the CPU
+     */
+    public void setDMAController(DMAController dma) {
+        m_dma = dma;
+    }
 
-        this.m_CPU.setSP(this.m_CPU.getLIM());
+    /**
+     * startDMA
+     *
+     * has the DMA controller move the data of a device request, one
+     * descriptor per block. The completion interrupt is handled by
+     * {@link #dmaComplete}.
+     *
+     * @param req
+     *            the device request
+     * @param toRAM
+     *            true to move the request's buffer into RAM, false to fill
+     *            it from RAM
+     */
+    private void startDMA(IORequest req, boolean toRAM) {
+        Vector<DMAController.Descriptor> list = new Vector<DMAController.Descriptor>();
+        int blockSize = req.buf.length / req.count;
+        for (int i = 0; i < req.count; i++) {
+            list.add(new DMAController.Descriptor(req.buf, i * blockSize,
+                    req.addr + i * blockSize, blockSize, toRAM));
+        }
+        IORequest transfer = new IORequest(req.op, DMAController.DEVICE_ID,
+                req.block, req.count, req.addr);
+        transfer.pid = req.pid;
+        transfer.origin = req;
+        m_dma.submit(transfer, list, m_CPU);
+    }// startDMA
 
-    }// createProcess
+    /**
+     * dmaComplete
+     *
+     * called when the DMA controller has moved the data of a device request:
+     * a write goes on to its device, a read is complete
+     *
+     * @param transfer
+     *            the finished DMA transfer
+     */
+    private void dmaComplete(IORequest transfer) {
+        IORequest req = transfer.origin;
+        if (transfer.status != 0) {
+            resumeProcess(req, SYSCALL_RET_IO);
+        } else if (req.op == IORequest.WRITE) {
+            DeviceInfo di = findDevice(req.devId);
+            di.scheduler.add(req);
+            startNextRequest(di);
+        } else {
+            resumeProcess(req, SYSCALL_RET_SUCCESS);
+        }
+    }// dmaComplete
+
+    /**
+     * startNextRequest
+     *
+     * if the device is idle, starts the request its scheduler picks next.
+     * Requests the device rejects are completed immediately with an error.
+     */
+    private void startNextRequest(DeviceInfo di) {
+        while (!di.device.isBusy() && !di.scheduler.isEmpty()) {
+            IORequest req = di.scheduler.next(di.device.getHeadPosition());
+            if (di.device.start(req, m_CPU.getTicks(), di.scheduler.getVia()) != 0) {
+                completeRequest(req, SYSCALL_RET_RANGE);
+            }
+        }
+    }// startNextRequest
 
     /*
      * ======================================================================
-     * Interrupt Handlers
+     * File System Management Methods
      * ----------------------------------------------------------------------
      */
 
-    // None yet!
+    /**
+     * mountFileSystem
+     *
+     * mounts the file system on a device, formatting the device first if it
+     * does not hold one yet. The device is used directly by the file system
+     * and should not also be registered for block I/O.
+     *
+     * @param dev
+     *            the device holding the file system
+     * @param cacheBlocks
+     *            the number of blocks the buffer cache can hold
+     * @param numInodes
+     *            the number of inodes to create if the device is formatted
+     * @return 0 is success; anything else is a failure code
+     */
+    public int mountFileSystem(BlockDevice dev, int cacheBlocks, int numInodes) {
+        FileSystem fs = new FileSystem(dev, cacheBlocks);
+        if (fs.mount() != 0) {
+            int err = fs.format(numInodes);
+            if (err != 0 || (err = fs.mount()) != 0) {
+                m_console.println("ERROR: could not format file system ("
+                        + err + ")");
+                return err;
+            }
+        }
+        m_fs = fs;
+        m_nextFlush = m_CPU.getTicks() + FLUSH_INTERVAL;
+        return 0;
+    }// mountFileSystem
+
+    /**
+     * getFileSystem
+     *
+     * @return the mounted file system or null
+     */
+    public FileSystem getFileSystem() {
+        return m_fs;
+    }
+
+    /**
+     * syncFileSystem
+     *
+     * writes the modified blocks of the file system back to its device,
+     * reporting any that could not be written (they are tried again next
+     * time)
+     */
+    private void syncFileSystem() {
+        int err = m_fs.sync();
+        if (err != 0) {
+            m_console.println("ERROR: could not write back the file system ("
+                    + err + ")");
+        }
+    }// syncFileSystem
+
+    /**
+     * chargeFileSystemIO
+     *
+     * advances the virtual clock by the time the buffer cache spent reading
+     * blocks on behalf of the current system call
+     */
+    private void chargeFileSystemIO() {
+        m_CPU.addTicks(m_fs.getCache().takeIoTicks());
+    }
+
+    /**
+     * readPath
+     *
+     * reads a zero-terminated string (one character per word) out of the
+     * memory of the current process
+     *
+     * @param addr
+     *            the process-relative address of the string
+     * @return the string or null if it runs outside the process
+     */
+    private String readPath(int addr) {
+        StringBuilder sb = new StringBuilder();
+        int physAddr = addr + m_CPU.getBASE();
+        for (int i = 0; i < MAX_PATH; i++) {
+            if (!m_CPU.checkAddress(physAddr + i)) {
+                return null;
+            }
+            int c = m_RAM.read(physAddr + i);
+            if (c == 0) {
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return null;
+    }// readPath
 
     /*
      * ======================================================================
-     * System Calls
+     * Process Management Methods
      * ----------------------------------------------------------------------
      */
 
-    // None yet!
+    /**
+     * getProcessCount
+     *
+     * @return the number of processes that have not exited yet
+     */
+    public int getProcessCount() {
+        return m_processes.size();
+    }
+
+    /**
+     * getCurrentProgram
+     *
+     * @return the program of the process on the CPU, or null if there is
+     *         none
+     */
+    public Program getCurrentProgram() {
+        return m_currProcess == null ? null : m_currProcess.program;
+    }
+
+    /**
+     * getCurrentProcessID
+     *
+     * @return the id of the process on the CPU, or -1 if there is none
+     */
+    public int getCurrentProcessID() {
+        return m_currProcess == null ? -1 : m_currProcess.pid;
+    }
+
+    /**
+     * findProcess
+     *
+     * @param pid
+     *            a process id
+     * @return the process with that id or null if it has exited
+     */
+    private ProcessControlBlock findProcess(int pid) {
+        for (ProcessControlBlock pcb : m_processes) {
+            if (pcb.pid == pid) {
+                return pcb;
+            }
+        }
+        return null;
+    }// findProcess
+
+    /**
+     * scheduleNewProcess
+     *
+     * Saves the registers of the running process (if any) and puts the next
+     * ready process on the CPU. If every process is blocked the CPU idles
+     * until an interrupt makes one ready; if there are no processes left the
+     * CPU is halted.
+     */
+    private void scheduleNewProcess() {
+        if (m_currProcess != null) {
+            m_currProcess.save(m_CPU);
+        }
+
+        while (true) {
+            while (m_readyQueue.isEmpty()) {
+                if (m_processes.isEmpty() || !m_CPU.idle()) {
+                    if (!m_processes.isEmpty()) {
+                        m_console.println("ERROR: every process is blocked");
+                    }
+                    if (m_fs != null) {
+                        syncFileSystem();
+                    }
+                    m_currProcess = null;
+                    m_CPU.halt();
+                    return;
+                }
+            }
+
+            // a swapped out process has to be brought back first
+            m_currProcess = m_readyQueue.poll();
+            if (m_currProcess.swapSlot < 0 || swapIn(m_currProcess) == 0) {
+                break;
+            }
+            m_console.println("ERROR: not enough memory to swap in process "
+                    + m_currProcess.pid);
+            removeCurrentProcess();
+        }
+
+        m_currProcess.lastRun = m_CPU.getTicks();
+        m_currProcess.restore(m_CPU);
+        if (m_currProcess != m_lastProcess) {
+            m_contextSwitches.increment();
+            m_lastProcess = m_currProcess;
+        }
+        debugPrintln("Switched to process " + m_currProcess.pid);
+    }// scheduleNewProcess
+
+    /**
+     * blockCurrProcess
+     *
+     * takes the running process off the CPU until the given request is
+     * complete. The caller must already have saved its registers.
+     */
+    private void blockCurrProcess(IORequest req) {
+        if (m_currProcess.blockedOn == req) {
+            m_currProcess = null;
+            scheduleNewProcess();
+        }
+    }// blockCurrProcess
+
+    /**
+     * waitCurrProcess
+     *
+     * takes the running process off the CPU until another process makes it
+     * ready again (e.g., by sending it a message)
+     */
+    private void waitCurrProcess() {
+        m_currProcess.save(m_CPU);
+        m_currProcess = null;
+        scheduleNewProcess();
+    }// waitCurrProcess
+
+    /**
+     * removeCurrentProcess
+     *
+     * releases the memory of the running process (including its share of
+     * any shared segments) and forgets about it
+     */
+    private void removeCurrentProcess() {
+        ProcessControlBlock pcb = m_currProcess;
+        m_currProcess = null;
+        removeProcess(pcb);
+    }// removeCurrentProcess
+
+    /**
+     * removeProcess
+     *
+     * releases the memory of a process that is not running or waiting for
+     * anything (including its share of any shared segments) and forgets
+     * about it
+     */
+    private void removeProcess(ProcessControlBlock pcb) {
+        while (!pcb.segments.isEmpty()) {
+            detachSegment(pcb, 0);
+        }
+        for (MutexInfo mi : m_mutexes.values()) {
+            if (mi.owner == pcb.pid) {
+                releaseMutex(mi);
+            }
+        }
+        if (pcb.swapSlot >= 0) {
+            m_swap.release(pcb.swapSlot, pcb.size);
+        } else {
+            freeBlock(pcb.base, pcb.size);
+        }
+        releaseCode(pcb);
+        m_processes.remove(pcb);
+        debugPrintln("Process " + pcb.pid + " exited");
+        if (pcb.heap != null) {
+            m_heapHistory.add(pcb.heap);
+            debugPrintln("  heap: " + pcb.heap);
+        }
+    }// removeProcess
+
+    /**
+     * wakeProcess
+     *
+     * pushes the result of a system call a process has been waiting for
+     * onto its stack and makes it ready to run again. A process with no room
+     * left on its stack for the result is ended instead.
+     *
+     * @return true if the process was woken, false if it was ended
+     */
+    private boolean wakeProcess(ProcessControlBlock pcb, int result) {
+        if (pcb.push(m_RAM, result) != 0) {
+            endStackFull(pcb);
+            return false;
+        }
+        m_readyQueue.add(pcb);
+        return true;
+    }// wakeProcess
+
+    /**
+     * endStackFull
+     *
+     * ends a waiting process whose stack has no room for the result of its
+     * system call
+     */
+    private void endStackFull(ProcessControlBlock pcb) {
+        m_console.println("ERROR: no room on the stack of process " + pcb.pid
+                + " for the result of its system call");
+        removeProcess(pcb);
+    }// endStackFull
+
+    /*
+     * ======================================================================
+     * Inter-Process Communication Methods
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * setMessageQueueCapacity
+     *
+     * sets the number of messages that queues created from now on can hold
+     * before senders block
+     *
+     * @param capacity
+     *            the number of messages (at least 1)
+     */
+    public void setMessageQueueCapacity(int capacity) {
+        m_queueCapacity = Math.max(1, capacity);
+    }// setMessageQueueCapacity
+
+    /**
+     * getMessageQueues
+     *
+     * @return the message queues that have been used, for their statistics
+     */
+    public Vector<MessageQueue> getMessageQueues() {
+        Vector<MessageQueue> queues = new Vector<MessageQueue>();
+        for (QueueInfo qi : m_queues.values()) {
+            queues.add(qi.queue);
+        }
+        return queues;
+    }// getMessageQueues
+
+    /**
+     * findQueue
+     *
+     * @return the queue with the given key, created empty on first use
+     */
+    private QueueInfo findQueue(int key) {
+        QueueInfo qi = m_queues.get(key);
+        if (qi == null) {
+            qi = new QueueInfo(new MessageQueue(key, m_queueCapacity));
+            m_queues.put(key, qi);
+        }
+        return qi;
+    }// findQueue
+
+    /**
+     * findSemaphore
+     *
+     * @return the semaphore with the given key, created with a count of
+     *         zero on first use
+     */
+    private SemaphoreInfo findSemaphore(int key) {
+        SemaphoreInfo si = m_semaphores.get(key);
+        if (si == null) {
+            si = new SemaphoreInfo();
+            m_semaphores.put(key, si);
+        }
+        return si;
+    }// findSemaphore
+
+    /**
+     * findMutex
+     *
+     * @return the mutex with the given key, created unlocked on first use
+     */
+    private MutexInfo findMutex(int key) {
+        MutexInfo mi = m_mutexes.get(key);
+        if (mi == null) {
+            mi = new MutexInfo();
+            m_mutexes.put(key, mi);
+        }
+        return mi;
+    }// findMutex
+
+    /**
+     * releaseMutex
+     *
+     * unlocks a mutex, handing it straight to the first waiting process (if
+     * any) so that it cannot be taken by a process that asked later. A
+     * waiting process with no room on its stack for the result is ended and
+     * the next one gets the mutex.
+     */
+    private void releaseMutex(MutexInfo mi) {
+        ProcessControlBlock next;
+        while ((next = mi.waiters.poll()) != null) {
+            if (wakeProcess(next, SYSCALL_RET_SUCCESS)) {
+                mi.owner = next.pid;
+                return;
+            }
+        }
+        mi.owner = -1;
+    }// releaseMutex
+
+    /**
+     * attachSegment
+     *
+     * maps a shared segment into a process after the end of its own memory,
+     * creating (and zeroing) the segment if no process has it attached
+     *
+     * @param pcb
+     *            the process attaching the segment
+     * @param key
+     *            the name of the segment
+     * @param size
+     *            the number of words wanted
+     * @return the process-relative address of the segment or a negative
+     *         SYSCALL_RET code
+     */
+    private int attachSegment(ProcessControlBlock pcb, int key, int size) {
+        int index = pcb.findSegment(key);
+        if (index >= 0) {
+            return pcb.segTable[index * 3];
+        }
+
+        SharedSegment seg = m_segments.get(key);
+        if (seg == null) {
+            if (size <= 0) {
+                return SYSCALL_RET_INVAL;
+            }
+            int base = allocBlock(size);
+            if (base < 0) {
+                return SYSCALL_RET_NOMEM;
+            }
+            seg = new SharedSegment(key, base, size);
+            m_RAM.fill(base, size, 0);
+            m_segments.put(key, seg);
+        } else if (size > seg.size) {
+            return SYSCALL_RET_INVAL;
+        }
+
+        seg.refCount++;
+        int virt = pcb.nextSegVirt;
+        pcb.nextSegVirt += seg.size;
+        pcb.segments.add(seg);
+        pcb.segTable = Arrays.copyOf(pcb.segTable, pcb.segTable.length + 3);
+        pcb.segTable[pcb.segTable.length - 3] = virt;
+        pcb.segTable[pcb.segTable.length - 2] = seg.base;
+        pcb.segTable[pcb.segTable.length - 1] = seg.size;
+        return virt;
+    }// attachSegment
+
+    /**
+     * detachSegment
+     *
+     * unmaps a shared segment from a process. The segment's memory is freed
+     * once no process has it attached.
+     *
+     * @param pcb
+     *            the process detaching the segment
+     * @param index
+     *            the position of the segment in the process's list
+     */
+    private void detachSegment(ProcessControlBlock pcb, int index) {
+        SharedSegment seg = pcb.segments.remove(index);
+        int[] table = new int[pcb.segTable.length - 3];
+        System.arraycopy(pcb.segTable, 0, table, 0, index * 3);
+        System.arraycopy(pcb.segTable, index * 3 + 3, table, index * 3,
+                table.length - index * 3);
+        pcb.segTable = table;
+
+        if (--seg.refCount == 0) {
+            freeBlock(seg.base, seg.size);
+            m_segments.remove(seg.key);
+        }
+    }// detachSegment
+
+    /*
+     * ======================================================================
+     * Program Management Methods
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * Takes in a program and exports the program to an array of ints which
+     * are copied into a newly allocated region of RAM. The Base and Limit
+     * are set to the bounds of that region, the PC to its start and the
+     * Stack pointer to the address of the Limit. If no process is running
+     * yet the new process is loaded onto the CPU, otherwise it joins the
+     * ready queue.
+     *
+     * When code is shared (see {@link #setCodeSharing}) only the rest of the
+     * process is allocated, and the Base is set that far below it that the
+     * process sees its code at address 0 as usual; the PC starts at the
+     * shared copy of the code.
+     *
+     * The first process of a program (and size) is built into a template
+     * that later ones are copied from, so creating many processes of the
+     * same program takes one bulk copy of its code into RAM and a copy of
+     * the template PCB each.
+     *
+     * @param prog      a program to be exported
+     * @param allocSize the amount of memory that the program will need
+     */
+    public void createProcess(Program prog, int allocSize) {
+        ProcessTemplate template = getTemplate(prog, allocSize);
+        int[] programExport = template.image;
+        SharedCode code = null;
+        int codeSize = 0;
+        if (template.shared) {
+            code = loadSharedCode(prog, programExport);
+            if (code == null) {
+                m_console.println("ERROR: not enough memory to load the code of a process of size "
+                        + allocSize);
+                return;
+            }
+            codeSize = code.size;
+        }
+        int size = template.pcb.size;
+        int base = size > 0 ? allocResident(size) : -1;
+        if (base < 0) {
+            m_console.println("ERROR: not enough memory to create a process of size "
+                    + allocSize);
+            if (code != null && code.users == 0) {
+                freeBlock(code.base, code.size);
+                m_sharedCode.remove(prog);
+            }
+            return;
+        }
+
+        if (code == null) {
+            m_RAM.writeBlock(base, programExport, 0, programExport.length);
+            if (template.marks != null) {
+                m_CPU.markSuperinstructions(base, template.marks);
+            }
+            m_CPU.forgetLoops(base, programExport.length);
+        } else {
+            m_CPU.forgetLoops(base, size);
+            code.users++;
+        }
+
+        ProcessControlBlock pcb = template.pcb.copy(m_nextProcessID++, base);
+        if (code != null) {
+            pcb.registers[CPU.PC] = code.base;
+        }
+        pcb.code = code;
+        pcb.lastRun = m_CPU.getTicks();
+        m_processes.add(pcb);
+        prog.callCount++;
+
+        if (m_currProcess == null) {
+            m_currProcess = pcb;
+            pcb.restore(m_CPU);
+        } else {
+            m_readyQueue.add(pcb);
+        }
+        debugPrintln("Created process " + pcb.pid + " at " + base);
+
+    }// createProcess
+
+    /**
+     * getTemplate
+     *
+     * @return the template for processes of the program and size, building
+     *         a new one if the last one was for another size, the program
+     *         has been loaded again or the code sharing or superinstructions
+     *         have changed since
+     */
+    private ProcessTemplate getTemplate(Program prog, int allocSize) {
+        int[] image = prog.export();
+        ProcessTemplate template = m_templates.get(prog);
+        if (template != null && template.image == image
+                && template.allocSize == allocSize
+                && template.shared == m_shareCode
+                && template.fusion == m_CPU.getFusion()) {
+            return template;
+        }
+
+        template = new ProcessTemplate();
+        template.image = image;
+        template.allocSize = allocSize;
+        template.shared = m_shareCode;
+        template.fusion = m_CPU.getFusion();
+        if (template.fusion != 0) {
+            template.marks = Superinstructions.scan(image, template.fusion);
+        }
+
+        // a process whose region starts at address 0
+        int codeSize = m_shareCode ? image.length : 0;
+        ProcessControlBlock pcb = new ProcessControlBlock(0);
+        pcb.base = 0;
+        pcb.size = allocSize - codeSize;
+        pcb.registers[CPU.BASE] = -codeSize;
+        pcb.registers[CPU.LIM] = pcb.size - 1;
+        pcb.registers[CPU.PC] = 0;
+        pcb.registers[CPU.SP] = pcb.registers[CPU.LIM];
+        pcb.nextSegVirt = allocSize;
+        pcb.codeSize = image.length;
+        pcb.program = prog;
+        template.pcb = pcb;
+        m_templates.put(prog, template);
+        return template;
+    }// getTemplate
+
+    /*
+     * ======================================================================
+     * Interrupt Handlers
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * interruptIOComplete
+     *
+     * Called when a device request finishes. The device is given its next
+     * request, and the process that issued this one gets the result.
+     *
+     * @param req
+     *            the finished request
+     */
+    public void interruptIOComplete(IORequest req) {
+        if (req.devId == DMAController.DEVICE_ID) {
+            dmaComplete(req);
+            return;
+        }
+
+        DeviceInfo di = findDevice(req.devId);
+        di.device.finish();
+        di.stats.record(req);
+        debugPrintln("I/O complete: dev " + req.devId + " block " + req.block
+                + " at tick " + m_CPU.getTicks());
+
+        completeRequest(req, req.status == 0 ? SYSCALL_RET_SUCCESS
+                : SYSCALL_RET_IO);
+        startNextRequest(di);
+    }// interruptIOComplete
+
+    /**
+     * completeRequest
+     *
+     * moves the blocks of a successful read into the memory of the process
+     * that issued it in one transfer (or has the DMA controller do so), then
+     * gives the process the result
+     *
+     * @param req
+     *            the finished request
+     * @param result
+     *            the system call result to push
+     */
+    private void completeRequest(IORequest req, int result) {
+        if (findProcess(req.pid) == null) {
+            return;
+        }
+        if (req.op == IORequest.READ && result == SYSCALL_RET_SUCCESS) {
+            if (m_dma != null) {
+                startDMA(req, true);
+                return;
+            }
+            m_RAM.writeBlock(req.addr, req.buf, 0, req.buf.length);
+        }
+        resumeProcess(req, result);
+    }// completeRequest
+
+    /**
+     * resumeProcess
+     *
+     * pushes the result of a request onto the stack of the process that
+     * issued it and makes it ready to run again. A request that fails as it
+     * is issued completes while its process is still running, so the result
+     * goes onto the CPU's stack and the process simply carries on.
+     *
+     * @param req
+     *            the finished request
+     * @param result
+     *            the system call result to push
+     */
+    private void resumeProcess(IORequest req, int result) {
+        ProcessControlBlock pcb = findProcess(req.pid);
+        if (pcb == null) {
+            return;
+        }
+        pcb.blockedOn = null;
+        if (pcb == m_currProcess) {
+            m_CPU.push(result);
+            return;
+        }
+        wakeProcess(pcb, result);
+    }// resumeProcess
+
+    /**
+     * interruptClock
+     *
+     * Preempts the running process when its quantum has expired, as long as
+     * another process is waiting to run.
+     */
+    public void interruptClock() {
+        if (m_fs != null && m_CPU.getTicks() >= m_nextFlush) {
+            syncFileSystem();
+            m_nextFlush = m_CPU.getTicks() + FLUSH_INTERVAL;
+        }
+        if (m_currProcess != null && !m_readyQueue.isEmpty()) {
+            m_readyQueue.add(m_currProcess);
+            scheduleNewProcess();
+        }
+    }// interruptClock
+
+    /*
+     * ======================================================================
+     * System Calls
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * systemCall
+     *
+     * Pops the system call number off the stack of the current process and
+     * dispatches to the matching handler.
+     */
+    public void systemCall() {
+        ProcessControlBlock caller = m_currProcess;
+        int syscall = m_CPU.pop();
+        m_syscallCounts[syscall >= 0 && syscall < SYSCALL_NAMES.length
+                ? syscall : SYSCALL_NAMES.length].increment();
+        switch (syscall) {
+        case SYSCALL_EXIT:
+            syscallExit();
+            break;
+        case SYSCALL_OUTPUT:
+            syscallOutput();
+            break;
+        case SYSCALL_GETPID:
+            syscallGetPID();
+            break;
+        case SYSCALL_READ:
+            syscallBlockIO(IORequest.READ);
+            break;
+        case SYSCALL_WRITE:
+            syscallBlockIO(IORequest.WRITE);
+            break;
+        case SYSCALL_SHMAT:
+            syscallShmAttach();
+            break;
+        case SYSCALL_SHMDT:
+            syscallShmDetach();
+            break;
+        case SYSCALL_MSGSEND:
+            syscallMsgSend();
+            break;
+        case SYSCALL_MSGRECV:
+            syscallMsgRecv();
+            break;
+        case SYSCALL_SEMINIT:
+        case SYSCALL_SEMWAIT:
+        case SYSCALL_SEMPOST:
+            syscallSemaphore(syscall);
+            break;
+        case SYSCALL_LOCK:
+        case SYSCALL_UNLOCK:
+            syscallMutex(syscall);
+            break;
+        case SYSCALL_BRK:
+        case SYSCALL_SBRK:
+            syscallBreak(syscall);
+            break;
+        case SYSCALL_MALLOC:
+            syscallMalloc();
+            break;
+        case SYSCALL_FREE:
+            syscallFree();
+            break;
+        case SYSCALL_OPEN:
+        case SYSCALL_CLOSE:
+        case SYSCALL_FREAD:
+        case SYSCALL_FWRITE:
+        case SYSCALL_SEEK:
+        case SYSCALL_MKDIR:
+        case SYSCALL_UNLINK:
+            if (m_fs == null) {
+                m_console.println("ERROR: no file system is mounted");
+                syscallExit();
+                break;
+            }
+            syscallFile(syscall);
+            chargeFileSystemIO();
+            break;
+        default:
+            m_console.println("ERROR: unknown system call " + syscall);
+            syscallExit();
+            break;
+        }// switch
+
+        // the arguments or results went outside the caller's stack
+        if (m_CPU.takeStackFault()) {
+            m_console.println("ERROR: system call " + syscall
+                    + " went past the end of the stack of process "
+                    + caller.pid);
+            if (m_currProcess == caller) {
+                syscallExit();
+            }
+        }
+    }// systemCall
+
+    /**
+     * syscallExit
+     *
+     * ends the current program and runs the next one
+     */
+    private void syscallExit() {
+        removeCurrentProcess();
+        scheduleNewProcess();
+    }// syscallExit
+
+    /**
+     * syscallOutput
+     *
+     * pops a value off the stack and prints it to the console
+     */
+    private void syscallOutput() {
+        m_console.println("OUTPUT: " + m_CPU.pop());
+    }// syscallOutput
+
+    /**
+     * syscallGetPID
+     *
+     * pushes the id of the current process
+     */
+    private void syscallGetPID() {
+        m_CPU.push(m_currProcess.pid);
+    }// syscallGetPID
+
+    /**
+     * syscallBlockIO
+     *
+     * Reads or writes a single block. The stack holds (from the top) the
+     * process-relative RAM address, the block number and the device id. The
+     * request is queued on the device and the calling process is blocked
+     * until the completion interrupt pushes the result.
+     *
+     * @param op
+     *            IORequest.READ or IORequest.WRITE
+     */
+    private void syscallBlockIO(int op) {
+        int addr = m_CPU.pop();
+        int block = m_CPU.pop();
+        int devId = m_CPU.pop();
+
+        DeviceInfo di = findDevice(devId);
+        if (di == null) {
+            m_CPU.push(SYSCALL_RET_DNE);
+            return;
+        }
+
+        int physAddr = addr + m_CPU.getBASE();
+        int len = di.device.getBlockSize();
+        if (!m_CPU.checkAddress(physAddr)
+                || !m_CPU.checkAddress(physAddr + len - 1)) {
+            m_CPU.push(SYSCALL_RET_RANGE);
+            return;
+        }
+
+        IORequest req = new IORequest(op, devId, block, 1, physAddr);
+        req.pid = m_currProcess.pid;
+        req.issueTick = m_CPU.getTicks();
+        req.buf = new int[len];
+        if (op == IORequest.WRITE && m_dma == null) {
+            m_RAM.readBlock(physAddr, req.buf, 0, len);
+        }
+
+        // a request that fails immediately is completed before it returns,
+        // leaving the process running with the error on its stack
+        m_currProcess.blockedOn = req;
+        m_currProcess.save(m_CPU);
+        if (op == IORequest.WRITE && m_dma != null) {
+            startDMA(req, false);
+        } else {
+            di.scheduler.add(req);
+            startNextRequest(di);
+        }
+        blockCurrProcess(req);
+    }// syscallBlockIO
+
+    /**
+     * syscallShmAttach
+     *
+     * Attaches the shared memory segment named by a key. The stack holds
+     * (from the top) the size wanted and the key. The segment is created if
+     * no process has it attached; otherwise the size may not exceed that of
+     * the existing segment. The process-relative address of the segment is
+     * pushed, or a negative SYSCALL_RET code on failure. LOAD and SAVE at
+     * that address reach the same RAM in every process attached to it.
+     */
+    private void syscallShmAttach() {
+        int size = m_CPU.pop();
+        int key = m_CPU.pop();
+        int result = attachSegment(m_currProcess, key, size);
+        m_CPU.setSegmentTable(m_currProcess.segTable);
+        m_CPU.push(result);
+    }// syscallShmAttach
+
+    /**
+     * syscallShmDetach
+     *
+     * Detaches the shared memory segment whose key is on the stack and
+     * pushes the result.
+     */
+    private void syscallShmDetach() {
+        int key = m_CPU.pop();
+        int index = m_currProcess.findSegment(key);
+        if (index < 0) {
+            m_CPU.push(SYSCALL_RET_NOENT);
+            return;
+        }
+        detachSegment(m_currProcess, index);
+        m_CPU.setSegmentTable(m_currProcess.segTable);
+        m_CPU.push(SYSCALL_RET_SUCCESS);
+    }// syscallShmDetach
+
+    /**
+     * getHeap
+     *
+     * @return the heap of the running process, created on first use just
+     *         above its code
+     */
+    private HeapAllocator getHeap() {
+        if (m_currProcess.heap == null) {
+            m_currProcess.heap = new HeapAllocator(m_currProcess.codeSize);
+        }
+        return m_currProcess.heap;
+    }// getHeap
+
+    /**
+     * maxBreak
+     *
+     * @return the highest process-relative address the heap of the running
+     *         process may currently reach without running into its stack
+     */
+    private int maxBreak() {
+        return m_CPU.getSP() - m_CPU.getBASE() - HEAP_STACK_GAP;
+    }// maxBreak
+
+    /**
+     * syscallBreak
+     *
+     * Moves the end of the heap of the running process. For BRK the stack
+     * holds the new end and SUCCESS is pushed; for SBRK it holds the number
+     * of words to add (or, if negative, remove) and the old end is pushed.
+     * Words added to the heap are zeroed. The heap may not shrink below its
+     * start or below a block handed out by MALLOC (INVAL), nor grow to
+     * within {@link #HEAP_STACK_GAP} words of the stack (NOMEM).
+     */
+    private void syscallBreak(int syscall) {
+        int arg = m_CPU.pop();
+        HeapAllocator heap = getHeap();
+        int oldBrk = heap.getBreak();
+        long newBrk = syscall == SYSCALL_BRK ? arg : (long) oldBrk + arg;
+
+        if (newBrk > maxBreak()) {
+            m_CPU.push(SYSCALL_RET_NOMEM);
+            return;
+        }
+        if (newBrk < heap.getStart() || !heap.setBreak((int) newBrk)) {
+            m_CPU.push(SYSCALL_RET_INVAL);
+            return;
+        }
+        if (newBrk > oldBrk) {
+            m_RAM.fill(m_CPU.getBASE() + oldBrk, (int) newBrk - oldBrk, 0);
+        }
+        m_CPU.push(syscall == SYSCALL_BRK ? SYSCALL_RET_SUCCESS : oldBrk);
+    }// syscallBreak
+
+    /**
+     * syscallMalloc
+     *
+     * Allocates a block of heap memory whose size in words is on the stack
+     * and pushes its process-relative address, or INVAL for a size below 1
+     * and NOMEM if the heap cannot grow enough. The block is not zeroed.
+     */
+    private void syscallMalloc() {
+        int size = m_CPU.pop();
+        if (size <= 0) {
+            m_CPU.push(SYSCALL_RET_INVAL);
+            return;
+        }
+        int addr = getHeap().malloc(size, maxBreak());
+        if (addr < 0) {
+            m_heapFailures.increment();
+            m_CPU.push(SYSCALL_RET_NOMEM);
+            return;
+        }
+        m_heapMallocs.increment();
+        m_CPU.push(addr);
+    }// syscallMalloc
+
+    /**
+     * syscallFree
+     *
+     * Releases the heap block whose address is on the stack and pushes the
+     * result (INVAL if it is not a block returned by MALLOC).
+     */
+    private void syscallFree() {
+        int addr = m_CPU.pop();
+        m_CPU.push(getHeap().free(addr) ? SYSCALL_RET_SUCCESS
+                : SYSCALL_RET_INVAL);
+    }// syscallFree
+
+    /**
+     * getHeapHistory
+     *
+     * @return the heaps of the processes that used one and have exited, for
+     *         their allocation and fragmentation statistics
+     */
+    public Vector<HeapAllocator> getHeapHistory() {
+        return m_heapHistory;
+    }// getHeapHistory
+
+    /**
+     * syscallMsgSend
+     *
+     * Sends a message. The stack holds (from the top) the value and the
+     * queue key. A receiver that is already waiting gets the value directly;
+     * otherwise it is queued. If the queue is full the sender blocks until a
+     * receiver makes room. The result is pushed when the message has been
+     * accepted.
+     */
+    private void syscallMsgSend() {
+        int value = m_CPU.pop();
+        int key = m_CPU.pop();
+        QueueInfo qi = findQueue(key);
+        long now = m_CPU.getTicks();
+
+        // a receiver that has no room for the message is ended and the
+        // message goes to the next one
+        ProcessControlBlock receiver;
+        while ((receiver = qi.receivers.poll()) != null) {
+            if (receiver.push(m_RAM, value) != 0) {
+                endStackFull(receiver);
+            } else if (wakeProcess(receiver, SYSCALL_RET_SUCCESS)) {
+                qi.queue.put(value, now);
+                qi.queue.take(now);
+                m_CPU.push(SYSCALL_RET_SUCCESS);
+                return;
+            }
+        }
+
+        if (qi.queue.isFull()) {
+            m_currProcess.pendingMsg = value;
+            qi.senders.add(m_currProcess);
+            waitCurrProcess();
+            return;
+        }
+        qi.queue.put(value, now);
+        m_CPU.push(SYSCALL_RET_SUCCESS);
+    }// syscallMsgSend
+
+    /**
+     * syscallMsgRecv
+     *
+     * Receives the oldest message from the queue whose key is on the stack,
+     * blocking until one is sent if the queue is empty. The message is
+     * pushed followed by the result, so the result is on top.
+     */
+    private void syscallMsgRecv() {
+        int key = m_CPU.pop();
+        QueueInfo qi = findQueue(key);
+        long now = m_CPU.getTicks();
+
+        if (qi.queue.isEmpty()) {
+            qi.receivers.add(m_currProcess);
+            waitCurrProcess();
+            return;
+        }
+
+        m_CPU.push(qi.queue.take(now));
+        m_CPU.push(SYSCALL_RET_SUCCESS);
+
+        // there is room now for the first blocked sender's message, unless
+        // it has no room for the result and is ended
+        ProcessControlBlock sender;
+        while ((sender = qi.senders.poll()) != null) {
+            if (wakeProcess(sender, SYSCALL_RET_SUCCESS)) {
+                qi.queue.put(sender.pendingMsg, now);
+                break;
+            }
+        }
+    }// syscallMsgRecv
+
+    /**
+     * syscallSemaphore
+     *
+     * Handles the counting semaphore calls. The arguments are pushed by the
+     * process in the order listed and the result is pushed back:
+     * <ul>
+     * <li>SEMINIT (key, count): 0, or INVAL if processes are waiting</li>
+     * <li>SEMWAIT (key): 0 once the count could be decremented</li>
+     * <li>SEMPOST (key): 0</li>
+     * </ul>
+     * A process that waits on a semaphore whose count is zero blocks until
+     * another process posts to it; waiters are woken in the order they
+     * arrived.
+     *
+     * @param syscall
+     *            which call to perform
+     */
+    private void syscallSemaphore(int syscall) {
+        int result = SYSCALL_RET_SUCCESS;
+        switch (syscall) {
+        case SYSCALL_SEMINIT: {
+            int count = m_CPU.pop();
+            SemaphoreInfo si = findSemaphore(m_CPU.pop());
+            if (count < 0 || !si.waiters.isEmpty()) {
+                result = SYSCALL_RET_INVAL;
+            } else {
+                si.count = count;
+            }
+            break;
+        }
+        case SYSCALL_SEMWAIT: {
+            SemaphoreInfo si = findSemaphore(m_CPU.pop());
+            if (si.count == 0) {
+                si.waiters.add(m_currProcess);
+                waitCurrProcess();
+                return;
+            }
+            si.count--;
+            break;
+        }
+        default: { // SYSCALL_SEMPOST
+            SemaphoreInfo si = findSemaphore(m_CPU.pop());
+            ProcessControlBlock waiter;
+            do {
+                waiter = si.waiters.poll();
+            } while (waiter != null
+                    && !wakeProcess(waiter, SYSCALL_RET_SUCCESS));
+            if (waiter == null) {
+                si.count++;
+            }
+            break;
+        }
+        }// switch
+
+        m_CPU.push(result);
+    }// syscallSemaphore
+
+    /**
+     * syscallMutex
+     *
+     * Handles the mutex calls, each of which takes the key of the mutex:
+     * <ul>
+     * <li>LOCK: 0 once the process owns the mutex, or INVAL if it already
+     * does</li>
+     * <li>UNLOCK: 0, or NOTOWNER if the process does not own the mutex</li>
+     * </ul>
+     * A process that locks a mutex owned by another process blocks until it
+     * is handed the mutex. A mutex still held when its owner exits is
+     * released.
+     *
+     * @param syscall
+     *            which call to perform
+     */
+    private void syscallMutex(int syscall) {
+        MutexInfo mi = findMutex(m_CPU.pop());
+        int pid = m_currProcess.pid;
+        int result = SYSCALL_RET_SUCCESS;
+        if (syscall == SYSCALL_LOCK) {
+            if (mi.owner == -1) {
+                mi.owner = pid;
+            } else if (mi.owner == pid) {
+                result = SYSCALL_RET_INVAL;
+            } else {
+                mi.waiters.add(m_currProcess);
+                waitCurrProcess();
+                return;
+            }
+        } else if (mi.owner != pid) {
+            result = SYSCALL_RET_NOTOWNER;
+        } else {
+            releaseMutex(mi);
+        }
+        m_CPU.push(result);
+    }// syscallMutex
+
+    /**
+     * syscallFile
+     *
+     * Handles the file system calls. The arguments are pushed by the process
+     * in the order listed and the result is pushed back:
+     * <ul>
+     * <li>OPEN (path address, flags): a file descriptor</li>
+     * <li>CLOSE (fd): 0</li>
+     * <li>FREAD (fd, address, length): the number of words read</li>
+     * <li>FWRITE (fd, address, length): the number of words written</li>
+     * <li>SEEK (fd, offset): 0</li>
+     * <li>MKDIR (path address): 0</li>
+     * <li>UNLINK (path address): 0</li>
+     * </ul>
+     * Paths are zero-terminated with one character per word. Any failure
+     * pushes a negative SYSCALL_RET code instead.
+     *
+     * @param syscall
+     *            which call to perform
+     */
+    private void syscallFile(int syscall) {
+        int result;
+        switch (syscall) {
+        case SYSCALL_OPEN: {
+            int flags = m_CPU.pop();
+            String path = readPath(m_CPU.pop());
+            if (path == null) {
+                result = SYSCALL_RET_RANGE;
+                break;
+            }
+            int ino = m_fs.lookup(path);
+            if (ino == SYSCALL_RET_NOENT && (flags & OPEN_CREATE) != 0) {
+                ino = m_fs.create(path, FileSystem.TYPE_FILE);
+            }
+            if (ino >= 0 && m_fs.getType(ino) != FileSystem.TYPE_FILE) {
+                ino = SYSCALL_RET_INVAL;
+            }
+            result = ino < 0 ? ino : m_currProcess.openFile(ino);
+            break;
+        }
+        case SYSCALL_CLOSE: {
+            int fd = m_CPU.pop();
+            result = m_currProcess.closeFile(fd) ? SYSCALL_RET_SUCCESS
+                    : SYSCALL_RET_BADF;
+            break;
+        }
+        case SYSCALL_FREAD:
+        case SYSCALL_FWRITE: {
+            int len = m_CPU.pop();
+            int physAddr = m_CPU.pop() + m_CPU.getBASE();
+            OpenFile of = m_currProcess.getFile(m_CPU.pop());
+            if (of == null) {
+                result = SYSCALL_RET_BADF;
+                break;
+            }
+            if (len < 0 || !m_CPU.checkAddress(physAddr)
+                    || (len > 0 && !m_CPU.checkAddress(physAddr + len - 1))) {
+                result = SYSCALL_RET_RANGE;
+                break;
+            }
+            int[] buf = new int[len];
+            if (syscall == SYSCALL_FREAD) {
+                result = m_fs.read(of.inode, of.offset, buf, 0, len);
+                if (result > 0) {
+                    m_RAM.writeBlock(physAddr, buf, 0, result);
+                }
+            } else {
+                m_RAM.readBlock(physAddr, buf, 0, len);
+                result = m_fs.write(of.inode, of.offset, buf, 0, len);
+            }
+            if (result > 0) {
+                of.offset += result;
+            }
+            break;
+        }
+        case SYSCALL_SEEK: {
+            int offset = m_CPU.pop();
+            OpenFile of = m_currProcess.getFile(m_CPU.pop());
+            if (of == null) {
+                result = SYSCALL_RET_BADF;
+            } else if (offset < 0) {
+                result = SYSCALL_RET_INVAL;
+            } else {
+                of.offset = offset;
+                result = SYSCALL_RET_SUCCESS;
+            }
+            break;
+        }
+        default: { // SYSCALL_MKDIR and SYSCALL_UNLINK
+            String path = readPath(m_CPU.pop());
+            if (path == null) {
+                result = SYSCALL_RET_RANGE;
+            } else if (syscall == SYSCALL_MKDIR) {
+                int ino = m_fs.create(path, FileSystem.TYPE_DIR);
+                result = ino < 0 ? ino : SYSCALL_RET_SUCCESS;
+            } else {
+                result = m_fs.unlink(path);
+            }
+            break;
+        }
+        }// switch
+
+        m_CPU.push(result);
+    }// syscallFile
+
+    /*
+     * ======================================================================
+     * Nested Classes
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * ProcessControlBlock
+     *
+     * Holds everything the OS needs to know about a process that is not
+     * currently on the CPU.
+     */
+    private class ProcessControlBlock {
+        /** a unique id for this process */
+        int pid;
+
+        /** the register values of the process while it is not running */
+        int[] registers = new int[CPU.NUMREG];
+
+        /**
+         * the start of the region of RAM allocated to the process (after
+         * its code if the code is shared)
+         */
+        int base;
+
+        /** the number of words allocated to the process */
+        int size;
+
+        /** the program the process runs */
+        Program program;
+
+        /** the code the process shares (null if it has a copy of its own) */
+        SharedCode code = null;
+
+        /** the request the process is waiting for (null if not blocked) */
+        IORequest blockedOn = null;
+
+        /** the open files of the process, indexed by file descriptor */
+        Vector<OpenFile> files = new Vector<OpenFile>();
+
+        /** the shared segments attached by the process */
+        Vector<SharedSegment> segments = new Vector<SharedSegment>();
+
+        /**
+         * where each attached segment is mapped, as (process-relative
+         * address, physical address, size) triples in the same order as
+         * segments
+         */
+        int[] segTable = new int[0];
+
+        /** the process-relative address the next segment is attached at */
+        int nextSegVirt;
+
+        /** the message a blocked sender is waiting to put in a full queue */
+        int pendingMsg;
+
+        /** the number of words of code at the start of the region */
+        int codeSize;
+
+        /** the heap above the code (null until the process uses it) */
+        HeapAllocator heap = null;
+
+        /** where the process is in the swap store (-1 while in RAM) */
+        long swapSlot = -1;
+
+        /** the virtual time the process was last put on the CPU */
+        long lastRun = 0;
+
+        ProcessControlBlock(int pid) {
+            this.pid = pid;
+        }
+
+        /**
+         * openFile
+         *
+         * @return a new file descriptor for the inode
+         */
+        int openFile(int inode) {
+            int fd = files.indexOf(null);
+            if (fd < 0) {
+                fd = files.size();
+                files.add(null);
+            }
+            files.set(fd, new OpenFile(inode));
+            return fd;
+        }
+
+        /**
+         * getFile
+         *
+         * @return the open file with the given descriptor or null
+         */
+        OpenFile getFile(int fd) {
+            if (fd < 0 || fd >= files.size()) {
+                return null;
+            }
+            return files.get(fd);
+        }
+
+        /**
+         * closeFile
+         *
+         * @return false if the descriptor was not open
+         */
+        boolean closeFile(int fd) {
+            if (getFile(fd) == null) {
+                return false;
+            }
+            files.set(fd, null);
+            return true;
+        }
+
+        /**
+         * copy
+         *
+         * @return a new process laid out like this one (a template whose
+         *         region starts at address 0) but with its region starting
+         *         at base
+         */
+        ProcessControlBlock copy(int pid, int base) {
+            ProcessControlBlock pcb = new ProcessControlBlock(pid);
+            System.arraycopy(registers, 0, pcb.registers, 0, CPU.NUMREG);
+            pcb.registers[CPU.BASE] += base;
+            pcb.registers[CPU.LIM] += base;
+            pcb.registers[CPU.PC] += base;
+            pcb.registers[CPU.SP] += base;
+            pcb.base = base;
+            pcb.size = size;
+            pcb.nextSegVirt = nextSegVirt;
+            pcb.codeSize = codeSize;
+            pcb.program = program;
+            return pcb;
+        }
+
+        /**
+         * save
+         *
+         * copies the registers of the CPU into this PCB
+         */
+        void save(CPU cpu) {
+            System.arraycopy(cpu.getRegisters(), 0, registers, 0, CPU.NUMREG);
+        }
+
+        /**
+         * restore
+         *
+         * loads the registers saved in this PCB into the CPU
+         */
+        void restore(CPU cpu) {
+            System.arraycopy(registers, 0, cpu.getRegisters(), 0, CPU.NUMREG);
+            cpu.setSegmentTable(segTable);
+            if (code != null) {
+                cpu.setCodeSegment(code.base, code.size);
+            } else {
+                cpu.setCodeSegment(0, 0);
+            }
+        }
+
+        /**
+         * findSegment
+         *
+         * @return the position of the attached segment with the given key
+         *         or -1 if it is not attached
+         */
+        int findSegment(int key) {
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).key == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * push
+         *
+         * pushes a value onto the stack of this (saved) process, unless
+         * its stack is full
+         *
+         * @return 0 is success; -1 if the stack is full
+         */
+        int push(RAM ram, int value) {
+            int sp = registers[CPU.SP];
+            if (sp < base || sp >= base + size) {
+                return -1;
+            }
+            ram.write(sp, value);
+            registers[CPU.SP] -= CPU.SPINCREMENT;
+            return 0;
+        }
+    }// class ProcessControlBlock
+
+    /**
+     * OpenFile
+     *
+     * A file opened by a process and the position of the next read or write.
+     */
+    private class OpenFile {
+        int inode;
+        int offset = 0;
+
+        OpenFile(int inode) {
+            this.inode = inode;
+        }
+    }// class OpenFile
+
+    /**
+     * MemBlock
+     *
+     * A contiguous region of free RAM (first fit).
+     */
+    private class MemBlock {
+        int addr;
+        int size;
+
+        MemBlock(int addr, int size) {
+            this.addr = addr;
+            this.size = size;
+        }
+    }// class MemBlock
+
+    /**
+     * SharedSegment
+     *
+     * A region of RAM that several processes can attach, and the number of
+     * processes that currently have it attached.
+     */
+    private class SharedSegment {
+        int key;
+        int base;
+        int size;
+        int refCount = 0;
+
+        SharedSegment(int key, int base, int size) {
+            this.key = key;
+            this.base = base;
+            this.size = size;
+        }
+    }// class SharedSegment
+
+    /**
+     * SharedCode
+     *
+     * The one copy in RAM of the code of a program, and the number of
+     * processes running it.
+     */
+    private class SharedCode {
+        int base;
+        int size;
+        int users = 0;
+
+        SharedCode(int base, int size) {
+            this.base = base;
+            this.size = size;
+        }
+    }// class SharedCode
+
+    /**
+     * ProcessTemplate
+     *
+     * What every new process of a program and size starts out as: a PCB
+     * laid out for a region at address 0, the code to copy into the region
+     * (the program's cached export) and the superinstructions marked in it.
+     */
+    private class ProcessTemplate {
+        int[] image;
+        byte[] marks = null; // null if superinstructions are off
+        int fusion;
+        int allocSize;
+        boolean shared;
+        ProcessControlBlock pcb;
+    }// class ProcessTemplate
+
+    /**
+     * QueueInfo
+     *
+     * A message queue together with the processes blocked sending to it
+     * (because it is full) and receiving from it (because it is empty).
+     */
+    private class QueueInfo {
+        MessageQueue queue;
+        ArrayDeque<ProcessControlBlock> senders = new ArrayDeque<ProcessControlBlock>();
+        ArrayDeque<ProcessControlBlock> receivers = new ArrayDeque<ProcessControlBlock>();
+
+        QueueInfo(MessageQueue queue) {
+            this.queue = queue;
+        }
+    }// class QueueInfo
+
+    /**
+     * SemaphoreInfo
+     *
+     * A counting semaphore and the processes blocked waiting on it.
+     */
+    private class SemaphoreInfo {
+        int count = 0;
+        ArrayDeque<ProcessControlBlock> waiters = new ArrayDeque<ProcessControlBlock>();
+    }// class SemaphoreInfo
+
+    /**
+     * MutexInfo
+     *
+     * A mutex, the id of the process that owns it (-1 if unlocked) and the
+     * processes blocked waiting for it.
+     */
+    private class MutexInfo {
+        int owner = -1;
+        ArrayDeque<ProcessControlBlock> waiters = new ArrayDeque<ProcessControlBlock>();
+    }// class MutexInfo
+
+    /**
+     * DeviceInfo
+     *
+     * A device together with the queue of requests waiting for it and the
+     * statistics of the requests it has completed.
+     */
+    private class DeviceInfo {
+        BlockDevice device;
+        DiskScheduler scheduler;
+        IOStats stats;
+
+        DeviceInfo(BlockDevice device) {
+            this.device = device;
+            this.scheduler = new DiskScheduler(device.getGeometry(),
+                    DiskScheduler.FCFS);
+            this.stats = new IOStats();
+        }
+    }// class DeviceInfo
 
 };// class SOS
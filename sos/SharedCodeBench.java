@@ -0,0 +1,137 @@
+package sos;
+
+import java.io.*;
+
+/**
+ * This class measures sharing the code of a program between the processes
+ * running it. It creates as many <code>churn.asm</code> processes as fit in
+ * RAM, each given the length of the program plus a small stack, and runs
+ * them all to completion, once with every process loading its own copy of
+ * the code and once with the code shared. For each it prints the processes
+ * that fit, the words written to RAM while creating them, the host time
+ * spent in {@link SOS#createProcess} and the virtual time of the run. Then
+ * it runs a few <code>allocchurn.asm</code> processes both ways and checks
+ * that they print the same thing.
+ *
+ * @see SOS#setCodeSharing
+ */
+public class SharedCodeBench {
+    /**
+     * the words of RAM
+     **/
+    private static final int RAM_SIZE = 1 << 16;
+
+    /**
+     * the words each churn process is given beyond its code
+     **/
+    private static final int STACK_SIZE = 64;
+
+    /**
+     * the number of allocchurn processes and the words each is given
+     **/
+    private static final int HEAP_PROCS = 8;
+    private static final int HEAP_ALLOC = 1024;
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public SharedCodeBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            not used
+     */
+    public static void main(String[] args) {
+        Program churn = new Program();
+        Program allocChurn = new Program();
+        if (churn.load("churn.asm", false) != 0
+                || allocChurn.load("allocchurn.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        int alloc = churn.export().length + STACK_SIZE;
+        System.out.println("churn: " + alloc + " words per process, "
+                + RAM_SIZE + " words of RAM");
+        runWorkload(churn, alloc, false);
+        runWorkload(churn, alloc, true);
+
+        System.out.println("allocchurn x" + HEAP_PROCS + ": "
+                + HEAP_ALLOC + " words per process");
+        String own = runHeap(allocChurn, false);
+        String shared = runHeap(allocChurn, true);
+        System.out.println("  output " + (own.equals(shared) ? "the same"
+                : "DIFFERENT") + " with shared code");
+    }// main
+
+    /**
+     * newMachine
+     *
+     * @return the OS of a fresh machine printing to the given stream
+     */
+    private static SOS newMachine(RAM ram, CPU cpu, OutputStream text,
+            boolean share) {
+        cpu.setVerbose(false);
+        SOS os = new SOS(cpu, ram);
+        os.setConsole(new PrintStream(text));
+        os.setCodeSharing(share);
+        return os;
+    }// newMachine
+
+    /**
+     * runWorkload
+     *
+     * creates churn processes until RAM is full, runs them and prints the
+     * results
+     */
+    private static void runWorkload(Program churn, int alloc, boolean share) {
+        RAM ram = new RAM(RAM_SIZE, 0);
+        CPU cpu = new CPU(ram, new InterruptController());
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        SOS os = newMachine(ram, cpu, text, share);
+
+        long writes = ram.getWrites();
+        long start = System.nanoTime();
+        while (text.size() == 0) {
+            os.createProcess(churn, alloc);
+        }
+        long nanos = System.nanoTime() - start;
+        int created = os.getProcessCount();
+        writes = ram.getWrites() - writes;
+
+        cpu.run();
+        boolean clean = text.toString().split("ERROR", -1).length == 2;
+        System.out.println(String.format("  %-11s %d processes fit, %d words "
+                + "loaded, create %.2f ms, %d ticks%s", share ? "shared code"
+                : "own code", created, writes, nanos / 1e6, cpu.getTicks(),
+                clean ? "" : " (errors)"));
+    }// runWorkload
+
+    /**
+     * runHeap
+     *
+     * runs the allocchurn processes and prints the results
+     *
+     * @return what the processes printed
+     */
+    private static String runHeap(Program allocChurn, boolean share) {
+        RAM ram = new RAM(RAM_SIZE, 0);
+        CPU cpu = new CPU(ram, new InterruptController());
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        SOS os = newMachine(ram, cpu, text, share);
+
+        for (int i = 0; i < HEAP_PROCS; i++) {
+            os.createProcess(allocChurn, HEAP_ALLOC);
+        }
+        cpu.run();
+        System.out.println(String.format("  %-11s %d ticks, %d instructions",
+                share ? "shared code" : "own code", cpu.getTicks(),
+                cpu.getInstructions()));
+        return text.toString();
+    }// runHeap
+
+};// class SharedCodeBench
@@ -5,42 +5,69 @@ import java.util.*;
 /**
  * This class sets up the SOS simulation by creating the RAM, CPU and SOS
  * objects, loading appropriate programs, and calling {@link CPU#run} method on
- * the CPU.
- * 
+ * the CPU. The machine is described by a {@link MachineConfig}:
+ * <code>java sos.Sim [config-file] [key=value ...]</code>. With no arguments
+ * the default configuration runs the homework program with tracing off; pass
+ * <code>trace.cpu=true</code> to see every instruction, or
+ * <code>debug.break=LABEL</code> to see the registers each time a process
+ * gets to a label while the rest runs at full speed. The machine's
+ * {@link Metrics} are printed at the end, and can be watched while it runs
+ * with <code>metrics.export</code>.
+ *
  * @see RAM
  * @see CPU
  * @see SOS
  * @see Program
+ * @see MachineConfig
  */
 public class Sim {
     /**
      * the constructor does nothing
-     * 
+     *
      */
     public Sim() {
     }
 
     /**
      * main
-     * 
+     *
      * This function makes the simulation go.
-     * 
+     *
+     * @param args
+     *            an optional configuration file followed by any settings that
+     *            override it
      */
     public static void main(String[] args) {
-        RAM ram = new RAM(1000, 10);
-        CPU cpu = new CPU(ram);
-        SOS os = new SOS(cpu, ram);
-
-        Program prog = new Program();
-        if (prog.load("robinsom16_haas16_hw1.asm", false) != 0) {
-            // Error loading program so exit
+        MachineConfig config = MachineConfig.parse(args);
+        if (config == null) {
+            // Bad configuration so exit
             return;
         }
 
-        os.createProcess(prog, 300);
+        MachineConfig.Machine machine = config.build(System.out);
+        if (machine == null) {
+            // Error building the machine so exit
+            return;
+        }
 
-        cpu.run();
+        if (machine.metrics.start(config.metricsExport,
+                config.metricsInterval) != 0) {
+            machine.close();
+            return;
+        }
+        machine.cpu.run();
+        machine.close();
 
+        if (config.metricsSummary) {
+            System.out.println(machine.metrics.summary());
+        }
+        if (machine.cpu.getCostModel() != null) {
+            System.out.println(String.format("CPI %.3f, %s",
+                    machine.cpu.getCPI(), machine.cpu.getCostModel()));
+        }
+        if (machine.cpu.getPipeline() != null) {
+            System.out.println(machine.cpu.getPipeline());
+        }
         System.out.println("END OF SIMULATION");
 
     }// main
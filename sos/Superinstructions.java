@@ -0,0 +1,159 @@
+package sos;
+
+/**
+ * This class describes the superinstructions the CPU can execute: short
+ * sequences of ordinary instructions that are dispatched once instead of
+ * once per instruction. Which sequences are worth fusing is decided from the
+ * instruction pair counts gathered by a profiling run of the CPU, and a
+ * peephole scan of a program image then marks every place a chosen sequence
+ * starts.
+ *
+ * A mark is only a hint. The CPU checks the opcodes in RAM each time it
+ * executes a superinstruction and runs the instructions one at a time
+ * whenever they no longer match or an interrupt is due part way through, so
+ * fusion never changes what a program does or how long it takes in virtual
+ * time.
+ *
+ * @see CPU#setFusion
+ * @see CPU#setProfiling
+ */
+public class Superinstructions {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    // The superinstructions. Each is a bit in a fusion mask and the kind
+    // stored in a mark (0 means no mark).
+    public static final int ADD_BNE = 1; // ADD then BNE (counted loop tail)
+    public static final int SET_PUSH = 2; // SET then PUSH (syscall arguments)
+    public static final int LOAD_ADD_SAVE = 4; // read-modify-write of memory
+
+    /** every superinstruction */
+    public static final int ALL = ADD_BNE | SET_PUSH | LOAD_ADD_SAVE;
+
+    /**
+     * The instructions each superinstruction replaces, longest first so the
+     * scan prefers the biggest match
+     **/
+    private static final int[][] PATTERNS = {
+            { CPU.LOAD, CPU.ADD, CPU.SAVE }, { CPU.ADD, CPU.BNE },
+            { CPU.SET, CPU.PUSH } };
+
+    /** the kind of each pattern */
+    private static final int[] KINDS = { LOAD_ADD_SAVE, ADD_BNE, SET_PUSH };
+
+    /** the name of each pattern */
+    private static final String[] NAMES = { "LOAD+ADD+SAVE", "ADD+BNE",
+            "SET+PUSH" };
+
+    /** the number of distinct opcodes the profile keeps counts for */
+    public static final int NUMOPCODES = 16;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * the constructor does nothing
+     */
+    public Superinstructions() {
+    }
+
+    /**
+     * choose
+     *
+     * picks the superinstructions whose instruction pairs were all executed
+     * back to back often enough in a profiling run
+     *
+     * @param pairCounts
+     *            how often each opcode (second index) was executed straight
+     *            after each opcode (first index)
+     * @param minShare
+     *            the fraction of all executed pairs each pair of a pattern
+     *            must reach for the pattern to be chosen
+     * @return a fusion mask
+     */
+    public static int choose(long[][] pairCounts, double minShare) {
+        long total = 0;
+        for (long[] row : pairCounts) {
+            for (long n : row) {
+                total += n;
+            }
+        }
+
+        int mask = 0;
+        for (int i = 0; i < PATTERNS.length; i++) {
+            boolean hot = total > 0;
+            for (int j = 0; j + 1 < PATTERNS[i].length; j++) {
+                long n = pairCounts[PATTERNS[i][j]][PATTERNS[i][j + 1]];
+                hot = hot && n >= minShare * total;
+            }
+            if (hot) {
+                mask |= KINDS[i];
+            }
+        }
+        return mask;
+    }// choose
+
+    /**
+     * scan
+     *
+     * marks every instruction in a program image that starts one of the
+     * superinstructions in a mask
+     *
+     * @param image
+     *            the exported program
+     * @param mask
+     *            the superinstructions to look for
+     * @return the kind of superinstruction starting at each word of the
+     *         image (0 where there is none)
+     */
+    public static byte[] scan(int[] image, int mask) {
+        byte[] marks = new byte[image.length];
+        for (int pc = 0; pc < image.length; pc += CPU.INSTRSIZE) {
+            for (int i = 0; i < PATTERNS.length; i++) {
+                if ((mask & KINDS[i]) != 0 && matches(image, pc, PATTERNS[i])) {
+                    marks[pc] = (byte) KINDS[i];
+                    break;
+                }
+            }
+        }
+        return marks;
+    }// scan
+
+    /**
+     * matches
+     *
+     * @return true if the instructions starting at pc have the opcodes of a
+     *         pattern
+     */
+    private static boolean matches(int[] image, int pc, int[] pattern) {
+        if (pc + pattern.length * CPU.INSTRSIZE > image.length) {
+            return false;
+        }
+        for (int j = 0; j < pattern.length; j++) {
+            if (image[pc + j * CPU.INSTRSIZE] != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }// matches
+
+    /**
+     * describe
+     *
+     * @param mask
+     *            a fusion mask
+     * @return the names of the superinstructions in the mask
+     */
+    public static String describe(int mask) {
+        String result = "";
+        for (int i = 0; i < KINDS.length; i++) {
+            if ((mask & KINDS[i]) != 0) {
+                result += (result.length() == 0 ? "" : " ") + NAMES[i];
+            }
+        }
+        return result.length() == 0 ? "none" : result;
+    }// describe
+
+};// class Superinstructions
@@ -0,0 +1,114 @@
+package sos;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class measures whole-process swapping. It creates thousands of
+ * <code>churn.asm</code> processes of random sizes, many times more than fit
+ * in RAM, and runs them all to completion: once without a swap store, when
+ * most of them are refused, and once swapping to a temporary file. For each
+ * it prints the processes that ran, the most that were swapped out at once,
+ * the swaps, the size of the swap file, the virtual time and the share of it
+ * spent swapping, the host time and the host memory in use once every
+ * process has been created.
+ *
+ * @see SwapStore
+ */
+public class SwapBench {
+    /**
+     * the words of RAM
+     **/
+    private static final int RAM_SIZE = 1 << 16;
+
+    /**
+     * processes are given between MIN_ALLOC and MAX_ALLOC words
+     **/
+    private static final int MIN_ALLOC = 128;
+    private static final int MAX_ALLOC = 1024;
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public SwapBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of processes (default 5000)
+     */
+    public static void main(String[] args) {
+        int numProcs = 5000;
+        if (args.length > 0) {
+            numProcs = Integer.parseInt(args[0]);
+        }
+
+        Program churn = new Program();
+        if (churn.load("churn.asm", false) != 0) {
+            // Error loading program so exit
+            return;
+        }
+
+        System.out.println("churn x" + numProcs + ", " + RAM_SIZE
+                + " words of RAM");
+        runWorkload(churn, numProcs, false);
+        runWorkload(churn, numProcs, true);
+    }// main
+
+    /**
+     * runWorkload
+     *
+     * runs the processes on a fresh machine, with or without swapping, and
+     * prints the results
+     */
+    private static void runWorkload(Program churn, int numProcs, boolean swap) {
+        RAM ram = new RAM(RAM_SIZE, 0);
+        InterruptController ic = new InterruptController();
+        CPU cpu = new CPU(ram, ic);
+        cpu.setVerbose(false);
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+        SwapStore store = null;
+        if (swap) {
+            store = new SwapStore(null);
+            if (store.open() != 0) {
+                return;
+            }
+            os.setSwapStore(store);
+        }
+
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < numProcs; i++) {
+            os.createProcess(churn, MIN_ALLOC
+                    + random.nextInt(MAX_ALLOC - MIN_ALLOC + 1));
+        }
+        int ran = os.getProcessCount();
+        int swapped = os.getSwappedCount();
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        long heapBytes = rt.totalMemory() - rt.freeMemory();
+
+        cpu.run();
+        long nanos = System.nanoTime() - start;
+
+        long ticks = cpu.getTicks();
+        String line = String.format("  %-7s %d ran, %d swapped out at once, "
+                + "%d ticks (%.1f%% swapping), %.1f ms, host heap %.1f MB",
+                swap ? "swap" : "no swap", ran, swapped, ticks, 100.0
+                        * (ticks - cpu.getInstructions()) / ticks, nanos / 1e6,
+                heapBytes / 1e6);
+        if (store != null) {
+            line += String.format("\n          %d out, %d in, swap file %d "
+                    + "words", store.getWrites(), store.getReads(),
+                    store.getFileWords());
+            store.close();
+        }
+        System.out.println(line);
+    }// runWorkload
+
+};// class SwapBench
@@ -0,0 +1,248 @@
+package sos;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class is the backing store the SOS swaps whole processes out to when
+ * RAM runs short. The memory images are kept in a host file, so only a few
+ * numbers per swapped process stay in host memory however many processes
+ * are swapped out. Each image goes in a slot of the file, and the slots of
+ * images that have been swapped back in are reused for images of the same
+ * size.
+ *
+ * The store does the host file I/O at once, when asked. The time a swap
+ * takes on the simulated machine is {@link #getTransferTicks}, which the SOS
+ * charges to the CPU's virtual clock.
+ *
+ * @see SOS#setSwapStore
+ */
+public class SwapStore {
+    // ======================================================================
+    // Constants
+    // ----------------------------------------------------------------------
+
+    public static final int DEFAULT_SETUP_TICKS = 200;
+    public static final int DEFAULT_WORDS_PER_TICK = 2;
+
+    // ======================================================================
+    // Member variables
+    // ----------------------------------------------------------------------
+
+    /** the host file (null for a temporary file made by {@link #open}) */
+    private String m_path = null;
+
+    /** true if the file should be deleted when the store is closed */
+    private boolean m_temporary = false;
+
+    /** the open host file (null until {@link #open} succeeds) */
+    private FileChannel m_channel = null;
+
+    /** the number of words of the file in use or in free slots */
+    private long m_end = 0;
+
+    /** the free slots (word offsets in the file), by size */
+    private HashMap<Integer, ArrayDeque<Long>> m_freeSlots = new HashMap<Integer, ArrayDeque<Long>>();
+
+    /** the ticks to start a swap and the words moved per tick */
+    private int m_setupTicks = DEFAULT_SETUP_TICKS;
+    private int m_wordsPerTick = DEFAULT_WORDS_PER_TICK;
+
+    /** counts of the images written and read, and the words in the store */
+    private long m_writes = 0;
+    private long m_reads = 0;
+    private long m_usedWords = 0;
+
+    // ======================================================================
+    // Methods
+    // ----------------------------------------------------------------------
+
+    /**
+     * SwapStore ctor
+     *
+     * @param path
+     *            the host file to keep the images in, or null for a
+     *            temporary file that is deleted when the store is closed
+     */
+    public SwapStore(String path) {
+        m_path = path;
+    }// SwapStore ctor
+
+    /**
+     * setTiming
+     *
+     * @param setupTicks
+     *            the ticks to start swapping a process in or out
+     * @param wordsPerTick
+     *            the words moved per tick (at least 1)
+     */
+    public void setTiming(int setupTicks, int wordsPerTick) {
+        m_setupTicks = setupTicks;
+        m_wordsPerTick = Math.max(1, wordsPerTick);
+    }// setTiming
+
+    /**
+     * getTransferTicks
+     *
+     * @return the ticks it takes to swap an image of the given size in or
+     *         out
+     */
+    public long getTransferTicks(int words) {
+        return m_setupTicks + (words + m_wordsPerTick - 1) / m_wordsPerTick;
+    }// getTransferTicks
+
+    /**
+     * open
+     *
+     * creates (or truncates) the host file
+     *
+     * @return 0 is success; anything else is a failure code
+     */
+    public int open() {
+        try {
+            Path file;
+            if (m_path == null) {
+                file = Files.createTempFile("sos-swap", ".bin");
+                m_temporary = true;
+            } else {
+                file = Paths.get(m_path);
+            }
+            m_path = file.toString();
+            m_channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            System.out.println("\nError opening swap file: " + m_path + "\n"
+                    + e.toString());
+            return -1;
+        }
+        return 0;
+    }// open
+
+    /**
+     * close
+     *
+     * closes the host file, deleting it if it was temporary
+     */
+    public void close() {
+        if (m_channel == null) {
+            return;
+        }
+        try {
+            m_channel.close();
+            if (m_temporary) {
+                Files.deleteIfExists(Paths.get(m_path));
+            }
+        } catch (IOException e) {
+            System.out.println("\nError closing swap file: " + m_path);
+        }
+        m_channel = null;
+    }// close
+
+    /**
+     * write
+     *
+     * @param image
+     *            the words to store
+     * @return the slot the image was written to, or -1 if it could not be
+     *         written
+     */
+    public long write(int[] image) {
+        ArrayDeque<Long> free = m_freeSlots.get(image.length);
+        long slot;
+        if (free != null && !free.isEmpty()) {
+            slot = free.pop();
+        } else {
+            slot = m_end;
+            m_end += image.length;
+        }
+        m_usedWords += image.length;
+
+        ByteBuffer bytes = ByteBuffer.allocate(image.length * 4);
+        bytes.asIntBuffer().put(image);
+        try {
+            while (bytes.hasRemaining()) {
+                m_channel.write(bytes, slot * 4 + bytes.position());
+            }
+        } catch (IOException e) {
+            release(slot, image.length);
+            return -1;
+        }
+        m_writes++;
+        return slot;
+    }// write
+
+    /**
+     * read
+     *
+     * reads an image back and frees its slot
+     *
+     * @param slot
+     *            the slot returned by {@link #write}
+     * @param image
+     *            where to put the words (its length is the size written)
+     * @return 0 is success; anything else is a failure code
+     */
+    public int read(long slot, int[] image) {
+        ByteBuffer bytes = ByteBuffer.allocate(image.length * 4);
+        try {
+            while (bytes.hasRemaining()) {
+                if (m_channel.read(bytes, slot * 4 + bytes.position()) < 0) {
+                    return -3;
+                }
+            }
+        } catch (IOException e) {
+            return -3;
+        }
+        bytes.flip();
+        bytes.asIntBuffer().get(image);
+        m_reads++;
+        release(slot, image.length);
+        return 0;
+    }// read
+
+    /**
+     * release
+     *
+     * frees the slot of an image that will not be read back
+     */
+    public void release(long slot, int size) {
+        ArrayDeque<Long> free = m_freeSlots.get(size);
+        if (free == null) {
+            free = new ArrayDeque<Long>();
+            m_freeSlots.put(size, free);
+        }
+        free.push(slot);
+        m_usedWords -= size;
+    }// release
+
+    public long getWrites() {
+        return m_writes;
+    }
+
+    public long getReads() {
+        return m_reads;
+    }
+
+    /**
+     * getUsedWords
+     *
+     * @return the words of the images in the store
+     */
+    public long getUsedWords() {
+        return m_usedWords;
+    }
+
+    /**
+     * getFileWords
+     *
+     * @return the size of the host file in words
+     */
+    public long getFileWords() {
+        return m_end;
+    }
+
+};// class SwapStore
@@ -0,0 +1,72 @@
+package sos;
+
+/**
+ * This class compares ways of updating a counter in shared memory from
+ * several processes. With a short clock quantum the processes are preempted
+ * in the middle of their updates; <code>racecount.asm</code> loses updates
+ * while <code>cascount.asm</code> (a compare-and-swap retry loop) and
+ * <code>mutexcount.asm</code> (a kernel mutex) should both reach the exact
+ * total. Each process outputs the counter when it finishes, so the last
+ * output of each run is the final count.
+ *
+ * @see CPU#CAS
+ */
+public class SyncBench {
+    /**
+     * The programs compared
+     **/
+    private static final String[] PROGRAMS = { "racecount.asm",
+            "cascount.asm", "mutexcount.asm" };
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public SyncBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            optionally the number of processes (default 4) and the clock
+     *            quantum in ticks (default 97)
+     */
+    public static void main(String[] args) {
+        int numProcs = 4;
+        int quantum = 97;
+        if (args.length > 0) {
+            numProcs = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            quantum = Integer.parseInt(args[1]);
+        }
+
+        for (String file : PROGRAMS) {
+            Program prog = new Program();
+            if (prog.load(file, false) != 0) {
+                // Error loading program so exit
+                return;
+            }
+
+            RAM ram = new RAM(numProcs * 256 + 16, 0);
+            CPU cpu = new CPU(ram);
+            cpu.setVerbose(false);
+            SOS os = new SOS(cpu, ram);
+            cpu.setClockInterval(quantum);
+
+            for (int i = 0; i < numProcs; i++) {
+                os.createProcess(prog, 200);
+            }
+
+            System.out.println(file + " (expecting " + numProcs * 1000 + ")");
+            long start = System.nanoTime();
+            cpu.run();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%s: %d ticks, %.3f s", file,
+                    cpu.getTicks(), secs));
+        }// for
+
+    }// main
+
+};// class SyncBench
@@ -0,0 +1,211 @@
+package sos;
+
+import java.io.*;
+
+/**
+ * This class measures the program verifier and optimizer. For each sample
+ * program it prints how many instructions {@link Program#optimize} folded or
+ * dropped and the cycles the program takes under the default
+ * {@link CostModel} before and after. Optimizing must not change what a
+ * program does, so the program is also run with its code in its own memory
+ * and shared, and optimized, and every run must end with the same virtual
+ * time and output.
+ *
+ * Last it runs a program that pops forever and one that pushes forever,
+ * above another process, with the general and tuned loops, with and without
+ * superinstructions. Each run must stop with a stack fault without having
+ * written a word outside the process's memory. A process whose code is in
+ * its own memory may push over its code, which is allowed, so the pushing
+ * program only runs with its code shared. The exit status is 1 if any
+ * check fails.
+ *
+ * @see Program#optimize
+ */
+public class VerifyBench {
+    /**
+     * The programs measured
+     **/
+    private static final String[] PROGRAMS = { "countloop.asm",
+            "sumloop.asm", "memloop.asm", "oddcount.asm", "constfold.asm" };
+
+    /**
+     * the words each process is given
+     **/
+    private static final int ALLOC_SIZE = 256;
+
+    /**
+     * Programs that run off the end of their stack (SET+PUSH is fused), and
+     * whether each can only be run with its code shared
+     **/
+    private static final String[] STACK_PROGRAMS = {
+            ":loop\nPOP R0\nBRANCH loop\n",
+            ":loop\nSET R0 7\nPUSH R0\nBRANCH loop\n" };
+    private static final boolean[] STACK_SHARED_ONLY = { false, true };
+
+    /**
+     * the most instructions a stack program is given to fault in
+     **/
+    private static final long STACK_LIMIT = 1000000;
+
+    /**
+     * the words each process running a stack program is given
+     **/
+    private static final int STACK_ALLOC_SIZE = 64;
+
+    /**
+     * the program of the process below it, which never writes to memory
+     **/
+    private static final String SPIN_PROGRAM = ":loop\nBRANCH loop\n";
+
+    /**
+     * the constructor does nothing
+     *
+     */
+    public VerifyBench() {
+    }
+
+    /**
+     * main
+     *
+     * @param args
+     *            not used
+     */
+    public static void main(String[] args) {
+        boolean allSame = true;
+        for (String file : PROGRAMS) {
+            Program prog = new Program();
+            Program opt = new Program();
+            if (prog.load(file, false) != 0 || opt.load(file, false) != 0) {
+                // Error loading program so exit
+                System.exit(1);
+            }
+            int words = prog.export().length;
+            int changed = opt.optimize();
+            long[] cycles = new long[1];
+            runWorkload(prog, false, true, cycles);
+            long before = cycles[0];
+            runWorkload(opt, false, true, cycles);
+            System.out.println(String.format("%s: verified %b, %d words, "
+                    + "%d instructions optimized, %d -> %d cycles", file,
+                    prog.isVerified(), words, changed, before, cycles[0]));
+
+            String plain = runWorkload(prog, false, false, null);
+            boolean same = plain.equals(runWorkload(prog, true, false, null))
+                    && plain.equals(runWorkload(opt, false, false, null))
+                    && plain.equals(runWorkload(opt, true, false, null));
+            System.out.println("  results " + (same ? "the same" : "DIFFERENT")
+                    + ": " + plain);
+            allSame &= same;
+        }// for
+
+        Program spin = new Program();
+        if (spin.loadSource(SPIN_PROGRAM, false) != 0) {
+            System.exit(1);
+        }
+        for (int i = 0; i < STACK_PROGRAMS.length; i++) {
+            String source = STACK_PROGRAMS[i];
+            Program prog = new Program();
+            if (prog.loadSource(source, false) != 0) {
+                System.exit(1);
+            }
+            boolean faulted = true;
+            // the bits of way: tuned, fused and shared
+            for (int way = 0; way < 8; way++) {
+                boolean shared = (way & 4) != 0;
+                if (shared || !STACK_SHARED_ONLY[i]) {
+                    faulted &= runOffStack(spin, prog, (way & 1) != 0,
+                            (way & 2) != 0, shared);
+                }
+            }
+            System.out.println(source.replace("\n", "; ").trim()
+                    + (faulted ? " stack fault on every engine"
+                            : " stack NOT protected"));
+            allSame &= faulted;
+        }// for
+        if (!allSame) {
+            System.exit(1);
+        }
+    }// main
+
+    /**
+     * runOffStack
+     *
+     * runs a program that overflows or underflows its stack on a fresh
+     * machine, above another process so that there is memory below it
+     *
+     * @param tuned
+     *            true to use the tuned instruction loop
+     * @param fused
+     *            true to use superinstructions
+     * @param shared
+     *            true to share the program's code
+     * @return true if the run stopped with one stack fault and nothing
+     *         outside the process's memory changed
+     */
+    private static boolean runOffStack(Program spin, Program prog,
+            boolean tuned, boolean fused, boolean shared) {
+        RAM ram = new RAM(STACK_ALLOC_SIZE * 4, 0);
+        CPU cpu = new CPU(ram, new InterruptController());
+        cpu.setVerbose(false);
+        cpu.setTunedInterpreter(tuned);
+        cpu.setInstructionLimit(STACK_LIMIT);
+        if (fused) {
+            cpu.setFusion(Superinstructions.ALL);
+        }
+        SOS os = new SOS(cpu, ram);
+        os.setConsole(new PrintStream(new ByteArrayOutputStream()));
+        os.setCodeSharing(shared);
+
+        os.createProcess(spin, STACK_ALLOC_SIZE);
+        os.createProcess(prog, STACK_ALLOC_SIZE);
+        int[] before = ram.getMemory().clone();
+        cpu.run();
+
+        // the registers are left as the faulting process had them
+        int base = cpu.getRegisters()[CPU.BASE];
+        int lim = cpu.getRegisters()[CPU.LIM];
+        int[] after = ram.getMemory();
+        for (int addr = 0; addr < after.length; addr++) {
+            if ((addr < base || addr > lim) && after[addr] != before[addr]) {
+                return false;
+            }
+        }
+        return !cpu.isHalted() && cpu.getStackFaults() == 1;
+    }// runOffStack
+
+    /**
+     * runWorkload
+     *
+     * runs the program on a fresh machine
+     *
+     * @param shared
+     *            true to share the program's code
+     * @param cost
+     *            true to charge instructions by the default cost model
+     * @param cycles
+     *            set to the cycles the run took (may be null)
+     * @return the instructions and output of the run
+     */
+    private static String runWorkload(Program prog, boolean shared,
+            boolean cost, long[] cycles) {
+        RAM ram = new RAM(ALLOC_SIZE * 4, 0);
+        CPU cpu = new CPU(ram, new InterruptController());
+        cpu.setVerbose(false);
+        if (cost) {
+            cpu.setCostModel(new CostModel());
+        }
+        SOS os = new SOS(cpu, ram);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        os.setConsole(new PrintStream(text));
+        os.setCodeSharing(shared);
+
+        os.createProcess(prog, ALLOC_SIZE);
+        cpu.run();
+        if (cycles != null) {
+            cycles[0] = cpu.getCycles();
+        }
+        return cpu.getInstructions() + " instructions, output "
+                + text.toString().trim().replace("\n", " ");
+    }// runWorkload
+
+};// class VerifyBench
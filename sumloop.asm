@@ -0,0 +1,17 @@
+# A register-only loop with a three-instruction body (see InterpBench). Adds
+# up 1..2000000 (wrapping around at 32 bits) and outputs the total.
+
+SET R0 0        # total
+SET R1 0        # counter
+SET R2 1        # increment amount
+SET R3 2000000  # limit
+
+:loop
+ADD R1 R1 R2    # counter++
+ADD R0 R0 R1    # total += counter
+BNE R1 R3 loop
+
+PUSH R0
+SET R4 1        # OUTPUT
+PUSH R4
+TRAP